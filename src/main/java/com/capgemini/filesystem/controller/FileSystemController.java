@@ -1,42 +1,80 @@
 package com.capgemini.filesystem.controller;
 
 import com.capgemini.filesystem.model.Directory;
-import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.DirectorySnapshot;
 import com.capgemini.filesystem.service.FileSystemService;
+import com.capgemini.filesystem.service.JobManager;
+import com.capgemini.filesystem.service.ResponseCache;
+import com.capgemini.filesystem.service.TreeSearch;
+import com.capgemini.filesystem.service.TreeStreamWriter;
+import com.capgemini.filesystem.service.VersionStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * REST Controller for file system operations
- * Provides endpoints for cd, ls, size, mkdir, rmdir, pwd, and tree commands
+ * Provides endpoints for cd, ls, size, mkdir, rmdir, pwd, and tree commands, plus
+ * manifest import, atomic batches of mutations, file size ingestion and lookup of any file or directory by its id
+ *
+ * Clients that send an X-Session-Id header get their own working directory;
+ * without it they share the global one. ls, size, mkdir and rmdir also accept a
+ * path, which addresses the directory directly without touching any cursor.
+ *
+ * size and tree are served from an immutable version of the tree; ?version=N reads an
+ * earlier one while it is still retained (410 Gone once it has been reclaimed). Their
+ * weak ETag is the directory's subtree modification counter: If-None-Match answers 304
+ * while the subtree is unchanged, and serialised responses are kept in a ResponseCache.
  */
 @RestController
 @RequestMapping("/api/filesystem")
 @CrossOrigin(origins = "*")
 public class FileSystemController {
+    static final String SESSION_HEADER = "X-Session-Id";
+    static final String VERSION_HEADER = "X-Snapshot-Version";
+    static final String SEARCH_HEADER = "X-Search-Strategy";
     
     @Autowired
     private FileSystemService fileSystemService;
     
+    @Autowired
+    private TreeStreamWriter treeStreamWriter;
+    
+    @Autowired
+    private ResponseCache responseCache;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
     /**
      * Change directory
      * POST /api/filesystem/cd
      */
     @PostMapping("/cd")
-    public ResponseEntity<Map<String, Object>> changeDirectory(@RequestBody Map<String, String> request) {
+    public ResponseEntity<Map<String, Object>> changeDirectory(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                               @RequestBody Map<String, String> request) {
         String path = request.get("path");
-        Directory directory = fileSystemService.changeDirectory(path);
+        Directory directory = fileSystemService.changeDirectory(session, path);
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("message", "Directory changed successfully");
         response.put("currentPath", directory.getPath());
         response.put("directoryName", directory.getName());
+        response.put("id", directory.getId());
         
         return ResponseEntity.ok(response);
     }
@@ -44,21 +82,87 @@ public class FileSystemController {
     /**
      * List directory contents
      * GET /api/filesystem/ls
+     * GET /api/filesystem/ls?limit=100&cursor=... pages through large directories
+     * GET /api/filesystem/ls?path=/documents lists that directory instead of the current one
      */
     @GetMapping("/ls")
-    public ResponseEntity<Map<String, Object>> listDirectory() {
-        Map<String, Object> result = fileSystemService.listDirectory();
+    public ResponseEntity<Map<String, Object>> listDirectory(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                             @RequestParam(required = false) String path,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(required = false) String cursor) {
+        Map<String, Object> result = fileSystemService.listDirectory(session, path, limit, cursor);
         result.put("success", true);
         return ResponseEntity.ok(result);
     }
     
     /**
      * Get directory size (recursive)
-     * GET /api/filesystem/size
+     * GET /api/filesystem/size?verify=true recomputes the aggregates and reports drift
+     * GET /api/filesystem/size?parallel=true recomputes the size with the fork/join engine
+     * GET /api/filesystem/size?path=/documents measures that directory instead of the current one
+     * GET /api/filesystem/size?version=N reads the sizes as of version N
+     * The plain read carries an ETag and is served from the response cache; verify and
+     * parallel always recompute
      */
     @GetMapping("/size")
-    public ResponseEntity<Map<String, Object>> getDirectorySize() {
-        Map<String, Object> result = fileSystemService.getDirectorySize();
+    public ResponseEntity<?> getDirectorySize(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                              @RequestParam(required = false) String path,
+                                              @RequestParam(defaultValue = "false") boolean verify,
+                                              @RequestParam(defaultValue = "false") boolean parallel,
+                                              @RequestParam(required = false) Long version) throws IOException {
+        if (verify || parallel) {
+            Map<String, Object> result = fileSystemService.getDirectorySize(session, path, verify, parallel, version);
+            result.put("success", true);
+            return ResponseEntity.ok(result);
+        }
+        String target = fileSystemService.getAbsolutePath(session, path);
+        try (VersionStore.Pin pin = fileSystemService.pinVersion(version)) {
+            DirectorySnapshot directory = fileSystemService.getSnapshotDirectory(pin, target);
+            String etag = responseCache.etagOf(directory);
+            if (ResponseCache.matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+            }
+            byte[] cached = responseCache.get("size", target, directory, "", () -> {
+                Map<String, Object> result = fileSystemService.getSnapshotSize(pin, target, directory);
+                result.remove("version");
+                result.put("success", true);
+                return objectMapper.writeValueAsBytes(result);
+            });
+            ByteArrayOutputStream body = new ByteArrayOutputStream(cached.length + 32);
+            ResponseCache.writeWithVersion(cached, pin.getVersion(), body);
+            return ResponseEntity.ok().eTag(etag).header(VERSION_HEADER, String.valueOf(pin.getVersion()))
+                    .contentType(MediaType.APPLICATION_JSON).body(body.toByteArray());
+        }
+    }
+    
+    /**
+     * Largest files or directories below a directory
+     * GET /api/filesystem/top?path=/documents&n=10&type=file
+     * type is file or directory, n at most 100; ?version=N ranks as of version N
+     */
+    @GetMapping("/top")
+    public ResponseEntity<Map<String, Object>> getTop(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                      @RequestParam(required = false) String path,
+                                                      @RequestParam(defaultValue = "10") int n,
+                                                      @RequestParam(defaultValue = "file") String type,
+                                                      @RequestParam(required = false) Long version) {
+        Map<String, Object> result = fileSystemService.getTop(session, path, n, type, version);
+        result.put("success", true);
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * Bytes and file count by file type below a directory
+     * GET /api/filesystem/breakdown?path=/downloads&by=extension
+     * by is extension or category; ?version=N reads as of version N
+     */
+    @GetMapping("/breakdown")
+    public ResponseEntity<Map<String, Object>> getBreakdown(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                            @RequestParam(required = false) String path,
+                                                            @RequestParam(defaultValue = "extension") String by,
+                                                            @RequestParam(required = false) Long version) {
+        Map<String, Object> result = fileSystemService.getBreakdown(session, path, by, version);
         result.put("success", true);
         return ResponseEntity.ok(result);
     }
@@ -66,28 +170,52 @@ public class FileSystemController {
     /**
      * Create directory
      * POST /api/filesystem/mkdir
+     * An optional "path" in the body names the parent directory
      */
     @PostMapping("/mkdir")
-    public ResponseEntity<Map<String, Object>> createDirectory(@RequestBody Map<String, String> request) {
+    public ResponseEntity<Map<String, Object>> createDirectory(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                               @RequestBody Map<String, String> request) {
         String name = request.get("name");
-        Directory directory = fileSystemService.createDirectory(name);
+        Directory directory = fileSystemService.createDirectory(session, request.get("path"), name);
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
         response.put("message", "Directory created successfully");
         response.put("directoryName", directory.getName());
         response.put("path", directory.getPath());
+        response.put("id", directory.getId());
         
         return ResponseEntity.status(HttpStatus.CREATED).body(response);
     }
     
+    /**
+     * Import a manifest as a new directory
+     * POST /api/filesystem/import?name=inventory&format=du|ncdu|csv
+     * The request body is the manifest, read as a stream; an optional path parameter
+     * names the parent directory
+     */
+    @PostMapping("/import")
+    public ResponseEntity<Map<String, Object>> importManifest(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                              @RequestParam(required = false) String path,
+                                                              @RequestParam String name,
+                                                              @RequestParam(defaultValue = "du") String format,
+                                                              HttpServletRequest request) throws IOException {
+        Map<String, Object> result = fileSystemService.importManifest(session, path, name, format, request.getInputStream());
+        result.put("success", true);
+        result.put("message", "Manifest imported successfully");
+        return ResponseEntity.status(HttpStatus.CREATED).body(result);
+    }
+    
     /**
      * Remove directory
      * DELETE /api/filesystem/rmdir
+     * An optional path parameter names the parent directory
      */
     @DeleteMapping("/rmdir")
-    public ResponseEntity<Map<String, Object>> removeDirectory(@RequestParam String name) {
-        fileSystemService.removeDirectory(name);
+    public ResponseEntity<Map<String, Object>> removeDirectory(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                               @RequestParam(required = false) String path,
+                                                               @RequestParam String name) {
+        fileSystemService.removeDirectory(session, path, name);
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
@@ -97,13 +225,103 @@ public class FileSystemController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Apply several operations at once, all or nothing
+     * POST /api/filesystem/batch
+     * Body: {"operations": [{"op": "mkdir", "path": "/a/b"}, {"op": "create", "path": "/a/b/f", "size": 10}, ...]}
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<Map<String, Object>> applyBatch(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                          @RequestBody Map<String, List<Map<String, Object>>> request) {
+        Map<String, Object> result = fileSystemService.applyBatch(session, request.get("operations"));
+        result.put("success", true);
+        result.put("message", "Batch applied successfully");
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * Push file size changes
+     * POST /api/filesystem/ingest?flush=false
+     * The body is a stream of {"path": "/a/b.txt", "size": 100} or {"path": ..., "delta": -5}
+     * objects (newline-delimited or one array); they are coalesced per path and applied in
+     * the background, or before the response with flush=true
+     */
+    @PostMapping("/ingest")
+    public ResponseEntity<Map<String, Object>> ingestSizes(@RequestParam(defaultValue = "false") boolean flush,
+                                                           HttpServletRequest request) throws IOException {
+        Map<String, Object> result = fileSystemService.ingestSizes(request.getInputStream(), flush);
+        result.put("success", true);
+        return ResponseEntity.accepted().body(result);
+    }
+    
+    /**
+     * Size ingestion counters
+     * GET /api/filesystem/ingest
+     */
+    @GetMapping("/ingest")
+    public ResponseEntity<Map<String, Object>> getIngestStats() {
+        Map<String, Object> result = fileSystemService.getIngestStats();
+        result.put("success", true);
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * Look up a file or directory by the id reported by ls, cd and mkdir
+     * GET /api/filesystem/nodes/{id}
+     */
+    @GetMapping("/nodes/{id}")
+    public ResponseEntity<Map<String, Object>> getNode(@PathVariable long id) {
+        Map<String, Object> result = fileSystemService.getNode(id);
+        result.put("success", true);
+        return ResponseEntity.ok(result);
+    }
+    
     /**
      * Get current directory path
      * GET /api/filesystem/pwd
      */
     @GetMapping("/pwd")
-    public ResponseEntity<Map<String, Object>> getCurrentPath() {
-        Map<String, Object> result = fileSystemService.getCurrentPath();
+    public ResponseEntity<Map<String, Object>> getCurrentPath(@RequestHeader(value = SESSION_HEADER, required = false) String session) {
+        Map<String, Object> result = fileSystemService.getCurrentPath(session);
+        result.put("success", true);
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * Find files and directories by name, size and type
+     * GET /api/filesystem/find?path=/documents&glob=*.pdf&minSize=1024&type=file&limit=100
+     * Matches are streamed as NDJSON, one {path,name,type,size} per line, as they are found;
+     * the X-Search-Strategy header tells whether the name index ("index") or a walk ("scan")
+     * answered
+     */
+    @GetMapping("/find")
+    public void find(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                     @RequestParam(required = false) String path,
+                     @RequestParam(defaultValue = "*") String glob,
+                     @RequestParam(required = false) Long minSize,
+                     @RequestParam(required = false) Long maxSize,
+                     @RequestParam(defaultValue = "any") String type,
+                     @RequestParam(defaultValue = "1000") int limit,
+                     HttpServletResponse response) throws IOException {
+        TreeSearch.Query query = fileSystemService.find(session, path, glob, minSize, maxSize, type, limit);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setHeader(SEARCH_HEADER, query.getStrategy());
+        treeStreamWriter.writeMatches(query, response.getOutputStream());
+        response.flushBuffer();
+    }
+    
+    /**
+     * Complete a directory path for cd
+     * GET /api/filesystem/complete?prefix=/documents/wo&limit=20
+     * A relative prefix starts from the working directory; "truncated" tells whether
+     * more directories match than were returned
+     */
+    @GetMapping("/complete")
+    public ResponseEntity<Map<String, Object>> complete(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                        @RequestParam(defaultValue = "") String prefix,
+                                                        @RequestParam(defaultValue = "20") int limit) {
+        Map<String, Object> result = fileSystemService.complete(session, prefix, limit);
         result.put("success", true);
         return ResponseEntity.ok(result);
     }
@@ -111,16 +329,136 @@ public class FileSystemController {
     /**
      * Get directory tree structure
      * GET /api/filesystem/tree
+     * The tree is streamed from a pinned version (the latest, or ?version=N), reported
+     * in the X-Snapshot-Version header; ?format=ndjson writes one line per node and
+     * ?depth=N stops at depth N, reporting only aggregates for deeper subtrees.
+     * Small trees are served from the response cache, larger ones are always streamed;
+     * either way If-None-Match with the current ETag answers 304
      */
     @GetMapping("/tree")
-    public ResponseEntity<Map<String, Object>> getDirectoryTree(@RequestParam(required = false) String path) {
-        FileSystemEntity.TreeRepresentation tree = fileSystemService.getDirectoryTree(path);
+    public void getDirectoryTree(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                 @RequestParam(required = false) String path,
+                                 @RequestParam(defaultValue = "json") String format,
+                                 @RequestParam(required = false) Integer depth,
+                                 @RequestParam(required = false) Long version,
+                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                 HttpServletResponse response) throws IOException {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        if (!ndjson && !"json".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("Unsupported tree format: " + format);
+        }
+        int maxDepth = fileSystemService.getTreeDepth(depth);
+        String treePath = fileSystemService.getTreePath(session, path);
         
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", true);
-        response.put("tree", tree);
-        
-        return ResponseEntity.ok(response);
+        // Held until the whole tree is written so the version cannot be reclaimed mid-stream
+        try (VersionStore.Pin pin = fileSystemService.pinVersion(version)) {
+            DirectorySnapshot target = fileSystemService.getSnapshotDirectory(pin, treePath);
+            String etag = responseCache.etagOf(target);
+            response.setHeader(HttpHeaders.ETAG, etag);
+            if (ResponseCache.matches(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            
+            response.setCharacterEncoding("UTF-8");
+            response.setContentType(ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+            response.setHeader(VERSION_HEADER, String.valueOf(pin.getVersion()));
+            if (responseCache.isCacheable(target)) {
+                // Cached without the version (NDJSON lines carry none), which is this request's own
+                String params = (ndjson ? "ndjson" : "json") + " depth=" + maxDepth;
+                byte[] cached = responseCache.get("tree", treePath, target, params, () -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    if (ndjson) {
+                        treeStreamWriter.writeNdjson(target, treePath, maxDepth, out);
+                    } else {
+                        treeStreamWriter.writeJson(target, maxDepth, out);
+                    }
+                    return out.toByteArray();
+                });
+                if (ndjson) {
+                    response.getOutputStream().write(cached);
+                } else {
+                    ResponseCache.writeWithVersion(cached, pin.getVersion(), response.getOutputStream());
+                }
+            } else {
+                writeTree(target, treePath, pin.getVersion(), ndjson, maxDepth, response.getOutputStream());
+            }
+            response.flushBuffer();
+        }
+    }
+    
+    private void writeTree(DirectorySnapshot target, String treePath, long version, boolean ndjson, int maxDepth,
+                           OutputStream out) throws IOException {
+        if (ndjson) {
+            treeStreamWriter.writeNdjson(target, treePath, maxDepth, out);
+        } else {
+            treeStreamWriter.writeJson(target, version, maxDepth, out);
+        }
+    }
+    
+    /**
+     * Start a background size recount
+     * POST /api/filesystem/jobs/size?path=/documents
+     * Returns the job at once (202); poll GET /jobs/{id} for progress
+     */
+    @PostMapping("/jobs/size")
+    public ResponseEntity<Map<String, Object>> submitSizeJob(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                             @RequestParam(required = false) String path,
+                                                             @RequestParam(required = false) Long version) {
+        Map<String, Object> result = fileSystemService.submitSizeJob(session, path, version);
+        result.put("success", true);
+        return ResponseEntity.accepted().body(result);
+    }
+    
+    /**
+     * Start a background tree serialisation
+     * POST /api/filesystem/jobs/tree?path=/documents&format=ndjson&depth=3
+     * Takes the same parameters as GET /tree; the tree is fetched from GET /jobs/{id}/result
+     */
+    @PostMapping("/jobs/tree")
+    public ResponseEntity<Map<String, Object>> submitTreeJob(@RequestHeader(value = SESSION_HEADER, required = false) String session,
+                                                             @RequestParam(required = false) String path,
+                                                             @RequestParam(defaultValue = "json") String format,
+                                                             @RequestParam(required = false) Integer depth,
+                                                             @RequestParam(required = false) Long version) {
+        Map<String, Object> result = fileSystemService.submitTreeJob(session, path, format, depth, version);
+        result.put("success", true);
+        return ResponseEntity.accepted().body(result);
+    }
+    
+    /**
+     * Job state and progress
+     * GET /api/filesystem/jobs/{id}
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getJob(@PathVariable String id) {
+        Map<String, Object> result = fileSystemService.getJob(id);
+        result.put("success", true);
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * Result of a finished job, as GET /size or GET /tree would have returned it
+     * GET /api/filesystem/jobs/{id}/result
+     */
+    @GetMapping("/jobs/{id}/result")
+    public void getJobResult(@PathVariable String id, HttpServletResponse response) throws IOException {
+        JobManager.Job job = fileSystemService.getJobResult(id);
+        response.setHeader(VERSION_HEADER, String.valueOf(job.getVersion()));
+        response.setContentType(job.getContentType());
+        response.setContentLengthLong(job.getResultLength());
+        job.writeResult(response.getOutputStream());
+    }
+    
+    /**
+     * Cancel a queued or running job, or discard a finished one and its result
+     * DELETE /api/filesystem/jobs/{id}
+     */
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> cancelJob(@PathVariable String id) {
+        Map<String, Object> result = fileSystemService.cancelJob(id);
+        result.put("success", true);
+        return ResponseEntity.ok(result);
     }
 }
 
@@ -0,0 +1,7 @@
+package com.capgemini.filesystem.exception;
+
+public class JobNotReadyException extends RuntimeException {
+    public JobNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.capgemini.filesystem.exception;
+
+public class JobRejectedException extends RuntimeException {
+    public JobRejectedException(String message) {
+        super(message);
+    }
+}
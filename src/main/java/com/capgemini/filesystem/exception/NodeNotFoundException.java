@@ -0,0 +1,7 @@
+package com.capgemini.filesystem.exception;
+
+public class NodeNotFoundException extends RuntimeException {
+    public NodeNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.capgemini.filesystem.exception;
+
+public class VersionGoneException extends RuntimeException {
+    public VersionGoneException(String message) {
+        super(message);
+    }
+}
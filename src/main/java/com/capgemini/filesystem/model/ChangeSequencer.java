@@ -0,0 +1,53 @@
+package com.capgemini.filesystem.model;
+
+/**
+ * Hands a root's listener callbacks out one at a time, in the order the changes were
+ * made, without holding any directory lock while they run.
+ *
+ * Each change claims the next turn while it still holds the root's lock (so turns
+ * follow the change order), releases its locks, then waits for the turns before it to
+ * finish and runs its callback. Writers therefore only share the root lock for as long
+ * as it takes to update the root's aggregates; indexing and journaling a large subtree
+ * delays the callbacks after it, not the changes themselves.
+ */
+final class ChangeSequencer {
+    // Last turn handed out; only touched under the root's updateLock
+    private long claimed;
+    // Last turn whose callback has finished; guarded by this
+    private long finished;
+    
+    /**
+     * Claim the next turn. Called under the root's updateLock.
+     */
+    long claim() {
+        return ++claimed;
+    }
+    
+    /**
+     * Run callback once every earlier turn has finished; the turn is finished even if
+     * the callback throws
+     */
+    void run(long turn, Runnable callback) {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (finished != turn - 1) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        try {
+            callback.run();
+        } finally {
+            synchronized (this) {
+                finished = turn;
+                notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.capgemini.filesystem.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Child additions, removals and file resizes in any number of directories of one tree,
+ * applied as a single change.
+ *
+ * apply locks every directory involved and their ancestors up to the root (children
+ * before parents, as propagation does), checks every change against the locked tree
+ * and only then changes anything - a change that no longer fits leaves the whole tree
+ * untouched. The changes are then made directory by directory, deepest first, and each
+ * directory's totals and snapshot go up the tree once for all its changes; the root
+ * publishes one new snapshot and its listener gets one {@link TreeListener#changesApplied}.
+ */
+public final class ChangeSet {
+    
+    public enum Kind { ADD, REMOVE, RESIZE }
+    
+    /**
+     * One child change
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final Directory parent;
+        private FileSystemEntity entity;
+        private final long size;
+        
+        private Change(Kind kind, Directory parent, FileSystemEntity entity, long size) {
+            this.kind = kind;
+            this.parent = parent;
+            this.entity = entity;
+            this.size = size;
+        }
+        
+        public Kind getKind() {
+            return kind;
+        }
+        
+        public Directory getParent() {
+            return parent;
+        }
+        
+        /**
+         * The added or removed child; for a resize the file. Once applied, a resized file
+         * is its resized copy, and a removed file resized earlier in the set that copy.
+         */
+        public FileSystemEntity getEntity() {
+            return entity;
+        }
+        
+        /**
+         * New size of a resized file
+         */
+        public long getSize() {
+            return size;
+        }
+        
+        void applied(FileSystemEntity current) {
+            entity = current;
+        }
+    }
+    
+    private final List<Change> changes = new ArrayList<>();
+    private Change conflict;
+    
+    /**
+     * Attach child to parent; the name must be free when the set is applied
+     */
+    public ChangeSet add(Directory parent, FileSystemEntity child) {
+        changes.add(new Change(Kind.ADD, parent, child, 0));
+        return this;
+    }
+    
+    /**
+     * Detach exactly this child (with its subtree) from parent
+     */
+    public ChangeSet remove(Directory parent, FileSystemEntity child) {
+        changes.add(new Change(Kind.REMOVE, parent, child, 0));
+        return this;
+    }
+    
+    /**
+     * Give a file of parent a new size; the file is matched by name and id, so a copy
+     * resized meanwhile still matches
+     */
+    public ChangeSet resize(Directory parent, File file, long size) {
+        changes.add(new Change(Kind.RESIZE, parent, file, size));
+        return this;
+    }
+    
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+    
+    /**
+     * The changes, in the order they were added to the set
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+    
+    /**
+     * Apply every change, or none
+     *
+     * @return false if a change no longer fits the tree (a directory was removed, a
+     * name taken or a child replaced meanwhile); nothing has changed then
+     * @throws IllegalArgumentException if the directories belong to different trees
+     */
+    public boolean apply() {
+        conflict = null;
+        return changes.isEmpty() || Directory.apply(this);
+    }
+    
+    /**
+     * The change that did not fit, after apply returned false
+     */
+    public Change getConflict() {
+        return conflict;
+    }
+    
+    void conflict(Change change) {
+        conflict = change;
+    }
+}
@@ -0,0 +1,438 @@
+package com.capgemini.filesystem.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Name-indexed child storage for a Directory.
+ *
+ * Children live in an insertion-ordered array; removals leave a hole that is squeezed out
+ * once holes outnumber live entries. Small directories are searched linearly. Once a
+ * directory grows past {@link #SMALL_LIMIT} entries an open-addressing (linear probing)
+ * index from name hash to array position is built, giving O(1) lookup, insert and remove.
+ *
+ * Every entry also carries a sequence number assigned on insert. Sequence numbers only
+ * grow along the array, so they double as stable pagination cursors: resuming after a
+ * cursor is a binary search, even if the entry it named has since been removed.
+ *
+ * Thread safety: add and remove take the table's write lock; readers never take it in
+ * the common case. Lookups run under a StampedLock optimistic read and retry when a
+ * writer interfered, falling back to a read lock only after repeated interference.
+ * Iteration and paging work on a validated snapshot of (entries, seqs, end): published
+ * arrays are only ever appended to past end or have removed entries nulled out, while
+ * growing and compacting build new arrays, so a snapshot stays safe to read without any
+ * lock and is weakly consistent (it may or may not see concurrent changes).
+ */
+final class ChildTable implements Iterable<FileSystemEntity> {
+    static final int SMALL_LIMIT = 8;
+    
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+    
+    private final StampedLock lock = new StampedLock();
+    private FileSystemEntity[] entries = new FileSystemEntity[4];
+    private long[] seqs = new long[4];
+    private long nextSeq;
+    private int end;      // next free position in entries
+    private volatile int size; // live entries
+    private int[] slots;  // null while small; otherwise position + 1, EMPTY or DELETED
+    private int used;     // non-empty slots (live + DELETED), drives rehashing
+    
+    int size() {
+        return size;
+    }
+    
+    FileSystemEntity get(String name) {
+        return get(name, 0, name.length(), name.hashCode());
+    }
+    
+    /**
+     * Look up a child whose name is the region [start, end) of the given sequence,
+     * without allocating a substring
+     */
+    FileSystemEntity get(CharSequence text, int start, int end) {
+        // Same hash as String.hashCode() over the region
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return get(text, start, end - start, hash);
+    }
+    
+    private FileSystemEntity get(CharSequence text, int start, int length, int hash) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                FileSystemEntity found = find(text, start, length, hash);
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        long stamp = lock.readLock();
+        try {
+            return find(text, start, length, hash);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Probe for a name. May run concurrently with a writer under an optimistic read,
+     * so every index is bounds-checked and null entries are skipped; a result read that
+     * way is only trusted once the stamp validates.
+     */
+    private FileSystemEntity find(CharSequence text, int start, int length, int hash) {
+        FileSystemEntity[] entries = this.entries;
+        int[] slots = this.slots;
+        int limit = Math.min(end, entries.length);
+        
+        if (slots == null) {
+            for (int i = 0; i < limit; i++) {
+                FileSystemEntity entity = entries[i];
+                if (entity != null && regionEquals(entity.getName(), text, start, length)) {
+                    return entity;
+                }
+            }
+            return null;
+        }
+        
+        int mask = slots.length - 1;
+        int i = spread(hash) & mask;
+        for (int probes = 0; probes < slots.length && slots[i] != EMPTY; probes++, i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot > 0 && slot <= limit) {
+                FileSystemEntity entity = entries[slot - 1];
+                if (entity != null && regionEquals(entity.getName(), text, start, length)) {
+                    return entity;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Append a child, keeping insertion order.
+     *
+     * @return false when a child with the same name already exists
+     */
+    boolean add(FileSystemEntity entity) {
+        long stamp = lock.writeLock();
+        try {
+            String name = entity.getName();
+            if (indexOf(name) >= 0) {
+                return false;
+            }
+            if (end == entries.length) {
+                if (size < end / 2) {
+                    compact();
+                } else {
+                    entries = Arrays.copyOf(entries, entries.length * 2);
+                    seqs = Arrays.copyOf(seqs, seqs.length * 2);
+                }
+            }
+            int pos = end;
+            entries[pos] = entity;
+            seqs[pos] = nextSeq++;
+            end = pos + 1;
+            size++;
+            
+            if (slots != null) {
+                insertSlot(name.hashCode(), pos);
+            } else if (size > SMALL_LIMIT) {
+                rehash();
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Remove a child by name.
+     *
+     * @return the removed child, or null when no child has that name
+     */
+    FileSystemEntity remove(String name) {
+        long stamp = lock.writeLock();
+        try {
+            if (slots == null) {
+                int pos = indexOf(name);
+                if (pos < 0) {
+                    return null;
+                }
+                FileSystemEntity removed = entries[pos];
+                entries[pos] = null;
+                size--;
+                return removed;
+            }
+            
+            int mask = slots.length - 1;
+            for (int i = spread(name.hashCode()) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+                int slot = slots[i];
+                if (slot != DELETED && entries[slot - 1].getName().equals(name)) {
+                    FileSystemEntity removed = entries[slot - 1];
+                    entries[slot - 1] = null;
+                    slots[i] = DELETED;
+                    size--;
+                    if (size < end / 2 && end > SMALL_LIMIT) {
+                        compact();
+                    }
+                    return removed;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Put replacement (same name) in the place of current, keeping its position and
+     * sequence number
+     *
+     * @return false when current is no longer a child
+     */
+    boolean replace(FileSystemEntity current, FileSystemEntity replacement) {
+        long stamp = lock.writeLock();
+        try {
+            int pos = indexOf(current.getName());
+            if (pos < 0 || entries[pos] != current) {
+                return false;
+            }
+            entries[pos] = replacement;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Consistent (entries, seqs, end) triple to read without holding the lock
+     */
+    private Snapshot snapshot() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Snapshot snapshot = new Snapshot(entries, seqs, end);
+                if (lock.validate(stamp)) {
+                    return snapshot;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        long stamp = lock.readLock();
+        try {
+            return new Snapshot(entries, seqs, end);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Collect up to limit children inserted after the given cursor, in insertion order
+     *
+     * @param after cursor from a previous page, or -1 to start at the beginning
+     * @return cursor for the next page, or -1 when no children are left
+     */
+    long page(long after, int limit, List<FileSystemEntity> out) {
+        Snapshot snapshot = snapshot();
+        FileSystemEntity[] entries = snapshot.entries;
+        long[] seqs = snapshot.seqs;
+        int end = snapshot.end;
+        
+        // First position whose sequence number is greater than the cursor
+        int lo = 0;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (seqs[mid] <= after) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        
+        int pos = lo;
+        long last = after;
+        int taken = 0;
+        while (pos < end && taken < limit) {
+            FileSystemEntity entity = entries[pos];
+            if (entity != null) {
+                out.add(entity);
+                last = seqs[pos];
+                taken++;
+            }
+            pos++;
+        }
+        while (pos < end && entries[pos] == null) {
+            pos++;
+        }
+        return pos < end ? last : -1;
+    }
+    
+    List<FileSystemEntity> toList() {
+        Snapshot snapshot = snapshot();
+        List<FileSystemEntity> list = new ArrayList<>(size);
+        for (int i = 0; i < snapshot.end; i++) {
+            FileSystemEntity entity = snapshot.entries[i];
+            if (entity != null) {
+                list.add(entity);
+            }
+        }
+        return list;
+    }
+    
+    /**
+     * Weakly consistent iterator: never fails on concurrent changes, and never returns
+     * an entry that was removed before the iterator was created
+     */
+    @Override
+    public Iterator<FileSystemEntity> iterator() {
+        Snapshot snapshot = snapshot();
+        FileSystemEntity[] entries = snapshot.entries;
+        int end = snapshot.end;
+        return new Iterator<>() {
+            private int pos;
+            private FileSystemEntity next = advance();
+            
+            private FileSystemEntity advance() {
+                while (pos < end) {
+                    FileSystemEntity entity = entries[pos++];
+                    if (entity != null) {
+                        return entity;
+                    }
+                }
+                return null;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+            
+            @Override
+            public FileSystemEntity next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                FileSystemEntity entity = next;
+                next = advance();
+                return entity;
+            }
+        };
+    }
+    
+    private int indexOf(String name) {
+        if (slots == null) {
+            for (int i = 0; i < end; i++) {
+                if (entries[i] != null && entries[i].getName().equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        int mask = slots.length - 1;
+        for (int i = spread(name.hashCode()) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot != DELETED && entries[slot - 1].getName().equals(name)) {
+                return slot - 1;
+            }
+        }
+        return -1;
+    }
+    
+    private void insertSlot(int hash, int pos) {
+        if ((used + 1) * 2 > slots.length) {
+            rehash();
+            return;
+        }
+        int mask = slots.length - 1;
+        int i = spread(hash) & mask;
+        while (slots[i] != EMPTY && slots[i] != DELETED) {
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == EMPTY) {
+            used++;
+        }
+        slots[i] = pos + 1;
+    }
+    
+    /**
+     * Squeeze out holes left by removals, preserving order. Builds new arrays so that
+     * snapshots taken by concurrent readers are never reshuffled underneath them.
+     */
+    private void compact() {
+        FileSystemEntity[] packed = new FileSystemEntity[entries.length];
+        long[] packedSeqs = new long[seqs.length];
+        int live = 0;
+        for (int i = 0; i < end; i++) {
+            if (entries[i] != null) {
+                packedSeqs[live] = seqs[i];
+                packed[live++] = entries[i];
+            }
+        }
+        entries = packed;
+        seqs = packedSeqs;
+        end = live;
+        if (slots != null) {
+            rehash();
+        }
+    }
+    
+    /**
+     * Rebuild the hash index from the entries array, sized for at most 50% load
+     */
+    private void rehash() {
+        int capacity = Integer.highestOneBit(Math.max(end, SMALL_LIMIT) * 4 - 1);
+        slots = new int[capacity];
+        used = 0;
+        int mask = capacity - 1;
+        for (int pos = 0; pos < end; pos++) {
+            if (entries[pos] == null) {
+                continue;
+            }
+            int i = spread(entries[pos].getName().hashCode()) & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = pos + 1;
+            used++;
+        }
+    }
+    
+    private static boolean regionEquals(String name, CharSequence text, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static final class Snapshot {
+        final FileSystemEntity[] entries;
+        final long[] seqs;
+        final int end;
+        
+        Snapshot(FileSystemEntity[] entries, long[] seqs, int end) {
+            this.entries = entries;
+            this.seqs = seqs;
+            this.end = end;
+        }
+    }
+}
@@ -1,32 +1,191 @@
 package com.capgemini.filesystem.model;
 
-import lombok.EqualsAndHashCode;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Directory entity - inherits from FileSystemEntity
  * Demonstrates inheritance and contains files and subdirectories
+ *
+ * Each directory keeps running totals for its whole subtree (bytes, file count,
+ * directory count, max depth and a {@link TypeRollup} by extension). addChild/removeChild push the change up the
+ * parent chain, so reading any of the totals is O(1). resizeFiles pushes a batch of file
+ * size changes up the same way, once per directory, and a {@link ChangeSet} applies
+ * changes in several directories as one, with one propagation and one version.
+ *
+ * Children are held in a name-indexed {@link ChildTable}, so lookups, inserts and
+ * removals by name are O(1) while iteration keeps insertion order.
+ *
+ * Concurrency: readers never take a lock. Child lookups and iteration go through the
+ * ChildTable's optimistic reads, and the aggregates are published with release stores
+ * (cheaper than volatile writes on the propagation path). Writers lock only the
+ * directories on the mutation path: the changed directory, then each ancestor in turn,
+ * always child before parent, so concurrent changes in different subtrees only meet
+ * briefly where their paths join.
+ *
+ * Versioning: each directory also holds an immutable {@link DirectorySnapshot} of its
+ * subtree. Every mutation path-copies the snapshots from the changed directory up to
+ * the root under the same locks, so the root's snapshot is always a consistent version
+ * of the whole tree.
+ *
+ * Lazy loading: a directory created from a snapshot (see {@link TreeImage#load()})
+ * starts with that snapshot's aggregates and no child objects; its children are
+ * materialised from the snapshot the first time anything needs them.
  */
-@EqualsAndHashCode(callSuper = true)
 public class Directory extends FileSystemEntity {
-    private List<FileSystemEntity> children;
+    private static final VarHandle TOTAL_SIZE;
+    private static final VarHandle ALLOCATED_SIZE;
+    private static final VarHandle FILE_COUNT;
+    private static final VarHandle DIRECTORY_COUNT;
+    private static final VarHandle MAX_DEPTH;
+    private static final VarHandle SNAPSHOT;
+    
+    // Compact a snapshot child list once fewer than half of its slots are live
+    private static final int SNAPSHOT_COMPACT_MIN = 16;
+    
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TOTAL_SIZE = lookup.findVarHandle(Directory.class, "totalSize", long.class);
+            ALLOCATED_SIZE = lookup.findVarHandle(Directory.class, "allocatedSize", long.class);
+            FILE_COUNT = lookup.findVarHandle(Directory.class, "fileCount", long.class);
+            DIRECTORY_COUNT = lookup.findVarHandle(Directory.class, "directoryCount", long.class);
+            MAX_DEPTH = lookup.findVarHandle(Directory.class, "maxDepth", int.class);
+            SNAPSHOT = lookup.findVarHandle(Directory.class, "snapshot", DirectorySnapshot.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private ChildTable children;
+    
+    // Guards this directory's child table mutations and its aggregates
+    private final ReentrantLock updateLock = new ReentrantLock();
+    
+    // Set (under updateLock) when removed from its parent; stops propagation from below
+    private boolean detached;
+    
+    // Subtree aggregates, kept up to date by addChild/removeChild. Written only under
+    // updateLock (release stores), read without it through the getters (acquire loads)
+    private long totalSize;
+    private long allocatedSize;
+    private long fileCount;
+    private long directoryCount;
+    private int maxDepth;
+    // Number of children whose height (1 for a file, heightInParent for a directory) equals
+    // maxDepth, so a removal only recounts when the last deepest child goes; -1 while not
+    // counted yet (lazily loaded directory). Guarded by updateLock
+    private int deepest;
+    // maxDepth + 1 as last propagated to the parent (guarded by the parent's updateLock):
+    // a recount must not see a child depth whose change is still on its way up
+    private int heightInParent = 1;
+    // Bytes and files by type (see TypeRollup), replaced under updateLock; null
+    // while not known yet for a directory loaded from a tree image
+    private TypeRollup rollup;
+    
+    // Current immutable version of this subtree; replaced (release store) under updateLock
+    private DirectorySnapshot snapshot;
+    
+    // Only set on a root; notified of every add/remove below it, in change order
+    private volatile TreeListener treeListener;
+    private volatile ChangeSequencer changeSequencer;
+    
+    // False until the children of a lazily loaded directory have been materialised
+    private volatile boolean loaded = true;
     
     public Directory(String name) {
         super(name);
-        this.children = new ArrayList<>();
+        this.children = new ChildTable();
+        this.rollup = TypeRollup.EMPTY;
+        this.snapshot = DirectorySnapshot.empty(name);
+    }
+    
+    /**
+     * Unloaded directory standing for source, whose children are materialised on first use
+     */
+    Directory(DirectorySnapshot source) {
+        super(source.packedTree().id(source.packedNode()), source.getName());
+        this.children = new ChildTable();
+        this.totalSize = source.calculateSize();
+        this.allocatedSize = source.getAllocatedSize();
+        this.fileCount = source.getFileCount();
+        this.directoryCount = source.getDirectoryCount();
+        this.maxDepth = source.getMaxDepth();
+        this.deepest = -1;
+        this.heightInParent = maxDepth + 1;
+        this.rollup = source.getCachedRollup();
+        this.snapshot = source;
+        this.loaded = false;
+    }
+    
+    /**
+     * Have this directory's children been materialised (always true unless lazily loaded)?
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+    
+    /**
+     * The child table, materialising it first if this directory is still unloaded
+     */
+    private ChildTable children() {
+        if (!loaded) {
+            load();
+        }
+        return children;
     }
     
     /**
-     * Polymorphic implementation - directories calculate size recursively
-     * This demonstrates recursion as requested
+     * Create the child objects from this directory's snapshot. Nothing changes in the
+     * tree (the aggregates and snapshots already describe these children), so nothing
+     * is propagated; the root's listener is told so it can index the new directories.
+     */
+    private void load() {
+        updateLock.lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            int index = 0;
+            for (SnapshotEntry entry : snapshot.children()) {
+                FileSystemEntity child = entry instanceof DirectorySnapshot
+                        ? new Directory((DirectorySnapshot) entry) : (File) entry;
+                child.setParent(this);
+                child.snapshotIndex = index++;
+                children.add(child);
+            }
+            loaded = true;
+        } finally {
+            updateLock.unlock();
+        }
+        
+        FileSystemEntity top = this;
+        while (top.getParent() != null) {
+            top = top.getParent();
+        }
+        TreeListener listener = ((Directory) top).treeListener;
+        if (listener != null) {
+            listener.childrenLoaded(this);
+        }
+    }
+    
+    /**
+     * Polymorphic implementation - directories return the maintained subtree total
      */
     @Override
     public long calculateSize() {
-        return children.stream()
-                .mapToLong(FileSystemEntity::calculateSize)
-                .sum();
+        return (long) TOTAL_SIZE.getAcquire(this);
     }
     
     @Override
@@ -34,68 +193,961 @@ public class Directory extends FileSystemEntity {
         return "DIRECTORY";
     }
     
+    /**
+     * Space allocated on disk for every file below this directory
+     */
+    @Override
+    public long getAllocatedSize() {
+        return (long) ALLOCATED_SIZE.getAcquire(this);
+    }
+    
+    /**
+     * Number of files anywhere below this directory
+     */
+    public long getFileCount() {
+        return (long) FILE_COUNT.getAcquire(this);
+    }
+    
+    /**
+     * Number of directories anywhere below this directory (excluding itself)
+     */
+    public long getDirectoryCount() {
+        return (long) DIRECTORY_COUNT.getAcquire(this);
+    }
+    
+    /**
+     * Depth of the deepest entry below this directory (0 when empty)
+     */
+    public int getMaxDepth() {
+        return (int) MAX_DEPTH.getAcquire(this);
+    }
+    
+    /**
+     * Subtree modification counter, bumped on this directory and every ancestor by each
+     * change below it (see {@link DirectorySnapshot#getModCount()})
+     */
+    public long getModCount() {
+        return getSnapshot().getModCount();
+    }
+    
+    /**
+     * Current immutable version of this directory's subtree
+     */
+    public DirectorySnapshot getSnapshot() {
+        return (DirectorySnapshot) SNAPSHOT.getAcquire(this);
+    }
+    
+    /**
+     * Register the listener notified of structural changes below this (root) directory
+     */
+    public void setTreeListener(TreeListener treeListener) {
+        this.changeSequencer = new ChangeSequencer();
+        this.treeListener = treeListener;
+    }
+    
     /**
      * Add a child entity (file or directory)
+     *
+     * @throws IllegalArgumentException if a child with the same name already exists
      */
     public void addChild(FileSystemEntity entity) {
-        entity.setParent(this);
-        children.add(entity);
+        if (!addChildIfAbsent(entity)) {
+            throw new IllegalArgumentException("Entry already exists: " + entity.getName());
+        }
+    }
+    
+    /**
+     * Add a child entity unless one with the same name exists - atomic with respect to
+     * concurrent adds and removes in this directory
+     *
+     * @return false if a child with the same name already exists
+     */
+    public boolean addChildIfAbsent(FileSystemEntity entity) {
+        // Lock a child directory before this one (children before parents, as in propagate)
+        Directory childDir = entity instanceof Directory ? (Directory) entity : null;
+        if (childDir != null) {
+            childDir.prepareRollup();
+            childDir.updateLock.lock();
+        }
+        FileSystemEntity previousParent = entity.getParent();
+        boolean added = false;
+        long size;
+        long allocated;
+        long files;
+        long directories;
+        int height;
+        TypeRollup types;
+        SnapshotChildren snapshotChildren;
+        updateLock.lock();
+        try {
+            // Parent is set before the child becomes visible, so readers see its real path
+            entity.setParent(this);
+            added = children().add(entity);
+            if (!added) {
+                entity.setParent(previousParent);
+                return false;
+            }
+            if (childDir != null) {
+                childDir.detached = false;
+                size = childDir.totalSize;
+                allocated = childDir.allocatedSize;
+                files = childDir.fileCount;
+                directories = childDir.directoryCount + 1;
+                height = childDir.maxDepth + 1;
+                childDir.heightInParent = height;
+                types = childDir.subtreeRollup();
+            } else {
+                size = entity.calculateSize();
+                allocated = entity.getAllocatedSize();
+                files = 1;
+                directories = 0;
+                height = 1;
+                types = TypeRollup.of((File) entity);
+            }
+            entity.snapshotIndex = snapshot.children().length();
+            snapshotChildren = snapshot.children().append(childDir != null ? childDir.snapshot : (SnapshotEntry) entity);
+        } finally {
+            if (childDir != null) {
+                childDir.updateLock.unlock();
+            }
+            if (!added) {
+                updateLock.unlock();
+            }
+        }
+        
+        propagate(size, allocated, files, directories, 0, height, true, types, snapshotChildren,
+                listener -> listener.childAdded(this, entity), null);
+        return true;
     }
     
     /**
      * Remove a child entity by name
      */
     public boolean removeChild(String name) {
-        return children.removeIf(child -> child.getName().equals(name));
+        return removeChild(name, null);
+    }
+    
+    /**
+     * Remove exactly this child - nothing happens if its name has meanwhile been taken
+     * by another entity
+     *
+     * @return false if entity is no longer a child of this directory
+     */
+    public boolean removeChild(FileSystemEntity entity) {
+        return removeChild(entity.getName(), entity);
+    }
+    
+    private boolean removeChild(String name, FileSystemEntity expected) {
+        while (true) {
+            FileSystemEntity child = children().get(name);
+            if (child == null || (expected != null && child != expected)) {
+                return false;
+            }
+            
+            // Lock a child directory before this one (children before parents, as in
+            // propagate) so its totals cannot change while they are being subtracted
+            Directory childDir = child instanceof Directory ? (Directory) child : null;
+            if (childDir != null) {
+                childDir.prepareRollup();
+                childDir.updateLock.lock();
+            }
+            updateLock.lock();
+            boolean removed = false;
+            long size = 0;
+            long allocated = 0;
+            long files = 0;
+            long directories = 0;
+            int height = 0;
+            TypeRollup types = null;
+            SnapshotChildren snapshotChildren = null;
+            try {
+                if (children().get(name) == child) {
+                    children.remove(name);
+                    removed = true;
+                    if (childDir != null) {
+                        childDir.detached = true;
+                        size = childDir.totalSize;
+                        allocated = childDir.allocatedSize;
+                        files = childDir.fileCount;
+                        directories = childDir.directoryCount + 1;
+                        height = childDir.heightInParent;
+                        types = childDir.subtreeRollup();
+                    } else {
+                        size = child.calculateSize();
+                        allocated = child.getAllocatedSize();
+                        files = 1;
+                        height = 1;
+                        types = TypeRollup.of((File) child);
+                    }
+                    snapshotChildren = removeFromSnapshot(snapshot.children(), child);
+                }
+            } finally {
+                if (childDir != null) {
+                    childDir.updateLock.unlock();
+                }
+                if (!removed) {
+                    updateLock.unlock();
+                }
+            }
+            
+            if (removed) {
+                propagate(-size, -allocated, -files, -directories, height, 0, false, types, snapshotChildren,
+                        listener -> listener.childRemoved(this, child),
+                        listener -> listener.detachedChildRemoved(this, child));
+                return true;
+            }
+            // Replaced by a concurrent remove/add between lookup and lock - look again
+        }
+    }
+    
+    /**
+     * Change the sizes of files in this directory. Each file is replaced by a resized
+     * copy with the same id, so snapshots holding the old file keep the old size; the
+     * summed change is then propagated up the parent chain once for all of them.
+     * Names that are missing or are not files are skipped.
+     *
+     * @param sizes new apparent size by file name
+     * @return the resized files
+     */
+    public List<File> resizeFiles(Map<String, Long> sizes) {
+        return resizeFiles(sizes, Map.of());
+    }
+    
+    /**
+     * Like {@link #resizeFiles(Map)}, but files can also grow or shrink by a delta. A delta
+     * is added to the size the file has under this directory's lock (clamped at 0), so a
+     * concurrent resize of the same file is not overwritten with a stale base. A name in
+     * both maps is set to its size; its delta is ignored.
+     *
+     * @param sizes  new apparent size by file name
+     * @param deltas change of apparent size by file name
+     * @return the resized files
+     */
+    public List<File> resizeFiles(Map<String, Long> sizes, Map<String, Long> deltas) {
+        List<File> resized = new ArrayList<>(sizes.size() + deltas.size());
+        List<File> replaced = new ArrayList<>(sizes.size() + deltas.size());
+        long sizeDelta = 0;
+        long allocatedDelta = 0;
+        TypeRollup.Builder types = new TypeRollup.Builder();
+        SnapshotChildren snapshotChildren;
+        updateLock.lock();
+        try {
+            snapshotChildren = snapshot.children();
+            Map<String, Long> targets = sizes;
+            if (!deltas.isEmpty()) {
+                targets = new HashMap<>(sizes);
+                for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+                    FileSystemEntity child = children().get(entry.getKey());
+                    if (child instanceof File && !sizes.containsKey(entry.getKey())) {
+                        targets.put(entry.getKey(), Math.max(0, child.calculateSize() + entry.getValue()));
+                    }
+                }
+            }
+            for (Map.Entry<String, Long> entry : targets.entrySet()) {
+                FileSystemEntity child = children().get(entry.getKey());
+                if (!(child instanceof File) || child.calculateSize() == entry.getValue()) {
+                    continue;
+                }
+                File file = (File) child;
+                File copy = file.resized(entry.getValue());
+                copy.setParent(this);
+                copy.snapshotIndex = file.snapshotIndex;
+                children.replace(file, copy);
+                snapshotChildren = snapshotChildren.set(copy.snapshotIndex, copy);
+                sizeDelta += copy.calculateSize() - file.calculateSize();
+                allocatedDelta += copy.getAllocatedSize() - file.getAllocatedSize();
+                types.add(copy.getExtension(), copy.calculateSize() - file.calculateSize(), 0);
+                resized.add(copy);
+                replaced.add(file);
+            }
+        } finally {
+            if (resized.isEmpty()) {
+                updateLock.unlock();
+            }
+        }
+        
+        if (!resized.isEmpty()) {
+            propagate(sizeDelta, allocatedDelta, 0, 0, 0, 0, true, types.build(), snapshotChildren,
+                    listener -> listener.filesResized(this, resized),
+                    listener -> replaced.forEach(file -> listener.detachedChildRemoved(this, file)));
+        }
+        return resized;
+    }
+    
+    /**
+     * Apply a change set as one change (see {@link ChangeSet}).
+     *
+     * Every directory from a changed one up to the root, and every child directory
+     * being attached or detached, is locked before anything is checked: deepest first
+     * and by id within a depth - children before parents as in propagate, and in the
+     * same order for every set, so neither waits for the other in a cycle. Detached
+     * directories being attached belong to no tree yet and come first. Once the whole
+     * set has been checked against the locked tree, each directory applies its own
+     * changes and the summed changes of its subdirectories, gets one new snapshot and
+     * passes its deltas to its parent; the root calls rootChanged once, and the set's
+     * notification takes one turn with the sequencer.
+     */
+    static boolean apply(ChangeSet set) {
+        // Materialise the changed directories and compute unknown rollups without any lock
+        Map<Directory, Level> levels = new IdentityHashMap<>();
+        Directory top = null;
+        for (ChangeSet.Change change : set.getChanges()) {
+            Directory parent = change.getParent();
+            parent.children();
+            if (change.getKind() != ChangeSet.Kind.RESIZE && change.getEntity() instanceof Directory) {
+                ((Directory) change.getEntity()).prepareRollup();
+            }
+            Directory dir = parent;
+            while (!levels.containsKey(dir)) {
+                Directory above = (Directory) dir.getParent();
+                levels.put(dir, new Level(dir, above));
+                if (above == null) {
+                    if (top != null && top != dir) {
+                        throw new IllegalArgumentException("Changes span more than one tree");
+                    }
+                    top = dir;
+                    break;
+                }
+                dir = above;
+            }
+            levels.get(parent).changes.add(change);
+        }
+        
+        Map<Directory, Integer> lockDepths = new IdentityHashMap<>();
+        for (Level level : levels.values()) {
+            lockDepths.put(level.directory, level.depth(levels));
+        }
+        for (ChangeSet.Change change : set.getChanges()) {
+            // A child directory being removed sits below its parent; one being added is in no tree yet
+            if (change.getKind() != ChangeSet.Kind.RESIZE && change.getEntity() instanceof Directory) {
+                lockDepths.putIfAbsent((Directory) change.getEntity(), change.getKind() == ChangeSet.Kind.ADD
+                        ? Integer.MAX_VALUE : lockDepths.get(change.getParent()) + 1);
+            }
+        }
+        List<Directory> lockOrder = new ArrayList<>(lockDepths.keySet());
+        lockOrder.sort(Comparator.comparing((Directory dir) -> lockDepths.get(dir)).reversed()
+                .thenComparingLong(Directory::getId));
+        
+        List<Level> order = new ArrayList<>(levels.values());
+        order.sort(Comparator.comparing((Level level) -> lockDepths.get(level.directory)).reversed());
+        
+        int locked = 0;
+        TreeListener listener = null;
+        ChangeSequencer sequencer = null;
+        long turn = 0;
+        try {
+            for (Directory dir : lockOrder) {
+                dir.updateLock.lock();
+                locked++;
+            }
+            
+            ChangeSet.Change conflict = check(set, levels);
+            if (conflict != null) {
+                set.conflict(conflict);
+                return false;
+            }
+            for (Level level : order) {
+                level.apply(levels);
+            }
+            
+            listener = top.treeListener;
+            sequencer = top.changeSequencer;
+            if (listener != null) {
+                listener.rootChanged(top.snapshot);
+                turn = sequencer.claim();
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                lockOrder.get(i).updateLock.unlock();
+            }
+        }
+        if (listener != null) {
+            TreeListener notified = listener;
+            sequencer.run(turn, () -> notified.changesApplied(set));
+        }
+        return true;
+    }
+    
+    /**
+     * The first change that does not fit the locked tree - its directory or one above
+     * it was detached, or the child it expects is not (or no longer) there - or null.
+     * Earlier changes of the set are taken into account.
+     */
+    private static ChangeSet.Change check(ChangeSet set, Map<Directory, Level> levels) {
+        for (ChangeSet.Change change : set.getChanges()) {
+            for (Level level = levels.get(change.getParent()); level != null && !level.checked; ) {
+                Directory dir = level.directory;
+                if (dir.detached || dir.getParent() != level.parent) {
+                    return change;
+                }
+                level.checked = true;
+                level = level.parent == null ? null : levels.get(level.parent);
+            }
+            
+            Level level = levels.get(change.getParent());
+            FileSystemEntity entity = change.getEntity();
+            FileSystemEntity current = level.childOf(entity.getName());
+            boolean fits = switch (change.getKind()) {
+                case ADD -> current == null;
+                case REMOVE -> current == entity;
+                case RESIZE -> current instanceof File && current.getId() == entity.getId();
+            };
+            if (!fits) {
+                return change;
+            }
+            if (change.getKind() != ChangeSet.Kind.RESIZE) {
+                level.names.put(entity.getName(), change.getKind() == ChangeSet.Kind.ADD ? entity : null);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * One directory of a change set being applied: its own changes, the subdirectories
+     * that changed below it and the deltas they passed up. Used under the set's locks.
+     */
+    private static final class Level {
+        private final Directory directory;
+        private final Directory parent;
+        private final List<ChangeSet.Change> changes = new ArrayList<>();
+        private final List<Directory> changed = new ArrayList<>();
+        // Children as the changes checked so far leave them (a null value means removed)
+        private final Map<String, FileSystemEntity> names = new HashMap<>();
+        private final TypeRollup.Builder types = new TypeRollup.Builder();
+        private long size;
+        private long allocated;
+        private long files;
+        private long directories;
+        private boolean checked;
+        
+        private Level(Directory directory, Directory parent) {
+            this.directory = directory;
+            this.parent = parent;
+        }
+        
+        private int depth(Map<Directory, Level> levels) {
+            int depth = 0;
+            for (Level level = this; level.parent != null; level = levels.get(level.parent)) {
+                depth++;
+            }
+            return depth;
+        }
+        
+        private FileSystemEntity childOf(String name) {
+            return names.containsKey(name) ? names.get(name) : directory.children.get(name);
+        }
+        
+        /**
+         * Apply the subdirectory updates, then this directory's own changes in order, and
+         * pass the summed deltas to the parent's level
+         */
+        private void apply(Map<Directory, Level> levels) {
+            Directory dir = directory;
+            SnapshotChildren list = dir.snapshot.children();
+            for (Directory child : changed) {
+                list = list.set(child.snapshotIndex, child.snapshot);
+                int height = child.maxDepth + 1;
+                if (height != child.heightInParent) {
+                    MAX_DEPTH.setRelease(dir, dir.depthAfter(child.heightInParent, height));
+                    child.heightInParent = height;
+                }
+            }
+            
+            for (ChangeSet.Change change : changes) {
+                FileSystemEntity entity = change.getEntity();
+                Directory childDir = entity instanceof Directory ? (Directory) entity : null;
+                switch (change.getKind()) {
+                    case ADD -> {
+                        entity.setParent(dir);
+                        dir.children.add(entity);
+                        int height;
+                        if (childDir != null) {
+                            childDir.detached = false;
+                            height = childDir.maxDepth + 1;
+                            childDir.heightInParent = height;
+                            count(childDir.totalSize, childDir.allocatedSize, childDir.fileCount,
+                                    childDir.directoryCount + 1);
+                            types.add(childDir.subtreeRollup(), 1);
+                        } else {
+                            height = 1;
+                            count(entity.calculateSize(), entity.getAllocatedSize(), 1, 0);
+                            types.add(TypeRollup.of((File) entity), 1);
+                        }
+                        entity.snapshotIndex = list.length();
+                        list = list.append(childDir != null ? childDir.snapshot : (SnapshotEntry) entity);
+                        MAX_DEPTH.setRelease(dir, dir.depthAfter(0, height));
+                    }
+                    case REMOVE -> {
+                        // The entry itself, or its copy if this set resized it first
+                        FileSystemEntity removed = dir.children.remove(entity.getName());
+                        int height;
+                        if (childDir != null) {
+                            childDir.detached = true;
+                            height = childDir.heightInParent;
+                            count(-childDir.totalSize, -childDir.allocatedSize, -childDir.fileCount,
+                                    -childDir.directoryCount - 1);
+                            types.add(childDir.subtreeRollup(), -1);
+                        } else {
+                            height = 1;
+                            count(-removed.calculateSize(), -removed.getAllocatedSize(), -1, 0);
+                            types.add(TypeRollup.of((File) removed), -1);
+                        }
+                        list = dir.removeFromSnapshot(list, removed);
+                        change.applied(removed);
+                        MAX_DEPTH.setRelease(dir, dir.depthAfter(height, 0));
+                    }
+                    case RESIZE -> {
+                        File file = (File) dir.children.get(entity.getName());
+                        File copy = file.resized(change.getSize());
+                        copy.setParent(dir);
+                        copy.snapshotIndex = file.snapshotIndex;
+                        dir.children.replace(file, copy);
+                        list = list.set(copy.snapshotIndex, copy);
+                        count(copy.calculateSize() - file.calculateSize(),
+                                copy.getAllocatedSize() - file.getAllocatedSize(), 0, 0);
+                        types.add(copy.getExtension(), copy.calculateSize() - file.calculateSize(), 0);
+                        change.applied(copy);
+                    }
+                }
+            }
+            
+            TOTAL_SIZE.setRelease(dir, dir.totalSize + size);
+            ALLOCATED_SIZE.setRelease(dir, dir.allocatedSize + allocated);
+            FILE_COUNT.setRelease(dir, dir.fileCount + files);
+            DIRECTORY_COUNT.setRelease(dir, dir.directoryCount + directories);
+            TypeRollup delta = types.build();
+            TypeRollup known = dir.knownRollup();
+            dir.rollup = known == null ? null : known.plus(delta, 1);
+            SNAPSHOT.setRelease(dir, new DirectorySnapshot(dir.getName(), dir.totalSize, dir.allocatedSize,
+                    dir.fileCount, dir.directoryCount, dir.maxDepth, DirectorySnapshot.nextModCount(), dir.rollup,
+                    list));
+            
+            if (parent != null) {
+                Level up = levels.get(parent);
+                up.count(size, allocated, files, directories);
+                up.types.add(delta, 1);
+                up.changed.add(dir);
+            }
+        }
+        
+        private void count(long size, long allocated, long files, long directories) {
+            this.size += size;
+            this.allocated += allocated;
+            this.files += files;
+            this.directories += directories;
+        }
+    }
+    
+    /**
+     * Snapshot child list without the removed child; compacted (and the remaining
+     * children's slots renumbered) once holes outnumber live entries. Called under updateLock.
+     */
+    private SnapshotChildren removeFromSnapshot(SnapshotChildren list, FileSystemEntity removed) {
+        SnapshotChildren remaining = list.set(removed.snapshotIndex, null);
+        if (remaining.length() < SNAPSHOT_COMPACT_MIN || remaining.live() >= remaining.length() / 2) {
+            return remaining;
+        }
+        remaining = remaining.compact();
+        int index = 0;
+        for (FileSystemEntity child : children()) {
+            child.snapshotIndex = index++;
+        }
+        return remaining;
     }
     
     /**
      * Get child by name
      */
     public FileSystemEntity getChild(String name) {
-        return children.stream()
-                .filter(child -> child.getName().equals(name))
-                .findFirst()
-                .orElse(null);
+        return children().get(name);
+    }
+    
+    /**
+     * Get child whose name is the region [start, end) of path, without allocating a substring
+     */
+    public FileSystemEntity getChild(CharSequence path, int start, int end) {
+        return children().get(path, start, end);
+    }
+    
+    /**
+     * Number of direct children (answered without loading an unloaded directory)
+     */
+    public int getChildCount() {
+        return loaded ? children.size() : getSnapshot().getChildCount();
     }
     
     /**
-     * Get all children
+     * Get all children, in insertion order
      */
     public List<FileSystemEntity> getChildren() {
-        return new ArrayList<>(children);
+        return children().toList();
+    }
+    
+    /**
+     * Get one page of children, in insertion order
+     *
+     * @param cursor cursor returned by the previous page, or -1 for the first page
+     * @param limit  maximum number of children to return
+     * @param page   receives the children of this page
+     * @return cursor for the next page, or -1 when there are no more children
+     */
+    public long getChildren(long cursor, int limit, List<FileSystemEntity> page) {
+        return children().page(cursor, limit, page);
     }
     
     /**
      * Get only directories
      */
     public List<Directory> getDirectories() {
-        return children.stream()
-                .filter(child -> child instanceof Directory)
-                .map(child -> (Directory) child)
-                .collect(Collectors.toList());
+        List<Directory> directories = new ArrayList<>();
+        for (FileSystemEntity child : children()) {
+            if (child instanceof Directory) {
+                directories.add((Directory) child);
+            }
+        }
+        return directories;
     }
     
     /**
      * Get only files
      */
     public List<File> getFiles() {
-        return children.stream()
-                .filter(child -> child instanceof File)
-                .map(child -> (File) child)
-                .collect(Collectors.toList());
+        List<File> files = new ArrayList<>();
+        for (FileSystemEntity child : children()) {
+            if (child instanceof File) {
+                files.add((File) child);
+            }
+        }
+        return files;
     }
     
     /**
-     * Polymorphic implementation - directories build tree recursively
+     * Iterate children in insertion order without copying them
+     */
+    Iterator<FileSystemEntity> childIterator() {
+        return children().iterator();
+    }
+    
+    /**
+     * Polymorphic implementation - directories build the tree with the iterative walker,
+     * so arbitrarily deep trees do not overflow the stack
      */
     @Override
     public TreeRepresentation getTreeRepresentation() {
-        TreeRepresentation tree = new TreeRepresentation(name, getType(), calculateSize());
-        for (FileSystemEntity child : children) {
-            tree.getChildren().add(child.getTreeRepresentation());
+        Deque<TreeRepresentation> open = new ArrayDeque<>();
+        TreeRepresentation[] top = new TreeRepresentation[1];
+        TreeWalker.walk(this, new TreeVisitor() {
+            @Override
+            public boolean enter(FileSystemEntity entity, int depth) {
+                if (!(entity instanceof Directory)) {
+                    open.peek().getChildren().add(entity.getTreeRepresentation());
+                    return false;
+                }
+                TreeRepresentation node = new TreeRepresentation(entity.getName(), entity.getType(), entity.calculateSize());
+                if (open.isEmpty()) {
+                    top[0] = node;
+                } else {
+                    open.peek().getChildren().add(node);
+                }
+                open.push(node);
+                return true;
+            }
+            
+            @Override
+            public void leave(Directory directory, int depth) {
+                open.pop();
+            }
+        });
+        return top[0];
+    }
+    
+    /**
+     * Drop cached paths for this whole subtree. Descendants of an uncached directory
+     * are never cached, so only the cached part of the subtree is visited.
+     */
+    @Override
+    protected void invalidatePath() {
+        TreeWalker.preOrder(this, (entity, depth) -> {
+            if (!entity.hasCachedPath()) {
+                return false;
+            }
+            entity.clearCachedPath();
+            return !(entity instanceof Directory) || ((Directory) entity).loaded; // unloaded: no children yet
+        });
+    }
+    
+    /**
+     * Verification mode - recompute every aggregate below this directory from scratch
+     * and compare it with the maintained values.
+     *
+     * @param repair overwrite drifted values with the recomputed ones
+     * @return one message per directory whose totals had drifted (empty when consistent)
+     */
+    public List<String> verifyAggregates(boolean repair) {
+        List<String> drift = new ArrayList<>();
+        // One {size, files, directories, depth, allocated} accumulator per open directory
+        Deque<long[]> totals = new ArrayDeque<>();
+        
+        TreeWalker.walk(this, new TreeVisitor() {
+            @Override
+            public boolean enter(FileSystemEntity entity, int depth) {
+                if (entity instanceof Directory) {
+                    totals.push(new long[5]);
+                    return true;
+                }
+                long[] parent = totals.peek();
+                parent[0] += entity.calculateSize();
+                parent[1]++;
+                parent[3] = Math.max(parent[3], 1);
+                parent[4] += entity.getAllocatedSize();
+                return false;
+            }
+            
+            @Override
+            public void leave(Directory dir, int depth) {
+                long[] own = totals.pop();
+                dir.checkAggregates(own, drift, repair);
+                long[] parent = totals.peek();
+                if (parent != null) {
+                    parent[0] += own[0];
+                    parent[1] += own[1];
+                    parent[2] += own[2] + 1;
+                    parent[3] = Math.max(parent[3], own[3] + 1);
+                    parent[4] += own[4];
+                }
+            }
+        });
+        return drift;
+    }
+    
+    /**
+     * Compare recomputed {size, files, directories, depth, allocated} with the maintained values
+     */
+    private void checkAggregates(long[] expected, List<String> drift, boolean repair) {
+        long totalSize = calculateSize();
+        long allocatedSize = getAllocatedSize();
+        long fileCount = getFileCount();
+        long directoryCount = getDirectoryCount();
+        int maxDepth = getMaxDepth();
+        if (expected[0] != totalSize || expected[1] != fileCount || expected[2] != directoryCount
+                || expected[3] != maxDepth || expected[4] != allocatedSize) {
+            drift.add(String.format("%s: expected size=%d allocated=%d files=%d directories=%d depth=%d"
+                            + " but found size=%d allocated=%d files=%d directories=%d depth=%d",
+                    getPath(), expected[0], expected[4], expected[1], expected[2], expected[3],
+                    totalSize, allocatedSize, fileCount, directoryCount, maxDepth));
+            if (repair) {
+                updateLock.lock();
+                try {
+                    TOTAL_SIZE.setRelease(this, expected[0]);
+                    FILE_COUNT.setRelease(this, expected[1]);
+                    DIRECTORY_COUNT.setRelease(this, expected[2]);
+                    MAX_DEPTH.setRelease(this, (int) expected[3]);
+                    ALLOCATED_SIZE.setRelease(this, expected[4]);
+                    deepest = -1;
+                    // The parent counted this directory at its old height
+                    Directory parent = (Directory) getParent();
+                    if (parent != null) {
+                        parent.updateLock.lock();
+                        heightInParent = (int) expected[3] + 1;
+                        parent.deepest = -1;
+                        parent.updateLock.unlock();
+                    }
+                } finally {
+                    updateLock.unlock();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Apply a change to this directory's children to this directory and every ancestor.
+     *
+     * Called with this directory's update lock held. Climbs hand over hand - the
+     * parent's lock is taken before the child's is released - and releases every lock
+     * on return. A directory removed from its parent meanwhile took its totals with it,
+     * so the change stops there (its detached flag is stable while its lock is held).
+     * The removal's callback may already have walked past the change, though, so a
+     * change that took entities out is reported to the former root's listener as orphaned,
+     * in turn like any other.
+     * When the climb reaches a root with a listener, the listener's rootChanged runs
+     * while the root is still locked and the change claims its turn with the root's
+     * ChangeSequencer; the notification itself runs after every lock is released, in
+     * turn, so notifications arrive in the order the changes were made.
+     *
+     * Each level also gets a new snapshot: the changed child list for this directory,
+     * then for every ancestor its previous list with the one child slot replaced, and
+     * a new modification counter.
+     *
+     * @param oldHeight        height of the changed child before the change (0 if it was added)
+     * @param newHeight        height of the changed child after the change (0 if it was removed)
+     * @param added            true for an add, false for a remove
+     * @param rollupDelta      the added or removed files by type
+     * @param snapshotChildren this directory's snapshot child list after the change
+     * @param notification     tells the root's listener what changed
+     * @param orphaned         tells the former root's listener which entities the change
+     *                         took out, if it stopped at a detached directory (null if none)
+     */
+    private void propagate(long sizeDelta, long allocatedDelta, long fileDelta, long directoryDelta,
+                           int oldHeight, int newHeight, boolean added, TypeRollup rollupDelta,
+                           SnapshotChildren snapshotChildren, Consumer<TreeListener> notification,
+                           Consumer<TreeListener> orphaned) {
+        Directory dir = this;
+        int before = oldHeight;
+        int after = newHeight;
+        boolean depthSettled = before == after;
+        SnapshotChildren levelChildren = snapshotChildren;
+        Consumer<TreeListener> callback = notification;
+        TreeListener listener;
+        ChangeSequencer sequencer;
+        long turn;
+        try {
+            while (true) {
+                TOTAL_SIZE.setRelease(dir, dir.totalSize + sizeDelta);
+                ALLOCATED_SIZE.setRelease(dir, dir.allocatedSize + allocatedDelta);
+                FILE_COUNT.setRelease(dir, dir.fileCount + fileDelta);
+                DIRECTORY_COUNT.setRelease(dir, dir.directoryCount + directoryDelta);
+                TypeRollup known = dir.knownRollup();
+                dir.rollup = known == null ? null : known.plus(rollupDelta, added ? 1 : -1);
+                
+                boolean heightChanged = false;
+                if (!depthSettled) {
+                    int previous = dir.maxDepth;
+                    int depth = dir.depthAfter(before, after);
+                    depthSettled = depth == previous;
+                    MAX_DEPTH.setRelease(dir, depth);
+                    before = previous + 1;
+                    after = depth + 1;
+                    heightChanged = !depthSettled;
+                }
+                
+                DirectorySnapshot version = new DirectorySnapshot(dir.getName(), dir.totalSize, dir.allocatedSize,
+                        dir.fileCount, dir.directoryCount, dir.maxDepth, DirectorySnapshot.nextModCount(), dir.rollup,
+                        levelChildren);
+                SNAPSHOT.setRelease(dir, version);
+                
+                if (dir.detached) {
+                    break; // removed from the tree - nothing above it to update
+                }
+                Directory parent = (Directory) dir.getParent();
+                if (parent == null) {
+                    break;
+                }
+                parent.updateLock.lock();
+                if (heightChanged) {
+                    dir.heightInParent = after;
+                }
+                levelChildren = parent.snapshot.children().set(dir.snapshotIndex, version);
+                dir.updateLock.unlock();
+                dir = parent;
+            }
+            
+            if (dir.detached) {
+                if (orphaned == null) {
+                    return;
+                }
+                // Parent links are kept on removal, so they still lead to the former root
+                Directory root = dir;
+                while (root.getParent() != null) {
+                    root = (Directory) root.getParent();
+                }
+                root.updateLock.lock();
+                try {
+                    listener = root.treeListener;
+                    sequencer = root.changeSequencer;
+                    if (listener == null) {
+                        return;
+                    }
+                    turn = sequencer.claim();
+                } finally {
+                    root.updateLock.unlock();
+                }
+                callback = orphaned;
+            } else {
+                listener = dir.treeListener;
+                sequencer = dir.changeSequencer;
+                if (listener == null) {
+                    return;
+                }
+                listener.rootChanged(dir.snapshot);
+                turn = sequencer.claim();
+            }
+        } finally {
+            dir.updateLock.unlock();
         }
-        return tree;
+        Consumer<TreeListener> chosen = callback;
+        sequencer.run(turn, () -> chosen.accept(listener));
+    }
+    
+    /**
+     * This directory's rollup, or the one its current snapshot has computed meanwhile;
+     * null if neither is known. Called under updateLock.
+     */
+    private TypeRollup knownRollup() {
+        return rollup != null ? rollup : snapshot.getCachedRollup();
+    }
+    
+    /**
+     * This directory's rollup, computed from its snapshot if it is not known - the delta
+     * when it is added or removed as a whole, which every ancestor that knows its own
+     * rollup needs. Called under updateLock; see prepareRollup.
+     */
+    private TypeRollup subtreeRollup() {
+        TypeRollup known = knownRollup();
+        return known != null ? known : snapshot.getRollup();
+    }
+    
+    /**
+     * Compute an unknown rollup (a directory loaded from a tree image or node store that
+     * nothing has asked yet) before its subtree is added or removed, so the walk over its
+     * snapshot runs without holding any lock. The snapshot caches the result, which
+     * subtreeRollup then finds unless the directory changes in between.
+     */
+    private void prepareRollup() {
+        if (rollup == null) {
+            getSnapshot().getRollup();
+        }
+    }
+    
+    /**
+     * Max depth after one child's height went from before to after (0 for a child that
+     * was not there, or is gone). O(1) unless the last child at the max depth got shallower
+     * or went, which recounts the children. Called under updateLock.
+     */
+    private int depthAfter(int before, int after) {
+        int depth = maxDepth;
+        if (after > depth) {
+            deepest = 1;
+            return after;
+        }
+        if (before < depth) {
+            if (after == depth && deepest >= 0) {
+                deepest++;
+            }
+            return depth;
+        }
+        if (after == depth || (deepest > 0 && --deepest > 0)) {
+            return depth;
+        }
+        return recountDepth();
+    }
+    
+    /**
+     * Depth of the deepest entry below this directory and the number of children at it,
+     * recomputed from the children. Called under updateLock.
+     */
+    private int recountDepth() {
+        int depth = 0;
+        int count = 0;
+        for (FileSystemEntity child : children()) {
+            int height = child instanceof Directory ? ((Directory) child).heightInParent : 1;
+            if (height > depth) {
+                depth = height;
+                count = 1;
+            } else if (height == depth) {
+                count++;
+            }
+        }
+        deepest = count;
+        return depth;
     }
 }
-
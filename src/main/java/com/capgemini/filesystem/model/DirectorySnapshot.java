@@ -0,0 +1,328 @@
+package com.capgemini.filesystem.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable version of a directory and its whole subtree.
+ *
+ * Every Directory holds its current snapshot. A mutation replaces the snapshots on the
+ * path from the changed directory to the root (path copying) while all other nodes are
+ * shared with the previous version, so each published root snapshot is a consistent,
+ * never-changing view of the tree that readers can walk without any locking.
+ *
+ * A snapshot of a {@link PackedTree} node (a mapped TreeImage or a NodeStore) decodes
+ * its child list from the packed records the first time it is needed, so untouched
+ * subtrees cost no objects. Looking up a path does not count as needing them: the
+ * components are found in the packed records directly.
+ *
+ * Each snapshot carries the subtree's modification counter. Every change draws a new
+ * value for the changed directory and for each ancestor, and all values come from one
+ * process-wide sequence. So a directory's counter changes exactly when something below
+ * it changes, and a value is never seen twice for a path, even if the directory is
+ * removed and created again.
+ */
+public final class DirectorySnapshot implements SnapshotEntry {
+    private static final AtomicLong MOD_COUNTS = new AtomicLong();
+    
+    private final String name;
+    private final long totalSize;
+    private final long allocatedSize;
+    private final long fileCount;
+    private final long directoryCount;
+    private final int maxDepth;
+    private final int childCount;
+    private final long modCount;
+    private volatile SnapshotChildren children;
+    // Computed on first use; only large subtrees keep theirs (see SizeRanking)
+    private volatile SizeRanking ranking;
+    // Taken from the directory, or computed on first use if it did not know it
+    private volatile TypeRollup rollup;
+    
+    // Where the children are decoded from while they are still null
+    private final PackedTree nodes;
+    private final int node;
+    
+    DirectorySnapshot(String name, long totalSize, long allocatedSize, long fileCount, long directoryCount,
+                      int maxDepth, long modCount, TypeRollup rollup, SnapshotChildren children) {
+        this.name = name;
+        this.totalSize = totalSize;
+        this.allocatedSize = allocatedSize;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+        this.maxDepth = maxDepth;
+        this.childCount = children.live();
+        this.modCount = modCount;
+        this.rollup = rollup;
+        this.children = children;
+        this.nodes = null;
+        this.node = -1;
+    }
+    
+    /**
+     * Snapshot of a directory node of a packed tree
+     */
+    DirectorySnapshot(PackedTree nodes, int node) {
+        this.name = nodes.name(node);
+        this.totalSize = nodes.totalSize(node);
+        this.allocatedSize = nodes.allocatedSize(node);
+        this.fileCount = nodes.fileCount(node);
+        this.directoryCount = nodes.directoryCount(node);
+        this.maxDepth = nodes.maxDepth(node);
+        this.childCount = nodes.childCount(node);
+        this.modCount = nodes.modCount();
+        this.nodes = nodes;
+        this.node = node;
+    }
+    
+    static DirectorySnapshot empty(String name) {
+        return new DirectorySnapshot(name, 0, 0, 0, 0, 0, nextModCount(), TypeRollup.EMPTY, SnapshotChildren.EMPTY);
+    }
+    
+    /**
+     * Next value of the process-wide modification sequence
+     */
+    static long nextModCount() {
+        return MOD_COUNTS.incrementAndGet();
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public String getType() {
+        return "DIRECTORY";
+    }
+    
+    @Override
+    public long calculateSize() {
+        return totalSize;
+    }
+    
+    @Override
+    public long getAllocatedSize() {
+        return allocatedSize;
+    }
+    
+    public long getFileCount() {
+        return fileCount;
+    }
+    
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    public int getChildCount() {
+        return childCount;
+    }
+    
+    /**
+     * Subtree modification counter: changes whenever anything below this directory
+     * changes, and never repeats a value for the same path
+     */
+    public long getModCount() {
+        return modCount;
+    }
+    
+    /**
+     * Children in insertion order
+     */
+    public Iterable<SnapshotEntry> getChildren() {
+        return children();
+    }
+    
+    SnapshotChildren children() {
+        SnapshotChildren loaded = children;
+        if (loaded == null) {
+            synchronized (this) {
+                loaded = children;
+                if (loaded == null) {
+                    loaded = nodes.children(node);
+                    children = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * The packed tree this snapshot was decoded from, or null
+     */
+    PackedTree packedTree() {
+        return nodes;
+    }
+    
+    /**
+     * This snapshot's node in {@link #packedTree()}
+     */
+    int packedNode() {
+        return node;
+    }
+    
+    /**
+     * The children without keeping them: a packed snapshot that has not been decoded yet
+     * decodes a throwaway copy, so one-off full walks (e.g. writing an image) do not
+     * turn the whole packed tree into objects
+     */
+    Iterable<SnapshotEntry> peekChildren() {
+        SnapshotChildren loaded = children;
+        return loaded != null ? loaded : nodes.children(node);
+    }
+    
+    /**
+     * The largest files and directories below this one. Cached for large subtrees, so a
+     * repeated query, or one on a later version, only re-merges what changed.
+     */
+    public SizeRanking getRanking() {
+        SizeRanking cached = ranking;
+        return cached != null ? cached : SizeRanking.of(this);
+    }
+    
+    SizeRanking getCachedRanking() {
+        return ranking;
+    }
+    
+    void cacheRanking(SizeRanking ranking) {
+        this.ranking = ranking;
+    }
+    
+    /**
+     * Bytes and file count by extension for this subtree
+     */
+    public TypeRollup getRollup() {
+        TypeRollup cached = rollup;
+        if (cached == null) {
+            cached = TypeRollup.of(this);
+            rollup = cached;
+        }
+        return cached;
+    }
+    
+    TypeRollup getCachedRollup() {
+        return rollup;
+    }
+    
+    /**
+     * Get child by name
+     */
+    public SnapshotEntry getChild(String childName) {
+        return getChild(childName, 0, childName.length());
+    }
+    
+    /**
+     * Child whose name is the region [start, end) of text. A packed snapshot whose
+     * children have not been decoded looks the name up in the packed records and returns
+     * a new entry for that one child, leaving the child list undecoded.
+     */
+    SnapshotEntry getChild(CharSequence text, int start, int end) {
+        SnapshotChildren loaded = children;
+        if (loaded != null) {
+            int index = loaded.indexOf(text, start, end);
+            return index < 0 ? null : loaded.get(index);
+        }
+        int child = nodes.child(node, text, start, end);
+        if (child < 0) {
+            return null;
+        }
+        if (nodes.isDirectory(child)) {
+            return new DirectorySnapshot(nodes, child);
+        }
+        return new File(nodes.id(child), nodes.name(child), nodes.totalSize(child), nodes.allocatedSize(child));
+    }
+    
+    /**
+     * Resolve an absolute path below this (root) snapshot; handles ".", ".." and
+     * repeated or trailing slashes like the live resolver. Components are looked up by
+     * region, so no substrings are created.
+     *
+     * @return the directory, or null if a component is missing or is not a directory
+     */
+    public DirectorySnapshot resolve(String path) {
+        DirectorySnapshot[] trail = null; // the directories above current, for ".."
+        int depth = 0;
+        DirectorySnapshot current = this;
+        int length = path.length();
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && path.charAt(pos) == '/') {
+                pos++;
+            }
+            int start = pos;
+            while (pos < length && path.charAt(pos) != '/') {
+                pos++;
+            }
+            int componentLength = pos - start;
+            
+            if (componentLength == 0 || (componentLength == 1 && path.charAt(start) == '.')) {
+                continue;
+            }
+            if (componentLength == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                if (depth > 0) {
+                    current = trail[--depth];
+                }
+                continue;
+            }
+            
+            SnapshotEntry child = current.getChild(path, start, pos);
+            if (!(child instanceof DirectorySnapshot)) {
+                return null;
+            }
+            if (trail == null) {
+                trail = new DirectorySnapshot[8];
+            } else if (depth == trail.length) {
+                trail = Arrays.copyOf(trail, depth * 2);
+            }
+            trail[depth++] = current;
+            current = (DirectorySnapshot) child;
+        }
+        return current;
+    }
+    
+    /**
+     * Iterative depth-first walk of this snapshot, like {@link TreeWalker#walk}. Packed
+     * subtrees are decoded for the walk without being kept (see {@link #peekChildren()}).
+     */
+    public void walk(SnapshotVisitor visitor) {
+        if (!visitor.enter(this, 0)) {
+            return;
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(this, 0));
+        
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.children.hasNext()) {
+                stack.pop();
+                visitor.leave(frame.directory, frame.depth);
+                continue;
+            }
+            
+            SnapshotEntry child = frame.children.next();
+            int depth = frame.depth + 1;
+            if (visitor.enter(child, depth) && child instanceof DirectorySnapshot) {
+                stack.push(new Frame((DirectorySnapshot) child, depth));
+            }
+        }
+    }
+    
+    private static final class Frame {
+        final DirectorySnapshot directory;
+        final Iterator<SnapshotEntry> children;
+        final int depth;
+        
+        Frame(DirectorySnapshot directory, int depth) {
+            this.directory = directory;
+            this.children = directory.peekChildren().iterator();
+            this.depth = depth;
+        }
+    }
+}
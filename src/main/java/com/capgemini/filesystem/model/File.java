@@ -1,18 +1,58 @@
 package com.capgemini.filesystem.model;
 
-import lombok.EqualsAndHashCode;
+import java.util.Locale;
 
 /**
  * File entity - inherits from FileSystemEntity
  * Demonstrates inheritance
+ *
+ * Files are immutable once created, so tree snapshots reference them directly. A size
+ * change replaces the file in its directory with a resized copy that keeps the id
+ * (see {@link Directory#resizeFiles}).
  */
-@EqualsAndHashCode(callSuper = true)
-public class File extends FileSystemEntity {
+public class File extends FileSystemEntity implements SnapshotEntry {
+    // Allocation unit assumed when a file whose allocation was rounded up is resized
+    static final long BLOCK_SIZE = 4096;
+    
     private long size;
+    private long allocatedSize;
     
     public File(String name, long size) {
+        this(name, size, size);
+    }
+    
+    /**
+     * File with a separate on-disk allocation (e.g. rounded up to whole blocks)
+     */
+    public File(String name, long size, long allocatedSize) {
         super(name);
         this.size = size;
+        this.allocatedSize = allocatedSize;
+    }
+    
+    /**
+     * File decoded from a packed tree, with the id of its node
+     */
+    File(long id, String name, long size, long allocatedSize) {
+        super(id, name);
+        this.size = size;
+        this.allocatedSize = allocatedSize;
+    }
+    
+    private File(File previous, long size, long allocatedSize) {
+        super(previous.getId(), previous.getName());
+        this.size = size;
+        this.allocatedSize = allocatedSize;
+    }
+    
+    /**
+     * Copy of this file (same id and name) with a new size. A file whose allocation was
+     * rounded up to whole blocks (one scanned from disk) stays rounded up; otherwise the
+     * allocation follows the size.
+     */
+    File resized(long newSize) {
+        long newAllocated = allocatedSize == size ? newSize : (newSize + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        return new File(this, newSize, newAllocated);
     }
     
     /**
@@ -23,11 +63,25 @@ public class File extends FileSystemEntity {
         return size;
     }
     
+    @Override
+    public long getAllocatedSize() {
+        return allocatedSize;
+    }
+    
     @Override
     public String getType() {
         return "FILE";
     }
     
+    /**
+     * Lower-case extension without the dot, or "" if the name has none (a leading dot,
+     * as in ".bashrc", does not start an extension)
+     */
+    public String getExtension() {
+        int dot = name.lastIndexOf('.');
+        return dot <= 0 || dot == name.length() - 1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+    
     /**
      * Polymorphic implementation - files have no children
      */
@@ -1,45 +1,165 @@
 package com.capgemini.filesystem.model;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for file system entities (files and directories)
  * Demonstrates inheritance in OOP design
+ *
+ * Every entity gets an inode-style id when it is created, assigned from one increasing
+ * counter and never reused while the process runs. Equality and hash code are based on
+ * the id alone, so both are O(1) no matter how big the subtree is.
  */
-@Data
+@Getter
+@Setter
 public abstract class FileSystemEntity {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    
+    @Setter(AccessLevel.NONE)
+    private final long id;
     protected String name;
     protected FileSystemEntity parent;
     
+    // Paths longer than this are rebuilt on demand instead of being cached
+    static final int MAX_CACHED_PATH_LENGTH = 4096;
+    
+    // Canonical path, computed on first use and cleared when this entity or an ancestor
+    // is renamed or re-parented. If an entity has a cached path, so do all its ancestors.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient String cachedPath;
+    
+    // Slot of this entity in its parent's snapshot child list; guarded by the parent's update lock
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    transient int snapshotIndex;
+    
     public FileSystemEntity(String name) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.name = name;
+    }
+    
+    /**
+     * New version of an existing entity, keeping its id
+     */
+    FileSystemEntity(long id, String name) {
+        this.id = id;
         this.name = name;
     }
     
+    /**
+     * Reserve count consecutive ids (for the nodes of a packed tree, whose entities
+     * take their ids from their node numbers)
+     *
+     * @return the first reserved id
+     */
+    static long reserveIds(int count) {
+        return NEXT_ID.getAndAdd(count);
+    }
+    
     /**
      * Abstract method to calculate size - demonstrates polymorphism
      * Each subclass implements this differently
      */
     public abstract long calculateSize();
     
+    /**
+     * Space allocated on disk - equal to calculateSize() unless the entity was scanned
+     * from a real file system
+     */
+    public abstract long getAllocatedSize();
+    
     /**
      * Abstract method to get the type of entity
      */
     public abstract String getType();
     
+    public void setName(String name) {
+        this.name = name;
+        invalidatePath();
+    }
+    
+    public void setParent(FileSystemEntity parent) {
+        this.parent = parent;
+        invalidatePath();
+    }
+    
     /**
      * Get the full path of this entity
+     * The path is cached; only the uncached tail of the ancestor chain is built,
+     * each entry reusing its parent's cached string as the prefix.
      */
     public String getPath() {
-        if (parent == null) {
-            return name.equals("root") ? "/" : "/" + name;
+        String path = cachedPath;
+        if (path != null) {
+            return path;
         }
-        String parentPath = parent.getPath();
-        if (parentPath.equals("/")) {
-            return "/" + name;
+        
+        // Collect the uncached chain up to the nearest cached ancestor (or the root)
+        List<FileSystemEntity> chain = new ArrayList<>();
+        FileSystemEntity entity = this;
+        while (entity != null && entity.cachedPath == null) {
+            chain.add(entity);
+            entity = entity.parent;
+        }
+        
+        String prefix = entity == null ? null : entity.cachedPath;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            FileSystemEntity link = chain.get(i);
+            if (prefix == null) {
+                prefix = link.name.equals("root") ? "/" : "/" + link.name;
+            } else if (prefix.equals("/")) {
+                prefix = "/" + link.name;
+            } else if (prefix.length() + 1 + link.name.length() <= MAX_CACHED_PATH_LENGTH) {
+                prefix = prefix + "/" + link.name;
+            } else {
+                // Past the cache limit: build the rest in one buffer and cache nothing,
+                // so very deep chains do not keep O(depth^2) characters alive
+                StringBuilder uncached = new StringBuilder(prefix);
+                for (; i >= 0; i--) {
+                    uncached.append('/').append(chain.get(i).name);
+                }
+                return uncached.toString();
+            }
+            link.cachedPath = prefix;
         }
-        return parentPath + "/" + name;
+        return prefix;
+    }
+    
+    /**
+     * Drop the cached path of this entity (directories also drop their descendants')
+     */
+    protected void invalidatePath() {
+        clearCachedPath();
+    }
+    
+    boolean hasCachedPath() {
+        return cachedPath != null;
+    }
+    
+    void clearCachedPath() {
+        cachedPath = null;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FileSystemEntity && ((FileSystemEntity) other).id == id;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+    
+    @Override
+    public String toString() {
+        return getType() + " " + name + " #" + id;
     }
     
     /**
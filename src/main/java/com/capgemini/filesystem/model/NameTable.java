@@ -0,0 +1,83 @@
+package com.capgemini.filesystem.model;
+
+import java.util.function.IntFunction;
+
+/**
+ * Read-only name index over the children of an immutable directory (a snapshot's child
+ * list or a directory node of a packed tree).
+ *
+ * An open-addressing (linear probing) table from name hash to position - a slot of the
+ * child list or a node number - built once and never changed. Only positions are
+ * stored, so the caller confirms each candidate by comparing its name; a lookup by path
+ * region allocates no strings. Directories with at most {@link ChildTable#SMALL_LIMIT}
+ * children are not worth a table and are scanned.
+ */
+final class NameTable {
+    private final int[] slots; // position + 1; 0 is empty
+    
+    /**
+     * Empty table for up to count names, at most 50% loaded
+     */
+    NameTable(int count) {
+        slots = new int[Integer.highestOneBit(Math.max(count, ChildTable.SMALL_LIMIT) * 4 - 1)];
+    }
+    
+    void put(String name, int position) {
+        int slot = first(name.hashCode());
+        while (slots[slot] != 0) {
+            slot = next(slot);
+        }
+        slots[slot] = position + 1;
+    }
+    
+    /**
+     * Position of the name that is the region [start, end) of text, or -1
+     *
+     * @param names name at a position
+     */
+    int find(CharSequence text, int start, int end, IntFunction<String> names) {
+        int position;
+        for (int slot = first(hash(text, start, end)); (position = position(slot)) >= 0; slot = next(slot)) {
+            if (matches(names.apply(position), text, start, end)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+    
+    private int first(int hash) {
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+    
+    private int next(int slot) {
+        return (slot + 1) & (slots.length - 1);
+    }
+    
+    // Position stored in a slot, or -1 if the slot is empty
+    private int position(int slot) {
+        return slots[slot] - 1;
+    }
+    
+    /**
+     * Same hash as String.hashCode() over the region [start, end)
+     */
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+    
+    static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
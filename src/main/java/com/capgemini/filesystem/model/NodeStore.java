@@ -0,0 +1,473 @@
+package com.capgemini.filesystem.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heap node store: a whole tree kept in primitive arrays instead of one object per node.
+ *
+ * Every node is a number. Per node the store keeps a name id, the next sibling, a
+ * directory slot (-1 for files) and the (total) apparent and allocated size - 32 bytes,
+ * against roughly 150 for a File object with its own name String and its places in the
+ * parent's child table and snapshot. Directories additionally keep their first child,
+ * child count and subtree counts in arrays indexed by directory slot. Names are interned,
+ * so a name shared by many files (index.js, README.md, ...) is stored once.
+ *
+ * A store is filled, then sealed. Parallel fillers each take a {@link Segment}: entries
+ * are appended to the segment's own buffers, and only the directory handles and the
+ * name ids come from shared lock-free counters, so fillers never wait for each other.
+ * Sealing merges the segments into the node arrays (numbered breadth-first, so each
+ * directory's children are consecutive), computes the directory aggregates and reserves
+ * one entity id per node. From then on the store is read-only and serves as a
+ * {@link PackedTree}: {@link #load()} returns a Directory whose subtrees are
+ * materialised as real Directory/File objects only when they are first touched.
+ */
+public final class NodeStore implements PackedTree {
+    public static final int ROOT = 0;
+    
+    // Per node
+    private int[] nameIds;
+    private int[] nextSiblings;
+    private int[] slots;
+    private long[] sizes;
+    private long[] allocatedSizes;
+    private int[] parents; // only while sealing
+    private int nodeCount;
+    private long firstId;
+    
+    // Per directory slot
+    private int[] firstChildren;
+    private int[] childCounts;
+    private int[] maxDepths;
+    private long[] fileCounts;
+    private long[] directoryCounts;
+    
+    private String[] names;
+    private final int rootNameId;
+    private volatile boolean sealed;
+    private final long modCount = DirectorySnapshot.nextModCount();
+    private volatile DirectorySnapshot root;
+    // Name tables of the large directories looked up by name, by directory slot
+    private final Map<Integer, NameTable> nameTables = new ConcurrentHashMap<>();
+    
+    // While filling
+    private Queue<Segment> segments = new ConcurrentLinkedQueue<>();
+    private Map<String, Integer> nameIndex = new ConcurrentHashMap<>();
+    private final AtomicInteger nextNameId = new AtomicInteger();
+    private final AtomicInteger nextDirectory = new AtomicInteger(ROOT + 1);
+    private final Segment own = segment();
+    
+    public NodeStore() {
+        this("root");
+    }
+    
+    /**
+     * Empty store whose root directory has the given name
+     */
+    public NodeStore(String rootName) {
+        this.rootNameId = intern(rootName);
+    }
+    
+    /**
+     * A new segment for one filler thread
+     */
+    public Segment segment() {
+        checkFilling();
+        Segment segment = new Segment();
+        segments.add(segment);
+        return segment;
+    }
+    
+    /**
+     * Add an empty directory below the directory parent, from a single filler (parallel
+     * fillers use a {@link Segment} each)
+     *
+     * @return the new directory's handle, to add its children with
+     */
+    public synchronized int addDirectory(int parent, String name) {
+        return own.addDirectory(parent, name);
+    }
+    
+    /**
+     * Add a file below the directory parent, from a single filler
+     */
+    public synchronized void addFile(int parent, String name, long size, long allocatedSize) {
+        own.addFile(parent, name, size, allocatedSize);
+    }
+    
+    /**
+     * Finish filling (every filler must be done): merge the segments into the node
+     * arrays, compute every directory's aggregates and release the fill buffers.
+     * Children always have higher numbers than their parent, so one pass from the last
+     * node to the first folds every subtree into its parent.
+     *
+     * @throws IllegalArgumentException if a directory has two children with the same name
+     */
+    public synchronized void seal() {
+        if (sealed) {
+            return;
+        }
+        merge();
+        names = new String[nextNameId.get()];
+        nameIndex.forEach((name, id) -> names[id] = name);
+        checkUniqueNames();
+        for (int node = nodeCount - 1; node > ROOT; node--) {
+            int parent = slots[parents[node]];
+            sizes[parents[node]] += sizes[node];
+            allocatedSizes[parents[node]] += allocatedSizes[node];
+            int slot = slots[node];
+            if (slot < 0) {
+                fileCounts[parent]++;
+                maxDepths[parent] = Math.max(maxDepths[parent], 1);
+            } else {
+                fileCounts[parent] += fileCounts[slot];
+                directoryCounts[parent] += directoryCounts[slot] + 1;
+                maxDepths[parent] = Math.max(maxDepths[parent], maxDepths[slot] + 1);
+            }
+        }
+        
+        firstId = FileSystemEntity.reserveIds(nodeCount);
+        parents = null;
+        segments = null;
+        nameIndex = null;
+        sealed = true;
+    }
+    
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    /**
+     * Snapshot of the whole store; children are decoded on first use
+     */
+    public DirectorySnapshot getRoot() {
+        checkSealed();
+        DirectorySnapshot snapshot = root;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = root;
+                if (snapshot == null) {
+                    snapshot = new DirectorySnapshot(this, ROOT);
+                    root = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * A live tree backed by this store: each directory is materialised from its node
+     * when it is first touched.
+     * Entities take their ids from their nodes, so load it once.
+     */
+    public Directory load() {
+        return new Directory(getRoot());
+    }
+    
+    @Override
+    public String name(int node) {
+        return names[nameIds[node]];
+    }
+    
+    @Override
+    public long totalSize(int node) {
+        return sizes[node];
+    }
+    
+    @Override
+    public long allocatedSize(int node) {
+        return allocatedSizes[node];
+    }
+    
+    @Override
+    public long fileCount(int node) {
+        return fileCounts[slots[node]];
+    }
+    
+    @Override
+    public long directoryCount(int node) {
+        return directoryCounts[slots[node]];
+    }
+    
+    @Override
+    public int maxDepth(int node) {
+        return maxDepths[slots[node]];
+    }
+    
+    @Override
+    public int childCount(int node) {
+        return childCounts[slots[node]];
+    }
+    
+    @Override
+    public long modCount() {
+        return modCount;
+    }
+    
+    @Override
+    public boolean isDirectory(int node) {
+        return slots[node] >= 0;
+    }
+    
+    @Override
+    public int nameKey(int node) {
+        return nameIds[node];
+    }
+    
+    @Override
+    public long id(int node) {
+        return firstId + node;
+    }
+    
+    @Override
+    public int[] parents() {
+        checkSealed();
+        int[] parents = new int[nodeCount];
+        parents[ROOT] = -1;
+        for (int node = 0; node < nodeCount; node++) {
+            int slot = slots[node];
+            if (slot >= 0) {
+                for (int child = firstChildren[slot]; child >= 0; child = nextSiblings[child]) {
+                    parents[child] = node;
+                }
+            }
+        }
+        return parents;
+    }
+    
+    @Override
+    public int child(int node, CharSequence text, int start, int end) {
+        int slot = slots[node];
+        if (childCounts[slot] <= ChildTable.SMALL_LIMIT) {
+            for (int child = firstChildren[slot]; child >= 0; child = nextSiblings[child]) {
+                if (NameTable.matches(name(child), text, start, end)) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+        NameTable table = nameTables.computeIfAbsent(slot, key -> {
+            NameTable built = new NameTable(childCounts[slot]);
+            for (int child = firstChildren[slot]; child >= 0; child = nextSiblings[child]) {
+                built.put(name(child), child);
+            }
+            return built;
+        });
+        return table.find(text, start, end, this::name);
+    }
+    
+    @Override
+    public SnapshotChildren children(int node) {
+        int slot = slots[node];
+        Object[] entries = new Object[childCounts[slot]];
+        int child = firstChildren[slot];
+        for (int i = 0; i < entries.length; i++, child = nextSiblings[child]) {
+            if (slots[child] >= 0) {
+                entries[i] = new DirectorySnapshot(this, child);
+            } else {
+                entries[i] = new File(id(child), name(child), sizes[child], allocatedSizes[child]);
+            }
+        }
+        return SnapshotChildren.of(entries);
+    }
+    
+    /**
+     * Number the segments' entries breadth-first from the root: a directory's children
+     * are found by counting-sorting all entries on their parent's handle, and keep the
+     * order in which they were added
+     */
+    private void merge() {
+        int directoryCount = nextDirectory.get();
+        int entryCount = 0;
+        int[] starts = new int[directoryCount + 1];
+        for (Segment segment : segments) {
+            entryCount += segment.count;
+            for (int i = 0; i < segment.count; i++) {
+                starts[segment.parents[i] + 1]++;
+            }
+        }
+        for (int handle = 0; handle < directoryCount; handle++) {
+            starts[handle + 1] += starts[handle];
+        }
+        int[] entries = new int[entryCount];
+        Segment[] owners = new Segment[entryCount];
+        int[] next = Arrays.copyOf(starts, directoryCount);
+        for (Segment segment : segments) {
+            for (int i = 0; i < segment.count; i++) {
+                int at = next[segment.parents[i]]++;
+                entries[at] = i;
+                owners[at] = segment;
+            }
+        }
+        
+        nodeCount = entryCount + 1;
+        nameIds = new int[nodeCount];
+        nextSiblings = new int[nodeCount];
+        slots = new int[nodeCount];
+        sizes = new long[nodeCount];
+        allocatedSizes = new long[nodeCount];
+        parents = new int[nodeCount];
+        firstChildren = new int[directoryCount];
+        childCounts = new int[directoryCount];
+        maxDepths = new int[directoryCount];
+        fileCounts = new long[directoryCount];
+        directoryCounts = new long[directoryCount];
+        int[] handles = new int[directoryCount]; // by slot
+        
+        nameIds[ROOT] = rootNameId;
+        nextSiblings[ROOT] = -1;
+        parents[ROOT] = -1;
+        handles[0] = ROOT;
+        int nextNode = ROOT + 1;
+        int nextSlot = 1;
+        for (int node = ROOT; node < nextNode; node++) {
+            int slot = slots[node];
+            if (slot < 0) {
+                continue;
+            }
+            int from = starts[handles[slot]];
+            int to = starts[handles[slot] + 1];
+            firstChildren[slot] = from < to ? nextNode : -1;
+            childCounts[slot] = to - from;
+            for (int at = from; at < to; at++, nextNode++) {
+                Segment segment = owners[at];
+                int i = entries[at];
+                nameIds[nextNode] = segment.nameIds[i];
+                nextSiblings[nextNode] = at + 1 < to ? nextNode + 1 : -1;
+                sizes[nextNode] = segment.sizes[i];
+                allocatedSizes[nextNode] = segment.allocatedSizes[i];
+                parents[nextNode] = node;
+                if (segment.directories[i] >= 0) {
+                    handles[nextSlot] = segment.directories[i];
+                    slots[nextNode] = nextSlot++;
+                } else {
+                    slots[nextNode] = -1;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Names are ids, so each directory is checked by sorting its children's name ids
+     */
+    private void checkUniqueNames() {
+        int[] ids = new int[16];
+        for (int node = 0; node < nodeCount; node++) {
+            int slot = slots[node];
+            if (slot < 0 || childCounts[slot] < 2) {
+                continue;
+            }
+            int count = childCounts[slot];
+            if (ids.length < count) {
+                ids = new int[Math.max(count, ids.length * 2)];
+            }
+            for (int i = 0, child = firstChildren[slot]; i < count; i++, child = nextSiblings[child]) {
+                ids[i] = nameIds[child];
+            }
+            Arrays.sort(ids, 0, count);
+            for (int i = 1; i < count; i++) {
+                if (ids[i] == ids[i - 1]) {
+                    String parent = node == ROOT ? "" : path(node);
+                    throw new IllegalArgumentException("Duplicate entry: " + parent + "/" + names[ids[i]]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Path of a node below the root, for messages (while filling)
+     */
+    private String path(int node) {
+        StringBuilder path = new StringBuilder();
+        for (; node > ROOT; node = parents[node]) {
+            path.insert(0, "/" + name(node));
+        }
+        return path.toString();
+    }
+    
+    private int intern(String name) {
+        Integer id = nameIndex.get(name);
+        if (id == null) {
+            id = nameIndex.computeIfAbsent(name, key -> nextNameId.getAndIncrement());
+        }
+        return id;
+    }
+    
+    private void checkParent(int parent) {
+        checkFilling();
+        if (parent < ROOT || parent >= nextDirectory.get()) {
+            throw new IllegalArgumentException("Not a directory: " + parent);
+        }
+    }
+    
+    private void checkFilling() {
+        if (sealed) {
+            throw new IllegalStateException("Node store is sealed");
+        }
+    }
+    
+    private void checkSealed() {
+        if (!sealed) {
+            throw new IllegalStateException("Node store is not sealed");
+        }
+    }
+    
+    /**
+     * Entries added by one filler thread; not thread-safe itself, but any number of
+     * segments of a store can be filled at once. A directory's handle may be used as a
+     * parent in any segment.
+     */
+    public final class Segment {
+        private int[] parents = new int[0];
+        private int[] nameIds = new int[0];
+        private int[] directories = new int[0]; // handle, -1 for files
+        private long[] sizes = new long[0];
+        private long[] allocatedSizes = new long[0];
+        private int count;
+        
+        private Segment() {
+        }
+        
+        /**
+         * Add an empty directory below the directory parent
+         *
+         * @return the new directory's handle, to add its children with
+         */
+        public int addDirectory(int parent, String name) {
+            checkParent(parent);
+            int handle = nextDirectory.getAndIncrement();
+            add(parent, name, handle, 0, 0);
+            return handle;
+        }
+        
+        /**
+         * Add a file below the directory parent
+         */
+        public void addFile(int parent, String name, long size, long allocatedSize) {
+            checkParent(parent);
+            add(parent, name, -1, size, allocatedSize);
+        }
+        
+        private void add(int parent, String name, int directory, long size, long allocatedSize) {
+            if (count == parents.length) {
+                int capacity = Math.max(16, count * 2);
+                parents = Arrays.copyOf(parents, capacity);
+                nameIds = Arrays.copyOf(nameIds, capacity);
+                directories = Arrays.copyOf(directories, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                allocatedSizes = Arrays.copyOf(allocatedSizes, capacity);
+            }
+            parents[count] = parent;
+            nameIds[count] = intern(name);
+            directories[count] = directory;
+            sizes[count] = size;
+            allocatedSizes[count] = allocatedSize;
+            count++;
+        }
+    }
+}
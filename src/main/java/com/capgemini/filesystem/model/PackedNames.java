@@ -0,0 +1,172 @@
+package com.capgemini.filesystem.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Name postings of a whole packed tree (a TreeImage or NodeStore), so that find can
+ * answer from an index while parts of the tree are still unloaded.
+ *
+ * Building takes one pass over the records and a sort: it keeps every node's parent
+ * and, per distinct name, the nodes with that name - about eight bytes per node against
+ * well over a hundred for materialising the tree. The unloaded directories standing for
+ * nodes of the tree are registered as holders. A node is current exactly when its
+ * nearest registered ancestor is still unloaded: below a loaded directory, the live
+ * entities are indexed themselves.
+ */
+public final class PackedNames {
+    private final PackedTree tree;
+    private final Map<Integer, Directory> holders = new ConcurrentHashMap<>();
+    private volatile int[] parents;
+    private volatile Map<String, int[]> nodes = Map.of();
+    private volatile boolean ready;
+    
+    private PackedNames(PackedTree tree) {
+        this.tree = tree;
+    }
+    
+    /**
+     * Postings for the packed tree an unloaded directory was materialised from (not built
+     * yet), or null if the directory is not backed by a packed tree
+     */
+    public static PackedNames of(Directory directory) {
+        PackedTree tree = directory.getSnapshot().packedTree();
+        return tree == null ? null : new PackedNames(tree);
+    }
+    
+    /**
+     * Is the directory materialised from this tree?
+     */
+    public boolean covers(Directory directory) {
+        return directory.getSnapshot().packedTree() == tree;
+    }
+    
+    /**
+     * Group the tree's nodes by name. Runs once, off the request path.
+     */
+    public void build() {
+        int count = tree.getNodeCount();
+        long[] keyed = new long[count - 1];
+        for (int node = 1; node < count; node++) {
+            keyed[node - 1] = (long) tree.nameKey(node) << 32 | node;
+        }
+        Arrays.sort(keyed);
+        
+        Map<String, int[]> byName = new HashMap<>();
+        for (int start = 0; start < keyed.length; ) {
+            int end = start + 1;
+            while (end < keyed.length && keyed[end] >>> 32 == keyed[start] >>> 32) {
+                end++;
+            }
+            int[] named = new int[end - start];
+            for (int i = start; i < end; i++) {
+                named[i - start] = (int) keyed[i];
+            }
+            byName.put(tree.name(named[0]), named);
+            start = end;
+        }
+        parents = tree.parents();
+        nodes = byName;
+    }
+    
+    /**
+     * Distinct names below the tree's root (empty until built)
+     */
+    public Set<String> names() {
+        return nodes.keySet();
+    }
+    
+    /**
+     * Mark the postings as in use: from now on the caller relies on them
+     */
+    public void setReady() {
+        ready = true;
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    public void register(Directory directory) {
+        holders.put(directory.getSnapshot().packedNode(), directory);
+    }
+    
+    public void unregister(Directory directory) {
+        holders.remove(directory.getSnapshot().packedNode(), directory);
+    }
+    
+    /**
+     * Does any unloaded directory still stand for a node of this tree?
+     */
+    public boolean isInUse() {
+        return !holders.isEmpty();
+    }
+    
+    /**
+     * Number of nodes with this name, current or not
+     */
+    public int count(String name) {
+        int[] named = nodes.get(name);
+        return named == null ? 0 : named.length;
+    }
+    
+    /**
+     * Receives one current node
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @param holder the unloaded directory the entry is found below
+         * @param path   absolute path of the entry
+         * @return false to stop
+         */
+        boolean visit(Directory holder, String path, String type, long size);
+    }
+    
+    /**
+     * Visit the current nodes with this name
+     *
+     * @return false if the visitor stopped
+     */
+    public boolean forEach(String name, Visitor visitor) {
+        int[] named = nodes.get(name);
+        if (named == null) {
+            return true;
+        }
+        int[] parents = this.parents;
+        int[] way = new int[16];
+        for (int node : named) {
+            // Walk up to the nearest holder, remembering the directories in between
+            int depth = 0;
+            Directory holder = null;
+            for (int ancestor = parents[node]; ancestor >= 0; ancestor = parents[ancestor]) {
+                holder = holders.get(ancestor);
+                if (holder != null) {
+                    break;
+                }
+                if (depth == way.length) {
+                    way = Arrays.copyOf(way, depth * 2);
+                }
+                way[depth++] = ancestor;
+            }
+            if (holder == null || holder.isLoaded()) {
+                continue;
+            }
+            
+            String top = holder.getPath();
+            StringBuilder path = new StringBuilder(top.equals("/") ? "" : top);
+            for (int i = depth - 1; i >= 0; i--) {
+                path.append('/').append(tree.name(way[i]));
+            }
+            path.append('/').append(name);
+            String type = tree.isDirectory(node) ? "DIRECTORY" : "FILE";
+            if (!visitor.visit(holder, path.toString(), type, tree.totalSize(node))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
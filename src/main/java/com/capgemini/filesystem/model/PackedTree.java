@@ -0,0 +1,64 @@
+package com.capgemini.filesystem.model;
+
+/**
+ * A whole tree stored as numbered node records instead of objects ({@link TreeImage}
+ * on disk, {@link NodeStore} on the heap). Snapshots backed by one decode a directory's
+ * children only when they are first needed.
+ */
+interface PackedTree {
+    
+    int getNodeCount();
+    
+    String name(int node);
+    
+    long totalSize(int node);
+    
+    long allocatedSize(int node);
+    
+    long fileCount(int node);
+    
+    long directoryCount(int node);
+    
+    int maxDepth(int node);
+    
+    int childCount(int node);
+    
+    /**
+     * Modification counter shared by all directories of this tree (see
+     * {@link DirectorySnapshot#getModCount()}), drawn once when the tree was created
+     */
+    long modCount();
+    
+    boolean isDirectory(int node);
+    
+    /**
+     * Entity id of a node: ids are reserved for all nodes at once, so the File or
+     * Directory decoded from a node has the same id however often it is decoded
+     */
+    long id(int node);
+    
+    /**
+     * Key of a node's name: two nodes have the same key exactly when they have the same
+     * name, so nodes can be grouped by name without decoding every name
+     */
+    int nameKey(int node);
+    
+    /**
+     * Parent of every node (-1 for the root), in one pass over the records
+     */
+    int[] parents();
+    
+    /**
+     * The child of a directory node whose name is the region [start, end) of text, found
+     * without decoding the child list
+     *
+     * @return the child's node, or -1 if there is no such child
+     */
+    int child(int node, CharSequence text, int start, int end);
+    
+    /**
+     * Decode the children of a directory node: nested directories become (lazy)
+     * snapshots, files become File objects
+     */
+    SnapshotChildren children(int node);
+}
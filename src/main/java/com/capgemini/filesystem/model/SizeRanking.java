@@ -0,0 +1,252 @@
+package com.capgemini.filesystem.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The largest files and the largest directories anywhere below a directory snapshot,
+ * largest first, up to {@link #CAPACITY} of each.
+ *
+ * A ranking is merged from the directory's children: its own files and subdirectories
+ * plus the rankings of its subdirectories, of which only the top CAPACITY entries can
+ * matter. Snapshots never change, so a ranking is cached on its snapshot (see
+ * {@link DirectorySnapshot#getRanking()}) and stays valid. After a mutation only the
+ * directories on the changed path have new snapshots; every other subtree keeps its
+ * cached ranking, so the next query re-merges just that path.
+ *
+ * Subtrees of at most {@link #SMALL_SUBTREE} (= CAPACITY) nodes are walked directly
+ * instead: everything in them fits the ranking anyway, so walking one costs no more than
+ * merging a cached ranking would. Every larger subtree is ranked and cached, so re-merging
+ * a directory after a change costs at most about 2 * CAPACITY offers per child, however
+ * many unchanged siblings it has.
+ */
+public final class SizeRanking {
+    public static final int CAPACITY = 100;
+    static final long SMALL_SUBTREE = CAPACITY;
+    
+    private static final Comparator<Entry> BY_SIZE = Comparator.comparingLong(Entry::getSize);
+    
+    private final Entry[] files;
+    private final Entry[] directories;
+    
+    private SizeRanking(Entry[] files, Entry[] directories) {
+        this.files = files;
+        this.directories = directories;
+    }
+    
+    /**
+     * The n largest files, largest first (n is capped at CAPACITY)
+     */
+    public List<Entry> getLargestFiles(int n) {
+        return Arrays.asList(files).subList(0, Math.min(n, files.length));
+    }
+    
+    /**
+     * The n largest directories strictly below the ranked one, largest first
+     */
+    public List<Entry> getLargestDirectories(int n) {
+        return Arrays.asList(directories).subList(0, Math.min(n, directories.length));
+    }
+    
+    /**
+     * Rank top's subtree. Large directories below it that have no ranking yet are ranked
+     * first, bottom-up (iteratively, so depth is not limited by the stack), and cached.
+     */
+    static SizeRanking of(DirectorySnapshot top) {
+        if (isSmall(top)) {
+            Collector collector = new Collector();
+            collector.walk(top, false);
+            return collector.toRanking();
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(top));
+        while (true) {
+            Frame frame = stack.peek();
+            DirectorySnapshot unranked = frame.nextUnrankedChild();
+            if (unranked != null) {
+                stack.push(new Frame(unranked));
+                continue;
+            }
+            stack.pop();
+            SizeRanking ranking = merge(frame.directory);
+            frame.directory.cacheRanking(ranking);
+            if (stack.isEmpty()) {
+                return ranking;
+            }
+        }
+    }
+    
+    /**
+     * Rank a large directory whose large subdirectories are all ranked already
+     */
+    private static SizeRanking merge(DirectorySnapshot directory) {
+        Collector collector = new Collector();
+        for (SnapshotEntry child : directory.children()) {
+            if (!(child instanceof DirectorySnapshot)) {
+                collector.offer(child, child.getName(), null);
+                continue;
+            }
+            DirectorySnapshot subdirectory = (DirectorySnapshot) child;
+            if (isSmall(subdirectory)) {
+                collector.walk(subdirectory, true);
+                continue;
+            }
+            collector.offer(subdirectory, subdirectory.getName(), null);
+            SizeRanking ranking = subdirectory.getCachedRanking();
+            for (Entry entry : ranking.files) {
+                if (!collector.offer(entry.target, subdirectory.getName(), entry)) {
+                    break; // sorted, so nothing further can get in either
+                }
+            }
+            for (Entry entry : ranking.directories) {
+                if (!collector.offer(entry.target, subdirectory.getName(), entry)) {
+                    break;
+                }
+            }
+        }
+        return collector.toRanking();
+    }
+    
+    static boolean isSmall(DirectorySnapshot directory) {
+        return directory.getFileCount() + directory.getDirectoryCount() <= SMALL_SUBTREE;
+    }
+    
+    /**
+     * A ranked file or directory and its path relative to the ranked directory, kept as a
+     * chain of path components so that lifting an entry into the parent's ranking only
+     * adds one link
+     */
+    public static final class Entry {
+        private final SnapshotEntry target;
+        private final String name;
+        private final Entry inner;
+        
+        private Entry(SnapshotEntry target, String name, Entry inner) {
+            this.target = target;
+            this.name = name;
+            this.inner = inner;
+        }
+        
+        public SnapshotEntry getTarget() {
+            return target;
+        }
+        
+        public long getSize() {
+            return target.calculateSize();
+        }
+        
+        /**
+         * Path relative to the ranked directory, e.g. "work/reports/annual-report.pdf"
+         */
+        public String getPath() {
+            StringBuilder path = new StringBuilder(name);
+            for (Entry link = inner; link != null; link = link.inner) {
+                path.append('/').append(link.name);
+            }
+            return path.toString();
+        }
+    }
+    
+    /**
+     * Bounded min-heaps of the largest files and directories seen so far
+     */
+    private static final class Collector {
+        private final PriorityQueue<Entry> files = new PriorityQueue<>(BY_SIZE);
+        private final PriorityQueue<Entry> directories = new PriorityQueue<>(BY_SIZE);
+        
+        /**
+         * Offer target at path name/inner (inner null: target is named name)
+         *
+         * @return false if target was too small to get in
+         */
+        boolean offer(SnapshotEntry target, String name, Entry inner) {
+            PriorityQueue<Entry> heap = heapFor(target);
+            if (!accepts(heap, target)) {
+                return false;
+            }
+            add(heap, new Entry(target, name, inner));
+            return true;
+        }
+        
+        /**
+         * Offer everything below directory, and directory itself if includeTop (paths
+         * then start with its name)
+         */
+        void walk(DirectorySnapshot directory, boolean includeTop) {
+            int first = includeTop ? 0 : 1;
+            List<String> names = new ArrayList<>();
+            directory.walk((entry, depth) -> {
+                names.subList(depth, names.size()).clear();
+                names.add(entry.getName());
+                PriorityQueue<Entry> heap = heapFor(entry);
+                if (depth >= first && accepts(heap, entry)) {
+                    // Only entries that get in pay for their path
+                    Entry path = null;
+                    for (int i = depth; i >= first; i--) {
+                        path = new Entry(entry, names.get(i), path);
+                    }
+                    add(heap, path);
+                }
+                return entry instanceof DirectorySnapshot;
+            });
+        }
+        
+        private PriorityQueue<Entry> heapFor(SnapshotEntry target) {
+            return target instanceof DirectorySnapshot ? directories : files;
+        }
+        
+        private static boolean accepts(PriorityQueue<Entry> heap, SnapshotEntry target) {
+            return heap.size() < CAPACITY || target.calculateSize() > heap.peek().getSize();
+        }
+        
+        private static void add(PriorityQueue<Entry> heap, Entry entry) {
+            heap.add(entry);
+            if (heap.size() > CAPACITY) {
+                heap.poll();
+            }
+        }
+        
+        SizeRanking toRanking() {
+            return new SizeRanking(largestFirst(files), largestFirst(directories));
+        }
+        
+        private static Entry[] largestFirst(PriorityQueue<Entry> heap) {
+            Entry[] entries = new Entry[heap.size()];
+            for (int i = entries.length - 1; i >= 0; i--) {
+                entries[i] = heap.poll();
+            }
+            return entries;
+        }
+    }
+    
+    /**
+     * A large directory being ranked, and how far its children have been checked for
+     * large subdirectories that need ranking first
+     */
+    private static final class Frame {
+        final DirectorySnapshot directory;
+        final Iterator<SnapshotEntry> children;
+        
+        Frame(DirectorySnapshot directory) {
+            this.directory = directory;
+            this.children = directory.children().iterator();
+        }
+        
+        DirectorySnapshot nextUnrankedChild() {
+            while (children.hasNext()) {
+                SnapshotEntry child = children.next();
+                if (child instanceof DirectorySnapshot && !isSmall((DirectorySnapshot) child)
+                        && ((DirectorySnapshot) child).getCachedRanking() == null) {
+                    return (DirectorySnapshot) child;
+                }
+            }
+            return null;
+        }
+    }
+}
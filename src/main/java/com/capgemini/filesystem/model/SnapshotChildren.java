@@ -0,0 +1,241 @@
+package com.capgemini.filesystem.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Persistent (immutable) child list of a {@link DirectorySnapshot}.
+ *
+ * A 32-way radix trie over slot positions, in insertion order. append and set copy only
+ * the path from the trie root to one leaf - O(log32 n) - and share everything else with
+ * the previous version, so a change in a directory with 100k children copies a few
+ * hundred references instead of the whole list. Removal leaves a null hole (like
+ * ChildTable); the owner compacts once holes outnumber live entries.
+ *
+ * While the list fits in one leaf the leaf is sized exactly, so the many small
+ * directories do not pay for 32-slot arrays.
+ *
+ * Lookup by name scans small lists; a larger one builds a {@link NameTable} on its first
+ * lookup. The table belongs to this version of the list, so a directory that keeps
+ * changing pays for it only in the versions that are actually searched.
+ */
+final class SnapshotChildren implements Iterable<SnapshotEntry> {
+    static final SnapshotChildren EMPTY = new SnapshotChildren(new Object[0], 0, 0, 0);
+    
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    
+    private final Object[] root; // leaf (entries) when shift == 0, otherwise Object[] nodes
+    private final int shift;
+    private final int length;    // slots in use, holes included
+    private final int live;      // non-null entries
+    private volatile NameTable names;
+    
+    private SnapshotChildren(Object[] root, int shift, int length, int live) {
+        this.root = root;
+        this.shift = shift;
+        this.length = length;
+        this.live = live;
+    }
+    
+    /**
+     * Slots in use, holes included - the index the next append will get
+     */
+    int length() {
+        return length;
+    }
+    
+    int live() {
+        return live;
+    }
+    
+    SnapshotEntry get(int index) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return (SnapshotEntry) node[index & MASK];
+    }
+    
+    /**
+     * Slot of the entry whose name is the region [start, end) of text, or -1
+     */
+    int indexOf(CharSequence text, int start, int end) {
+        if (live <= ChildTable.SMALL_LIMIT) {
+            for (int index = 0; index < length; index++) {
+                SnapshotEntry entry = get(index);
+                if (entry != null && NameTable.matches(entry.getName(), text, start, end)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+        
+        NameTable table = names;
+        if (table == null) {
+            table = new NameTable(live);
+            for (int index = 0; index < length; index++) {
+                SnapshotEntry entry = get(index);
+                if (entry != null) {
+                    table.put(entry.getName(), index);
+                }
+            }
+            names = table;
+        }
+        return table.find(text, start, end, index -> get(index).getName());
+    }
+    
+    SnapshotChildren append(SnapshotEntry entry) {
+        if (shift == 0 && length < WIDTH) {
+            Object[] leaf = Arrays.copyOf(root, length + 1);
+            leaf[length] = entry;
+            return new SnapshotChildren(leaf, 0, length + 1, live + 1);
+        }
+        if (length == 1 << (shift + BITS)) {
+            // Root is full: grow a level
+            Object[] grown = new Object[WIDTH];
+            grown[0] = root;
+            grown[1] = newPath(shift, entry);
+            return new SnapshotChildren(grown, shift + BITS, length + 1, live + 1);
+        }
+        return new SnapshotChildren(appendTo(root, shift, length, entry), shift, length + 1, live + 1);
+    }
+    
+    /**
+     * Replace the entry at index; null leaves a hole
+     */
+    SnapshotChildren set(int index, SnapshotEntry entry) {
+        SnapshotEntry old = get(index);
+        int liveDelta = (entry != null ? 1 : 0) - (old != null ? 1 : 0);
+        return new SnapshotChildren(setIn(root, shift, index, entry), shift, length, live + liveDelta);
+    }
+    
+    /**
+     * Same entries in the same order, without holes
+     */
+    SnapshotChildren compact() {
+        Object[] entries = new Object[live];
+        int count = 0;
+        for (SnapshotEntry entry : this) {
+            entries[count++] = entry;
+        }
+        return of(entries);
+    }
+    
+    /**
+     * List of the given (non-null) entries, in order; takes ownership of the array
+     */
+    static SnapshotChildren of(Object[] entries) {
+        int count = entries.length;
+        if (count <= WIDTH) {
+            return new SnapshotChildren(entries, 0, count, count);
+        }
+        
+        // Build bottom-up: full-width leaves, then parent levels until one node remains
+        Object[] level = chunk(entries);
+        int shift = 0;
+        while (level.length > 1) {
+            level = chunk(level);
+            shift += BITS;
+        }
+        return new SnapshotChildren((Object[]) level[0], shift, count, count);
+    }
+    
+    /**
+     * Group items into WIDTH-sized arrays
+     */
+    private static Object[] chunk(Object[] items) {
+        Object[] chunks = new Object[(items.length + MASK) / WIDTH];
+        for (int i = 0; i < chunks.length; i++) {
+            Object[] chunk = new Object[WIDTH];
+            System.arraycopy(items, i * WIDTH, chunk, 0, Math.min(WIDTH, items.length - i * WIDTH));
+            chunks[i] = chunk;
+        }
+        return chunks;
+    }
+    
+    private static Object[] newPath(int level, SnapshotEntry entry) {
+        if (level == 0) {
+            Object[] leaf = new Object[WIDTH];
+            leaf[0] = entry;
+            return leaf;
+        }
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, entry);
+        return node;
+    }
+    
+    private static Object[] appendTo(Object[] node, int level, int index, SnapshotEntry entry) {
+        Object[] copy = node.length == WIDTH ? node.clone() : Arrays.copyOf(node, WIDTH);
+        int slot = (index >>> level) & MASK;
+        if (level == 0) {
+            copy[slot] = entry;
+        } else if (copy[slot] == null) {
+            copy[slot] = newPath(level - BITS, entry);
+        } else {
+            copy[slot] = appendTo((Object[]) copy[slot], level - BITS, index, entry);
+        }
+        return copy;
+    }
+    
+    private static Object[] setIn(Object[] node, int level, int index, SnapshotEntry entry) {
+        Object[] copy = node.clone();
+        int slot = (index >>> level) & MASK;
+        if (level == 0) {
+            copy[slot] = entry;
+        } else {
+            copy[slot] = setIn((Object[]) copy[slot], level - BITS, index, entry);
+        }
+        return copy;
+    }
+    
+    /**
+     * Live entries in insertion order; walks leaf by leaf instead of descending per entry
+     */
+    @Override
+    public Iterator<SnapshotEntry> iterator() {
+        return new Iterator<>() {
+            private int index;
+            private Object[] leaf;
+            private SnapshotEntry next = advance();
+            
+            private SnapshotEntry advance() {
+                while (index < length) {
+                    if (leaf == null || (index & MASK) == 0) {
+                        leaf = leafFor(index);
+                    }
+                    SnapshotEntry entry = (SnapshotEntry) leaf[index++ & MASK];
+                    if (entry != null) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+            
+            @Override
+            public SnapshotEntry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                SnapshotEntry entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+    
+    private Object[] leafFor(int index) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+}
@@ -0,0 +1,16 @@
+package com.capgemini.filesystem.model;
+
+/**
+ * Entry of an immutable tree snapshot - a {@link DirectorySnapshot}, or a {@link File}
+ * itself (files never change, so snapshots share the live objects)
+ */
+public interface SnapshotEntry {
+    
+    String getName();
+    
+    String getType();
+    
+    long calculateSize();
+    
+    long getAllocatedSize();
+}
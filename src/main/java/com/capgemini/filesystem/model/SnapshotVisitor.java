@@ -0,0 +1,21 @@
+package com.capgemini.filesystem.model;
+
+/**
+ * Callback for {@link DirectorySnapshot#walk}, the snapshot counterpart of {@link TreeVisitor}
+ */
+public interface SnapshotVisitor {
+    
+    /**
+     * Pre-order visit
+     *
+     * @param depth 0 for the directory the walk started from
+     * @return false to skip this directory's children (ignored for files)
+     */
+    boolean enter(SnapshotEntry entry, int depth);
+    
+    /**
+     * Post-order visit of a directory whose children were entered
+     */
+    default void leave(DirectorySnapshot directory, int depth) {
+    }
+}
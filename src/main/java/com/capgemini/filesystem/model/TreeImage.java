@@ -0,0 +1,337 @@
+package com.capgemini.filesystem.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary image of a whole tree, read through a memory mapping.
+ *
+ * Layout: a 64-byte header, then one fixed-size record per node in breadth-first order
+ * (so every directory's children are one contiguous range of records), then a string
+ * table with each distinct name stored once. A record holds the name's offset and
+ * length, the node's subtree aggregates and, for a directory, its child range:
+ * <pre>
+ *   int nameOffset, int nameLength, int flags, int maxDepth, int firstChild, int childCount,
+ *   long totalSize, long allocatedSize, long fileCount, long directoryCount
+ * </pre>
+ *
+ * Opening an image only maps the file. The root snapshot and the Directory returned
+ * by {@link #load()} decode records only when a directory's children are first needed,
+ * so opening takes the same time for ten nodes or ten million. The whole image has to
+ * fit in one mapping (2 GB, about 35 million nodes).
+ */
+public final class TreeImage implements PackedTree {
+    private static final int MAGIC = 0x44534E31; // "DSN1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 56;
+    private static final int FLAG_DIRECTORY = 1;
+    
+    private final MappedByteBuffer buffer;
+    private final int nodeCount;
+    private final int namesOffset;
+    private final long modCount = DirectorySnapshot.nextModCount();
+    private final long firstId;
+    private volatile DirectorySnapshot root;
+    // Name tables of the large directories looked up by name, by node
+    private final Map<Integer, NameTable> nameTables = new ConcurrentHashMap<>();
+    
+    private TreeImage(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a tree image");
+        }
+        this.nodeCount = buffer.getInt(8);
+        this.namesOffset = Math.toIntExact(buffer.getLong(16));
+        if (nodeCount < 1 || HEADER_SIZE + (long) nodeCount * RECORD_SIZE > namesOffset
+                || namesOffset + buffer.getLong(24) > buffer.capacity()) {
+            throw new IOException("Truncated tree image");
+        }
+        this.firstId = FileSystemEntity.reserveIds(nodeCount);
+    }
+    
+    /**
+     * Map an image written by {@link #write}
+     */
+    public static TreeImage open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tree image too large to map: " + file);
+            }
+            return new TreeImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Write the tree below root to file (replacing it) and fsync it
+     */
+    public static void write(DirectorySnapshot root, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel);
+            writer.write(root);
+            channel.force(true);
+        }
+    }
+    
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+    
+    /**
+     * Snapshot of the whole image; children are decoded on first use
+     */
+    public DirectorySnapshot getRoot() {
+        DirectorySnapshot snapshot = root;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = root;
+                if (snapshot == null) {
+                    snapshot = new DirectorySnapshot(this, 0);
+                    root = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * A live tree backed by this image: each directory is materialised from its
+     * record when it is first touched.
+     * Entities take their ids from their nodes, so load it once.
+     */
+    public Directory load() {
+        return new Directory(getRoot());
+    }
+    
+    @Override
+    public String name(int node) {
+        int offset = record(node);
+        byte[] bytes = new byte[buffer.getInt(offset + 4)];
+        buffer.get(namesOffset + buffer.getInt(offset), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public long totalSize(int node) {
+        return buffer.getLong(record(node) + 24);
+    }
+    
+    @Override
+    public long allocatedSize(int node) {
+        return buffer.getLong(record(node) + 32);
+    }
+    
+    @Override
+    public long fileCount(int node) {
+        return buffer.getLong(record(node) + 40);
+    }
+    
+    @Override
+    public long directoryCount(int node) {
+        return buffer.getLong(record(node) + 48);
+    }
+    
+    @Override
+    public int maxDepth(int node) {
+        return buffer.getInt(record(node) + 12);
+    }
+    
+    @Override
+    public int childCount(int node) {
+        return buffer.getInt(record(node) + 20);
+    }
+    
+    @Override
+    public long modCount() {
+        return modCount;
+    }
+    
+    @Override
+    public boolean isDirectory(int node) {
+        return (buffer.getInt(record(node) + 8) & FLAG_DIRECTORY) != 0;
+    }
+    
+    @Override
+    public long id(int node) {
+        return firstId + node;
+    }
+    
+    /**
+     * The name's offset in the string table, where every distinct name is stored once;
+     * empty names (which take no space, so share an offset with the next name) are -1
+     */
+    @Override
+    public int nameKey(int node) {
+        int offset = record(node);
+        return buffer.getInt(offset + 4) == 0 ? -1 : buffer.getInt(offset);
+    }
+    
+    @Override
+    public int[] parents() {
+        int[] parents = new int[nodeCount];
+        parents[0] = -1;
+        for (int node = 0; node < nodeCount; node++) {
+            if (isDirectory(node)) {
+                int first = buffer.getInt(record(node) + 16);
+                int end = first + childCount(node);
+                if (first < 0 || end > nodeCount) {
+                    throw new IllegalStateException("Corrupt tree image: children of node " + node + " out of range");
+                }
+                for (int child = first; child < end; child++) {
+                    parents[child] = node;
+                }
+            }
+        }
+        return parents;
+    }
+    
+    @Override
+    public int child(int node, CharSequence text, int start, int end) {
+        int first = buffer.getInt(record(node) + 16);
+        int count = childCount(node);
+        if (count <= ChildTable.SMALL_LIMIT) {
+            for (int child = first; child < first + count; child++) {
+                if (NameTable.matches(name(child), text, start, end)) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+        NameTable table = nameTables.computeIfAbsent(node, key -> {
+            NameTable built = new NameTable(count);
+            for (int child = first; child < first + count; child++) {
+                built.put(name(child), child);
+            }
+            return built;
+        });
+        return table.find(text, start, end, this::name);
+    }
+    
+    @Override
+    public SnapshotChildren children(int node) {
+        int first = buffer.getInt(record(node) + 16);
+        Object[] entries = new Object[childCount(node)];
+        for (int i = 0; i < entries.length; i++) {
+            int child = first + i;
+            if (isDirectory(child)) {
+                entries[i] = new DirectorySnapshot(this, child);
+            } else {
+                entries[i] = new File(id(child), name(child), totalSize(child), allocatedSize(child));
+            }
+        }
+        return SnapshotChildren.of(entries);
+    }
+    
+    private int record(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IllegalStateException("Corrupt tree image: node " + node + " of " + nodeCount);
+        }
+        return HEADER_SIZE + node * RECORD_SIZE;
+    }
+    
+    /**
+     * Breadth-first writer: a directory's record is written when it is reached, and its
+     * children are given the next free range of record numbers at that point
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        private final ByteArrayOutputStream names = new ByteArrayOutputStream();
+        private final Map<String, Long> interned = new HashMap<>();
+        private long position = HEADER_SIZE;
+        private int written;
+        private int next;
+        
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+        
+        void write(DirectorySnapshot root) throws IOException {
+            ArrayDeque<DirectorySnapshot> queue = new ArrayDeque<>();
+            next = 1;
+            record(root);
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                for (SnapshotEntry child : queue.poll().peekChildren()) {
+                    record(child);
+                    if (child instanceof DirectorySnapshot) {
+                        queue.add((DirectorySnapshot) child);
+                    }
+                }
+            }
+            flushRecords();
+            
+            ByteBuffer nameTable = ByteBuffer.wrap(names.toByteArray());
+            long namesOffset = position;
+            writeFully(nameTable, namesOffset);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(written).putInt(0);
+            header.putLong(namesOffset).putLong(nameTable.capacity());
+            header.clear();
+            writeFully(header, 0);
+        }
+        
+        private void record(SnapshotEntry entry) throws IOException {
+            if (records.remaining() < RECORD_SIZE) {
+                flushRecords();
+            }
+            long name = intern(entry.getName());
+            records.putInt((int) (name >>> 32)).putInt((int) name);
+            if (entry instanceof DirectorySnapshot) {
+                DirectorySnapshot directory = (DirectorySnapshot) entry;
+                int count = directory.getChildCount();
+                records.putInt(FLAG_DIRECTORY).putInt(directory.getMaxDepth());
+                records.putInt(next).putInt(count);
+                records.putLong(directory.calculateSize()).putLong(directory.getAllocatedSize());
+                records.putLong(directory.getFileCount()).putLong(directory.getDirectoryCount());
+                next = Math.addExact(next, count);
+            } else {
+                records.putInt(0).putInt(0).putInt(0).putInt(0);
+                records.putLong(entry.calculateSize()).putLong(entry.getAllocatedSize());
+                records.putLong(0).putLong(0);
+            }
+            written++;
+        }
+        
+        /**
+         * Offset (high int) and length (low int) of the name in the string table
+         */
+        private long intern(String name) {
+            Long known = interned.get(name);
+            if (known != null) {
+                return known;
+            }
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            long location = ((long) names.size() << 32) | bytes.length;
+            names.write(bytes, 0, bytes.length);
+            interned.put(name, location);
+            return location;
+        }
+        
+        private void flushRecords() throws IOException {
+            records.flip();
+            writeFully(records, position);
+            position += records.limit();
+            records.clear();
+        }
+        
+        private void writeFully(ByteBuffer source, long at) throws IOException {
+            while (source.hasRemaining()) {
+                at += channel.write(source, at);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.capgemini.filesystem.model;
+
+import java.util.List;
+
+/**
+ * Callback for structural changes anywhere below a root directory.
+ * Registered on the root via {@link Directory#setTreeListener}; events fire after
+ * the aggregates have been updated.
+ *
+ * rootChanged runs with the root still locked, so it must stay cheap. The change
+ * callbacks run after every lock of the change has been released, one at a time and
+ * in the order the changes were made (see {@link ChangeSequencer}), so they may do
+ * real work without blocking other writers; the tree may already have moved on by then.
+ */
+public interface TreeListener {
+    
+    /**
+     * A change below the root just produced root's new snapshot. Called under the
+     * root's lock, once per change (a whole change set counts as one) and in change order,
+     * before that change's callback.
+     */
+    default void rootChanged(DirectorySnapshot root) {
+    }
+    
+    /**
+     * A file or directory (possibly with its own subtree) was attached to parent
+     */
+    void childAdded(Directory parent, FileSystemEntity child);
+    
+    /**
+     * A file or directory (with its whole subtree) was detached from parent
+     */
+    void childRemoved(Directory parent, FileSystemEntity child);
+    
+    /**
+     * child (with its subtree) left parent after a directory above parent had been removed
+     * from the tree, or a resize there replaced child by a copy. The tree is unchanged and
+     * rootChanged does not run, but the removal's callback may have walked that subtree
+     * before the change and still seen child.
+     */
+    default void detachedChildRemoved(Directory parent, FileSystemEntity child) {
+    }
+    
+    /**
+     * Files in parent were replaced by resized copies (same ids); only sizes changed
+     */
+    default void filesResized(Directory parent, List<File> files) {
+    }
+    
+    /**
+     * A {@link ChangeSet} was applied; rootChanged ran once for the whole set. By default
+     * each change is passed on to the callback above that describes it.
+     */
+    default void changesApplied(ChangeSet changes) {
+        for (ChangeSet.Change change : changes.getChanges()) {
+            switch (change.getKind()) {
+                case ADD -> childAdded(change.getParent(), change.getEntity());
+                case REMOVE -> childRemoved(change.getParent(), change.getEntity());
+                case RESIZE -> filesResized(change.getParent(), List.of((File) change.getEntity()));
+            }
+        }
+    }
+    
+    /**
+     * A lazily loaded directory materialised its children; the tree itself is unchanged
+     */
+    default void childrenLoaded(Directory directory) {
+    }
+}
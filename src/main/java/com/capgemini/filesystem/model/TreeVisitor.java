@@ -0,0 +1,23 @@
+package com.capgemini.filesystem.model;
+
+/**
+ * Callback for {@link TreeWalker}.
+ * enter is the pre-order hook (called for every file and directory), leave the
+ * post-order hook (called for every directory once all its children were visited).
+ */
+public interface TreeVisitor {
+    
+    /**
+     * Pre-order visit
+     *
+     * @param depth 0 for the directory the walk started from
+     * @return false to skip this directory's children (ignored for files)
+     */
+    boolean enter(FileSystemEntity entity, int depth);
+    
+    /**
+     * Post-order visit of a directory whose children were entered
+     */
+    default void leave(Directory directory, int depth) {
+    }
+}
@@ -0,0 +1,64 @@
+package com.capgemini.filesystem.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Iterative depth-first traversal shared by size, tree building and any other walk.
+ *
+ * The walk keeps an explicit heap stack with one frame (directory + child cursor) per
+ * level of the current path, so memory is O(depth) and independent of the thread stack
+ * size - a tree thousands of levels deep cannot overflow it.
+ */
+public final class TreeWalker {
+    
+    private TreeWalker() {
+    }
+    
+    /**
+     * Walk the subtree below start (inclusive), calling enter before and leave after
+     * each directory's children
+     */
+    public static void walk(Directory start, TreeVisitor visitor) {
+        if (!visitor.enter(start, 0)) {
+            return;
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(start, 0));
+        
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (!frame.children.hasNext()) {
+                stack.pop();
+                visitor.leave(frame.directory, frame.depth);
+                continue;
+            }
+            
+            FileSystemEntity child = frame.children.next();
+            int depth = frame.depth + 1;
+            if (visitor.enter(child, depth) && child instanceof Directory) {
+                stack.push(new Frame((Directory) child, depth));
+            }
+        }
+    }
+    
+    /**
+     * Pre-order walk only
+     */
+    public static void preOrder(Directory start, TreeVisitor visitor) {
+        walk(start, visitor::enter);
+    }
+    
+    private static final class Frame {
+        final Directory directory;
+        final Iterator<FileSystemEntity> children;
+        final int depth;
+        
+        Frame(Directory directory, int depth) {
+            this.directory = directory;
+            this.children = directory.childIterator();
+            this.depth = depth;
+        }
+    }
+}
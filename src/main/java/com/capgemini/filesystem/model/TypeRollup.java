@@ -0,0 +1,304 @@
+package com.capgemini.filesystem.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bytes and file count by file type for a whole subtree - immutable and compact.
+ *
+ * Every directory keeps the rollup of its subtree next to its other aggregates, and a
+ * change pushes a small delta rollup (usually one type) up the parent chain like the
+ * size delta. A directory loaded from a tree image does not know its rollup yet; its
+ * snapshot computes it on first use (see {@link DirectorySnapshot#getRollup()}) and the
+ * directory adopts it with its next change.
+ *
+ * A file's type is its extension, normalised so that the number of types stays bounded:
+ * extensions that are too long, contain anything but letters and digits, or have no
+ * letter at all (rotation dates as in "app.log.20261016", numbered parts) count as
+ * {@link #OTHER}, as does any extension first seen after {@link #MAX_TYPES} types have
+ * been registered. Types are numbered in the order they are first seen, and a rollup is
+ * a two-level bitmap trie over those numbers - blocks of 32 types under a 32-bit root map
+ * - so applying a one-type delta copies the root's block references and one block, not
+ * the whole rollup.
+ */
+public final class TypeRollup {
+    public static final String OTHER = "(other)";
+    public static final TypeRollup EMPTY = new TypeRollup(0, new Block[0], 0);
+    
+    static final int MAX_EXTENSION_LENGTH = 10;
+    static final int MAX_TYPES = 32 * 32;
+    
+    // Type numbers by name, and names by number; OTHER is type 0
+    private static final Map<String, Integer> TYPE_IDS = new ConcurrentHashMap<>();
+    private static final String[] TYPE_NAMES = new String[MAX_TYPES];
+    
+    static {
+        TYPE_IDS.put(OTHER, 0);
+        TYPE_NAMES[0] = OTHER;
+    }
+    
+    // Bit b set if block b (types 32b to 32b + 31) has any entries; blocks in that order
+    private final int blockMap;
+    private final Block[] blocks;
+    private final int typeCount;
+    
+    private TypeRollup(int blockMap, Block[] blocks, int typeCount) {
+        this.blockMap = blockMap;
+        this.blocks = blocks;
+        this.typeCount = typeCount;
+    }
+    
+    /**
+     * Rollup of a single file
+     */
+    static TypeRollup of(File file) {
+        int type = typeOf(file.getExtension());
+        Block block = new Block(1 << (type & 31), new long[]{file.calculateSize(), 1});
+        return new TypeRollup(1 << (type >>> 5), new Block[]{block}, 1);
+    }
+    
+    /**
+     * Number of a file type, registering the extension if it is new and there is room
+     */
+    private static int typeOf(String extension) {
+        Integer known = TYPE_IDS.get(extension);
+        if (known != null) {
+            return known;
+        }
+        if (!isTypeLike(extension)) {
+            return 0;
+        }
+        synchronized (TYPE_NAMES) {
+            known = TYPE_IDS.get(extension);
+            if (known != null) {
+                return known;
+            }
+            int next = TYPE_IDS.size();
+            if (next == MAX_TYPES) {
+                return 0;
+            }
+            TYPE_NAMES[next] = extension;
+            TYPE_IDS.put(extension, next);
+            return next;
+        }
+    }
+    
+    private static boolean isTypeLike(String extension) {
+        if (extension.isEmpty()) {
+            return true; // files without an extension are a type of their own
+        }
+        if (extension.length() > MAX_EXTENSION_LENGTH) {
+            return false;
+        }
+        boolean letter = false;
+        for (int i = 0; i < extension.length(); i++) {
+            char c = extension.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                letter = true;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return letter;
+    }
+    
+    /**
+     * Number of distinct types
+     */
+    public int getTypeCount() {
+        return typeCount;
+    }
+    
+    /**
+     * Receives one type of a rollup
+     */
+    @FunctionalInterface
+    public interface TypeVisitor {
+        /**
+         * @param type extension (lower case, without the dot; "" for files without one) or OTHER
+         */
+        void visit(String type, long size, long fileCount);
+    }
+    
+    /**
+     * Visit every type, in the order the types were first seen
+     */
+    public void forEach(TypeVisitor visitor) {
+        for (int i = 0, map = blockMap; map != 0; i++, map &= map - 1) {
+            blocks[i].forEach(Integer.numberOfTrailingZeros(map) << 5, visitor);
+        }
+    }
+    
+    /**
+     * This rollup with delta added (sign 1) or subtracted (sign -1); types left with no
+     * files are dropped. Only the blocks the delta touches are copied.
+     */
+    TypeRollup plus(TypeRollup delta, int sign) {
+        if (delta.blockMap == 0) {
+            return this;
+        }
+        int map = blockMap | delta.blockMap;
+        Block[] merged = new Block[Integer.bitCount(map)];
+        int mergedMap = 0;
+        int n = 0;
+        int count = 0;
+        for (int bits = map; bits != 0; bits &= bits - 1) {
+            int bit = bits & -bits;
+            Block mine = (blockMap & bit) == 0 ? null : blocks[Integer.bitCount(blockMap & (bit - 1))];
+            Block block = (delta.blockMap & bit) == 0 ? mine
+                    : Block.merge(mine, delta.blocks[Integer.bitCount(delta.blockMap & (bit - 1))], sign);
+            if (block != null) {
+                merged[n++] = block;
+                mergedMap |= bit;
+                count += Integer.bitCount(block.map);
+            }
+        }
+        return new TypeRollup(mergedMap, n == merged.length ? merged : Arrays.copyOf(merged, n), count);
+    }
+    
+    /**
+     * Compute the rollup of a snapshot's subtree. Subdirectories whose rollup is known
+     * are not descended into; packed subtrees are walked without being kept.
+     */
+    static TypeRollup of(DirectorySnapshot top) {
+        Builder builder = new Builder();
+        top.walk((entry, depth) -> {
+            if (!(entry instanceof DirectorySnapshot)) {
+                builder.add(((File) entry).getExtension(), entry.calculateSize(), 1);
+                return false;
+            }
+            TypeRollup known = depth == 0 ? null : ((DirectorySnapshot) entry).getCachedRollup();
+            if (known == null) {
+                return true;
+            }
+            builder.add(known);
+            return false;
+        });
+        return builder.build();
+    }
+    
+    /**
+     * Totals of up to 32 consecutive types: bit t of map set if type (block * 32 + t) is
+     * present, and totals holds {size, count} for each present type in order
+     */
+    private static final class Block {
+        final int map;
+        final long[] totals;
+        
+        Block(int map, long[] totals) {
+            this.map = map;
+            this.totals = totals;
+        }
+        
+        void forEach(int base, TypeVisitor visitor) {
+            int i = 0;
+            for (int bits = map; bits != 0; bits &= bits - 1, i += 2) {
+                visitor.visit(TYPE_NAMES[base + Integer.numberOfTrailingZeros(bits)], totals[i], totals[i + 1]);
+            }
+        }
+        
+        /**
+         * mine (may be null) plus sign times delta; null if no type is left
+         */
+        static Block merge(Block mine, Block delta, int sign) {
+            int mineMap = mine == null ? 0 : mine.map;
+            int map = mineMap | delta.map;
+            long[] totals = new long[2 * Integer.bitCount(map)];
+            int mergedMap = 0;
+            int n = 0;
+            for (int bits = map; bits != 0; bits &= bits - 1) {
+                int bit = bits & -bits;
+                long size = 0;
+                long count = 0;
+                if ((mineMap & bit) != 0) {
+                    int i = 2 * Integer.bitCount(mineMap & (bit - 1));
+                    size = mine.totals[i];
+                    count = mine.totals[i + 1];
+                }
+                if ((delta.map & bit) != 0) {
+                    int i = 2 * Integer.bitCount(delta.map & (bit - 1));
+                    size += sign * delta.totals[i];
+                    count += sign * delta.totals[i + 1];
+                }
+                if (count != 0) {
+                    totals[n++] = size;
+                    totals[n++] = count;
+                    mergedMap |= bit;
+                }
+            }
+            if (mergedMap == 0) {
+                return null;
+            }
+            return new Block(mergedMap, n == totals.length ? totals : Arrays.copyOf(totals, n));
+        }
+    }
+    
+    /**
+     * Accumulates a rollup (or a delta) by type
+     */
+    static final class Builder {
+        private final Map<Integer, long[]> totals = new HashMap<>();
+        
+        void add(String extension, long size, long count) {
+            add(typeOf(extension), size, count);
+        }
+        
+        private void add(int type, long size, long count) {
+            long[] total = totals.computeIfAbsent(type, key -> new long[2]);
+            total[0] += size;
+            total[1] += count;
+        }
+        
+        void add(TypeRollup rollup) {
+            add(rollup, 1);
+        }
+        
+        /**
+         * Add (sign 1) or subtract (sign -1) a whole rollup
+         */
+        void add(TypeRollup rollup, int sign) {
+            for (int i = 0, map = rollup.blockMap; map != 0; i++, map &= map - 1) {
+                Block block = rollup.blocks[i];
+                int base = Integer.numberOfTrailingZeros(map) << 5;
+                int t = 0;
+                for (int bits = block.map; bits != 0; bits &= bits - 1, t += 2) {
+                    add(base + Integer.numberOfTrailingZeros(bits), sign * block.totals[t], sign * block.totals[t + 1]);
+                }
+            }
+        }
+        
+        /**
+         * Entries that cancelled out completely are left out
+         */
+        TypeRollup build() {
+            int[] types = totals.entrySet().stream()
+                    .filter(entry -> entry.getValue()[0] != 0 || entry.getValue()[1] != 0)
+                    .mapToInt(Map.Entry::getKey)
+                    .sorted()
+                    .toArray();
+            Block[] blocks = new Block[32];
+            int blockMap = 0;
+            int n = 0;
+            for (int start = 0; start < types.length; ) {
+                int block = types[start] >>> 5;
+                int end = start;
+                int map = 0;
+                while (end < types.length && types[end] >>> 5 == block) {
+                    map |= 1 << (types[end++] & 31);
+                }
+                long[] blockTotals = new long[2 * (end - start)];
+                for (int i = start; i < end; i++) {
+                    long[] total = totals.get(types[i]);
+                    blockTotals[2 * (i - start)] = total[0];
+                    blockTotals[2 * (i - start) + 1] = total[1];
+                }
+                blocks[n++] = new Block(map, blockTotals);
+                blockMap |= 1 << block;
+                start = end;
+            }
+            return new TypeRollup(blockMap, Arrays.copyOf(blocks, n), types.length);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.NodeStore;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds the Directory/File model from a real directory on disk (du-style).
+ *
+ * Every directory is listed by its own fork/join task, so wide and deep trees spread
+ * over a work-stealing pool. The tasks record what they find in a {@link NodeStore}
+ * rather than creating a Directory or File per entry, each in a segment of its own so
+ * that they share no lock; the returned root is backed by the store, so only the parts
+ * of the tree that are actually visited ever become objects.
+ *
+ * Hard links are counted once per fileKey. Symbolic links are skipped unless
+ * follow-links is set, in which case directory cycles are broken by fileKey as well.
+ * Apparent size is the file length; allocated size is the length rounded up to the
+ * file store's block size (NIO does not expose st_blocks, so sparse or compressed
+ * files are over-estimated).
+ */
+@Component
+public class DiskScanner {
+    private static final long DEFAULT_BLOCK_SIZE = 4096;
+    
+    private final boolean followLinks;
+    private final int parallelism;
+    
+    public DiskScanner(@Value("${filesystem.scan.follow-links:false}") boolean followLinks,
+                       @Value("${filesystem.scan.parallelism:0}") int parallelism) {
+        this.followLinks = followLinks;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Scan the directory at top; the returned tree's root is named "root" so that
+     * paths are reported relative to the scanned mount point
+     */
+    public ScanReport scan(Path top) throws IOException {
+        if (!Files.isDirectory(top)) {
+            throw new IOException("Not a directory: " + top);
+        }
+        
+        long started = System.nanoTime();
+        Scan scan = new Scan(followLinks, blockSize(top), FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+        NodeStore store = new NodeStore();
+        if (followLinks) {
+            Object key = Files.readAttributes(top, BasicFileAttributes.class).fileKey();
+            if (key != null) {
+                scan.seenDirectories.add(key);
+            }
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ScanTask(scan, top, store, NodeStore.ROOT));
+        } finally {
+            pool.shutdown();
+        }
+        store.seal();
+        Directory root = store.load();
+        
+        ScanReport report = new ScanReport();
+        report.setRoot(root);
+        report.setScannedPath(top.toAbsolutePath().toString());
+        report.setApparentSize(root.calculateSize());
+        report.setAllocatedSize(root.getAllocatedSize());
+        report.setFiles(root.getFileCount());
+        report.setDirectories(root.getDirectoryCount() + 1);
+        report.setHardLinksSkipped(scan.hardLinksSkipped.sum());
+        report.setSymlinksSkipped(scan.symlinksSkipped.sum());
+        report.setErrors(scan.errors.sum());
+        report.setElapsedMillis((System.nanoTime() - started) / 1_000_000);
+        return report;
+    }
+    
+    private static long blockSize(Path top) {
+        try {
+            FileStore store = Files.getFileStore(top);
+            long size = store.getBlockSize();
+            return size > 0 ? size : DEFAULT_BLOCK_SIZE;
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_BLOCK_SIZE;
+        }
+    }
+    
+    /**
+     * Outcome of a scan
+     */
+    @Data
+    public static class ScanReport {
+        private Directory root;
+        private String scannedPath;
+        private long apparentSize;
+        private long allocatedSize;
+        private long files;
+        private long directories;
+        private long hardLinksSkipped;
+        private long symlinksSkipped;
+        private long errors;
+        private long elapsedMillis;
+    }
+    
+    /**
+     * State shared by all tasks of one scan
+     */
+    private static final class Scan {
+        final LinkOption[] linkOptions;
+        final boolean followLinks;
+        final long blockSize;
+        final boolean unixView;
+        final Set<Object> seenFiles = ConcurrentHashMap.newKeySet();
+        final Set<Object> seenDirectories = ConcurrentHashMap.newKeySet();
+        final LongAdder hardLinksSkipped = new LongAdder();
+        final LongAdder symlinksSkipped = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        
+        Scan(boolean followLinks, long blockSize, boolean unixView) {
+            this.followLinks = followLinks;
+            this.linkOptions = followLinks ? new LinkOption[0] : new LinkOption[] {LinkOption.NOFOLLOW_LINKS};
+            this.blockSize = blockSize;
+            this.unixView = unixView;
+        }
+        
+        long allocated(long size) {
+            return (size + blockSize - 1) / blockSize * blockSize;
+        }
+        
+        /**
+         * First sighting of a file with this key? Only multiply-linked files are tracked,
+         * so the set stays small on ordinary trees.
+         */
+        boolean firstLink(Path file, BasicFileAttributes attrs) {
+            Object key = attrs.fileKey();
+            if (key == null || !unixView) {
+                return true;
+            }
+            try {
+                Object links = Files.getAttribute(file, "unix:nlink", linkOptions);
+                if (!(links instanceof Integer) || (Integer) links <= 1) {
+                    return true;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                return true;
+            }
+            return seenFiles.add(key);
+        }
+    }
+    
+    /**
+     * Lists one directory into its node, forking a task per subdirectory
+     */
+    private static final class ScanTask extends RecursiveAction {
+        private final Scan scan;
+        private final Path path;
+        private final NodeStore store;
+        private final int node;
+        
+        ScanTask(Scan scan, Path path, NodeStore store, int node) {
+            this.scan = scan;
+            this.path = path;
+            this.store = store;
+            this.node = node;
+        }
+        
+        @Override
+        protected void compute() {
+            List<ScanTask> subtasks = new ArrayList<>();
+            NodeStore.Segment segment = store.segment();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    scanEntry(entry, segment, subtasks);
+                }
+            } catch (IOException | SecurityException e) {
+                scan.errors.increment();
+            }
+            
+            for (ScanTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+        
+        private void scanEntry(Path entry, NodeStore.Segment segment, List<ScanTask> subtasks) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry, BasicFileAttributes.class, scan.linkOptions);
+            } catch (IOException | SecurityException e) {
+                scan.errors.increment();
+                return;
+            }
+            
+            String name = entry.getFileName().toString();
+            if (attrs.isSymbolicLink()) {
+                scan.symlinksSkipped.increment();
+            } else if (attrs.isDirectory()) {
+                if (scan.followLinks && attrs.fileKey() != null && !scan.seenDirectories.add(attrs.fileKey())) {
+                    return; // already scanned through another link - a cycle or a duplicate mount
+                }
+                ScanTask subtask = new ScanTask(scan, entry, store, segment.addDirectory(node, name));
+                subtask.fork();
+                subtasks.add(subtask);
+            } else if (scan.firstLink(entry, attrs)) {
+                segment.addFile(node, name, attrs.size(), scan.allocated(attrs.size()));
+            } else {
+                scan.hardLinksSkipped.increment();
+            }
+        }
+    }
+}
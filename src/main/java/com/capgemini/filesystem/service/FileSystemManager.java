@@ -1,26 +1,127 @@
 package com.capgemini.filesystem.service;
 
+import com.capgemini.filesystem.model.ChangeSet;
 import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.TreeImage;
+import com.capgemini.filesystem.model.TreeListener;
+import com.capgemini.filesystem.model.TreeWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
 /**
  * Manages the file system state and current directory
+ *
+ * Clients that send a session token get their own working directory from the
+ * SessionCursorStore; requests without one share the global current directory.
+ *
+ * Keeps an index from canonical absolute path to Directory, one from id to every
+ * file and directory, a {@link NameIndex} for find and a {@link PathTrie} of directory
+ * paths for cd completion. The indexes listen on the root, so everything attached or
+ * detached anywhere in the tree (mkdir, rmdir, seed data) is added to or dropped
+ * from them.
+ *
+ * Every change that reaches the root is published to the VersionStore as a new
+ * immutable version, which readers pin for consistent views. That is all that happens
+ * under the root's lock; the indexes and the journal catch up in the listener callbacks
+ * right after, in change order, before the changing request returns.
+ *
+ * The tree is the built-in demo tree, a du-style scan of filesystem.scan.root on disk,
+ * or the manifest named by filesystem.import.manifest (see ManifestImporter). With the MutationJournal enabled, the
+ * journaled changes are replayed on top of it at startup, and every later change is
+ * journaled. Once the journal has a checkpoint, startup maps that checkpoint's
+ * TreeImage instead of building the tree at all: directories are materialised (and
+ * indexed) only when a request first reaches them.
  */
 @Component
-public class FileSystemManager {
+public class FileSystemManager implements TreeListener {
+    private static final Logger log = LoggerFactory.getLogger(FileSystemManager.class);
+    
     private Directory root;
-    private Directory currentDirectory;
+    private volatile Directory currentDirectory;
+    private final Map<String, Directory> pathIndex = new ConcurrentHashMap<>();
+    private final Map<Long, FileSystemEntity> nodeIndex = new ConcurrentHashMap<>();
+    private final NameIndex nameIndex = new NameIndex();
+    private final PathTrie pathTrie = new PathTrie();
+    private DiskScanner.ScanReport lastScan;
+    private final SessionCursorStore sessions;
+    private final VersionStore versions;
+    private final MutationJournal journal;
+    // Root snapshots published by rootChanged whose change callbacks have not run yet
+    private final Queue<DirectorySnapshot> changedRoots = new ConcurrentLinkedQueue<>();
     
     public FileSystemManager() {
+        sessions = new SessionCursorStore(1800, 10_000);
+        versions = new VersionStore(16);
+        journal = MutationJournal.disabled();
         initializeFileSystem();
     }
     
+    @Autowired
+    public FileSystemManager(DiskScanner diskScanner, ManifestImporter importer, SessionCursorStore sessions,
+                             VersionStore versions, MutationJournal journal,
+                             @Value("${filesystem.scan.root:}") String scanRoot) throws IOException {
+        this.sessions = sessions;
+        this.versions = versions;
+        this.journal = journal;
+        boolean fromCheckpoint = journal.recover(new JournalReplayer(diskScanner, importer, scanRoot));
+        if (!fromCheckpoint) {
+            // Checkpoint the freshly built tree so the next startup can map it instead
+            journal.checkpoint(root.getSnapshot());
+        }
+    }
+    
+    private void scan(DiskScanner diskScanner, String scanRoot) throws IOException {
+        lastScan = diskScanner.scan(Path.of(scanRoot));
+        installRoot(lastScan.getRoot());
+        log.info("Scanned {}: {} files, {} directories, {} bytes apparent, {} bytes allocated, {} hard links and {} symlinks skipped, {} errors in {} ms",
+                lastScan.getScannedPath(), lastScan.getFiles(), lastScan.getDirectories(), lastScan.getApparentSize(),
+                lastScan.getAllocatedSize(), lastScan.getHardLinksSkipped(), lastScan.getSymlinksSkipped(),
+                lastScan.getErrors(), lastScan.getElapsedMillis());
+    }
+    
+    private void importManifest(ManifestImporter importer) throws IOException {
+        ManifestImporter.ImportReport report = importer.readStartupManifest();
+        installRoot(report.getRoot());
+        log.info("Imported {} manifest {}: {} files, {} directories, {} bytes, {} entries skipped in {} ms",
+                report.getFormat(), report.getSource(), report.getFiles(), report.getDirectories(), report.getSize(),
+                report.getEntriesSkipped(), report.getElapsedMillis());
+    }
+    
+    /**
+     * Make newRoot the tree root: listen on it, index everything below it and reset
+     * the current directory
+     */
+    private void installRoot(Directory newRoot) {
+        root = newRoot;
+        root.setTreeListener(this);
+        pathIndex.clear();
+        nodeIndex.clear();
+        nameIndex.clear();
+        pathTrie.clear();
+        forEachEntity(root, this::index);
+        currentDirectory = root;
+        versions.publish(root.getSnapshot());
+    }
+    
     /**
      * Initialize file system with a 3-level directory structure
      */
     private void initializeFileSystem() {
-        root = new Directory("root");
-        currentDirectory = root;
+        installRoot(new Directory("root"));
         
         // Level 1: Create main directories
         Directory documents = new Directory("documents");
@@ -79,6 +180,24 @@ public class FileSystemManager {
         return root;
     }
     
+    /**
+     * Report of the disk scan the tree was built from, or null for the demo tree
+     */
+    public DiskScanner.ScanReport getLastScan() {
+        return lastScan;
+    }
+    
+    public VersionStore getVersions() {
+        return versions;
+    }
+    
+    /**
+     * Block until the changes made so far are as durable as the journal's mode promises
+     */
+    public void awaitDurable() {
+        journal.awaitDurable();
+    }
+    
     public Directory getCurrentDirectory() {
         return currentDirectory;
     }
@@ -86,5 +205,287 @@ public class FileSystemManager {
     public void setCurrentDirectory(Directory directory) {
         this.currentDirectory = directory;
     }
+    
+    /**
+     * Working directory of a session (the global one when session is null).
+     * A session whose directory expired or has since been removed is back at the root.
+     */
+    public Directory getCurrentDirectory(String session) {
+        Directory directory = session == null ? currentDirectory : sessions.get(session);
+        if (directory == null || !isAttached(directory)) {
+            return root;
+        }
+        return directory;
+    }
+    
+    public void setCurrentDirectory(String session, Directory directory) {
+        if (session == null) {
+            currentDirectory = directory;
+        } else {
+            sessions.put(session, directory);
+        }
+    }
+    
+    /**
+     * Is the directory still part of the tree?
+     */
+    public boolean isAttached(Directory directory) {
+        return pathIndex.get(directory.getPath()) == directory;
+    }
+    
+    /**
+     * Look up a file or directory by id
+     *
+     * @return the entity, or null if no entity in the tree has that id
+     */
+    public FileSystemEntity getNode(long id) {
+        return nodeIndex.get(id);
+    }
+    
+    NameIndex getNameIndex() {
+        return nameIndex;
+    }
+    
+    /**
+     * Directory paths completing prefix - a canonical absolute path whose last component
+     * may be partial - in lexicographic order, at most max of them. A lazily loaded
+     * parent is materialised first so that its subdirectories can be offered.
+     */
+    public List<String> completePath(String prefix, int max) {
+        int slash = prefix.lastIndexOf('/');
+        Directory parent = resolve(slash == 0 ? "/" : prefix.substring(0, slash));
+        if (parent == null) {
+            return List.of();
+        }
+        if (!parent.isLoaded()) {
+            parent.getChildren();
+        }
+        return pathTrie.complete(prefix, max);
+    }
+    
+    /**
+     * Resolve an absolute path, or a path relative to the current directory
+     *
+     * @return the directory, or null if it does not exist
+     */
+    public Directory resolve(String path) {
+        return resolve(path, currentDirectory);
+    }
+    
+    /**
+     * Resolve an absolute path, or a path relative to base.
+     * Canonical absolute paths are answered by a single index lookup; anything else
+     * (relative, ".", "..", repeated or trailing slashes) is walked component by component.
+     *
+     * @return the directory, or null if it does not exist
+     */
+    public Directory resolve(String path, Directory base) {
+        if (!path.isEmpty() && path.charAt(0) == '/') {
+            Directory indexed = pathIndex.get(path);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+        return PathResolver.resolve(root, base, path);
+    }
+    
+    /**
+     * Called with the root locked, so versions are published in mutation order. Only the
+     * version number is claimed here; indexing and journaling happen in the change
+     * callbacks, after the root has been released, which take the snapshots back off
+     * changedRoots in the same order.
+     */
+    @Override
+    public void rootChanged(DirectorySnapshot newRoot) {
+        versions.publish(newRoot);
+        changedRoots.add(newRoot);
+    }
+    
+    @Override
+    public void childAdded(Directory parent, FileSystemEntity child) {
+        DirectorySnapshot version = changedRoots.remove();
+        forEachEntity(child, this::index);
+        journal.added(parent, child, version);
+    }
+    
+    @Override
+    public void childRemoved(Directory parent, FileSystemEntity child) {
+        DirectorySnapshot version = changedRoots.remove();
+        forEachEntity(child, this::unindex);
+        journal.removed(parent, child, version);
+    }
+    
+    /**
+     * Only the indexes can still hold the orphaned entities; the journal already has
+     * the removal of the directory above them
+     */
+    @Override
+    public void detachedChildRemoved(Directory parent, FileSystemEntity child) {
+        forEachEntity(child, this::unindex);
+    }
+    
+    /**
+     * Resized files keep their ids, so the id index just points at the new copies
+     */
+    @Override
+    public void filesResized(Directory parent, List<com.capgemini.filesystem.model.File> files) {
+        DirectorySnapshot version = changedRoots.remove();
+        files.forEach(this::index);
+        journal.resized(parent, files, version);
+    }
+    
+    /**
+     * A change set is one version, so it takes one snapshot off changedRoots and is
+     * journaled as one framed group
+     */
+    @Override
+    public void changesApplied(ChangeSet changes) {
+        DirectorySnapshot version = changedRoots.remove();
+        for (ChangeSet.Change change : changes.getChanges()) {
+            switch (change.getKind()) {
+                case ADD -> forEachEntity(change.getEntity(), this::index);
+                case REMOVE -> forEachEntity(change.getEntity(), this::unindex);
+                case RESIZE -> index(change.getEntity());
+            }
+        }
+        journal.applied(changes, version);
+    }
+    
+    /**
+     * Register the children a lazily loaded directory just materialised. If the
+     * directory was removed meanwhile, the removal's index cleanup may have run before
+     * these entries existed, so they are taken out again.
+     */
+    @Override
+    public void childrenLoaded(Directory directory) {
+        List<FileSystemEntity> added = directory.getChildren();
+        added.forEach(this::index);
+        nameIndex.loaded(directory);
+        if (!isAttached(directory)) {
+            added.forEach(this::unindex);
+        }
+    }
+    
+    private void index(FileSystemEntity entity) {
+        nodeIndex.put(entity.getId(), entity);
+        nameIndex.add(entity);
+        if (entity instanceof Directory) {
+            pathIndex.put(entity.getPath(), (Directory) entity);
+            pathTrie.add(entity.getPath());
+        }
+    }
+    
+    private void unindex(FileSystemEntity entity) {
+        nodeIndex.remove(entity.getId(), entity);
+        nameIndex.remove(entity);
+        if (entity instanceof Directory) {
+            pathIndex.remove(entity.getPath(), (Directory) entity);
+            // Another directory may already have taken the path over
+            if (!pathIndex.containsKey(entity.getPath())) {
+                pathTrie.remove(entity.getPath());
+            }
+        }
+    }
+    
+    /**
+     * Builds the starting tree and applies recovered journal records to it. Runs before
+     * the journal is open, so the replayed changes are not journaled again.
+     */
+    private class JournalReplayer implements MutationJournal.Replayer {
+        private final DiskScanner diskScanner;
+        private final ManifestImporter importer;
+        private final String scanRoot;
+        
+        JournalReplayer(DiskScanner diskScanner, ManifestImporter importer, String scanRoot) {
+            this.diskScanner = diskScanner;
+            this.importer = importer;
+            this.scanRoot = scanRoot;
+        }
+        
+        @Override
+        public void initialize() throws IOException {
+            if (importer.hasStartupManifest()) {
+                importManifest(importer);
+            } else if (scanRoot == null || scanRoot.isBlank()) {
+                initializeFileSystem();
+            } else {
+                scan(diskScanner, scanRoot);
+            }
+        }
+        
+        @Override
+        public void load(TreeImage image) {
+            installRoot(image.load());
+            log.info("Mapped tree image with {} nodes", image.getNodeCount());
+        }
+        
+        @Override
+        public void mkdir(String path) {
+            Directory parent = parentOf(path);
+            if (parent != null) {
+                parent.addChildIfAbsent(new Directory(nameOf(path)));
+            }
+        }
+        
+        @Override
+        public void addFile(String path, long size, long allocatedSize) {
+            Directory parent = parentOf(path);
+            if (parent != null) {
+                parent.addChildIfAbsent(new com.capgemini.filesystem.model.File(nameOf(path), size, allocatedSize));
+            }
+        }
+        
+        @Override
+        public void remove(String path) {
+            Directory parent = parentOf(path);
+            if (parent != null) {
+                parent.removeChild(nameOf(path));
+            }
+        }
+        
+        @Override
+        public void setSize(String path, long size) {
+            Directory parent = parentOf(path);
+            if (parent != null) {
+                parent.resizeFiles(Map.of(nameOf(path), size));
+            }
+        }
+        
+        @Override
+        public void attach(String path, TreeImage image) {
+            Directory parent = parentOf(path);
+            if (parent != null) {
+                parent.addChildIfAbsent(image.load());
+            }
+        }
+        
+        private Directory parentOf(String path) {
+            int slash = path.lastIndexOf('/');
+            Directory parent = resolve(slash == 0 ? "/" : path.substring(0, slash), root);
+            if (parent == null) {
+                log.warn("Skipping journal record for {}: parent directory does not exist", path);
+            }
+            return parent;
+        }
+        
+        private String nameOf(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+    
+    /**
+     * Visit top and every materialised entity below it; unloaded directories are
+     * visited but not descended into (their children do not exist yet)
+     */
+    private static void forEachEntity(FileSystemEntity top, Consumer<FileSystemEntity> action) {
+        if (!(top instanceof Directory)) {
+            action.accept(top);
+            return;
+        }
+        TreeWalker.preOrder((Directory) top, (entity, depth) -> {
+            action.accept(entity);
+            return entity instanceof Directory && ((Directory) entity).isLoaded();
+        });
+    }
 }
 
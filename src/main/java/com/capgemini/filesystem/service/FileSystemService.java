@@ -1,13 +1,21 @@
 package com.capgemini.filesystem.service;
 
+import com.capgemini.filesystem.exception.BatchConflictException;
 import com.capgemini.filesystem.exception.DirectoryAlreadyExistsException;
 import com.capgemini.filesystem.exception.DirectoryNotFoundException;
 import com.capgemini.filesystem.exception.InvalidPathException;
+import com.capgemini.filesystem.exception.JobNotReadyException;
+import com.capgemini.filesystem.exception.NodeNotFoundException;
 import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
 import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.SizeRanking;
+import com.capgemini.filesystem.model.TypeRollup;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,27 +24,62 @@ import java.util.Map;
 /**
  * Service class for file system operations
  * Demonstrates business logic and exception handling
+ *
+ * Every operation takes an optional session token (null for the shared global
+ * directory) and, where it applies, an optional path that addresses the target
+ * directly so the call does not depend on any working directory at all.
+ *
+ * size and tree read from a pinned, immutable version of the tree (see VersionStore),
+ * so a response is internally consistent even while writers keep changing the tree.
  */
 @Service
 public class FileSystemService {
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 10_000;
+    static final int MAX_COMPLETIONS = 1000;
     
     @Autowired
     private FileSystemManager fileSystemManager;
     
+    @Autowired
+    private ParallelSizeCalculator parallelSizeCalculator;
+    
+    @Autowired
+    private ManifestImporter manifestImporter;
+    
+    @Autowired
+    private SizeIngestor sizeIngestor;
+    
+    @Autowired
+    private FileTypeClassifier fileTypeClassifier;
+    
+    @Autowired
+    private TreeSearch treeSearch;
+    
+    @Autowired
+    private JobManager jobManager;
+    
     /**
      * Change directory - supports relative and absolute paths
      */
     public Directory changeDirectory(String path) {
+        return changeDirectory(null, path);
+    }
+    
+    /**
+     * Change the session's working directory; relative paths start from it
+     */
+    public Directory changeDirectory(String session, String path) {
         if (path == null || path.trim().isEmpty()) {
             throw new InvalidPathException("Path cannot be empty");
         }
         
-        Directory target = resolvePath(path);
+        Directory target = resolvePath(session, path);
         if (target == null) {
             throw new DirectoryNotFoundException("Directory not found: " + path);
         }
         
-        fileSystemManager.setCurrentDirectory(target);
+        fileSystemManager.setCurrentDirectory(session, target);
         return target;
     }
     
@@ -44,14 +87,48 @@ public class FileSystemService {
      * List directory contents
      */
     public Map<String, Object> listDirectory() {
-        Directory current = fileSystemManager.getCurrentDirectory();
+        return listDirectory(null, null, null, null);
+    }
+    
+    /**
+     * List one page of the current directory's contents
+     */
+    public Map<String, Object> listDirectory(Integer limit, String cursor) {
+        return listDirectory(null, null, limit, cursor);
+    }
+    
+    /**
+     * List one page of directory contents
+     *
+     * @param session session token, or null for the global directory
+     * @param path    directory to list, or null for the session's working directory
+     * @param limit   page size, or null to list every child
+     * @param cursor  nextCursor from the previous page, or null for the first page
+     */
+    public Map<String, Object> listDirectory(String session, String path, Integer limit, String cursor) {
+        Directory current = getTarget(session, path);
         Map<String, Object> result = new HashMap<>();
         
         List<Map<String, Object>> directories = new ArrayList<>();
         List<Map<String, Object>> files = new ArrayList<>();
         
-        for (FileSystemEntity child : current.getChildren()) {
+        List<FileSystemEntity> children;
+        if (limit == null && cursor == null) {
+            children = current.getChildren();
+        } else {
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+            if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            children = new ArrayList<>(pageSize);
+            long next = current.getChildren(decodeCursor(cursor), pageSize, children);
+            result.put("nextCursor", next < 0 ? null : Long.toString(next, Character.MAX_RADIX));
+            result.put("childCount", current.getChildCount());
+        }
+        
+        for (FileSystemEntity child : children) {
             Map<String, Object> item = new HashMap<>();
+            item.put("id", child.getId());
             item.put("name", child.getName());
             item.put("type", child.getType());
             item.put("size", child.calculateSize());
@@ -72,19 +149,316 @@ public class FileSystemService {
         return result;
     }
     
+    private static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(cursor, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+    
     /**
      * Calculate size of current directory (recursive)
      */
     public Map<String, Object> getDirectorySize() {
-        Directory current = fileSystemManager.getCurrentDirectory();
-        long size = current.calculateSize(); // Uses recursive calculation
+        return getDirectorySize(null, null, false, false);
+    }
+    
+    /**
+     * Calculate size of current directory, optionally recomputing the subtree
+     * aggregates from scratch and reporting any drift
+     */
+    public Map<String, Object> getDirectorySize(boolean verify) {
+        return getDirectorySize(null, null, verify, false);
+    }
+    
+    /**
+     * Calculate size of current directory
+     */
+    public Map<String, Object> getDirectorySize(boolean verify, boolean parallel) {
+        return getDirectorySize(null, null, verify, parallel);
+    }
+    
+    /**
+     * Calculate size of a directory
+     *
+     * @param session  session token, or null for the global directory
+     * @param path     directory to measure, or null for the session's working directory
+     * @param verify   recompute the subtree aggregates from scratch and report any drift
+     * @param parallel recompute the size from the files with the fork/join engine
+     *                 instead of reading the maintained total
+     */
+    public Map<String, Object> getDirectorySize(String session, String path, boolean verify, boolean parallel) {
+        return getDirectorySize(session, path, verify, parallel, null);
+    }
+    
+    /**
+     * Calculate size of a directory as of a published version
+     *
+     * The plain aggregate read is served from the version (the latest when none is
+     * given) and reports its number; verify and parallel recompute from the live tree
+     * and cannot be combined with a version.
+     */
+    public Map<String, Object> getDirectorySize(String session, String path, boolean verify, boolean parallel,
+                                                Long version) {
+        if (!verify && !parallel) {
+            return getSnapshotSize(session, path, version);
+        }
+        if (version != null) {
+            throw new IllegalArgumentException("version cannot be combined with verify or parallel");
+        }
+        Directory current = getTarget(session, path);
         
         Map<String, Object> result = new HashMap<>();
+        if (verify) {
+            List<String> drift = current.verifyAggregates(false);
+            result.put("verified", drift.isEmpty());
+            result.put("drift", drift);
+        }
+        
+        long size;
+        if (parallel) {
+            size = parallelSizeCalculator.calculateSize(current);
+            result.put("mode", "parallel");
+        } else {
+            size = current.calculateSize(); // Reads the maintained subtree total
+            result.put("mode", "aggregate");
+        }
         result.put("path", current.getPath());
         result.put("size", size);
         result.put("sizeInKB", size / 1024.0);
         result.put("sizeInMB", size / (1024.0 * 1024.0));
+        result.put("allocatedSize", current.getAllocatedSize());
+        result.put("fileCount", current.getFileCount());
+        result.put("directoryCount", current.getDirectoryCount());
+        result.put("maxDepth", current.getMaxDepth());
+        
+        return result;
+    }
+    
+    private Map<String, Object> getSnapshotSize(String session, String path, Long version) {
+        String target = getAbsolutePath(session, path);
+        try (VersionStore.Pin pin = pinVersion(version)) {
+            return getSnapshotSize(pin, target, getSnapshotDirectory(pin, target));
+        }
+    }
+    
+    /**
+     * Size of a directory of a pinned version, read from its aggregates
+     */
+    public Map<String, Object> getSnapshotSize(VersionStore.Pin pin, String path, DirectorySnapshot current) {
+        Map<String, Object> result = new HashMap<>();
+        long size = current.calculateSize();
+        result.put("mode", "aggregate");
+        result.put("version", pin.getVersion());
+        result.put("path", path);
+        result.put("size", size);
+        result.put("sizeInKB", size / 1024.0);
+        result.put("sizeInMB", size / (1024.0 * 1024.0));
+        result.put("allocatedSize", current.getAllocatedSize());
+        result.put("fileCount", current.getFileCount());
+        result.put("directoryCount", current.getDirectoryCount());
+        result.put("maxDepth", current.getMaxDepth());
+        return result;
+    }
+    
+    /**
+     * The n largest files (type "file") or directories (type "directory") anywhere below
+     * path, largest first, as of the given version or the latest one. Served from the
+     * rankings cached on the snapshots, so it costs about the same however big the
+     * subtree is.
+     */
+    public Map<String, Object> getTop(String session, String path, int n, String type, Long version) {
+        if (n < 1 || n > SizeRanking.CAPACITY) {
+            throw new IllegalArgumentException("n must be between 1 and " + SizeRanking.CAPACITY);
+        }
+        boolean files = switch (type) {
+            case "file" -> true;
+            case "directory" -> false;
+            default -> throw new IllegalArgumentException("Unknown type: " + type + " (expected file or directory)");
+        };
+        String target = getAbsolutePath(session, path);
+        try (VersionStore.Pin pin = pinVersion(version)) {
+            SizeRanking ranking = getSnapshotDirectory(pin, target).getRanking();
+            List<Map<String, Object>> entries = new ArrayList<>();
+            for (SizeRanking.Entry entry : files ? ranking.getLargestFiles(n) : ranking.getLargestDirectories(n)) {
+                Map<String, Object> info = new HashMap<>();
+                info.put("path", (target.equals("/") ? "" : target) + "/" + entry.getPath());
+                info.put("name", entry.getTarget().getName());
+                info.put("type", entry.getTarget().getType());
+                info.put("size", entry.getSize());
+                info.put("allocatedSize", entry.getTarget().getAllocatedSize());
+                entries.add(info);
+            }
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("version", pin.getVersion());
+            result.put("path", target);
+            result.put("type", type);
+            result.put("entries", entries);
+            return result;
+        }
+    }
+    
+    /**
+     * Bytes and file count below path by extension (by "extension") or by category
+     * (by "category", see {@link FileTypeClassifier}), largest first, as of the given
+     * version or the latest one. Read from the directory's maintained rollup, so the cost
+     * depends on the number of distinct extensions, not on the number of files.
+     */
+    public Map<String, Object> getBreakdown(String session, String path, String by, Long version) {
+        boolean byCategory = switch (by) {
+            case "extension" -> false;
+            case "category" -> true;
+            default -> throw new IllegalArgumentException("Unknown breakdown: " + by + " (expected extension or category)");
+        };
+        String target = getAbsolutePath(session, path);
+        try (VersionStore.Pin pin = pinVersion(version)) {
+            DirectorySnapshot current = getSnapshotDirectory(pin, target);
+            TypeRollup rollup = current.getRollup();
+            Map<String, long[]> totals = new HashMap<>();
+            rollup.forEach((extension, size, fileCount) -> {
+                String type = byCategory ? fileTypeClassifier.categoryOf(extension) : extension;
+                long[] total = totals.computeIfAbsent(type, key -> new long[2]);
+                total[0] += size;
+                total[1] += fileCount;
+            });
+            
+            List<Map<String, Object>> types = new ArrayList<>();
+            totals.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+                    .forEach(entry -> {
+                        Map<String, Object> info = new HashMap<>();
+                        info.put("type", entry.getKey());
+                        info.put("size", entry.getValue()[0]);
+                        info.put("fileCount", entry.getValue()[1]);
+                        types.add(info);
+                    });
+            
+            Map<String, Object> result = new HashMap<>();
+            result.put("version", pin.getVersion());
+            result.put("path", target);
+            result.put("by", by);
+            result.put("size", current.calculateSize());
+            result.put("fileCount", current.getFileCount());
+            result.put("types", types);
+            return result;
+        }
+    }
+    
+    /**
+     * Plan a search below path (or the session's working directory) for entries whose
+     * name matches glob, within the size range and of the given type; run it with
+     * {@link TreeSearch.Query#run}
+     */
+    public TreeSearch.Query find(String session, String path, String glob, Long minSize, Long maxSize,
+                                 String type, int limit) {
+        return treeSearch.query(getTarget(session, path), glob, minSize, maxSize, type, limit);
+    }
+    
+    /**
+     * Start recounting the size below path (or the session's working directory) from its
+     * files in the background, as of the given version or the latest one
+     */
+    public Map<String, Object> submitSizeJob(String session, String path, Long version) {
+        String target = getAbsolutePath(session, path);
+        VersionStore.Pin pin = pinVersion(version);
+        try {
+            return describeJob(jobManager.submitSize(target, pin, getSnapshotDirectory(pin, target)));
+        } catch (RuntimeException e) {
+            pin.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Start serialising the tree below path (the root when no path is given) in the
+     * background, in the same format and with the same depth limit as GET /tree
+     */
+    public Map<String, Object> submitTreeJob(String session, String path, String format, Integer depth, Long version) {
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        if (!ndjson && !"json".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("Unsupported tree format: " + format);
+        }
+        int maxDepth = getTreeDepth(depth);
+        String target = getTreePath(session, path);
+        VersionStore.Pin pin = pinVersion(version);
+        try {
+            return describeJob(jobManager.submitTree(target, pin, getSnapshotDirectory(pin, target), ndjson, maxDepth));
+        } catch (RuntimeException e) {
+            pin.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * State and progress of a job
+     */
+    public Map<String, Object> getJob(String id) {
+        return describeJob(jobManager.get(id));
+    }
+    
+    /**
+     * Cancel a queued or running job, or discard a finished one
+     */
+    public Map<String, Object> cancelJob(String id) {
+        return describeJob(jobManager.cancel(id));
+    }
+    
+    /**
+     * A job that has succeeded, for its serialised result
+     *
+     * @throws JobNotReadyException if the job is still running, failed or was cancelled
+     */
+    public JobManager.Job getJobResult(String id) {
+        JobManager.Job job = jobManager.get(id);
+        if (!job.hasResult()) {
+            throw new JobNotReadyException("Job " + id + " has no result: it is " + job.getState());
+        }
+        return job;
+    }
+    
+    private Map<String, Object> describeJob(JobManager.Job job) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", job.getId());
+        result.put("type", job.getType());
+        result.put("state", job.getState().name());
+        result.put("path", job.getPath());
+        result.put("version", job.getVersion());
+        result.put("nodesVisited", job.getNodesVisited());
+        result.put("nodesTotal", job.getNodesTotal());
+        result.put("bytesSeen", job.getBytesSeen());
+        result.put("elapsedMillis", job.getElapsedMillis());
+        if (job.getError() != null) {
+            result.put("error", job.getError());
+        }
+        return result;
+    }
+    
+    /**
+     * Directories cd could complete prefix to: those whose path extends it within its
+     * last component, in lexicographic order, at most limit of them. A relative prefix
+     * starts from the session's working directory; one ending in "/" lists that
+     * directory's subdirectories.
+     */
+    public Map<String, Object> complete(String session, String prefix, int limit) {
+        if (limit < 1 || limit > MAX_COMPLETIONS) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_COMPLETIONS);
+        }
+        String typed = prefix == null ? "" : prefix.trim();
+        int slash = typed.lastIndexOf('/');
+        String parent = getAbsolutePath(session, slash < 0 ? null : slash == 0 ? "/" : typed.substring(0, slash));
+        String absolute = (parent.equals("/") ? "/" : parent + "/") + typed.substring(slash + 1);
+        // One extra completion tells whether there are more
+        List<String> completions = fileSystemManager.completePath(absolute, limit + 1);
         
+        Map<String, Object> result = new HashMap<>();
+        result.put("prefix", absolute);
+        result.put("completions", completions.size() > limit ? completions.subList(0, limit) : completions);
+        result.put("truncated", completions.size() > limit);
         return result;
     }
     
@@ -92,6 +466,33 @@ public class FileSystemService {
      * Create a new directory
      */
     public Directory createDirectory(String name) {
+        return createDirectory(null, null, name);
+    }
+    
+    /**
+     * Create a new directory in parentPath, or in the session's working directory
+     */
+    public Directory createDirectory(String session, String parentPath, String name) {
+        checkDirectoryName(name);
+        
+        Directory current = getTarget(session, parentPath);
+        
+        // Check if directory already exists
+        FileSystemEntity existing = current.getChild(name);
+        if (existing != null) {
+            throw new DirectoryAlreadyExistsException("Directory already exists: " + name);
+        }
+        
+        Directory newDirectory = new Directory(name);
+        if (!current.addChildIfAbsent(newDirectory)) {
+            // Lost a race with a concurrent mkdir of the same name
+            throw new DirectoryAlreadyExistsException("Directory already exists: " + name);
+        }
+        fileSystemManager.awaitDurable();
+        return newDirectory;
+    }
+    
+    private static void checkDirectoryName(String name) {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Directory name cannot be empty");
         }
@@ -99,29 +500,63 @@ public class FileSystemService {
         if (name.contains("/") || name.contains("\\")) {
             throw new InvalidPathException("Directory name cannot contain path separators");
         }
+    }
+    
+    /**
+     * Import a manifest (du -ab output, ncdu export or path,size CSV) as a new directory
+     * called name in parentPath, or in the session's working directory. The whole
+     * manifest is read into a packed tree first and then attached with a single add,
+     * which the journal records as one image rather than one record per entry.
+     *
+     * @throws DirectoryAlreadyExistsException if name is already taken
+     * @throws IllegalArgumentException        if the format is unknown or the manifest malformed
+     */
+    public Map<String, Object> importManifest(String session, String parentPath, String name, String format,
+                                              InputStream manifest) throws IOException {
+        checkDirectoryName(name);
+        ManifestImporter.Format manifestFormat = ManifestImporter.Format.of(format);
+        Directory current = getTarget(session, parentPath);
+        if (current.getChild(name) != null) {
+            throw new DirectoryAlreadyExistsException("Directory already exists: " + name);
+        }
         
-        Directory current = fileSystemManager.getCurrentDirectory();
-        
-        // Check if directory already exists
-        FileSystemEntity existing = current.getChild(name);
-        if (existing != null) {
+        ManifestImporter.ImportReport report = manifestImporter.read(manifest, manifestFormat, name);
+        Directory imported = report.getRoot();
+        if (!current.addChildIfAbsent(imported)) {
+            // Taken by a concurrent request while the manifest was being read
             throw new DirectoryAlreadyExistsException("Directory already exists: " + name);
         }
+        fileSystemManager.awaitDurable();
         
-        Directory newDirectory = new Directory(name);
-        current.addChild(newDirectory);
-        return newDirectory;
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", imported.getId());
+        result.put("path", imported.getPath());
+        result.put("format", report.getFormat());
+        result.put("files", report.getFiles());
+        result.put("directories", report.getDirectories());
+        result.put("size", report.getSize());
+        result.put("allocatedSize", report.getAllocatedSize());
+        result.put("entriesSkipped", report.getEntriesSkipped());
+        result.put("elapsedMillis", report.getElapsedMillis());
+        return result;
     }
     
     /**
      * Remove a directory
      */
     public void removeDirectory(String name) {
+        removeDirectory(null, null, name);
+    }
+    
+    /**
+     * Remove a directory from parentPath, or from the session's working directory
+     */
+    public void removeDirectory(String session, String parentPath, String name) {
         if (name == null || name.trim().isEmpty()) {
             throw new IllegalArgumentException("Directory name cannot be empty");
         }
         
-        Directory current = fileSystemManager.getCurrentDirectory();
+        Directory current = getTarget(session, parentPath);
         
         FileSystemEntity entity = current.getChild(name);
         if (entity == null) {
@@ -132,8 +567,8 @@ public class FileSystemService {
             throw new IllegalArgumentException("Entity is not a directory: " + name);
         }
         
-        // Prevent removing current directory or root
-        if (entity == fileSystemManager.getCurrentDirectory()) {
+        // Prevent removing the caller's current directory (or one of its ancestors) or root
+        if (isAncestorOrSelf(entity, fileSystemManager.getCurrentDirectory(session))) {
             throw new IllegalArgumentException("Cannot remove current directory");
         }
         
@@ -141,103 +576,256 @@ public class FileSystemService {
             throw new IllegalArgumentException("Cannot remove root directory");
         }
         
-        current.removeChild(name);
+        if (!current.removeChild(name)) {
+            throw new DirectoryNotFoundException("Directory not found: " + name);
+        }
+        fileSystemManager.awaitDurable();
+    }
+    
+    /**
+     * Apply an ordered list of operations all-or-nothing. Each operation is a map with
+     * "op" (mkdir, rmdir, create or setSize), "path" (absolute, or relative to the
+     * session's working directory) and, for create and setSize, "size". mkdir creates
+     * missing parents; rmdir removes the whole subtree.
+     *
+     * @throws IllegalArgumentException if an operation is malformed or invalid; the error
+     *                                  names it and nothing is applied
+     * @throws BatchConflictException   if a concurrent request changed the tree meanwhile
+     */
+    public Map<String, Object> applyBatch(String session, List<Map<String, Object>> operations) {
+        if (operations == null) {
+            throw new IllegalArgumentException("operations must be given");
+        }
+        if (operations.size() > TreeBatch.MAX_OPERATIONS) {
+            throw new IllegalArgumentException("A batch holds at most " + TreeBatch.MAX_OPERATIONS + " operations");
+        }
+        
+        TreeBatch batch = new TreeBatch(fileSystemManager, fileSystemManager.getCurrentDirectory(session));
+        for (int i = 0; i < operations.size(); i++) {
+            Map<String, Object> operation = operations.get(i);
+            Object op = operation.get("op");
+            Object path = operation.get("path");
+            if (!(path instanceof String) || ((String) path).trim().isEmpty()) {
+                throw new IllegalArgumentException("operations[" + i + "]: path must be given");
+            }
+            String absolutePath = getAbsolutePath(session, (String) path);
+            if ("mkdir".equals(op)) {
+                batch.mkdir(i, absolutePath);
+            } else if ("rmdir".equals(op)) {
+                batch.rmdir(i, absolutePath);
+            } else if ("create".equals(op)) {
+                batch.create(i, absolutePath, getSize(operation, i, 0L));
+            } else if ("setSize".equals(op)) {
+                batch.setSize(i, absolutePath, getSize(operation, i, null));
+            } else {
+                throw new IllegalArgumentException("operations[" + i + "]: unknown op " + op
+                        + " (use mkdir, rmdir, create or setSize)");
+            }
+        }
+        
+        List<Map<String, Object>> results = batch.apply();
+        fileSystemManager.awaitDurable();
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("applied", results.size());
+        result.put("results", results);
+        return result;
+    }
+    
+    private static long getSize(Map<String, Object> operation, int index, Long defaultSize) {
+        Object size = operation.get("size");
+        if (size == null && defaultSize != null) {
+            return defaultSize;
+        }
+        if (!(size instanceof Number)) {
+            throw new IllegalArgumentException("operations[" + index + "]: size must be a number");
+        }
+        return ((Number) size).longValue();
+    }
+    
+    /**
+     * Accept a stream of file size events (see {@link SizeIngestor#ingest}). They are
+     * applied by the next flush; with flush=true they are applied, and durable, before
+     * this returns.
+     */
+    public Map<String, Object> ingestSizes(InputStream events, boolean flush) throws IOException {
+        long accepted = sizeIngestor.ingest(events);
+        if (flush) {
+            sizeIngestor.flush();
+        }
+        Map<String, Object> result = getIngestStats();
+        result.put("accepted", accepted);
+        return result;
+    }
+    
+    /**
+     * Size ingestion counters since startup
+     */
+    public Map<String, Object> getIngestStats() {
+        return sizeIngestor.getStats();
+    }
+    
+    /**
+     * Describe the file or directory with the given id, found through the id index
+     * without resolving any path
+     */
+    public Map<String, Object> getNode(long id) {
+        FileSystemEntity node = fileSystemManager.getNode(id);
+        if (node == null) {
+            throw new NodeNotFoundException("Node not found: " + id);
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("id", node.getId());
+        result.put("name", node.getName());
+        result.put("type", node.getType());
+        result.put("path", node.getPath());
+        result.put("parentId", node.getParent() == null ? null : node.getParent().getId());
+        result.put("size", node.calculateSize());
+        result.put("allocatedSize", node.getAllocatedSize());
+        if (node instanceof Directory) {
+            Directory directory = (Directory) node;
+            result.put("childCount", directory.getChildCount());
+            result.put("fileCount", directory.getFileCount());
+            result.put("directoryCount", directory.getDirectoryCount());
+            result.put("maxDepth", directory.getMaxDepth());
+        }
+        return result;
     }
     
     /**
      * Get current directory path
      */
     public Map<String, Object> getCurrentPath() {
-        Directory current = fileSystemManager.getCurrentDirectory();
+        return getCurrentPath(null);
+    }
+    
+    /**
+     * Get the session's working directory path
+     */
+    public Map<String, Object> getCurrentPath(String session) {
+        Directory current = fileSystemManager.getCurrentDirectory(session);
         Map<String, Object> result = new HashMap<>();
         result.put("path", current.getPath());
         result.put("name", current.getName());
         return result;
     }
     
+    /**
+     * Validate a tree depth limit; null means unlimited
+     */
+    public int getTreeDepth(Integer depth) {
+        if (depth == null) {
+            return Integer.MAX_VALUE;
+        }
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative");
+        }
+        return depth;
+    }
+    
     /**
      * Get directory tree structure
      */
     public FileSystemEntity.TreeRepresentation getDirectoryTree(String path) {
-        Directory target;
+        return getTreeRoot(path).getTreeRepresentation();
+    }
+    
+    /**
+     * Resolve the directory a tree request starts from (the root when no path is given)
+     */
+    public Directory getTreeRoot(String path) {
+        return getTreeRoot(null, path);
+    }
+    
+    /**
+     * Resolve the directory a tree request starts from; relative paths start from the
+     * session's working directory
+     */
+    public Directory getTreeRoot(String session, String path) {
         if (path == null || path.trim().isEmpty() || path.equals("/")) {
-            target = fileSystemManager.getRoot();
-        } else {
-            target = resolvePath(path);
-            if (target == null) {
-                throw new DirectoryNotFoundException("Directory not found: " + path);
-            }
+            return fileSystemManager.getRoot();
         }
-        
-        return target.getTreeRepresentation();
+        Directory target = resolvePath(session, path);
+        if (target == null) {
+            throw new DirectoryNotFoundException("Directory not found: " + path);
+        }
+        return target;
+    }
+    
+    /**
+     * Pin a published version of the tree; the caller must close the pin
+     *
+     * @param version version number, or null for the latest
+     */
+    public VersionStore.Pin pinVersion(Long version) {
+        return fileSystemManager.getVersions().pin(version);
     }
     
     /**
-     * Resolve a path (absolute or relative) to a Directory
+     * Normalised absolute path of a target, resolved textually so that it can be looked
+     * up in any version: no path means the session's working directory, and relative
+     * paths start from it
      */
-    private Directory resolvePath(String path) {
+    public String getAbsolutePath(String session, String path) {
+        String base = fileSystemManager.getCurrentDirectory(session).getPath();
+        if (path == null || path.trim().isEmpty()) {
+            return base;
+        }
         path = path.trim();
-        
-        // Handle absolute paths
-        if (path.startsWith("/")) {
-            return resolveAbsolutePath(path);
+        return PathResolver.normalise(path.charAt(0) == '/' ? path : base + "/" + path);
+    }
+    
+    /**
+     * Normalised absolute path a tree request starts from (the root when no path is given)
+     */
+    public String getTreePath(String session, String path) {
+        if (path == null || path.trim().isEmpty()) {
+            return "/";
         }
-        
-        // Handle relative paths
-        return resolveRelativePath(path);
+        return getAbsolutePath(session, path);
     }
     
     /**
-     * Resolve absolute path
+     * Look up a directory by normalised absolute path in a pinned version. It is always
+     * resolved in the pinned tree, even for the latest version: a live directory's
+     * snapshot may already be newer than the pin, or belong to a directory removed since.
      */
-    private Directory resolveAbsolutePath(String path) {
-        if (path.equals("/")) {
-            return fileSystemManager.getRoot();
+    public DirectorySnapshot getSnapshotDirectory(VersionStore.Pin pin, String absolutePath) {
+        DirectorySnapshot target = pin.getRoot().resolve(absolutePath);
+        if (target == null) {
+            throw new DirectoryNotFoundException("Directory not found: " + absolutePath);
         }
-        
-        String[] parts = path.substring(1).split("/");
-        Directory current = fileSystemManager.getRoot();
-        
-        for (String part : parts) {
-            if (part.isEmpty()) continue;
-            
-            FileSystemEntity entity = current.getChild(part);
-            if (entity == null || !(entity instanceof Directory)) {
-                return null;
-            }
-            current = (Directory) entity;
+        return target;
+    }
+    
+    /**
+     * Directory addressed by path, or the session's working directory when no path is given
+     */
+    private Directory getTarget(String session, String path) {
+        if (path == null || path.trim().isEmpty()) {
+            return fileSystemManager.getCurrentDirectory(session);
         }
-        
-        return current;
+        Directory target = resolvePath(session, path);
+        if (target == null) {
+            throw new DirectoryNotFoundException("Directory not found: " + path);
+        }
+        return target;
     }
     
     /**
-     * Resolve relative path
+     * Resolve a path (absolute or relative to the session's working directory) to a Directory
      */
-    private Directory resolveRelativePath(String path) {
-        String[] parts = path.split("/");
-        Directory current = fileSystemManager.getCurrentDirectory();
-        
-        for (String part : parts) {
-            if (part.isEmpty() || part.equals(".")) {
-                continue;
-            }
-            
-            if (part.equals("..")) {
-                if (current.getParent() != null) {
-                    current = (Directory) current.getParent();
-                }
-                continue;
-            }
-            
-            FileSystemEntity entity = current.getChild(part);
-            if (entity == null || !(entity instanceof Directory)) {
-                return null;
+    private Directory resolvePath(String session, String path) {
+        return fileSystemManager.resolve(path.trim(), fileSystemManager.getCurrentDirectory(session));
+    }
+    
+    private static boolean isAncestorOrSelf(FileSystemEntity ancestor, FileSystemEntity entity) {
+        for (FileSystemEntity e = entity; e != null; e = e.getParent()) {
+            if (e == ancestor) {
+                return true;
             }
-            current = (Directory) entity;
         }
-        
-        return current;
+        return false;
     }
 }
-
@@ -0,0 +1,57 @@
+package com.capgemini.filesystem.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps file extensions to coarser categories (image, video, document, ...) for the
+ * breakdown endpoint. Directories keep their rollups by extension; a category breakdown
+ * groups those, so changing the categories needs no rescan.
+ *
+ * Configured as "category=ext,ext;category=ext,..." in filesystem.breakdown.categories;
+ * extensions not listed (and files without one) are "other".
+ */
+@Component
+public class FileTypeClassifier {
+    static final String OTHER = "other";
+    static final String DEFAULT_CATEGORIES = "image=jpg,jpeg,png,gif,bmp,svg,webp,heic,tiff;"
+            + "video=mp4,mkv,avi,mov,webm,wmv;"
+            + "audio=mp3,wav,flac,aac,ogg,m4a;"
+            + "document=pdf,doc,docx,xls,xlsx,ppt,pptx,odt,txt,md,csv,rtf;"
+            + "archive=zip,tar,gz,tgz,bz2,xz,7z,rar,iso;"
+            + "code=java,js,ts,py,c,h,cpp,go,rs,rb,kt,cs,html,css,json,xml,yml,yaml,sh";
+    
+    private final Map<String, String> categories = new HashMap<>();
+    
+    @Autowired
+    public FileTypeClassifier(@Value("${filesystem.breakdown.categories:}") String categories) {
+        String spec = categories == null || categories.isBlank() ? DEFAULT_CATEGORIES : categories;
+        for (String group : spec.split(";")) {
+            if (group.isBlank()) {
+                continue;
+            }
+            int equals = group.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Malformed category (expected name=ext,ext): " + group);
+            }
+            String category = group.substring(0, equals).trim();
+            for (String extension : group.substring(equals + 1).split(",")) {
+                if (!extension.isBlank()) {
+                    this.categories.put(extension.trim().toLowerCase(Locale.ROOT), category);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Category of a lower-case extension (as kept by the rollups)
+     */
+    public String categoryOf(String extension) {
+        return categories.getOrDefault(extension, OTHER);
+    }
+}
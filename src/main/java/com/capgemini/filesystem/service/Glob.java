@@ -0,0 +1,136 @@
+package com.capgemini.filesystem.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A shell-style name pattern: "*" matches any run of characters, "?" any one character,
+ * "[abc]" / "[a-z]" / "[!abc]" one character from (or not from) a set, and "\" escapes
+ * the next character. Patterns match whole names, never paths.
+ *
+ * Besides matching, a glob reports what the name index can use: the whole name when
+ * it has no wildcards, otherwise the trigrams of its literal runs, all of which any
+ * matching name must contain.
+ */
+final class Glob {
+    private final String source;
+    private final Pattern pattern;
+    private final String literal;
+    private final Set<String> trigrams = new LinkedHashSet<>();
+    
+    private Glob(String source) {
+        this.source = source;
+        StringBuilder regex = new StringBuilder();
+        StringBuilder run = new StringBuilder();
+        boolean wildcard = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    regex.append(".*");
+                    endRun(run);
+                    wildcard = true;
+                }
+                case '?' -> {
+                    regex.append('.');
+                    endRun(run);
+                    wildcard = true;
+                }
+                case '[' -> {
+                    int close = source.indexOf(']', i + 2);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unclosed [ in glob: " + source);
+                    }
+                    String set = source.substring(i + 1, close);
+                    regex.append('[');
+                    if (set.startsWith("!")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    regex.append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    i = close;
+                    endRun(run);
+                    wildcard = true;
+                }
+                case '\\' -> {
+                    if (i + 1 == source.length()) {
+                        throw new IllegalArgumentException("Glob ends with an escape: " + source);
+                    }
+                    char escaped = source.charAt(++i);
+                    regex.append(Pattern.quote(String.valueOf(escaped)));
+                    run.append(escaped);
+                }
+                default -> {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    run.append(c);
+                }
+            }
+        }
+        this.literal = wildcard ? null : run.toString();
+        endRun(run);
+        try {
+            this.pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Malformed glob: " + source);
+        }
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the pattern is empty, contains "/" or is malformed
+     */
+    static Glob compile(String glob) {
+        if (glob == null || glob.isEmpty()) {
+            throw new IllegalArgumentException("glob must not be empty");
+        }
+        if (glob.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("glob matches names and must not contain '/': " + glob);
+        }
+        return new Glob(glob);
+    }
+    
+    boolean matches(String name) {
+        return literal != null ? literal.equals(name) : pattern.matcher(name).matches();
+    }
+    
+    /**
+     * The exact name this glob matches, or null if it has wildcards
+     */
+    String getLiteral() {
+        return literal;
+    }
+    
+    /**
+     * Trigrams every matching name contains (empty if no literal run is 3 characters long)
+     */
+    Set<String> getTrigrams() {
+        return trigrams;
+    }
+    
+    /**
+     * All three-character substrings of s
+     */
+    static List<String> trigramsOf(String s) {
+        List<String> result = new ArrayList<>(Math.max(0, s.length() - 2));
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            result.add(s.substring(i, i + 3));
+        }
+        return result;
+    }
+    
+    /**
+     * Close the current literal run, keeping its trigrams
+     */
+    private void endRun(StringBuilder run) {
+        trigrams.addAll(trigramsOf(run.toString()));
+        run.setLength(0);
+    }
+    
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,488 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.exception.JobNotFoundException;
+import com.capgemini.filesystem.exception.JobRejectedException;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.SnapshotEntry;
+import com.capgemini.filesystem.model.SnapshotVisitor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs size and tree traversals in the background, so a request on a huge subtree
+ * does not hold a servlet thread until the traversal is done.
+ *
+ * Jobs run on a fixed pool of worker threads behind a bounded queue; when the queue is
+ * full new jobs are rejected instead of piling up. Each job walks a pinned version of
+ * the tree, so it sees one consistent tree however long it runs, and counts the nodes
+ * it has visited and the file bytes it has seen as it goes. Cancellation is
+ * cooperative: the walk checks the job's flag at every node.
+ *
+ * Finished jobs (succeeded, failed or cancelled) keep their result for the TTL and are
+ * then dropped the next time jobs are submitted or looked up; beyond max-finished
+ * retained jobs the oldest finished ones go first. Size results are a few bytes and stay
+ * in memory; a tree result is spooled to a temporary file as it is written, up to
+ * max-result-bytes (a larger tree fails the job), and the file is deleted with the job.
+ * Cancelling a queued job takes it off the queue and releases its version at once.
+ */
+@Component
+public class JobManager {
+    private static final Logger log = LoggerFactory.getLogger(JobManager.class);
+    
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+    
+    private final TreeStreamWriter treeStreamWriter;
+    private final ObjectMapper objectMapper;
+    private final ThreadPoolExecutor executor;
+    private final long ttlMillis;
+    private final int maxFinished;
+    private final long maxResultBytes;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    
+    @Autowired
+    public JobManager(TreeStreamWriter treeStreamWriter, ObjectMapper objectMapper,
+                      @Value("${filesystem.jobs.threads:2}") int threads,
+                      @Value("${filesystem.jobs.queue-capacity:100}") int queueCapacity,
+                      @Value("${filesystem.jobs.ttl-seconds:600}") long ttlSeconds,
+                      @Value("${filesystem.jobs.max-finished:100}") int maxFinished,
+                      @Value("${filesystem.jobs.max-result-bytes:268435456}") long maxResultBytes) {
+        this.treeStreamWriter = treeStreamWriter;
+        this.objectMapper = objectMapper;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxFinished = Math.max(0, maxFinished);
+        this.maxResultBytes = maxResultBytes;
+        AtomicInteger workers = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), task -> {
+                    Thread thread = new Thread(task, "tree-job-" + workers.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+    
+    /**
+     * Recount the size of top from its files: {path, version, size, allocatedSize,
+     * fileCount, directoryCount}
+     *
+     * @param pin pinned version top belongs to; the job takes it over and closes it
+     * @throws JobRejectedException if the queue is full
+     */
+    public Job submitSize(String path, VersionStore.Pin pin, DirectorySnapshot top) {
+        return submit(new Job("size", path, pin, top) {
+            @Override
+            void execute() throws Exception {
+                long[] totals = new long[4]; // size, allocated size, files, directories
+                top.walk(new SnapshotVisitor() {
+                    @Override
+                    public boolean enter(SnapshotEntry entry, int depth) {
+                        visit(entry);
+                        if (entry instanceof DirectorySnapshot) {
+                            totals[3] += depth > 0 ? 1 : 0;
+                            return true;
+                        }
+                        totals[0] += entry.calculateSize();
+                        totals[1] += entry.getAllocatedSize();
+                        totals[2]++;
+                        return false;
+                    }
+                });
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("path", getPath());
+                result.put("version", getVersion());
+                result.put("size", totals[0]);
+                result.put("allocatedSize", totals[1]);
+                result.put("fileCount", totals[2]);
+                result.put("directoryCount", totals[3]);
+                complete(objectMapper.writeValueAsBytes(result), MediaType.APPLICATION_JSON_VALUE);
+            }
+        });
+    }
+    
+    /**
+     * Serialise the tree below top exactly as GET /tree would, into a temporary file
+     *
+     * @param pin      pinned version top belongs to; the job takes it over and closes it
+     * @param maxDepth deepest level to expand
+     * @throws JobRejectedException if the queue is full
+     */
+    public Job submitTree(String path, VersionStore.Pin pin, DirectorySnapshot top, boolean ndjson, int maxDepth) {
+        return submit(new Job("tree", path, pin, top) {
+            @Override
+            void execute() throws Exception {
+                Path file = Files.createTempFile("tree-job-", ndjson ? ".ndjson" : ".json");
+                try (OutputStream out = new CappedOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(file), 1 << 16), maxResultBytes)) {
+                    if (ndjson) {
+                        treeStreamWriter.writeNdjson(top, path, maxDepth, out, this::visit);
+                    } else {
+                        treeStreamWriter.writeJson(top, getVersion(), maxDepth, out, this::visit);
+                    }
+                } catch (Exception e) {
+                    Files.deleteIfExists(file);
+                    throw e;
+                }
+                complete(file, ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+            }
+        });
+    }
+    
+    /**
+     * @throws JobNotFoundException if there is no such job, or its result has expired
+     */
+    public Job get(String id) {
+        expire();
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new JobNotFoundException("Job not found: " + id);
+        }
+        return job;
+    }
+    
+    /**
+     * Ask a queued or running job to stop; a finished job is discarded with its result
+     *
+     * @throws JobNotFoundException if there is no such job
+     */
+    public Job cancel(String id) {
+        Job job = get(id);
+        State before = job.requestCancel();
+        if (before == State.QUEUED) {
+            // Was still queued: free its queue slot and its version now, not when a worker gets to it
+            executor.remove(job);
+            job.pin.close();
+        } else if (before != State.RUNNING) {
+            discard(job);
+        }
+        return job;
+    }
+    
+    Job submit(Job job) {
+        expire();
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            job.pin.close();
+            throw new JobRejectedException("Too many jobs queued; try again later");
+        }
+        return job;
+    }
+    
+    /**
+     * Drop finished jobs past the TTL, then the oldest finished ones beyond maxFinished
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        List<Job> finished = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (!job.isFinished()) {
+                continue;
+            }
+            if (now - job.finishedAt > ttlMillis) {
+                discard(job);
+            } else {
+                finished.add(job);
+            }
+        }
+        if (finished.size() > maxFinished) {
+            finished.sort(Comparator.comparingLong(job -> job.finishedAt));
+            finished.subList(finished.size() - maxFinished, finished.size()).clear();
+            finished.forEach(this::discard);
+        }
+    }
+    
+    private void discard(Job job) {
+        if (jobs.remove(job.getId(), job)) {
+            job.deleteResult();
+        }
+    }
+    
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        jobs.values().forEach(this::discard);
+    }
+    
+    /**
+     * Fails the write once more than max bytes have gone through
+     */
+    private static final class CappedOutputStream extends FilterOutputStream {
+        private final long max;
+        private long written;
+        
+        CappedOutputStream(OutputStream out, long max) {
+            super(out);
+            this.max = max;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+            out.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+            out.write(b, off, len);
+        }
+        
+        private void count(int bytes) throws IOException {
+            written += bytes;
+            if (written > max) {
+                throw new IOException("Result is larger than " + max + " bytes");
+            }
+        }
+    }
+    
+    /**
+     * One background traversal. Progress counters are written by the worker alone and
+     * may be read at any time.
+     */
+    public abstract static class Job implements Runnable {
+        private final String id = UUID.randomUUID().toString();
+        private final String type;
+        private final String path;
+        private final VersionStore.Pin pin;
+        private final long nodesTotal;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelRequested;
+        private volatile long nodesVisited;
+        private volatile long bytesSeen;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile String error;
+        // The result: in memory, or spooled to a file (deleted when the job is dropped)
+        private volatile byte[] result;
+        private volatile Path resultFile;
+        private volatile String contentType;
+        
+        Job(String type, String path, VersionStore.Pin pin, DirectorySnapshot top) {
+            this.type = type;
+            this.path = path;
+            this.pin = pin;
+            this.nodesTotal = 1 + top.getFileCount() + top.getDirectoryCount();
+        }
+        
+        /**
+         * The traversal; calls {@link #visit} for every node and {@link #complete} at the end
+         */
+        abstract void execute() throws Exception;
+        
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (state != State.QUEUED) {
+                        return; // cancelled while queued
+                    }
+                    state = State.RUNNING;
+                    startedAt = System.currentTimeMillis();
+                }
+                execute();
+                finish(State.SUCCEEDED);
+            } catch (CancellationException e) {
+                finish(State.CANCELLED);
+            } catch (Exception e) {
+                log.warn("{} job {} on {} failed", type, id, path, e);
+                error = e.toString();
+                finish(State.FAILED);
+            } finally {
+                pin.close();
+            }
+        }
+        
+        /**
+         * Count a node; stops the traversal if the job was cancelled
+         */
+        void visit(SnapshotEntry entry) {
+            if (cancelRequested) {
+                throw new CancellationException();
+            }
+            nodesVisited++;
+            if (!(entry instanceof DirectorySnapshot)) {
+                bytesSeen += entry.calculateSize();
+            }
+        }
+        
+        void complete(byte[] result, String contentType) {
+            this.contentType = contentType;
+            this.result = result;
+        }
+        
+        void complete(Path resultFile, String contentType) {
+            this.contentType = contentType;
+            this.resultFile = resultFile;
+        }
+        
+        private synchronized void finish(State finalState) {
+            finishedAt = System.currentTimeMillis();
+            state = finalState;
+        }
+        
+        /**
+         * Stop the job: a queued job is cancelled at once, a running one at its next node
+         *
+         * @return the state before the request; a finished job is left as it is
+         */
+        private synchronized State requestCancel() {
+            State before = state;
+            if (isFinished()) {
+                return before;
+            }
+            cancelRequested = true;
+            if (before == State.QUEUED) {
+                finish(State.CANCELLED);
+            }
+            return before;
+        }
+        
+        public boolean isFinished() {
+            State current = state;
+            return current == State.SUCCEEDED || current == State.FAILED || current == State.CANCELLED;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public String getPath() {
+            return path;
+        }
+        
+        public long getVersion() {
+            return pin.getVersion();
+        }
+        
+        public State getState() {
+            return state;
+        }
+        
+        public long getNodesVisited() {
+            return nodesVisited;
+        }
+        
+        /**
+         * Nodes below and including the job's directory; a depth-limited tree visits fewer
+         */
+        public long getNodesTotal() {
+            return nodesTotal;
+        }
+        
+        /**
+         * File bytes seen so far
+         */
+        public long getBytesSeen() {
+            return bytesSeen;
+        }
+        
+        /**
+         * Milliseconds spent running so far (0 while queued)
+         */
+        public long getElapsedMillis() {
+            long started = startedAt;
+            if (started == 0) {
+                return 0;
+            }
+            long finished = finishedAt;
+            return (finished != 0 ? finished : System.currentTimeMillis()) - started;
+        }
+        
+        public long getSubmittedAt() {
+            return submittedAt;
+        }
+        
+        /**
+         * Why the job failed, or null
+         */
+        public String getError() {
+            return error;
+        }
+        
+        /**
+         * Has the job succeeded with a result?
+         */
+        public boolean hasResult() {
+            return state == State.SUCCEEDED && (result != null || resultFile != null);
+        }
+        
+        /**
+         * Length of the serialised result in bytes
+         *
+         * @throws IllegalStateException unless the job has a result
+         */
+        public long getResultLength() throws IOException {
+            checkResult();
+            Path file = resultFile;
+            return file != null ? Files.size(file) : result.length;
+        }
+        
+        /**
+         * Copy the serialised result to out
+         *
+         * @throws IllegalStateException unless the job has a result
+         */
+        public void writeResult(OutputStream out) throws IOException {
+            checkResult();
+            Path file = resultFile;
+            if (file != null) {
+                Files.copy(file, out);
+            } else {
+                out.write(result);
+            }
+        }
+        
+        private void checkResult() {
+            if (!hasResult()) {
+                throw new IllegalStateException("Job " + id + " has no result");
+            }
+        }
+        
+        private void deleteResult() {
+            Path file = resultFile;
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Could not delete result {} of job {}", file, id, e);
+                }
+            }
+        }
+        
+        public String getContentType() {
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.NodeStore;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a tree from an inventory manifest in one streaming pass.
+ *
+ * Supported formats:
+ * <ul>
+ *   <li>du: the output of {@code du -ab}, one "size TAB path" line per entry. A path
+ *       that later turns out to be the parent of other entries is a directory (du
+ *       lists a directory after its contents), anything else is a file.</li>
+ *   <li>ncdu: an {@code ncdu -o} JSON export, read with a streaming parser. Hard links
+ *       are counted once per inode.</li>
+ *   <li>csv: "path,size" lines (the path may be double-quoted); a path ending in "/"
+ *       is a directory. A non-numeric first line is taken as a header.</li>
+ * </ul>
+ * Paths are taken relative to the manifest's top directory: a leading "./" or "/" is
+ * dropped, and the top directory's own line ("." or "/") is skipped.
+ *
+ * Entries go straight into a {@link NodeStore}. Missing parent directories are created
+ * on the way; the last parent is remembered, so a run of entries in one directory
+ * costs one lookup, and other parents come from a path-to-node map of the directories
+ * only. Aggregates are computed once, when the store is sealed at the end.
+ */
+@Component
+public class ManifestImporter {
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final String manifest;
+    private final Format startupFormat;
+    
+    public ManifestImporter(@Value("${filesystem.import.manifest:}") String manifest,
+                            @Value("${filesystem.import.format:du}") String startupFormat) {
+        this.manifest = manifest;
+        this.startupFormat = Format.of(startupFormat);
+    }
+    
+    public enum Format {
+        DU, NCDU, CSV;
+        
+        /**
+         * @throws IllegalArgumentException for an unknown format name
+         */
+        public static Format of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new IllegalArgumentException("Unsupported manifest format: " + name);
+            }
+        }
+    }
+    
+    /**
+     * Is a manifest configured to be loaded at startup (filesystem.import.manifest)?
+     */
+    public boolean hasStartupManifest() {
+        return manifest != null && !manifest.isBlank();
+    }
+    
+    /**
+     * Read the startup manifest as the whole tree
+     */
+    public ImportReport readStartupManifest() throws IOException {
+        try (InputStream in = Files.newInputStream(Path.of(manifest))) {
+            ImportReport report = read(in, startupFormat, "root");
+            report.setSource(manifest);
+            return report;
+        }
+    }
+    
+    /**
+     * Read a manifest into a new tree whose top directory is called rootName
+     *
+     * @throws IllegalArgumentException if the manifest is malformed or lists an entry twice
+     */
+    public ImportReport read(InputStream in, Format format, String rootName) throws IOException {
+        long started = System.nanoTime();
+        Builder builder = new Builder(new NodeStore(rootName));
+        switch (format) {
+            case DU -> readDu(in, builder);
+            case NCDU -> readNcdu(in, builder);
+            case CSV -> readCsv(in, builder);
+        }
+        builder.store.seal();
+        
+        Directory root = builder.store.load();
+        ImportReport report = new ImportReport();
+        report.setRoot(root);
+        report.setFormat(format.name().toLowerCase(Locale.ROOT));
+        report.setFiles(root.getFileCount());
+        report.setDirectories(root.getDirectoryCount());
+        report.setSize(root.calculateSize());
+        report.setAllocatedSize(root.getAllocatedSize());
+        report.setEntriesSkipped(builder.skipped);
+        report.setElapsedMillis((System.nanoTime() - started) / 1_000_000);
+        return report;
+    }
+    
+    private static void readDu(InputStream in, Builder builder) throws IOException {
+        BufferedReader reader = reader(in);
+        String line;
+        long number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.isBlank()) {
+                continue;
+            }
+            int separator = line.indexOf('\t');
+            if (separator < 0) {
+                separator = line.indexOf(' ');
+            }
+            if (separator < 0) {
+                throw malformed(number, "expected size and path");
+            }
+            long size = parseSize(line.substring(0, separator).trim(), number);
+            String path = relative(line.substring(separator + 1));
+            if (path.isEmpty() || builder.isDirectory(path)) {
+                continue; // the top directory, or a directory whose contents came first
+            }
+            builder.file(path, size, size);
+        }
+    }
+    
+    private static void readCsv(InputStream in, Builder builder) throws IOException {
+        BufferedReader reader = reader(in);
+        String line;
+        long number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.isBlank()) {
+                continue;
+            }
+            String path;
+            String rest;
+            if (line.charAt(0) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int i = 1;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw malformed(number, "unterminated quote");
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < line.length() && line.charAt(i) == '"') {
+                            quoted.append('"');
+                            i++;
+                            continue;
+                        }
+                        break;
+                    }
+                    quoted.append(c);
+                }
+                path = quoted.toString();
+                rest = line.substring(i);
+                if (!rest.startsWith(",")) {
+                    throw malformed(number, "expected path,size");
+                }
+                rest = rest.substring(1);
+            } else {
+                int comma = line.lastIndexOf(',');
+                if (comma < 0) {
+                    throw malformed(number, "expected path,size");
+                }
+                path = line.substring(0, comma);
+                rest = line.substring(comma + 1);
+            }
+            
+            rest = rest.trim();
+            if (number == 1 && !rest.isEmpty() && !Character.isDigit(rest.charAt(0))) {
+                continue; // header
+            }
+            boolean directory = path.endsWith("/");
+            String relative = relative(path);
+            if (relative.isEmpty()) {
+                continue;
+            }
+            if (directory) {
+                builder.directory(relative);
+            } else {
+                long size = parseSize(rest, number);
+                builder.file(relative, size, size);
+            }
+        }
+    }
+    
+    /**
+     * ncdu export: [major, minor, {metadata}, directory], where a directory is an array
+     * of its own info object followed by its entries (objects for files, arrays for
+     * subdirectories)
+     */
+    private void readNcdu(InputStream in, Builder builder) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, JsonToken.START_ARRAY);
+            expect(parser, JsonToken.VALUE_NUMBER_INT);
+            expect(parser, JsonToken.VALUE_NUMBER_INT);
+            expect(parser, JsonToken.START_OBJECT);
+            parser.skipChildren();
+            expect(parser, JsonToken.START_ARRAY);
+            expect(parser, JsonToken.START_OBJECT);
+            parser.skipChildren(); // the top directory's own info
+            
+            Set<Long> seenInodes = new HashSet<>();
+            Deque<Integer> directories = new ArrayDeque<>();
+            directories.push(NodeStore.ROOT);
+            while (!directories.isEmpty()) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY) {
+                    directories.pop();
+                } else if (token == JsonToken.START_ARRAY) {
+                    expect(parser, JsonToken.START_OBJECT);
+                    NcduEntry entry = readNcduEntry(parser);
+                    directories.push(builder.store.addDirectory(directories.peek(), entry.name));
+                } else if (token == JsonToken.START_OBJECT) {
+                    NcduEntry entry = readNcduEntry(parser);
+                    if (entry.hardLink && !seenInodes.add(entry.inode)) {
+                        builder.skipped++;
+                    } else {
+                        builder.store.addFile(directories.peek(), entry.name, entry.size, entry.allocatedSize);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Malformed ncdu export near " + parser.getCurrentLocation());
+                }
+            }
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Malformed ncdu export: " + e.getOriginalMessage());
+        }
+    }
+    
+    private static NcduEntry readNcduEntry(JsonParser parser) throws IOException {
+        NcduEntry entry = new NcduEntry();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "name" -> entry.name = parser.getText();
+                case "asize" -> entry.size = parser.getLongValue();
+                case "dsize" -> entry.allocatedSize = parser.getLongValue();
+                case "ino" -> entry.inode = parser.getLongValue();
+                case "hlnkc" -> entry.hardLink = parser.getBooleanValue();
+                default -> parser.skipChildren();
+            }
+        }
+        if (entry.name == null || entry.name.isEmpty() || entry.name.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("Malformed ncdu export: invalid name near " + parser.getCurrentLocation());
+        }
+        return entry;
+    }
+    
+    private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.nextToken() != expected) {
+            throw new IllegalArgumentException("Malformed ncdu export near " + parser.getCurrentLocation());
+        }
+    }
+    
+    private static BufferedReader reader(InputStream in) {
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+    
+    private static long parseSize(String text, long line) {
+        try {
+            long size = Long.parseLong(text.trim());
+            if (size < 0) {
+                throw malformed(line, "negative size");
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw malformed(line, "invalid size '" + text + "'");
+        }
+    }
+    
+    /**
+     * The path relative to the manifest's top directory, without leading "./" or "/"
+     * and without trailing slashes; empty for the top directory itself
+     */
+    private static String relative(String path) {
+        int start = 0;
+        int end = path.length();
+        while (true) {
+            if (path.startsWith("./", start)) {
+                start += 2;
+            } else if (path.startsWith("/", start)) {
+                start++;
+            } else {
+                break;
+            }
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        String relative = path.substring(start, end);
+        return relative.equals(".") ? "" : relative;
+    }
+    
+    private static IllegalArgumentException malformed(long line, String problem) {
+        return new IllegalArgumentException("Malformed manifest at line " + line + ": " + problem);
+    }
+    
+    private static final class NcduEntry {
+        String name;
+        long size;
+        long allocatedSize;
+        long inode;
+        boolean hardLink;
+    }
+    
+    /**
+     * Places path-addressed entries into the store, creating parents as needed
+     */
+    private static final class Builder {
+        final NodeStore store;
+        final Map<String, Integer> directories = new HashMap<>();
+        String lastParent = "";
+        int lastParentNode = NodeStore.ROOT;
+        long skipped;
+        
+        Builder(NodeStore store) {
+            this.store = store;
+            directories.put("", NodeStore.ROOT);
+        }
+        
+        boolean isDirectory(String path) {
+            return directories.containsKey(path);
+        }
+        
+        void file(String path, long size, long allocatedSize) {
+            int slash = path.lastIndexOf('/');
+            int parent = parent(slash < 0 ? "" : path.substring(0, slash));
+            store.addFile(parent, name(path.substring(slash + 1), path), size, allocatedSize);
+        }
+        
+        int directory(String path) {
+            Integer known = directories.get(path);
+            if (known != null) {
+                return known;
+            }
+            int slash = path.lastIndexOf('/');
+            int parent = parent(slash < 0 ? "" : path.substring(0, slash));
+            int node = store.addDirectory(parent, name(path.substring(slash + 1), path));
+            directories.put(path, node);
+            return node;
+        }
+        
+        private int parent(String path) {
+            if (!path.equals(lastParent)) {
+                lastParentNode = directory(path);
+                lastParent = path;
+            }
+            return lastParentNode;
+        }
+        
+        private static String name(String name, String path) {
+            if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                throw new IllegalArgumentException("Invalid path in manifest: " + path);
+            }
+            return name;
+        }
+    }
+    
+    /**
+     * Outcome of an import
+     */
+    @Data
+    public static class ImportReport {
+        private Directory root;
+        private String source;
+        private String format;
+        private long files;
+        private long directories;
+        private long size;
+        private long allocatedSize;
+        private long entriesSkipped;
+        private long elapsedMillis;
+    }
+}
@@ -0,0 +1,844 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.ChangeSet;
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.SnapshotEntry;
+import com.capgemini.filesystem.model.SnapshotVisitor;
+import com.capgemini.filesystem.model.TreeImage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of tree mutations, so mkdir/rmdir survive a restart.
+ *
+ * Every add, remove and file resize that reaches the root is appended as a [length][crc32][payload]
+ * record to the current segment file. A single flusher thread writes whatever has
+ * accumulated through a FileChannel and fsyncs it once, so concurrent requests share
+ * one fsync (group commit). The durability mode decides how long a request waits:
+ * <ul>
+ *   <li>EVERY_OP - until an fsync covering its record has completed; the flusher
+ *       starts the next fsync as soon as anything is pending</li>
+ *   <li>BATCHED - the same, but the flusher fsyncs at most once per flush interval, so
+ *       more requests share each fsync at the cost of latency</li>
+ *   <li>ASYNC - not at all; the flusher fsyncs once per flush interval and a crash
+ *       loses at most that window</li>
+ * </ul>
+ *
+ * The changes of one {@link ChangeSet} are appended between a BEGIN and a COMMIT record;
+ * replay applies them once it reads the COMMIT, and drops (and truncates) a set whose
+ * COMMIT never made it to disk, so a crash never leaves half of a set applied.
+ *
+ * An added subtree of more than {@link #IMAGE_THRESHOLD} entries (an import, typically)
+ * is not journaled entry by entry: it is written as a {@link TreeImage} next to the
+ * segments and journaled as one record naming that image, which replay maps and attaches.
+ *
+ * After checkpoint-records records the journal switches to a new segment and writes
+ * the root snapshot of that moment as a {@link TreeImage} in the background; once the
+ * checkpoint is durable the older segments and checkpoints are deleted, with the images
+ * only they referred to. Startup maps
+ * the newest checkpoint (without materialising the tree) and replays the segments
+ * written after it, stopping each segment at its first torn or corrupt record.
+ */
+@Component
+public class MutationJournal {
+    private static final Logger log = LoggerFactory.getLogger(MutationJournal.class);
+    
+    public enum Durability { EVERY_OP, BATCHED, ASYNC }
+    
+    /**
+     * Receives the starting tree and then the recovered mutations, in order
+     */
+    public interface Replayer {
+        
+        /**
+         * No checkpoint: build the tree from scratch
+         */
+        void initialize() throws IOException;
+        
+        /**
+         * Start from the newest checkpoint
+         */
+        void load(TreeImage image) throws IOException;
+        
+        void mkdir(String path);
+        
+        void addFile(String path, long size, long allocatedSize);
+        
+        void remove(String path);
+        
+        void setSize(String path, long size);
+        
+        /**
+         * Attach a whole subtree, mapped from the image it was journaled as
+         */
+        void attach(String path, TreeImage image);
+    }
+    
+    /**
+     * Added subtrees with more entries than this are journaled as one image record
+     */
+    static final int IMAGE_THRESHOLD = 1024;
+    
+    private static final byte MKDIR = 1;
+    private static final byte FILE = 2;
+    private static final byte REMOVE = 3;
+    private static final byte SIZE = 4;
+    private static final byte IMAGE = 5;
+    private static final byte BEGIN = 6;
+    private static final byte COMMIT = 7;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".img";
+    private static final String IMAGE_PREFIX = "subtree-";
+    
+    private final Path directory;
+    private final Durability durability;
+    private final long flushIntervalNanos;
+    private final long checkpointRecords;
+    
+    // Guards everything below; never held while encoding records
+    private final Object lock = new Object();
+    private Batch current;
+    private final List<Batch> sealed = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private long syncs;
+    private long segmentRecords;
+    private boolean checkpointing;
+    // Subtree images by the segment that refers to them
+    private final Map<Path, Long> images = new HashMap<>();
+    private final AtomicLong imageNumbers = new AtomicLong();
+    private volatile boolean open;
+    private boolean closing;
+    private IOException failure;
+    private Thread flusher;
+    
+    @Autowired
+    public MutationJournal(@Value("${filesystem.journal.enabled:false}") boolean enabled,
+                           @Value("${filesystem.journal.dir:data/journal}") String directory,
+                           @Value("${filesystem.journal.durability:EVERY_OP}") Durability durability,
+                           @Value("${filesystem.journal.flush-interval-ms:10}") long flushIntervalMillis,
+                           @Value("${filesystem.journal.checkpoint-records:100000}") long checkpointRecords) {
+        this(enabled ? Path.of(directory) : null, durability, flushIntervalMillis, checkpointRecords);
+    }
+    
+    /**
+     * @param directory where segments and checkpoints live, or null to disable journaling
+     */
+    public MutationJournal(Path directory, Durability durability, long flushIntervalMillis, long checkpointRecords) {
+        this.directory = directory;
+        this.durability = durability;
+        this.flushIntervalNanos = durability == Durability.EVERY_OP ? 0 : Math.max(1, flushIntervalMillis) * 1_000_000;
+        this.checkpointRecords = Math.max(1, checkpointRecords);
+    }
+    
+    public static MutationJournal disabled() {
+        return new MutationJournal(null, Durability.EVERY_OP, 0, 1);
+    }
+    
+    public boolean isEnabled() {
+        return directory != null;
+    }
+    
+    public Durability getDurability() {
+        return durability;
+    }
+    
+    /**
+     * Records appended since startup
+     */
+    public long getAppendedRecords() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+    
+    /**
+     * fsyncs done since startup; records per fsync shows how well group commit shares them
+     */
+    public long getSyncCount() {
+        synchronized (lock) {
+            return syncs;
+        }
+    }
+    
+    /**
+     * Load the newest checkpoint into target (or have it build the tree when there is
+     * none), replay every segment after it, then start journaling into a fresh segment.
+     * When journaling is disabled the tree is just built.
+     *
+     * @return true if the tree came from a checkpoint
+     */
+    public boolean recover(Replayer target) throws IOException {
+        if (!isEnabled()) {
+            target.initialize();
+            return false;
+        }
+        long started = System.nanoTime();
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> checkpoints = list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        TreeMap<Long, Path> segments = list(SEGMENT_PREFIX, ".log");
+        
+        long from = 0;
+        long records = 0;
+        if (checkpoints.isEmpty()) {
+            target.initialize();
+        } else {
+            from = checkpoints.lastKey();
+            target.load(TreeImage.open(checkpoints.lastEntry().getValue()));
+        }
+        for (Map.Entry<Long, Path> segment : segments.tailMap(from, true).entrySet()) {
+            records += replay(segment.getValue(), segment.getKey(), target);
+        }
+        // Images no replayed record refers to are obsolete, or were never journaled
+        TreeMap<Long, Path> written = list(IMAGE_PREFIX, CHECKPOINT_SUFFIX);
+        for (Path image : written.values()) {
+            if (!images.containsKey(image)) {
+                Files.deleteIfExists(image);
+            }
+        }
+        imageNumbers.set(written.isEmpty() ? 0 : written.lastKey());
+        
+        long next = Math.max(from, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        Thread thread = new Thread(this::flushLoop, "journal-flusher");
+        thread.setDaemon(true);
+        synchronized (lock) {
+            current = new Batch(next);
+            flusher = thread;
+            open = true;
+        }
+        thread.start();
+        log.info("Journal {}: replayed {} records (checkpoint {}) in {} ms; durability {}", directory, records,
+                checkpoints.isEmpty() ? "none" : from, (System.nanoTime() - started) / 1_000_000, durability);
+        return !checkpoints.isEmpty();
+    }
+    
+    /**
+     * Checkpoint root (the tree as of everything journaled so far) in the background,
+     * e.g. right after startup so that the next startup can map it
+     */
+    public void checkpoint(DirectorySnapshot root) {
+        synchronized (lock) {
+            if (open && !checkpointing) {
+                startCheckpoint(root);
+            }
+        }
+    }
+    
+    /**
+     * Record an added entity (with its whole subtree). Called once per change in change
+     * order (the root listener's callbacks are sequenced), so records are appended in
+     * mutation order; root is the snapshot after the change. The records are encoded,
+     * and a large subtree's image written, before the journal lock is taken.
+     */
+    public void added(Directory parent, FileSystemEntity child, DirectorySnapshot root) {
+        if (!open) {
+            return;
+        }
+        Batch records = new Batch(0);
+        List<Path> images = new ArrayList<>(1);
+        encodeAdded(parent.getPath(), child, records, images);
+        append(records, images, root);
+    }
+    
+    /**
+     * Record an applied change set as one framed group: BEGIN, the records of each
+     * change in order, COMMIT. Called in change order like the other callbacks.
+     */
+    public void applied(ChangeSet changes, DirectorySnapshot root) {
+        if (!open) {
+            return;
+        }
+        Batch records = new Batch(0);
+        List<Path> images = new ArrayList<>();
+        records.add(encode(BEGIN, "", 0, 0));
+        for (ChangeSet.Change change : changes.getChanges()) {
+            String parentPath = change.getParent().getPath();
+            FileSystemEntity entity = change.getEntity();
+            switch (change.getKind()) {
+                case ADD -> encodeAdded(parentPath, entity, records, images);
+                case REMOVE -> records.add(encode(REMOVE, childPath(parentPath, entity.getName()), 0, 0));
+                case RESIZE -> records.add(encode(SIZE, childPath(parentPath, entity.getName()),
+                        entity.calculateSize(), 0));
+            }
+        }
+        records.add(encode(COMMIT, "", 0, 0));
+        append(records, images, root);
+    }
+    
+    /**
+     * Records for an added entity: one image record for a large subtree, else one
+     * record per entry
+     */
+    private void encodeAdded(String parentPath, FileSystemEntity child, Batch records, List<Path> images) {
+        String path = childPath(parentPath, child.getName());
+        Path image = null;
+        if (child instanceof Directory) {
+            DirectorySnapshot subtree = ((Directory) child).getSnapshot();
+            if (subtree.getFileCount() + subtree.getDirectoryCount() > IMAGE_THRESHOLD) {
+                image = writeImage(subtree);
+            }
+        }
+        if (image != null) {
+            records.add(encode(IMAGE, path, image.getFileName().toString()));
+            images.add(image);
+        } else {
+            encodeSubtree(path, child, records);
+        }
+    }
+    
+    /**
+     * Write a subtree as a durable image for an IMAGE record
+     *
+     * @return the image, or null if it could not be written (the subtree is then
+     * journaled entry by entry)
+     */
+    private Path writeImage(DirectorySnapshot subtree) {
+        Path image = directory.resolve(name(IMAGE_PREFIX, imageNumbers.incrementAndGet(), CHECKPOINT_SUFFIX));
+        try {
+            Path temporary = directory.resolve(image.getFileName() + ".tmp");
+            TreeImage.write(subtree, temporary);
+            Files.move(temporary, image, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+            return image;
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Writing subtree image {} failed; journaling the subtree entry by entry", image, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Record a removed entity; called in change order
+     */
+    public void removed(Directory parent, FileSystemEntity child, DirectorySnapshot root) {
+        if (!open) {
+            return;
+        }
+        Batch records = new Batch(0);
+        records.add(encode(REMOVE, childPath(parent.getPath(), child.getName()), 0, 0));
+        append(records, List.of(), root);
+    }
+    
+    /**
+     * Record new sizes of files in parent; called in change order
+     */
+    public void resized(Directory parent, List<? extends FileSystemEntity> files, DirectorySnapshot root) {
+        if (!open) {
+            return;
+        }
+        Batch records = new Batch(0);
+        String parentPath = parent.getPath();
+        for (FileSystemEntity file : files) {
+            records.add(encode(SIZE, childPath(parentPath, file.getName()), file.calculateSize(), 0));
+        }
+        append(records, List.of(), root);
+    }
+    
+    /**
+     * Wait until everything appended so far is on disk (returns at once in ASYNC mode)
+     *
+     * @throws UncheckedIOException if the journal could not be written
+     */
+    public void awaitDurable() {
+        if (!isEnabled() || durability == Durability.ASYNC) {
+            throwIfFailed();
+            return;
+        }
+        synchronized (lock) {
+            awaitDurable(appended);
+        }
+    }
+    
+    /**
+     * Flush what is pending, stop the flusher and wait for a checkpoint still being written
+     */
+    @PreDestroy
+    public void close() {
+        Thread thread;
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            closing = true;
+            lock.notifyAll();
+            thread = flusher;
+        }
+        boolean interrupted = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        synchronized (lock) {
+            while (checkpointing && !interrupted) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void encodeSubtree(String path, FileSystemEntity top, Batch records) {
+        if (!(top instanceof Directory)) {
+            records.add(encode(FILE, path, top.calculateSize(), top.getAllocatedSize()));
+            return;
+        }
+        // Walk the subtree's snapshot, which does not materialise lazily loaded directories
+        StringBuilder buffer = new StringBuilder(path);
+        int[][] lengths = {new int[16]};
+        ((Directory) top).getSnapshot().walk(new SnapshotVisitor() {
+            @Override
+            public boolean enter(SnapshotEntry entity, int depth) {
+                if (depth >= lengths[0].length) {
+                    lengths[0] = Arrays.copyOf(lengths[0], lengths[0].length * 2);
+                }
+                lengths[0][depth] = buffer.length();
+                if (depth > 0) {
+                    buffer.append('/').append(entity.getName());
+                }
+                if (entity instanceof DirectorySnapshot) {
+                    records.add(encode(MKDIR, buffer.toString(), 0, 0));
+                    return true;
+                }
+                records.add(encode(FILE, buffer.toString(), entity.calculateSize(), entity.getAllocatedSize()));
+                buffer.setLength(lengths[0][depth]);
+                return false;
+            }
+            
+            @Override
+            public void leave(DirectorySnapshot directory, int depth) {
+                buffer.setLength(lengths[0][depth]);
+            }
+        });
+    }
+    
+    /**
+     * Append the encoded records of one change, then checkpoint if the segment is full
+     *
+     * @param images subtree images the records refer to
+     */
+    private void append(Batch records, List<Path> images, DirectorySnapshot root) {
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            appended += records.count;
+            current.add(records, appended);
+            for (Path image : images) {
+                this.images.put(image, current.segment);
+            }
+            segmentRecords += records.count;
+            lock.notifyAll();
+            checkpointIfDue(root);
+        }
+    }
+    
+    /**
+     * Checkpoint once the segment is full, unless the previous checkpoint is still being written
+     */
+    private void checkpointIfDue(DirectorySnapshot root) {
+        if (segmentRecords >= checkpointRecords && !checkpointing) {
+            startCheckpoint(root);
+        }
+    }
+    
+    /**
+     * Switch to a new segment and write root, the tree as of the last record, as the
+     * checkpoint the new segment starts from. Called holding lock.
+     */
+    private void startCheckpoint(DirectorySnapshot root) {
+        long segment = current.segment + 1;
+        sealed.add(current);
+        current = new Batch(segment);
+        segmentRecords = 0;
+        checkpointing = true;
+        long upTo = appended;
+        
+        Thread writer = new Thread(() -> writeCheckpoint(root, segment, upTo), "journal-checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    private void writeCheckpoint(DirectorySnapshot root, long segment, long upTo) {
+        try {
+            Path temporary = directory.resolve(CHECKPOINT_PREFIX + segment + ".tmp");
+            TreeImage.write(root, temporary);
+            Files.move(temporary, directory.resolve(name(CHECKPOINT_PREFIX, segment, CHECKPOINT_SUFFIX)),
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+            
+            // Older files are only obsolete once the records before the switch are on disk
+            synchronized (lock) {
+                awaitDurable(upTo);
+            }
+            for (Path old : list(SEGMENT_PREFIX, ".log").headMap(segment, false).values()) {
+                Files.deleteIfExists(old);
+            }
+            // A mapped checkpoint can be deleted on POSIX systems; the mapping stays valid
+            for (Path old : list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX).headMap(segment, false).values()) {
+                Files.deleteIfExists(old);
+            }
+            List<Path> obsolete = new ArrayList<>();
+            synchronized (lock) {
+                images.entrySet().removeIf(image -> image.getValue() < segment && obsolete.add(image.getKey()));
+            }
+            for (Path old : obsolete) {
+                Files.deleteIfExists(old);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Journal checkpoint {} failed; older segments are kept", segment, e);
+        } finally {
+            synchronized (lock) {
+                checkpointing = false;
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    private void flushLoop() {
+        FileChannel channel = null;
+        long channelSegment = -1;
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                List<Batch> batches = new ArrayList<>();
+                synchronized (lock) {
+                    while (!closing) {
+                        if (nothingPending()) {
+                            lock.wait();
+                            continue;
+                        }
+                        long waitNanos = flushIntervalNanos - (System.nanoTime() - lastFlush);
+                        if (waitNanos <= 0) {
+                            break;
+                        }
+                        lock.wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                    }
+                    if (closing && nothingPending()) {
+                        break;
+                    }
+                    batches.addAll(sealed);
+                    sealed.clear();
+                    if (current.length > 0) {
+                        batches.add(current);
+                        current = new Batch(current.segment);
+                    }
+                }
+                
+                // Write and fsync outside the lock, so requests keep appending meanwhile
+                long upTo = 0;
+                for (Batch batch : batches) {
+                    if (batch.length == 0) {
+                        continue;
+                    }
+                    if (batch.segment != channelSegment) {
+                        if (channel != null) {
+                            channel.force(false);
+                            channel.close();
+                        }
+                        channel = FileChannel.open(directory.resolve(name(SEGMENT_PREFIX, batch.segment, ".log")),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                        channelSegment = batch.segment;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.data, 0, batch.length);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    upTo = batch.lastSeq;
+                }
+                if (channel != null) {
+                    channel.force(false);
+                }
+                lastFlush = System.nanoTime();
+                
+                synchronized (lock) {
+                    durable = Math.max(durable, upTo);
+                    syncs++;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Journal write failed; further mutations are not durable", e);
+            synchronized (lock) {
+                failure = e;
+                open = false;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Closing journal segment failed", e);
+                }
+            }
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+    
+    private boolean nothingPending() {
+        return current.length == 0 && sealed.isEmpty();
+    }
+    
+    /**
+     * Called holding lock
+     */
+    private void awaitDurable(long seq) {
+        boolean interrupted = false;
+        while (durable < seq && failure == null && flusher != null && flusher.isAlive()) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        throwIfFailed();
+    }
+    
+    private void throwIfFailed() {
+        IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException("Mutation journal is not writable", e);
+        }
+    }
+    
+    /**
+     * Apply the records of one segment; it is truncated at its first bad record, or at
+     * the BEGIN of a change set whose COMMIT is missing
+     *
+     * @return number of records applied
+     */
+    private long replay(Path file, long segment, Replayer target) throws IOException {
+        long count = 0;
+        long valid = 0;
+        // Bytes up to the end of the last record outside an open change set
+        long complete = 0;
+        // Records of the open change set, held back until its COMMIT
+        List<byte[]> held = null;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            DataInputStream data = new DataInputStream(in);
+            byte[] payload = new byte[256];
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = data.readInt();
+                    checksum = data.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    data.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                valid += HEADER_SIZE + length;
+                if (payload[0] == BEGIN) {
+                    held = new ArrayList<>();
+                } else if (payload[0] == COMMIT) {
+                    for (byte[] record : held == null ? List.<byte[]>of() : held) {
+                        apply(record, record.length, segment, target);
+                        count++;
+                    }
+                    held = null;
+                } else if (held != null) {
+                    held.add(Arrays.copyOf(payload, length));
+                } else {
+                    apply(payload, length, segment, target);
+                    count++;
+                }
+                if (held == null) {
+                    complete = valid;
+                }
+            }
+        }
+        
+        if (complete < Files.size(file)) {
+            log.warn("Journal file {} has a torn or corrupt record or an unfinished change set at byte {};"
+                    + " ignoring the rest", file, complete);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+                channel.force(true);
+            }
+        }
+        return count;
+    }
+    
+    private void apply(byte[] payload, int length, long segment, Replayer target) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        byte op = in.readByte();
+        String path = in.readUTF();
+        switch (op) {
+            case MKDIR -> target.mkdir(path);
+            case FILE -> target.addFile(path, in.readLong(), in.readLong());
+            case REMOVE -> target.remove(path);
+            case SIZE -> target.setSize(path, in.readLong());
+            case IMAGE -> {
+                Path image = directory.resolve(in.readUTF());
+                images.put(image, segment);
+                target.attach(path, TreeImage.open(image));
+            }
+            default -> throw new IOException("Unknown journal record type " + op);
+        }
+    }
+    
+    private static byte[] encode(byte op, String path, long size, long allocatedSize) {
+        return encode(op, path, size, allocatedSize, null);
+    }
+    
+    private static byte[] encode(byte op, String path, String image) {
+        return encode(op, path, 0, 0, image);
+    }
+    
+    private static byte[] encode(byte op, String path, long size, long allocatedSize, String image) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 32 + path.length());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(op);
+            out.writeUTF(path);
+            if (op == FILE) {
+                out.writeLong(size);
+                out.writeLong(allocatedSize);
+            } else if (op == SIZE) {
+                out.writeLong(size);
+            } else if (op == IMAGE) {
+                out.writeUTF(image);
+            }
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+            ByteBuffer header = ByteBuffer.wrap(record, 0, HEADER_SIZE);
+            header.putInt(record.length - HEADER_SIZE);
+            header.putInt((int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static String childPath(String parentPath, String name) {
+        return parentPath.equals("/") ? "/" + name : parentPath + "/" + name;
+    }
+    
+    private static String name(String prefix, long number, String suffix) {
+        return String.format("%s%016d%s", prefix, number, suffix);
+    }
+    
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String fileName = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(fileName.substring(prefix.length(), fileName.length() - suffix.length())), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected journal file {}", file);
+                }
+            }
+        }
+        return files;
+    }
+    
+    /**
+     * fsync the directory so the checkpoint rename itself is durable (not supported everywhere)
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Cannot fsync journal directory {}", directory, e);
+        }
+    }
+    
+    /**
+     * Records waiting to be written to one segment (or encoded for one change)
+     */
+    private static final class Batch {
+        final long segment;
+        byte[] data = new byte[256];
+        int length;
+        int count;
+        long lastSeq;
+        
+        Batch(long segment) {
+            this.segment = segment;
+        }
+        
+        void add(byte[] record) {
+            add(record, 0, record.length, 1);
+        }
+        
+        /**
+         * Append another batch's records, the last of which has sequence number lastSeq
+         */
+        void add(Batch records, long lastSeq) {
+            add(records.data, 0, records.length, records.count);
+            this.lastSeq = lastSeq;
+        }
+        
+        private void add(byte[] bytes, int offset, int size, int records) {
+            if (length + size > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+            }
+            System.arraycopy(bytes, offset, data, length, size);
+            length += size;
+            count += records;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.PackedNames;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Name index for find: entities by exact name, and names by trigram.
+ *
+ * Trigrams are kept per distinct name rather than per entity, so the thousands of
+ * "index.js" or "README.md" in a tree cost one entry per trigram together. A glob with
+ * literal runs is answered by scanning the smallest posting list among its trigrams
+ * and matching those names; a glob without wildcards is a single name lookup.
+ *
+ * FileSystemManager keeps it in step with the tree through the same listener calls
+ * that maintain its id index. Entities that have not been materialised yet are covered
+ * by the {@link PackedNames} of the packed tree they come from, built on a background
+ * thread when the first unloaded directory of that tree is indexed; until it is built
+ * the index is incomplete and find walks the tree instead.
+ */
+final class NameIndex {
+    private final Map<String, Map<Long, FileSystemEntity>> byName = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byTrigram = new ConcurrentHashMap<>();
+    // Postings of the packed trees that unloaded directories are materialised from
+    private final List<PackedNames> packed = new CopyOnWriteArrayList<>();
+    // Unloaded directories whose children are not covered by built postings yet
+    private final Set<Directory> unloaded = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Index an entity; an entity with the same id (e.g. the file a resized copy
+     * replaces) is replaced
+     */
+    void add(FileSystemEntity entity) {
+        byName.compute(entity.getName(), (name, entities) -> {
+            if (entities == null) {
+                entities = new ConcurrentHashMap<>();
+                addTrigrams(name);
+            }
+            entities.put(entity.getId(), entity);
+            return entities;
+        });
+        if (entity instanceof Directory && !((Directory) entity).isLoaded()) {
+            Directory directory = (Directory) entity;
+            PackedNames names = packedNamesOf(directory);
+            if (names != null) {
+                names.register(directory);
+            }
+            if (names == null || !names.isReady()) {
+                unloaded.add(directory);
+                // The postings may have been finished while this was added
+                if (names != null && names.isReady()) {
+                    unloaded.remove(directory);
+                }
+            }
+        }
+    }
+    
+    private void addTrigrams(String name) {
+        for (String trigram : Glob.trigramsOf(name)) {
+            byTrigram.compute(trigram, (key, names) -> {
+                if (names == null) {
+                    names = ConcurrentHashMap.newKeySet();
+                }
+                names.add(name);
+                return names;
+            });
+        }
+    }
+    
+    private void removeTrigrams(String name) {
+        for (String trigram : Glob.trigramsOf(name)) {
+            byTrigram.computeIfPresent(trigram, (key, names) -> {
+                names.remove(name);
+                return names.isEmpty() ? null : names;
+            });
+        }
+    }
+    
+    /**
+     * Postings of the packed tree a directory is materialised from; the first directory
+     * of a tree starts building them in the background
+     */
+    private PackedNames packedNamesOf(Directory directory) {
+        for (PackedNames names : packed) {
+            if (names.covers(directory)) {
+                return names;
+            }
+        }
+        synchronized (packed) {
+            for (PackedNames names : packed) {
+                if (names.covers(directory)) {
+                    return names;
+                }
+            }
+            PackedNames names = PackedNames.of(directory);
+            if (names != null) {
+                packed.add(names);
+                Thread builder = new Thread(() -> build(names), "packed-name-index");
+                builder.setDaemon(true);
+                builder.start();
+            }
+            return names;
+        }
+    }
+    
+    private void build(PackedNames names) {
+        names.build();
+        names.names().forEach(this::addTrigrams);
+        names.setReady();
+        unloaded.removeIf(names::covers);
+    }
+    
+    /**
+     * An unloaded directory was loaded or removed. Postings no unloaded directory stands
+     * for any more are dropped, with the trigrams of the names only they had.
+     */
+    private void release(Directory directory) {
+        for (PackedNames names : packed) {
+            if (!names.covers(directory)) {
+                continue;
+            }
+            names.unregister(directory);
+            if (!names.isInUse() && packed.remove(names)) {
+                for (String name : names.names()) {
+                    if (!isKnown(name)) {
+                        removeTrigrams(name);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Is the name still in use by a live entity or by postings in use?
+     */
+    private boolean isKnown(String name) {
+        if (byName.containsKey(name)) {
+            return true;
+        }
+        for (PackedNames names : packed) {
+            if (names.count(name) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    void remove(FileSystemEntity entity) {
+        byName.computeIfPresent(entity.getName(), (name, entities) -> {
+            entities.remove(entity.getId(), entity);
+            if (!entities.isEmpty()) {
+                return entities;
+            }
+            boolean packedName = false;
+            for (PackedNames names : packed) {
+                packedName |= names.count(name) > 0;
+            }
+            if (!packedName) {
+                removeTrigrams(name);
+            }
+            return null;
+        });
+        if (entity instanceof Directory) {
+            unloaded.remove(entity);
+            if (!((Directory) entity).isLoaded()) {
+                release((Directory) entity);
+            }
+        }
+    }
+    
+    /**
+     * The directory's children have been materialised and indexed
+     */
+    void loaded(Directory directory) {
+        unloaded.remove(directory);
+        release(directory);
+    }
+    
+    void clear() {
+        byName.clear();
+        byTrigram.clear();
+        packed.clear();
+        unloaded.clear();
+    }
+    
+    /**
+     * Is every entity of the tree indexed, live or in built postings?
+     */
+    boolean isComplete() {
+        return unloaded.isEmpty();
+    }
+    
+    /**
+     * Can the index narrow this glob down (it has no wildcards, or a literal run of at
+     * least three characters)?
+     */
+    boolean canServe(Glob glob) {
+        return glob.getLiteral() != null || !glob.getTrigrams().isEmpty();
+    }
+    
+    /**
+     * Indexed names matching glob; only for globs the index can serve
+     */
+    List<String> names(Glob glob) {
+        List<String> names = new ArrayList<>();
+        if (glob.getLiteral() != null) {
+            if (isKnown(glob.getLiteral())) {
+                names.add(glob.getLiteral());
+            }
+            return names;
+        }
+        Set<String> smallest = null;
+        for (String trigram : glob.getTrigrams()) {
+            Set<String> candidates = byTrigram.get(trigram);
+            if (candidates == null) {
+                return names;
+            }
+            if (smallest == null || candidates.size() < smallest.size()) {
+                smallest = candidates;
+            }
+        }
+        for (String name : smallest) {
+            if (glob.matches(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+    
+    /**
+     * Number of entries with these names, live or packed, current or not - what answering
+     * from the index costs
+     */
+    long postings(List<String> names) {
+        long count = 0;
+        for (String name : names) {
+            Map<Long, FileSystemEntity> entities = byName.get(name);
+            count += entities == null ? 0 : entities.size();
+            for (PackedNames postings : packed) {
+                count += postings.count(name);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Postings of the packed trees with unloaded directories
+     */
+    List<PackedNames> packed() {
+        return packed;
+    }
+    
+    /**
+     * Indexed entities with exactly this name
+     */
+    Collection<FileSystemEntity> entities(String name) {
+        Map<Long, FileSystemEntity> entities = byName.get(name);
+        return entities == null ? List.of() : entities.values();
+    }
+}
@@ -0,0 +1,147 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.TreeWalker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join size engine - recomputes a subtree's size from the files themselves,
+ * spreading the work over a ForkJoinPool.
+ *
+ * Work is split by subtree weight (files + directories, read from the maintained
+ * aggregates): ranges of sibling directories are halved by weight, a single heavy
+ * directory is expanded into its children, and anything lighter than the threshold
+ * is summed sequentially on the current worker. Nested splits are capped at
+ * {@link #MAX_SPLIT_DEPTH} so the worker stack stays bounded on pathological trees;
+ * past that the remaining subtree is walked sequentially.
+ *
+ * The default threshold of {@value #DEFAULT_THRESHOLD} nodes is untuned, not a measured
+ * crossover. A range is only summed sequentially while its weight is below the threshold,
+ * so every tree of 20000 nodes or more is split. ParallelSizeBenchmark runs this default;
+ * on one core (JDK 17) the parallel engine was 2-30% slower than the sequential walk at
+ * every size from 100k to 2.4M nodes (0.93-1.34 ms against 0.85-1.12 ms at 100k), and
+ * below 20000 nodes both do the same walk. Where it starts to win on more cores has not
+ * been measured; run the benchmark on the target hardware before changing the default.
+ */
+@Component
+public class ParallelSizeCalculator {
+    public static final long DEFAULT_THRESHOLD = 20_000;
+    static final int MAX_SPLIT_DEPTH = 64;
+    
+    private final ForkJoinPool pool;
+    private final long threshold;
+    
+    public ParallelSizeCalculator(@Value("${filesystem.size.parallel-threshold:" + DEFAULT_THRESHOLD + "}") long threshold,
+                                  @Value("${filesystem.size.parallelism:0}") int parallelism) {
+        this.threshold = Math.max(1, threshold);
+        this.pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+    }
+    
+    public long getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * Recompute the size of the directory's subtree in parallel
+     */
+    public long calculateSize(Directory directory) {
+        return pool.invoke(new SizeTask(new Directory[] {directory}, 0, 1, threshold, 0));
+    }
+    
+    /**
+     * Recompute the size of the directory's subtree on the calling thread
+     */
+    public static long calculateSizeSequential(Directory directory) {
+        long[] size = new long[1];
+        TreeWalker.preOrder(directory, (entity, depth) -> {
+            if (!(entity instanceof Directory)) {
+                size[0] += entity.calculateSize();
+            }
+            return true;
+        });
+        return size[0];
+    }
+    
+    /**
+     * Subtree weight used for splitting decisions
+     */
+    private static long weight(Directory directory) {
+        return directory.getFileCount() + directory.getDirectoryCount() + 1;
+    }
+    
+    /**
+     * Sums the subtrees of dirs[from, to)
+     */
+    static final class SizeTask extends RecursiveTask<Long> {
+        private final Directory[] dirs;
+        private final int from;
+        private final int to;
+        private final long threshold;
+        private final int splits;
+        
+        SizeTask(Directory[] dirs, int from, int to, long threshold, int splits) {
+            this.dirs = dirs;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.splits = splits;
+        }
+        
+        @Override
+        protected Long compute() {
+            Directory[] range = dirs;
+            int lo = from;
+            int hi = to;
+            long size = 0;
+            
+            while (true) {
+                long total = 0;
+                for (int i = lo; i < hi; i++) {
+                    total += weight(range[i]);
+                }
+                if (total < threshold || splits >= MAX_SPLIT_DEPTH) {
+                    for (int i = lo; i < hi; i++) {
+                        size += calculateSizeSequential(range[i]);
+                    }
+                    return size;
+                }
+                
+                if (hi - lo > 1) {
+                    // Wide: split the sibling range in two halves of similar weight
+                    int mid = lo;
+                    long left = 0;
+                    while (mid < hi - 1 && left + weight(range[mid]) <= total / 2) {
+                        left += weight(range[mid++]);
+                    }
+                    mid = Math.max(mid, lo + 1);
+                    SizeTask other = new SizeTask(range, mid, hi, threshold, splits + 1);
+                    other.fork();
+                    size += new SizeTask(range, lo, mid, threshold, splits + 1).compute();
+                    return size + other.join();
+                }
+                
+                // Deep: expand the single heavy directory in place instead of recursing,
+                // so long chains do not grow the worker's stack
+                List<FileSystemEntity> children = range[lo].getChildren();
+                int count = 0;
+                Directory[] next = new Directory[children.size()];
+                for (FileSystemEntity child : children) {
+                    if (child instanceof Directory) {
+                        next[count++] = (Directory) child;
+                    } else {
+                        size += child.calculateSize();
+                    }
+                }
+                range = next;
+                lo = 0;
+                hi = count;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.FileSystemEntity;
+
+/**
+ * Allocation-free path resolution.
+ *
+ * Walks the path in place, one component at a time, and looks each component up by
+ * region so no substrings or arrays are created. Handles absolute and relative paths,
+ * "." and ".." components, repeated slashes and trailing slashes. ".." at the root
+ * stays at the root. The same rules turn a path into its canonical text form for looking
+ * it up in a published version.
+ */
+final class PathResolver {
+    
+    private PathResolver() {
+    }
+    
+    /**
+     * Resolve path to a Directory
+     *
+     * @param root directory that absolute paths start from
+     * @param base directory that relative paths start from
+     * @return the directory, or null if a component is missing or is not a directory
+     */
+    static Directory resolve(Directory root, Directory base, CharSequence path) {
+        int length = path.length();
+        int pos = 0;
+        Directory current = base;
+        if (length > 0 && path.charAt(0) == '/') {
+            current = root;
+        }
+        
+        while (pos < length) {
+            // Skip separators, then find the end of the component
+            while (pos < length && path.charAt(pos) == '/') {
+                pos++;
+            }
+            int start = pos;
+            while (pos < length && path.charAt(pos) != '/') {
+                pos++;
+            }
+            int componentLength = pos - start;
+            
+            if (componentLength == 0 || (componentLength == 1 && path.charAt(start) == '.')) {
+                continue;
+            }
+            if (componentLength == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                if (current.getParent() != null) {
+                    current = (Directory) current.getParent();
+                }
+                continue;
+            }
+            
+            FileSystemEntity entity = current.getChild(path, start, pos);
+            if (!(entity instanceof Directory)) {
+                return null;
+            }
+            current = (Directory) entity;
+        }
+        return current;
+    }
+    
+    /**
+     * Canonical form of an absolute path: "/" or "/a/b", without empty, "." or ".."
+     * components. Paths that are canonical already are returned as they are.
+     */
+    static String normalise(String path) {
+        if (isCanonical(path)) {
+            return path;
+        }
+        StringBuilder normalised = new StringBuilder(path.length());
+        int length = path.length();
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && path.charAt(pos) == '/') {
+                pos++;
+            }
+            int start = pos;
+            while (pos < length && path.charAt(pos) != '/') {
+                pos++;
+            }
+            int componentLength = pos - start;
+            
+            if (componentLength == 0 || (componentLength == 1 && path.charAt(start) == '.')) {
+                continue;
+            }
+            if (componentLength == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                normalised.setLength(Math.max(normalised.lastIndexOf("/"), 0));
+                continue;
+            }
+            normalised.append('/').append(path, start, pos);
+        }
+        return normalised.length() == 0 ? "/" : normalised.toString();
+    }
+    
+    private static boolean isCanonical(String path) {
+        int length = path.length();
+        if (length == 1 && path.charAt(0) == '/') {
+            return true;
+        }
+        if (length == 0 || path.charAt(0) != '/' || path.charAt(length - 1) == '/') {
+            return false;
+        }
+        for (int start = 1, end; start < length; start = end + 1) {
+            end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            int componentLength = end - start;
+            if (componentLength == 0 || (path.charAt(start) == '.'
+                    && (componentLength == 1 || (componentLength == 2 && path.charAt(start + 1) == '.')))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
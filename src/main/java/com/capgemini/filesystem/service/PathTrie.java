@@ -0,0 +1,190 @@
+package com.capgemini.filesystem.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compressed radix trie of canonical directory paths, for cd completion.
+ *
+ * Edges carry whole runs of characters and a node's children are kept sorted, so a
+ * completion walks down the prefix in O(prefix length) and then lists the first
+ * matches in lexicographic order. Completion stops at the next "/": it offers the
+ * directories whose last component starts with what was typed, not their subtrees.
+ * Every directory's parent is in the trie too, so a "/" past the prefix always starts
+ * an edge and that subtree is skipped without being visited.
+ *
+ * Readers share a read lock; adds and removes (from the tree listener) take the write lock.
+ */
+final class PathTrie {
+    private final Node root = new Node("");
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    void add(String path) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            int i = 0;
+            while (i < path.length()) {
+                Node child = node.children.get(path.charAt(i));
+                if (child == null) {
+                    child = new Node(path.substring(i));
+                    node.children.put(path.charAt(i), child);
+                    node = child;
+                    break;
+                }
+                int common = commonLength(child.label, path, i);
+                if (common < child.label.length()) {
+                    child = split(node, child, common);
+                }
+                node = child;
+                i += common;
+            }
+            node.terminal = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            // Remember the way down so emptied nodes can be pruned and chains re-merged
+            List<Node> trail = new ArrayList<>();
+            trail.add(root);
+            Node node = root;
+            int i = 0;
+            while (i < path.length()) {
+                node = node.children.get(path.charAt(i));
+                if (node == null || !path.startsWith(node.label, i)) {
+                    return;
+                }
+                trail.add(node);
+                i += node.label.length();
+            }
+            if (!node.terminal) {
+                return;
+            }
+            node.terminal = false;
+            for (int level = trail.size() - 1; level > 0; level--) {
+                Node current = trail.get(level);
+                Node parent = trail.get(level - 1);
+                if (current.terminal) {
+                    break;
+                }
+                if (current.children.isEmpty()) {
+                    parent.children.remove(current.label.charAt(0));
+                } else if (current.children.size() == 1) {
+                    Node only = current.children.values().iterator().next();
+                    Node merged = new Node(current.label + only.label);
+                    merged.terminal = only.terminal;
+                    merged.children.putAll(only.children);
+                    parent.children.put(merged.label.charAt(0), merged);
+                    break;
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            root.children.clear();
+            root.terminal = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Directory paths that extend prefix within its last component, in lexicographic
+     * order; at most max of them. A prefix ending in "/" lists that directory's
+     * subdirectories.
+     */
+    List<String> complete(String prefix, int max) {
+        List<String> completions = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int i = 0;
+            StringBuilder path = new StringBuilder();
+            while (i < prefix.length()) {
+                Node child = node.children.get(prefix.charAt(i));
+                if (child == null) {
+                    return completions;
+                }
+                int common = commonLength(child.label, prefix, i);
+                if (i + common < prefix.length() && common < child.label.length()) {
+                    return completions; // diverges inside the edge
+                }
+                path.append(child.label);
+                node = child;
+                i += common;
+            }
+            // The walk may have ended inside an edge: what lies past the prefix must not
+            // cross into another component
+            if (path.indexOf("/", prefix.length()) >= 0) {
+                return completions;
+            }
+            collect(node, path, prefix, max, completions);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return completions;
+    }
+    
+    private static void collect(Node node, StringBuilder path, String prefix, int max, List<String> completions) {
+        if (node.terminal && path.length() > 0 && !(prefix.endsWith("/") && path.length() == prefix.length())) {
+            completions.add(path.toString());
+        }
+        for (Node child : node.children.values()) {
+            if (completions.size() >= max) {
+                return;
+            }
+            if (child.label.indexOf('/') >= 0) {
+                continue; // a subdirectory of a completion, not a completion
+            }
+            int length = path.length();
+            path.append(child.label);
+            collect(child, path, prefix, max, completions);
+            path.setLength(length);
+        }
+    }
+    
+    /**
+     * Split child after its first common characters; the new node takes child's place
+     */
+    private static Node split(Node parent, Node child, int common) {
+        Node head = new Node(child.label.substring(0, common));
+        child.label = child.label.substring(common);
+        head.children.put(child.label.charAt(0), child);
+        parent.children.put(head.label.charAt(0), head);
+        return head;
+    }
+    
+    private static int commonLength(String label, String s, int from) {
+        int n = Math.min(label.length(), s.length() - from);
+        int i = 0;
+        while (i < n && label.charAt(i) == s.charAt(from + i)) {
+            i++;
+        }
+        return i;
+    }
+    
+    private static final class Node {
+        private String label;
+        private boolean terminal;
+        private final Map<Character, Node> children = new TreeMap<>();
+        
+        Node(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Serialised size and tree responses, and the ETags they are validated with.
+ *
+ * A response depends only on the directory's subtree and the request parameters, and a
+ * directory's modification counter changes exactly when its subtree does (see
+ * {@link DirectorySnapshot#getModCount()}). The counter is therefore the ETag - prefixed
+ * with this process's start time, because counters restart with the process - and it is
+ * part of the cache key. The ETag is weak: responses that share it carry the same data
+ * but each reports its own version, so they are not byte for byte equal. A cached response stays valid until the subtree changes,
+ * however many versions changes elsewhere publish meanwhile. Stale entries are never
+ * hit again and age out of the LRU order.
+ *
+ * Because an entry outlives the version it was produced from, a cached body never
+ * contains a version number: the caller serves it with the version it has pinned for
+ * the request, in the X-Snapshot-Version header and, for JSON objects, spliced in as the
+ * "version" field by {@link #writeWithVersion}.
+ *
+ * The cache is bounded by entry count and by total bytes; a response bigger than the
+ * byte budget is not cached at all.
+ */
+@Component
+public class ResponseCache {
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxTreeNodes;
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    
+    @Autowired
+    public ResponseCache(@Value("${filesystem.cache.max-entries:1000}") int maxEntries,
+                         @Value("${filesystem.cache.max-bytes:67108864}") long maxBytes,
+                         @Value("${filesystem.cache.max-tree-nodes:10000}") long maxTreeNodes) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxTreeNodes = maxTreeNodes;
+    }
+    
+    /**
+     * Weak ETag of any response about this directory's subtree
+     */
+    public String etagOf(DirectorySnapshot directory) {
+        return "W/\"" + epoch + "-" + directory.getModCount() + "\"";
+    }
+    
+    /**
+     * Does an If-None-Match header value name this ETag (or "*")? Compared weakly, as
+     * If-None-Match always is.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+    
+    /**
+     * May a tree response for this directory be buffered and cached? Bigger trees are
+     * streamed instead, so their memory stays O(depth).
+     */
+    public boolean isCacheable(DirectorySnapshot directory) {
+        return 1 + directory.getFileCount() + directory.getDirectoryCount() <= maxTreeNodes;
+    }
+    
+    /**
+     * The cached response for (kind, path, params) at the directory's current
+     * modification counter, or the one loader produces, which is then cached. The
+     * loader must leave the version out (see the class comment).
+     */
+    public byte[] get(String kind, String path, DirectorySnapshot directory, String params,
+                      Loader loader) throws IOException {
+        String key = kind + '\n' + path + '\n' + directory.getModCount() + '\n' + params;
+        synchronized (this) {
+            byte[] cached = entries.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Produced outside the lock; two concurrent misses just produce it twice
+        byte[] loaded = loader.load();
+        put(key, loaded);
+        return loaded;
+    }
+    
+    private synchronized void put(String key, byte[] body) {
+        if (body.length > maxBytes || maxEntries == 0) {
+            return;
+        }
+        byte[] previous = entries.put(key, body);
+        bytes += body.length - (previous == null ? 0 : previous.length);
+        Iterator<byte[]> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Write a cached JSON object with "version" as its first field
+     */
+    public static void writeWithVersion(byte[] body, long version, OutputStream out) throws IOException {
+        out.write(("{\"version\":" + version).getBytes(StandardCharsets.US_ASCII));
+        if (body[1] != '}') {
+            out.write(',');
+        }
+        out.write(body, 1, body.length - 1);
+    }
+    
+    /**
+     * Produces a serialised response on a cache miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+}
@@ -0,0 +1,93 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-client working directories, keyed by a client-chosen session token.
+ *
+ * Bounded and expiring: cursors idle for longer than the TTL are dropped, and when the
+ * store grows past its capacity the expired and then least recently used cursors are
+ * evicted. Lookups and updates of different sessions never contend on a shared lock.
+ */
+@Component
+public class SessionCursorStore {
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxSessions;
+    
+    public SessionCursorStore(@Value("${filesystem.session.ttl-seconds:1800}") long ttlSeconds,
+                              @Value("${filesystem.session.max-sessions:10000}") int maxSessions) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxSessions = Math.max(1, maxSessions);
+    }
+    
+    /**
+     * Working directory of the session, or null when it has none (or it expired)
+     */
+    public Directory get(String session) {
+        Cursor cursor = cursors.get(session);
+        if (cursor == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - cursor.lastAccess > ttlMillis) {
+            cursors.remove(session, cursor);
+            return null;
+        }
+        cursor.lastAccess = now;
+        return cursor.directory;
+    }
+    
+    public void put(String session, Directory directory) {
+        Cursor cursor = cursors.get(session);
+        if (cursor != null) {
+            cursor.directory = directory;
+            cursor.lastAccess = System.currentTimeMillis();
+            return;
+        }
+        cursors.put(session, new Cursor(directory));
+        if (cursors.size() > maxSessions) {
+            evict();
+        }
+    }
+    
+    public int size() {
+        return cursors.size();
+    }
+    
+    /**
+     * Drop expired cursors, then the least recently used ones, down to 90% of capacity
+     */
+    private synchronized void evict() {
+        long now = System.currentTimeMillis();
+        cursors.entrySet().removeIf(entry -> now - entry.getValue().lastAccess > ttlMillis);
+        
+        int target = maxSessions - maxSessions / 10;
+        if (cursors.size() <= target) {
+            return;
+        }
+        List<Map.Entry<String, Cursor>> byAge = new ArrayList<>(cursors.entrySet());
+        byAge.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (int i = 0; i < byAge.size() && cursors.size() > target; i++) {
+            cursors.remove(byAge.get(i).getKey(), byAge.get(i).getValue());
+        }
+    }
+    
+    private static final class Cursor {
+        volatile Directory directory;
+        volatile long lastAccess;
+        
+        Cursor(Directory directory) {
+            this.directory = directory;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+}
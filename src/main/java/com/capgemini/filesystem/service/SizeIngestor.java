@@ -0,0 +1,333 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingests a continuous stream of file size changes: (path, newSize) or (path, delta).
+ *
+ * Events are not applied one by one. They are coalesced per path in a concurrent map -
+ * a new size replaces whatever was pending for the path, a delta adds to it - and a
+ * background flusher applies what has accumulated once per window. A flush groups the
+ * pending paths by directory and resizes each directory's files with one
+ * {@link Directory#resizeFiles} call, so a directory receiving thousands of updates per
+ * window pays for one propagation up its parent chain, one version and one journal
+ * batch. Producers only ever touch the map, so they never wait for the tree.
+ *
+ * Paths must be canonical absolute paths of existing files; updates for anything else
+ * are counted as unmatched when they are flushed. Once max-pending paths are waiting,
+ * a producer adding another wakes the flusher and waits until the flusher has taken the
+ * pending paths out - not until they are applied - which bounds memory. Events
+ * submitted after close are rejected.
+ */
+@Component
+public class SizeIngestor {
+    private static final Logger log = LoggerFactory.getLogger(SizeIngestor.class);
+    
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final FileSystemManager fileSystemManager;
+    private final long windowNanos;
+    private final int maxPending;
+    
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    // One flush at a time, whether from the flusher or an explicit flush
+    private final Object flushLock = new Object();
+    // Producers over max-pending wait here until a flush has drained the map
+    private final Object drained = new Object();
+    private final LongAdder accepted = new LongAdder();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile Thread flusher;
+    private volatile boolean closed;
+    
+    @Autowired
+    public SizeIngestor(FileSystemManager fileSystemManager,
+                        @Value("${filesystem.ingest.window-ms:50}") long windowMillis,
+                        @Value("${filesystem.ingest.max-pending:1000000}") int maxPending) {
+        this.fileSystemManager = fileSystemManager;
+        this.windowNanos = Math.max(1, windowMillis) * 1_000_000;
+        this.maxPending = Math.max(1, maxPending);
+    }
+    
+    /**
+     * The file at path now has the given size
+     *
+     * @throws IllegalArgumentException if path is not an absolute file path or size is negative
+     */
+    public void setSize(String path, long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + path);
+        }
+        submit(path, true, size);
+    }
+    
+    /**
+     * The file at path grew (or, for a negative delta, shrank) by delta bytes; the
+     * result is clamped at 0
+     *
+     * @throws IllegalArgumentException if path is not an absolute file path
+     */
+    public void addDelta(String path, long delta) {
+        submit(path, false, delta);
+    }
+    
+    /**
+     * Read events from a stream: JSON objects {"path": ..., "size": N} or
+     * {"path": ..., "delta": N}, one after another (newline-delimited) or in one array.
+     * Events before a malformed one stay accepted.
+     *
+     * @return number of events accepted
+     * @throws IllegalArgumentException at the first malformed event
+     */
+    public long ingest(InputStream in) throws IOException {
+        long count = 0;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            for (; token != null && token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Event " + count + ": expected a JSON object");
+                }
+                String path = null;
+                Long size = null;
+                Long delta = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "path" -> path = parser.getValueAsString();
+                        case "size" -> size = parser.getLongValue();
+                        case "delta" -> delta = parser.getLongValue();
+                        default -> parser.skipChildren();
+                    }
+                }
+                if (path == null || (size == null) == (delta == null)) {
+                    throw new IllegalArgumentException("Event " + count + ": needs a path and either size or delta");
+                }
+                if (size != null) {
+                    setSize(path, size);
+                } else {
+                    addDelta(path, delta);
+                }
+                count++;
+            }
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Event " + count + ": malformed JSON: " + e.getOriginalMessage());
+        }
+        return count;
+    }
+    
+    /**
+     * Apply everything pending now and wait until it is durable
+     *
+     * @return number of files resized
+     */
+    public long flush() {
+        synchronized (flushLock) {
+            // Take the entries out one by one: an event arriving after its path was taken
+            // starts a new entry. The iteration may meet that entry too (e.g. while the map
+            // is resized), so it is merged into the one already taken.
+            Map<String, Map<String, Pending>> byDirectory = new HashMap<>();
+            for (String path : pending.keySet()) {
+                Pending update = pending.remove(path);
+                if (update != null) {
+                    int slash = path.lastIndexOf('/');
+                    byDirectory.computeIfAbsent(slash == 0 ? "/" : path.substring(0, slash), key -> new HashMap<>())
+                            .merge(path.substring(slash + 1), update, Pending::then);
+                }
+            }
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+            
+            long resized = 0;
+            for (Map.Entry<String, Map<String, Pending>> group : byDirectory.entrySet()) {
+                Directory directory = fileSystemManager.resolve(group.getKey());
+                if (directory == null) {
+                    unmatched.addAndGet(group.getValue().size());
+                    continue;
+                }
+                Map<String, Long> sizes = new HashMap<>();
+                Map<String, Long> deltas = new HashMap<>();
+                for (Map.Entry<String, Pending> entry : group.getValue().entrySet()) {
+                    if (!(directory.getChild(entry.getKey()) instanceof File)) {
+                        unmatched.incrementAndGet();
+                        continue;
+                    }
+                    // A delta is added under the directory's lock, to the size the file
+                    // has then, so resizes made meanwhile by others are not lost
+                    Pending update = entry.getValue();
+                    if (update.absolute) {
+                        sizes.put(entry.getKey(), Math.max(0, update.size + update.delta));
+                    } else {
+                        deltas.put(entry.getKey(), update.delta);
+                    }
+                }
+                resized += directory.resizeFiles(sizes, deltas).size();
+            }
+            if (!byDirectory.isEmpty()) {
+                flushes.incrementAndGet();
+                applied.addAndGet(resized);
+                fileSystemManager.awaitDurable();
+            }
+            return resized;
+        }
+    }
+    
+    /**
+     * Counters since startup: events accepted, files resized, coalesced updates that
+     * matched no file, flushes done and paths waiting for the next flush
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("acceptedEvents", accepted.sum());
+        stats.put("appliedUpdates", applied.get());
+        stats.put("unmatchedUpdates", unmatched.get());
+        stats.put("flushes", flushes.get());
+        stats.put("pendingPaths", pending.size());
+        return stats;
+    }
+    
+    /**
+     * Stop the flusher and apply what is still pending; later events are rejected
+     */
+    @PreDestroy
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = flusher;
+        }
+        synchronized (drained) {
+            drained.notifyAll();
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+    
+    /**
+     * @throws IllegalStateException if the ingestor is closed
+     */
+    private void submit(String path, boolean absolute, long value) {
+        if (path == null || path.length() < 2 || path.charAt(0) != '/' || path.endsWith("/")) {
+            throw new IllegalArgumentException("Not an absolute file path: " + path);
+        }
+        if (flusher == null) {
+            startFlusher();
+        }
+        if (pending.size() >= maxPending) {
+            awaitRoom();
+        }
+        if (closed) {
+            throw new IllegalStateException("Size ingestor is closed");
+        }
+        pending.compute(path, (key, update) -> {
+            if (update == null) {
+                update = new Pending();
+            }
+            if (absolute) {
+                update.absolute = true;
+                update.size = value;
+                update.delta = 0;
+            } else {
+                update.delta += value;
+            }
+            return update;
+        });
+        accepted.increment();
+        if (closed) {
+            // close may have done its last flush before the event went in
+            flush();
+        }
+    }
+    
+    /**
+     * Wake the flusher and wait until it has drained the map below max-pending
+     */
+    private void awaitRoom() {
+        synchronized (drained) {
+            while (pending.size() >= maxPending && !closed) {
+                LockSupport.unpark(flusher);
+                try {
+                    drained.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the size ingest flusher", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Started with the first event, so an instance nobody feeds costs no thread
+     */
+    private synchronized void startFlusher() {
+        if (flusher != null || closed) {
+            return;
+        }
+        flusher = new Thread(this::flushLoop, "size-ingest-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+    
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(windowNanos);
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Applying ingested size changes failed", e);
+            }
+        }
+    }
+    
+    /**
+     * What is pending for one path; only touched inside the map's compute/remove, which
+     * lock the entry, and by the flush that took it out
+     */
+    private static final class Pending {
+        private boolean absolute;
+        private long size;
+        private long delta;
+        
+        /**
+         * This update followed by a later one for the same path
+         */
+        private Pending then(Pending later) {
+            if (later.absolute) {
+                return later;
+            }
+            delta += later.delta;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.exception.BatchConflictException;
+import com.capgemini.filesystem.exception.DirectoryAlreadyExistsException;
+import com.capgemini.filesystem.exception.DirectoryNotFoundException;
+import com.capgemini.filesystem.model.ChangeSet;
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.capgemini.filesystem.model.FileSystemEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered list of tree mutations applied all-or-nothing.
+ *
+ * Operations are first planned against the live tree plus the batch's own pending
+ * changes, without touching the tree: any invalid operation rejects the whole batch.
+ * Resolved directories are cached by path, so consecutive operations in the same area
+ * resolve only their new components. Directories the batch creates are built detached,
+ * with everything the batch puts below them, and attached with a single add.
+ *
+ * Applying hands the planned attach, detach and resize steps to the tree as one
+ * {@link ChangeSet}: every touched directory is propagated once, the whole batch is one
+ * version and one framed journal group. If a concurrent request changed one of the
+ * touched directories since planning, nothing is applied and the batch fails with
+ * {@link BatchConflictException}.
+ */
+final class TreeBatch {
+    static final int MAX_OPERATIONS = 10_000;
+    
+    private final FileSystemManager fileSystemManager;
+    private final Directory workingDirectory;
+    
+    // Directories resolved so far, by normalised absolute path
+    private final Map<String, Directory> resolved = new HashMap<>();
+    // Pending child changes of attached directories (a null entry means removed)
+    private final Map<Directory, Map<String, FileSystemEntity>> pending = new IdentityHashMap<>();
+    // Entities this batch creates; directories among them are still detached
+    private final Map<FileSystemEntity, Step> created = new IdentityHashMap<>();
+    private final List<Step> steps = new ArrayList<>();
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private String operation;
+    
+    TreeBatch(FileSystemManager fileSystemManager, Directory workingDirectory) {
+        this.fileSystemManager = fileSystemManager;
+        this.workingDirectory = workingDirectory;
+        resolved.put("/", fileSystemManager.getRoot());
+    }
+    
+    /**
+     * Make a directory and any missing parents; existing directories are kept
+     */
+    void mkdir(int index, String path) {
+        begin(index, "mkdir", path);
+        Directory directory = fileSystemManager.getRoot();
+        int end = path.length();
+        // Start below the deepest directory already resolved
+        while (end > 0) {
+            Directory cached = resolved.get(path.substring(0, end));
+            if (cached != null) {
+                directory = cached;
+                break;
+            }
+            end = path.lastIndexOf('/', end - 1);
+        }
+        
+        int start = end + 1;
+        while (start <= path.length()) {
+            int next = path.indexOf('/', start);
+            if (next < 0) {
+                next = path.length();
+            }
+            String name = path.substring(start, next);
+            FileSystemEntity child = childOf(directory, name);
+            if (child == null) {
+                child = new Directory(name);
+                add(directory, child);
+            } else if (!(child instanceof Directory)) {
+                throw new IllegalArgumentException(message("Not a directory: " + path.substring(0, next)));
+            }
+            directory = (Directory) child;
+            resolved.put(path.substring(0, next), directory);
+            start = next + 1;
+        }
+        result(directory);
+    }
+    
+    /**
+     * Remove a directory with everything below it
+     */
+    void rmdir(int index, String path) {
+        begin(index, "rmdir", path);
+        if (path.equals("/")) {
+            throw new IllegalArgumentException(message("Cannot remove root directory"));
+        }
+        Directory parent = parentOf(path);
+        FileSystemEntity entity = childOf(parent, nameOf(path));
+        if (entity == null) {
+            throw new DirectoryNotFoundException(message("Directory not found: " + path));
+        }
+        if (!(entity instanceof Directory)) {
+            throw new IllegalArgumentException(message("Entity is not a directory: " + path));
+        }
+        for (FileSystemEntity e = workingDirectory; e != null; e = e.getParent()) {
+            if (e == entity) {
+                throw new IllegalArgumentException(message("Cannot remove current directory"));
+            }
+        }
+        remove(parent, entity);
+        resolved.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + "/"));
+        result(entity);
+    }
+    
+    /**
+     * Create an empty-content file of the given size; its directory must exist (or be
+     * created earlier in the batch)
+     */
+    void create(int index, String path, long size) {
+        begin(index, "create", path);
+        checkSize(size);
+        if (path.equals("/")) {
+            throw new IllegalArgumentException(message("Cannot create the root directory"));
+        }
+        Directory parent = parentOf(path);
+        String name = nameOf(path);
+        if (childOf(parent, name) != null) {
+            throw new DirectoryAlreadyExistsException(message("Entry already exists: " + path));
+        }
+        File file = new File(name, size);
+        add(parent, file);
+        result(file);
+    }
+    
+    /**
+     * Change a file's size; an existing file keeps its id
+     */
+    void setSize(int index, String path, long size) {
+        begin(index, "setSize", path);
+        checkSize(size);
+        Directory parent = path.equals("/") ? null : parentOf(path);
+        FileSystemEntity file = parent == null ? null : childOf(parent, nameOf(path));
+        if (!(file instanceof File)) {
+            throw new IllegalArgumentException(message("Not a file: " + path));
+        }
+        Step step = created.get(file);
+        if (isCreated(parent)) {
+            parent.resizeFiles(Map.of(file.getName(), size));
+            file = parent.getChild(file.getName());
+        } else if (step != null) {
+            // Created earlier in this batch and not attached yet: swap in a new file
+            created.remove(file);
+            file = new File(file.getName(), size);
+            step.entity = file;
+            created.put(file, step);
+            pending.get(parent).put(file.getName(), file);
+        } else {
+            Step resize = new Step(Kind.RESIZE, parent, file);
+            resize.size = size;
+            steps.add(resize);
+        }
+        result(file);
+    }
+    
+    /**
+     * Apply the planned steps as one {@link ChangeSet}
+     *
+     * @return one result per operation, in order
+     * @throws BatchConflictException if the tree changed under the batch; nothing is applied then
+     */
+    List<Map<String, Object>> apply() {
+        ChangeSet changes = new ChangeSet();
+        for (Step step : steps) {
+            if (step.cancelled) {
+                continue;
+            }
+            switch (step.kind) {
+                case ADD -> changes.add(step.parent, step.entity);
+                case REMOVE -> changes.remove(step.parent, step.entity);
+                case RESIZE -> changes.resize(step.parent, (File) step.entity, step.size);
+            }
+        }
+        if (!changes.apply()) {
+            throw new BatchConflictException("Batch not applied: " + changes.getConflict().getParent().getPath()
+                    + " was changed by a concurrent request");
+        }
+        return results;
+    }
+    
+    /**
+     * Child as the batch sees it: pending changes first, then the tree
+     */
+    private FileSystemEntity childOf(Directory directory, String name) {
+        Map<String, FileSystemEntity> changes = pending.get(directory);
+        if (changes != null && changes.containsKey(name)) {
+            return changes.get(name);
+        }
+        return directory.getChild(name);
+    }
+    
+    private void add(Directory parent, FileSystemEntity entity) {
+        if (isCreated(parent)) {
+            // Still detached: fill it directly, the attach step carries it
+            parent.addChild(entity);
+            created.put(entity, null);
+            return;
+        }
+        Step step = new Step(Kind.ADD, parent, entity);
+        steps.add(step);
+        created.put(entity, step);
+        pending.computeIfAbsent(parent, key -> new HashMap<>()).put(entity.getName(), entity);
+    }
+    
+    private void remove(Directory parent, FileSystemEntity entity) {
+        if (isCreated(parent)) {
+            parent.removeChild(entity);
+            created.remove(entity);
+            return;
+        }
+        Step step = created.remove(entity);
+        if (step != null) {
+            // Added earlier in this batch: just don't add it
+            step.cancelled = true;
+        } else {
+            steps.add(new Step(Kind.REMOVE, parent, entity));
+        }
+        pending.computeIfAbsent(parent, key -> new HashMap<>()).put(entity.getName(), null);
+    }
+    
+    private boolean isCreated(Directory directory) {
+        return created.containsKey(directory);
+    }
+    
+    private Directory parentOf(String path) {
+        String parentPath = path.substring(0, path.lastIndexOf('/'));
+        if (parentPath.isEmpty()) {
+            return fileSystemManager.getRoot();
+        }
+        Directory parent = resolved.get(parentPath);
+        if (parent != null) {
+            return parent;
+        }
+        Directory grandparent = parentOf(parentPath);
+        FileSystemEntity entity = childOf(grandparent, nameOf(parentPath));
+        if (!(entity instanceof Directory)) {
+            throw new DirectoryNotFoundException(message("Directory not found: " + parentPath));
+        }
+        resolved.put(parentPath, (Directory) entity);
+        return (Directory) entity;
+    }
+    
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
+    private void checkSize(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException(message("size must not be negative"));
+        }
+    }
+    
+    private void begin(int index, String op, String path) {
+        operation = "operations[" + index + "] (" + op + " " + path + "): ";
+        Map<String, Object> result = new HashMap<>();
+        result.put("index", index);
+        result.put("op", op);
+        result.put("path", path);
+        results.add(result);
+    }
+    
+    private void result(FileSystemEntity entity) {
+        results.get(results.size() - 1).put("id", entity.getId());
+    }
+    
+    private String message(String message) {
+        return operation + message;
+    }
+    
+    private enum Kind { ADD, REMOVE, RESIZE }
+    
+    private static final class Step {
+        private final Kind kind;
+        private final Directory parent;
+        private FileSystemEntity entity;
+        private long size;
+        private boolean cancelled;
+        
+        private Step(Kind kind, Directory parent, FileSystemEntity entity) {
+            this.kind = kind;
+            this.parent = parent;
+            this.entity = entity;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import com.capgemini.filesystem.model.PackedNames;
+import com.capgemini.filesystem.model.SnapshotEntry;
+import com.capgemini.filesystem.model.SnapshotVisitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Finds files and directories below a directory by name glob, size range and type.
+ *
+ * A glob the {@link NameIndex} can narrow down is answered from the index: only the
+ * entries whose names match are looked at, wherever they are in the tree, so the index
+ * is used only when there are no more of them than entries below the directory.
+ * Anything else - a glob without a literal run of three characters, size or type
+ * filters alone, a name common across the tree searched for in a small directory, or a
+ * tree whose lazily loaded parts are not indexed yet - walks the directory's current
+ * snapshot on a fork/join pool, split by subtree weight like {@link ParallelSizeCalculator}.
+ *
+ * Either way matches are handed to the caller as they are found, and the search stops
+ * once the limit is reached.
+ */
+@Component
+public class TreeSearch {
+    public static final int MAX_LIMIT = 10_000;
+    static final int MAX_SPLIT_DEPTH = 64;
+    
+    private final FileSystemManager fileSystemManager;
+    private final ForkJoinPool pool;
+    private final long threshold;
+    
+    @Autowired
+    public TreeSearch(FileSystemManager fileSystemManager,
+                      @Value("${filesystem.find.parallel-threshold:20000}") long threshold,
+                      @Value("${filesystem.find.parallelism:0}") int parallelism) {
+        this.fileSystemManager = fileSystemManager;
+        this.threshold = Math.max(1, threshold);
+        this.pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+    }
+    
+    /**
+     * Plan a search below top
+     *
+     * @param glob    name pattern (see {@link Glob})
+     * @param minSize smallest size to report, or null
+     * @param maxSize largest size to report, or null
+     * @param type    "file", "directory" or "any"
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    public Query query(Directory top, String glob, Long minSize, Long maxSize, String type, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        if ((minSize != null && minSize < 0) || (maxSize != null && maxSize < 0)) {
+            throw new IllegalArgumentException("minSize and maxSize must not be negative");
+        }
+        if (minSize != null && maxSize != null && minSize > maxSize) {
+            throw new IllegalArgumentException("minSize must not be greater than maxSize");
+        }
+        String wanted = switch (type) {
+            case "any" -> null;
+            case "file" -> "FILE";
+            case "directory" -> "DIRECTORY";
+            default -> throw new IllegalArgumentException("Unknown type: " + type + " (expected file, directory or any)");
+        };
+        return new Query(top, Glob.compile(glob), minSize == null ? 0 : minSize,
+                maxSize == null ? Long.MAX_VALUE : maxSize, wanted, limit);
+    }
+    
+    /**
+     * One match: absolute path, name, type and size (a directory's size is its subtree total)
+     */
+    public static final class Match {
+        private final String path;
+        private final String name;
+        private final String type;
+        private final long size;
+        
+        Match(String path, String name, String type, long size) {
+            this.path = path;
+            this.name = name;
+            this.type = type;
+            this.size = size;
+        }
+        
+        public String getPath() {
+            return path;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public long getSize() {
+            return size;
+        }
+    }
+    
+    /**
+     * A planned search
+     */
+    public final class Query {
+        private final Directory top;
+        private final Glob glob;
+        private final long minSize;
+        private final long maxSize;
+        private final String type;
+        private final int limit;
+        // Matching names when the index answers, otherwise null
+        private final List<String> names;
+        
+        private Query(Directory top, Glob glob, long minSize, long maxSize, String type, int limit) {
+            this.top = top;
+            this.glob = glob;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.type = type;
+            this.limit = limit;
+            NameIndex index = fileSystemManager.getNameIndex();
+            List<String> matching = index.isComplete() && index.canServe(glob) ? index.names(glob) : null;
+            boolean cheaper = matching != null
+                    && index.postings(matching) <= top.getFileCount() + top.getDirectoryCount();
+            this.names = cheaper ? matching : null;
+        }
+        
+        /**
+         * "index" if the name index answers the search, "scan" if the tree is walked
+         */
+        public String getStrategy() {
+            return names != null ? "index" : "scan";
+        }
+        
+        /**
+         * Run the search, handing each match to sink as soon as it is found. If sink
+         * throws (e.g. the client went away) the search stops.
+         *
+         * @return number of matches
+         */
+        public int run(Consumer<Match> sink) {
+            return names != null ? runIndexed(sink) : runScan(sink);
+        }
+        
+        private boolean accepts(String entryType, String name, long size) {
+            return (type == null || type.equals(entryType)) && size >= minSize && size <= maxSize && glob.matches(name);
+        }
+        
+        /**
+         * Look at the indexed entries with a matching name: live entities, and entries
+         * of packed trees below directories that are still unloaded. An entry that was
+         * just materialised may turn up both ways, so paths are reported once.
+         */
+        private int runIndexed(Consumer<Match> sink) {
+            NameIndex index = fileSystemManager.getNameIndex();
+            Set<String> reported = new HashSet<>();
+            String topPath = top.getPath();
+            for (String name : names) {
+                for (FileSystemEntity entity : index.entities(name)) {
+                    if (reported.size() == limit) {
+                        return limit;
+                    }
+                    // Skip entries removed since they were indexed and entries elsewhere
+                    if (fileSystemManager.getNode(entity.getId()) == entity && isBelowTop(entity)
+                            && accepts(entity.getType(), entity.getName(), entity.calculateSize())
+                            && reported.add(entity.getPath())) {
+                        sink.accept(new Match(entity.getPath(), entity.getName(), entity.getType(), entity.calculateSize()));
+                    }
+                }
+                for (PackedNames postings : index.packed()) {
+                    boolean more = postings.forEach(name, (holder, path, type, size) -> {
+                        if (reported.size() == limit) {
+                            return false;
+                        }
+                        if (fileSystemManager.getNode(holder.getId()) == holder && isBelow(path, topPath)
+                                && accepts(type, name, size) && reported.add(path)) {
+                            sink.accept(new Match(path, name, type, size));
+                        }
+                        return true;
+                    });
+                    if (!more) {
+                        return limit;
+                    }
+                }
+            }
+            return reported.size();
+        }
+        
+        private boolean isBelow(String path, String topPath) {
+            return topPath.equals("/") || (path.length() > topPath.length() && path.startsWith(topPath)
+                    && path.charAt(topPath.length()) == '/');
+        }
+        
+        private boolean isBelowTop(FileSystemEntity entity) {
+            for (FileSystemEntity ancestor = entity.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                if (ancestor == top) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Walk the current snapshot on the pool; workers queue matches and this thread
+         * hands them to sink while the walk goes on
+         */
+        private int runScan(Consumer<Match> sink) {
+            Scan scan = new Scan(this);
+            ForkJoinTask<?> task = pool.submit(new ScanTask(scan, top.getSnapshot(), top.getPath(), 0));
+            int delivered = 0;
+            try {
+                while (true) {
+                    Match match = scan.matches.poll(10, TimeUnit.MILLISECONDS);
+                    if (match != null) {
+                        sink.accept(match);
+                        delivered++;
+                    } else if (task.isDone() && scan.matches.isEmpty()) {
+                        task.join(); // rethrows a failure of the walk
+                        return delivered;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return delivered;
+            } finally {
+                scan.stopped = true;
+            }
+        }
+    }
+    
+    /**
+     * State shared by the workers of one scan
+     */
+    private static final class Scan {
+        private final Query query;
+        private final LinkedBlockingQueue<Match> matches = new LinkedBlockingQueue<>();
+        private final AtomicInteger found = new AtomicInteger();
+        private volatile boolean stopped;
+        
+        Scan(Query query) {
+            this.query = query;
+        }
+        
+        void offer(SnapshotEntry entry, CharSequence path) {
+            if (query.accepts(entry.getType(), entry.getName(), entry.calculateSize())) {
+                if (found.incrementAndGet() <= query.limit) {
+                    matches.add(new Match(path.toString(), entry.getName(), entry.getType(), entry.calculateSize()));
+                } else {
+                    stopped = true;
+                }
+            }
+        }
+    }
+    
+    private static long weight(DirectorySnapshot directory) {
+        return directory.getFileCount() + directory.getDirectoryCount();
+    }
+    
+    private static String childPath(String parent, String name) {
+        return parent.equals("/") ? "/" + name : parent + "/" + name;
+    }
+    
+    /**
+     * Searches everything below one directory: heavy subdirectories become subtasks,
+     * the rest is walked on this worker
+     */
+    private final class ScanTask extends RecursiveAction {
+        private final Scan scan;
+        private final DirectorySnapshot directory;
+        private final String path;
+        private final int splits;
+        
+        ScanTask(Scan scan, DirectorySnapshot directory, String path, int splits) {
+            this.scan = scan;
+            this.directory = directory;
+            this.path = path;
+            this.splits = splits;
+        }
+        
+        @Override
+        protected void compute() {
+            if (weight(directory) < threshold || splits >= MAX_SPLIT_DEPTH) {
+                walk(directory, path);
+                return;
+            }
+            List<ScanTask> forked = new ArrayList<>();
+            for (SnapshotEntry child : directory.getChildren()) {
+                if (scan.stopped) {
+                    break;
+                }
+                String childPath = childPath(path, child.getName());
+                scan.offer(child, childPath);
+                if (!(child instanceof DirectorySnapshot)) {
+                    continue;
+                }
+                DirectorySnapshot subdirectory = (DirectorySnapshot) child;
+                if (weight(subdirectory) >= threshold) {
+                    ScanTask task = new ScanTask(scan, subdirectory, childPath, splits + 1);
+                    task.fork();
+                    forked.add(task);
+                } else {
+                    walk(subdirectory, childPath);
+                }
+            }
+            for (ScanTask task : forked) {
+                task.join();
+            }
+        }
+        
+        /**
+         * Sequential walk below top
+         */
+        private void walk(DirectorySnapshot top, String topPath) {
+            top.walk(new ScanVisitor(scan, topPath));
+        }
+    }
+    
+    /**
+     * Offers every entry below the walk's top directory, building paths in one buffer
+     * (one saved length per open directory) and only turning matches into strings
+     */
+    private static final class ScanVisitor implements SnapshotVisitor {
+        private final Scan scan;
+        private final StringBuilder path;
+        private int[] lengths = new int[16];
+        
+        ScanVisitor(Scan scan, String topPath) {
+            this.scan = scan;
+            this.path = new StringBuilder(topPath.equals("/") ? "" : topPath);
+        }
+        
+        @Override
+        public boolean enter(SnapshotEntry entry, int depth) {
+            if (depth == 0) {
+                return true;
+            }
+            if (scan.stopped) {
+                return false;
+            }
+            if (depth >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, lengths.length * 2);
+            }
+            lengths[depth] = path.length();
+            path.append('/').append(entry.getName());
+            scan.offer(entry, path);
+            if (entry instanceof DirectorySnapshot) {
+                return true;
+            }
+            path.setLength(lengths[depth]);
+            return false;
+        }
+        
+        @Override
+        public void leave(DirectorySnapshot directory, int depth) {
+            if (depth > 0) {
+                path.setLength(lengths[depth]);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.SnapshotEntry;
+import com.capgemini.filesystem.model.SnapshotVisitor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Streams a directory tree from a pinned snapshot to an OutputStream.
+ *
+ * Nothing is materialised: the snapshot walk feeds a JsonGenerator node by node, so peak
+ * memory is O(depth) regardless of how many nodes the tree has. The snapshot never
+ * changes, so a long response shows one consistent tree however slowly the client reads.
+ *
+ * Both formats take a depth limit: directories at the limit are not descended into and
+ * are marked "truncated" with their aggregate size and counts instead.
+ */
+@Component
+public class TreeStreamWriter {
+    private final JsonFactory jsonFactory;
+    
+    @Autowired
+    public TreeStreamWriter(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+    
+    /**
+     * Write {"success":true,"version":N,"tree":{name,type,size,children:[...]}} - the
+     * tree has the same shape as a serialised TreeRepresentation
+     *
+     * @param version  version number the snapshot was pinned at
+     * @param maxDepth deepest level to expand (0 = only the top directory itself)
+     */
+    public void writeJson(DirectorySnapshot top, long version, int maxDepth, OutputStream out) throws IOException {
+        writeJson(top, version, maxDepth, out, entry -> { });
+    }
+    
+    /**
+     * Like {@link #writeJson(DirectorySnapshot, long, int, OutputStream)}, handing every
+     * node to progress before it is written; an exception thrown by progress stops the walk
+     */
+    public void writeJson(DirectorySnapshot top, long version, int maxDepth, OutputStream out,
+                          Consumer<SnapshotEntry> progress) throws IOException {
+        writeJson(top, (Long) version, maxDepth, out, progress);
+    }
+    
+    /**
+     * Write {"success":true,"tree":{...}} - the tree without the version, for a response
+     * that is cached across versions (see {@link ResponseCache#writeWithVersion})
+     */
+    public void writeJson(DirectorySnapshot top, int maxDepth, OutputStream out) throws IOException {
+        writeJson(top, null, maxDepth, out, entry -> { });
+    }
+    
+    private void writeJson(DirectorySnapshot top, Long version, int maxDepth, OutputStream out,
+                           Consumer<SnapshotEntry> progress) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeBooleanField("success", true);
+            if (version != null) {
+                generator.writeNumberField("version", version);
+            }
+            generator.writeFieldName("tree");
+            walk(top, new SnapshotVisitor() {
+                @Override
+                public boolean enter(SnapshotEntry entity, int depth) {
+                    progress.accept(entity);
+                    try {
+                        boolean truncated = isTruncated(entity, depth, maxDepth);
+                        writeNode(generator, entity, truncated);
+                        if (entity instanceof DirectorySnapshot && !truncated) {
+                            return true;
+                        }
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                        return false;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                
+                @Override
+                public void leave(DirectorySnapshot directory, int depth) {
+                    try {
+                        generator.writeEndArray();
+                        generator.writeEndObject();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            generator.writeEndObject();
+        }
+    }
+    
+    /**
+     * Write one JSON object per line: {path,name,type,size,depth}, in pre-order
+     *
+     * @param topPath  absolute path of top (snapshots do not know their own path)
+     * @param maxDepth deepest level to expand (0 = only the top directory itself)
+     */
+    public void writeNdjson(DirectorySnapshot top, String topPath, int maxDepth, OutputStream out) throws IOException {
+        writeNdjson(top, topPath, maxDepth, out, entry -> { });
+    }
+    
+    /**
+     * Like {@link #writeNdjson(DirectorySnapshot, String, int, OutputStream)}, handing every
+     * node to progress before it is written; an exception thrown by progress stops the walk
+     */
+    public void writeNdjson(DirectorySnapshot top, String topPath, int maxDepth, OutputStream out,
+                            Consumer<SnapshotEntry> progress) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            walk(top, new NdjsonVisitor(generator, topPath, maxDepth, progress));
+        }
+    }
+    
+    /**
+     * Run a search and write one JSON object per match, {path,name,type,size}, flushing
+     * each line so the client sees matches as they are found
+     */
+    public void writeMatches(TreeSearch.Query query, OutputStream out) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            query.run(match -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeStringField("path", match.getPath());
+                    generator.writeStringField("name", match.getName());
+                    generator.writeStringField("type", match.getType());
+                    generator.writeNumberField("size", match.getSize());
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    generator.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = jsonFactory.createGenerator(out);
+        // The caller owns the stream (e.g. the servlet response)
+        generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        return generator;
+    }
+    
+    private static boolean isTruncated(SnapshotEntry entity, int depth, int maxDepth) {
+        return depth >= maxDepth && entity instanceof DirectorySnapshot
+                && ((DirectorySnapshot) entity).getChildCount() > 0;
+    }
+    
+    private static void writeNode(JsonGenerator generator, SnapshotEntry entity, boolean truncated) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", entity.getName());
+        generator.writeStringField("type", entity.getType());
+        generator.writeNumberField("size", entity.calculateSize());
+        if (truncated) {
+            writeTruncation(generator, (DirectorySnapshot) entity);
+        }
+        generator.writeArrayFieldStart("children");
+    }
+    
+    private static void writeTruncation(JsonGenerator generator, DirectorySnapshot directory) throws IOException {
+        generator.writeBooleanField("truncated", true);
+        generator.writeNumberField("fileCount", directory.getFileCount());
+        generator.writeNumberField("directoryCount", directory.getDirectoryCount());
+    }
+    
+    /**
+     * Emits one line per node. Paths are built in a single reusable buffer (one saved
+     * length per open directory) instead of calling getPath() on every node.
+     */
+    private static final class NdjsonVisitor implements SnapshotVisitor {
+        private final JsonGenerator generator;
+        private final StringBuilder path;
+        private final String topPath;
+        private final int maxDepth;
+        private final Consumer<SnapshotEntry> progress;
+        private int[] lengths = new int[16];
+        
+        NdjsonVisitor(JsonGenerator generator, String topPath, int maxDepth, Consumer<SnapshotEntry> progress) {
+            this.generator = generator;
+            this.topPath = topPath;
+            this.maxDepth = maxDepth;
+            this.progress = progress;
+            this.path = new StringBuilder(topPath.equals("/") ? "" : topPath);
+        }
+        
+        @Override
+        public boolean enter(SnapshotEntry entity, int depth) {
+            progress.accept(entity);
+            if (depth >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, lengths.length * 2);
+            }
+            lengths[depth] = path.length();
+            if (depth > 0) {
+                path.append('/').append(entity.getName());
+            }
+            boolean truncated = isTruncated(entity, depth, maxDepth);
+            try {
+                generator.writeStartObject();
+                generator.writeStringField("path", depth == 0 ? topPath : path.toString());
+                generator.writeStringField("name", entity.getName());
+                generator.writeStringField("type", entity.getType());
+                generator.writeNumberField("size", entity.calculateSize());
+                generator.writeNumberField("depth", depth);
+                if (truncated) {
+                    writeTruncation(generator, (DirectorySnapshot) entity);
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (entity instanceof DirectorySnapshot && !truncated) {
+                return true;
+            }
+            path.setLength(lengths[depth]);
+            return false;
+        }
+        
+        @Override
+        public void leave(DirectorySnapshot directory, int depth) {
+            path.setLength(lengths[depth]);
+        }
+    }
+    
+    private static void walk(DirectorySnapshot top, SnapshotVisitor visitor) throws IOException {
+        try {
+            top.walk(visitor);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
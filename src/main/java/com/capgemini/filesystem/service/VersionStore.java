@@ -0,0 +1,157 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.exception.VersionGoneException;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Published versions of the tree (MVCC).
+ *
+ * Every mutation that reaches the root publishes the root's new snapshot under the next
+ * version number. Readers pin a version for the duration of a request and see exactly
+ * that tree no matter what changes meanwhile. The newest retain versions are always
+ * available; older ones are reclaimed as soon as no reader has them pinned, after which
+ * asking for them fails with {@link VersionGoneException}.
+ */
+@Component
+public class VersionStore {
+    private final int retain;
+    private final ConcurrentNavigableMap<Long, Version> versions = new ConcurrentSkipListMap<>();
+    private volatile Version latest;
+    private long lastNumber;
+    
+    public VersionStore(@Value("${filesystem.snapshot.retain:16}") int retain) {
+        this.retain = Math.max(1, retain);
+    }
+    
+    /**
+     * Publish a new root snapshot. Callers publish in mutation order (under the root's lock).
+     *
+     * @return the new version number
+     */
+    public synchronized long publish(DirectorySnapshot root) {
+        Version version = new Version(++lastNumber, root);
+        versions.put(version.number, version);
+        latest = version;
+        
+        // Versions that just fell out of the retention window go once unpinned
+        for (Version old : versions.headMap(version.number - retain, true).values()) {
+            reclaim(old);
+        }
+        return version.number;
+    }
+    
+    /**
+     * Pin a version for reading; close the returned pin when done
+     *
+     * @param number version to pin, or null for the latest
+     * @throws VersionGoneException     if the version has been reclaimed
+     * @throws IllegalArgumentException if the version has not been published yet
+     */
+    public Pin pin(Long number) {
+        if (number == null) {
+            while (true) {
+                Version current = latest;
+                if (current == null) {
+                    throw new IllegalStateException("No version published");
+                }
+                if (current.tryPin()) {
+                    return new Pin(current);
+                }
+            }
+        }
+        
+        Version version = versions.get(number);
+        if (version != null && version.tryPin()) {
+            return new Pin(version);
+        }
+        if (number < 1 || number > lastPublished()) {
+            throw new IllegalArgumentException("Unknown version: " + number);
+        }
+        throw new VersionGoneException("Version " + number + " has been reclaimed");
+    }
+    
+    public long lastPublished() {
+        Version current = latest;
+        return current == null ? 0 : current.number;
+    }
+    
+    /**
+     * Number of versions currently held (retained or pinned)
+     */
+    public int size() {
+        return versions.size();
+    }
+    
+    private void release(Version version) {
+        if (version.pins.decrementAndGet() == 0 && version.number <= lastPublished() - retain) {
+            reclaim(version);
+        }
+    }
+    
+    private void reclaim(Version version) {
+        if (version.pins.compareAndSet(0, -1)) {
+            versions.remove(version.number, version);
+        }
+    }
+    
+    private static final class Version {
+        final long number;
+        final DirectorySnapshot root;
+        // Readers holding this version; -1 once reclaimed
+        final AtomicInteger pins = new AtomicInteger();
+        
+        Version(long number, DirectorySnapshot root) {
+            this.number = number;
+            this.root = root;
+        }
+        
+        boolean tryPin() {
+            while (true) {
+                int count = pins.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+    
+    /**
+     * A reader's hold on one version
+     */
+    public final class Pin implements AutoCloseable {
+        private final Version version;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        private Pin(Version version) {
+            this.version = version;
+        }
+        
+        public long getVersion() {
+            return version.number;
+        }
+        
+        public DirectorySnapshot getRoot() {
+            return version.root;
+        }
+        
+        /**
+         * Release the version; only the first call counts, from whichever thread
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(version);
+            }
+        }
+    }
+}
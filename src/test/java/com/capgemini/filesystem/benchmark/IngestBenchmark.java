@@ -0,0 +1,84 @@
+package com.capgemini.filesystem.benchmark;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.capgemini.filesystem.service.FileSystemManager;
+import com.capgemini.filesystem.service.SizeIngestor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sustained size-event throughput of SizeIngestor for one and for many producers,
+ * pushing deltas for random files of a 100,000-file tree while the flusher applies them
+ *
+ * Run with: ./gradlew benchmark
+ */
+@Tag("benchmark")
+class IngestBenchmark {
+    
+    private static final long DURATION_MILLIS = 2_000;
+    private static final int DIRECTORIES = 100;
+    private static final int FILES_PER_DIRECTORY = 1_000;
+    
+    @Test
+    void measureIngestThroughput() throws Exception {
+        System.out.printf("%-8s %-12s %-10s %-14s%n", "threads", "events/s", "flushes", "files/flush");
+        for (int threads : new int[]{1, 4, 8}) {
+            run(threads);
+        }
+    }
+    
+    private static void run(int threads) throws Exception {
+        FileSystemManager manager = new FileSystemManager();
+        String[] paths = new String[DIRECTORIES * FILES_PER_DIRECTORY];
+        for (int d = 0; d < DIRECTORIES; d++) {
+            Directory directory = new Directory("ingest-" + d);
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                directory.addChild(new File("f" + f, 1000));
+                paths[d * FILES_PER_DIRECTORY + f] = "/ingest-" + d + "/f" + f;
+            }
+            manager.getRoot().addChild(directory);
+        }
+        long before = manager.getRoot().calculateSize();
+        
+        SizeIngestor ingestor = new SizeIngestor(manager, 50, 1_000_000);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+            List<Future<Long>> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                producers.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long events = 0;
+                    while ((events & 1023) != 0 || System.nanoTime() < deadline) {
+                        ingestor.addDelta(paths[random.nextInt(paths.length)], 1);
+                        events++;
+                    }
+                    return events;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> producer : producers) {
+                total += producer.get();
+            }
+            ingestor.close();
+            
+            long flushes = (Long) ingestor.getStats().get("flushes");
+            long applied = (Long) ingestor.getStats().get("appliedUpdates");
+            if (manager.getRoot().calculateSize() != before + total) {
+                throw new AssertionError("Lost size events: " + (manager.getRoot().calculateSize() - before - total));
+            }
+            System.out.printf("%-8d %-12d %-10d %-14d%n", threads, total * 1000 / DURATION_MILLIS, flushes,
+                    applied / Math.max(1, flushes));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
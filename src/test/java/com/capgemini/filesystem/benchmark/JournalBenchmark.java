@@ -0,0 +1,83 @@
+package com.capgemini.filesystem.benchmark;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.service.DiskScanner;
+import com.capgemini.filesystem.service.FileSystemManager;
+import com.capgemini.filesystem.service.ManifestImporter;
+import com.capgemini.filesystem.service.MutationJournal;
+import com.capgemini.filesystem.service.SessionCursorStore;
+import com.capgemini.filesystem.service.VersionStore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * mkdir/rmdir throughput with the journal off and in each durability mode, for one
+ * and for many concurrent writers. Each operation waits for durability the way a
+ * request does, so concurrent writers show how much group commit shares the fsyncs.
+ *
+ * Run with: ./gradlew benchmark
+ */
+@Tag("benchmark")
+class JournalBenchmark {
+    
+    private static final long DURATION_MILLIS = 2_000;
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void compareDurabilityModes() throws Exception {
+        System.out.printf("%-10s %-8s %-12s %-12s%n", "mode", "threads", "ops/s", "records/fsync");
+        for (int threads : new int[]{1, 16}) {
+            run("off", MutationJournal.disabled(), threads);
+            for (MutationJournal.Durability durability : MutationJournal.Durability.values()) {
+                Path segments = Files.createTempDirectory(directory, durability.name());
+                run(durability.name(), new MutationJournal(segments, durability, 5, 1_000_000), threads);
+            }
+        }
+    }
+    
+    private static void run(String mode, MutationJournal journal, int threads) throws Exception {
+        FileSystemManager manager = new FileSystemManager(new DiskScanner(false, 1), new ManifestImporter("", "du"),
+                new SessionCursorStore(1800, 100), new VersionStore(16), journal, "");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long deadline = System.nanoTime() + DURATION_MILLIS * 1_000_000;
+            List<Future<Long>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Directory parent = new Directory("bench-" + t);
+                manager.getRoot().addChild(parent);
+                workers.add(pool.submit(() -> {
+                    long ops = 0;
+                    while (System.nanoTime() < deadline) {
+                        parent.addChild(new Directory("d"));
+                        manager.awaitDurable();
+                        parent.removeChild("d");
+                        manager.awaitDurable();
+                        ops += 2;
+                    }
+                    return ops;
+                }));
+            }
+            long total = 0;
+            for (Future<Long> worker : workers) {
+                total += worker.get();
+            }
+            long syncs = journal.getSyncCount();
+            System.out.printf("%-10s %-8d %-12d %-12s%n", mode, threads, total * 1000 / DURATION_MILLIS,
+                    syncs == 0 ? "-" : String.format("%.1f", (double) journal.getAppendedRecords() / syncs));
+        } finally {
+            pool.shutdown();
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.capgemini.filesystem.benchmark;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.capgemini.filesystem.service.ParallelSizeCalculator;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sequential vs fork/join size recomputation over growing trees, at the default threshold.
+ * Prints one row per tree size and the smallest size where the parallel engine wins.
+ * The figures measured so far are in {@link ParallelSizeCalculator}.
+ *
+ * Run with: ./gradlew benchmark
+ */
+@Tag("benchmark")
+class ParallelSizeBenchmark {
+    
+    private static final int FILES_PER_DIRECTORY = 8;
+    private static final int RUNS = 15;
+    
+    @Test
+    void compareAtDefaultThreshold() {
+        ParallelSizeCalculator calculator = new ParallelSizeCalculator(ParallelSizeCalculator.DEFAULT_THRESHOLD, 0);
+        System.out.printf("%-10s %-12s %-14s %-14s%n", "fanout^d", "nodes", "sequential(us)", "parallel(us)");
+        
+        Long crossover = null;
+        int[][] shapes = {{4, 3}, {4, 4}, {6, 4}, {8, 4}, {10, 4}, {8, 5}, {12, 5}};
+        for (int[] shape : shapes) {
+            Directory root = buildTree(shape[0], shape[1]);
+            long nodes = root.getFileCount() + root.getDirectoryCount() + 1;
+            
+            long expected = root.calculateSize();
+            assertEquals(expected, ParallelSizeCalculator.calculateSizeSequential(root));
+            assertEquals(expected, calculator.calculateSize(root));
+            
+            long sequential = median(() -> ParallelSizeCalculator.calculateSizeSequential(root));
+            long parallel = median(() -> calculator.calculateSize(root));
+            System.out.printf("%-10s %-12d %-14d %-14d%n", shape[0] + "^" + shape[1], nodes, sequential / 1000, parallel / 1000);
+            
+            if (crossover == null && parallel < sequential) {
+                crossover = nodes;
+            }
+        }
+        System.out.println("Parallel engine first faster at ~" + (crossover == null ? "never" : crossover + " nodes")
+                + " (threshold " + calculator.getThreshold() + ", " + Runtime.getRuntime().availableProcessors() + " cores)");
+    }
+    
+    private static long median(Runnable run) {
+        for (int i = 0; i < RUNS; i++) {
+            run.run(); // warm-up
+        }
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+    
+    static Directory buildTree(int fanout, int depth) {
+        Directory root = new Directory("root");
+        fill(root, fanout, depth);
+        return root;
+    }
+    
+    private static void fill(Directory dir, int fanout, int depth) {
+        for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+            dir.addChild(new File("file-" + f + ".dat", 1024L * (f + 1)));
+        }
+        if (depth == 0) {
+            return;
+        }
+        for (int d = 0; d < fanout; d++) {
+            Directory child = new Directory("dir-" + d);
+            fill(child, fanout, depth - 1);
+            dir.addChild(child);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.capgemini.filesystem.controller;
 
+import com.capgemini.filesystem.model.Directory;
 import com.capgemini.filesystem.service.FileSystemManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,6 +14,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -67,7 +69,8 @@ class FileSystemControllerTest {
                 .andExpect(jsonPath("$.path").value("/"))
                 .andExpect(jsonPath("$.size").exists())
                 .andExpect(jsonPath("$.sizeInKB").exists())
-                .andExpect(jsonPath("$.sizeInMB").exists());
+                .andExpect(jsonPath("$.sizeInMB").exists())
+                .andExpect(jsonPath("$.version").exists());
     }
     
     @Test
@@ -193,6 +196,320 @@ class FileSystemControllerTest {
                 .andExpect(jsonPath("$.tree.type").value("DIRECTORY"));
     }
     
+    @Test
+    void testGetDirectoryTree_DepthLimited() throws Exception {
+        mockMvc.perform(get("/api/filesystem/tree")
+                        .param("path", "/downloads")
+                        .param("depth", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tree.children[0].name").value("images"))
+                .andExpect(jsonPath("$.tree.children[0].truncated").value(true))
+                .andExpect(jsonPath("$.tree.children[0].fileCount").value(3))
+                .andExpect(jsonPath("$.tree.children[0].children").isEmpty());
+    }
+    
+    @Test
+    void testGetDirectoryTree_Ndjson() throws Exception {
+        mockMvc.perform(get("/api/filesystem/tree")
+                        .param("path", "/downloads/images/screenshots")
+                        .param("format", "ndjson"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"path\":\"/downloads/images/screenshots\",\"name\":\"screenshots\",\"type\":\"DIRECTORY\",\"size\":2048,\"depth\":0}\n"
+                        + "{\"path\":\"/downloads/images/screenshots/screen1.png\",\"name\":\"screen1.png\",\"type\":\"FILE\",\"size\":2048,\"depth\":1}\n"));
+    }
+    
+    @Test
+    void testGetDirectoryTree_UnsupportedFormat() throws Exception {
+        mockMvc.perform(get("/api/filesystem/tree")
+                        .param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testSessionHeader_KeepsSeparateWorkingDirectory() throws Exception {
+        Map<String, String> request = new HashMap<>();
+        request.put("path", "/documents");
+        
+        mockMvc.perform(post("/api/filesystem/cd")
+                        .header("X-Session-Id", "client-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk());
+        
+        mockMvc.perform(get("/api/filesystem/pwd")
+                        .header("X-Session-Id", "client-1"))
+                .andExpect(jsonPath("$.path").value("/documents"));
+        
+        mockMvc.perform(get("/api/filesystem/pwd"))
+                .andExpect(jsonPath("$.path").value("/"));
+    }
+    
+    @Test
+    void testListDirectory_ByPath() throws Exception {
+        mockMvc.perform(get("/api/filesystem/ls")
+                        .param("path", "/projects"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.currentPath").value("/projects"))
+                .andExpect(jsonPath("$.totalItems").value(2));
+        
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("path", "/nonexistent"))
+                .andExpect(status().isNotFound());
+    }
+    
+    @Test
+    void testGetDirectoryTree_ReportsVersion() throws Exception {
+        long version = fileSystemManager.getVersions().lastPublished();
+        mockMvc.perform(get("/api/filesystem/tree")
+                        .param("path", "/projects")
+                        .param("version", String.valueOf(version)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Snapshot-Version", String.valueOf(version)))
+                .andExpect(jsonPath("$.version").value(version))
+                .andExpect(jsonPath("$.tree.name").value("projects"));
+    }
+    
+    @Test
+    void testGetTop() throws Exception {
+        mockMvc.perform(get("/api/filesystem/top")
+                        .param("path", "/documents")
+                        .param("n", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.path").value("/documents"))
+                .andExpect(jsonPath("$.type").value("file"))
+                .andExpect(jsonPath("$.entries.length()").value(1))
+                .andExpect(jsonPath("$.entries[0].path").exists())
+                .andExpect(jsonPath("$.version").exists());
+        
+        mockMvc.perform(get("/api/filesystem/top")
+                        .param("type", "symlink"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testGetBreakdown() throws Exception {
+        mockMvc.perform(get("/api/filesystem/breakdown")
+                        .param("path", "/documents")
+                        .param("by", "category"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.path").value("/documents"))
+                .andExpect(jsonPath("$.by").value("category"))
+                .andExpect(jsonPath("$.types[0].type").value("document"))
+                .andExpect(jsonPath("$.version").exists());
+        
+        mockMvc.perform(get("/api/filesystem/breakdown")
+                        .param("by", "owner"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testFind() throws Exception {
+        mockMvc.perform(get("/api/filesystem/find")
+                        .param("path", "/documents/work/reports")
+                        .param("glob", "annual-*.pdf"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Search-Strategy", "index"))
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"path\":\"/documents/work/reports/annual-report.pdf\",\"name\":\"annual-report.pdf\",\"type\":\"FILE\",\"size\":5120}\n"));
+        
+        mockMvc.perform(get("/api/filesystem/find")
+                        .param("glob", "a/b"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testComplete() throws Exception {
+        mockMvc.perform(get("/api/filesystem/complete")
+                        .param("prefix", "/downloads/im"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.prefix").value("/downloads/im"))
+                .andExpect(jsonPath("$.completions[0]").value("/downloads/images"))
+                .andExpect(jsonPath("$.truncated").value(false));
+        
+        mockMvc.perform(get("/api/filesystem/complete")
+                        .param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testJobs() throws Exception {
+        String body = mockMvc.perform(post("/api/filesystem/jobs/tree")
+                        .param("path", "/documents")
+                        .param("format", "ndjson"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.type").value("tree"))
+                .andExpect(jsonPath("$.id").exists())
+                .andReturn().getResponse().getContentAsString();
+        String id = (String) objectMapper.readValue(body, Map.class).get("id");
+        
+        mockMvc.perform(get("/api/filesystem/jobs/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.path").value("/documents"))
+                .andExpect(jsonPath("$.nodesTotal").exists());
+        
+        mockMvc.perform(delete("/api/filesystem/jobs/" + id))
+                .andExpect(status().isOk());
+        
+        mockMvc.perform(get("/api/filesystem/jobs/unknown"))
+                .andExpect(status().isNotFound());
+        
+        mockMvc.perform(post("/api/filesystem/jobs/size")
+                        .param("path", "/nowhere"))
+                .andExpect(status().isNotFound());
+    }
+    
+    @Test
+    void testSizeAndTree_NotModifiedWhileSubtreeUnchanged() throws Exception {
+        String etag = mockMvc.perform(get("/api/filesystem/size")
+                        .param("path", "/projects"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", startsWith("W/\"")))
+                .andExpect(jsonPath("$.path").value("/projects"))
+                .andReturn().getResponse().getHeader("ETag");
+        
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("path", "/projects")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/filesystem/tree")
+                        .param("path", "/projects")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        
+        // A change elsewhere keeps the ETag, a change below it does not
+        fileSystemManager.getRoot().addChild(new Directory("elsewhere"));
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("path", "/projects")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        fileSystemManager.resolve("/projects").addChild(new Directory("fresh"));
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("path", "/projects")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.directoryCount").exists());
+        fileSystemManager.resolve("/projects").removeChild("fresh");
+        fileSystemManager.getRoot().removeChild("elsewhere");
+    }
+    
+    @Test
+    void testCachedSizeAndTree_ReportTheRequestsVersion() throws Exception {
+        mockMvc.perform(get("/api/filesystem/tree").param("path", "/projects"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/filesystem/size").param("path", "/projects"))
+                .andExpect(status().isOk());
+        
+        // A change elsewhere publishes a version but leaves the cached /projects bodies valid
+        fileSystemManager.getRoot().addChild(new Directory("elsewhere"));
+        long version = fileSystemManager.getVersions().lastPublished();
+        try {
+            mockMvc.perform(get("/api/filesystem/tree").param("path", "/projects"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("X-Snapshot-Version", String.valueOf(version)))
+                    .andExpect(jsonPath("$.version").value(version))
+                    .andExpect(jsonPath("$.tree.name").value("projects"));
+            mockMvc.perform(get("/api/filesystem/size").param("path", "/projects"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("X-Snapshot-Version", String.valueOf(version)))
+                    .andExpect(jsonPath("$.version").value(version))
+                    .andExpect(jsonPath("$.path").value("/projects"));
+        } finally {
+            fileSystemManager.getRoot().removeChild("elsewhere");
+        }
+    }
+    
+    @Test
+    void testGetDirectorySize_ReclaimedVersion() throws Exception {
+        long version = fileSystemManager.getVersions().lastPublished();
+        for (int i = 0; i < 20; i++) {
+            fileSystemManager.getRoot().addChild(new Directory("churn"));
+            fileSystemManager.getRoot().removeChild("churn");
+        }
+        
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("version", String.valueOf(version)))
+                .andExpect(status().isGone())
+                .andExpect(jsonPath("$.error").value("Version Gone"));
+        
+        mockMvc.perform(get("/api/filesystem/size")
+                        .param("version", String.valueOf(version + 1000)))
+                .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void testGetNode() throws Exception {
+        Map<String, String> request = new HashMap<>();
+        request.put("name", "node-lookup");
+        
+        String created = mockMvc.perform(post("/api/filesystem/mkdir")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        long id = objectMapper.readTree(created).get("id").asLong();
+        
+        mockMvc.perform(get("/api/filesystem/nodes/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(id))
+                .andExpect(jsonPath("$.path").value("/node-lookup"))
+                .andExpect(jsonPath("$.type").value("DIRECTORY"));
+        
+        mockMvc.perform(get("/api/filesystem/nodes/0"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("Node Not Found"));
+    }
+    
+    @Test
+    void testApplyBatch() throws Exception {
+        String batch = "{\"operations\": ["
+                + "{\"op\": \"mkdir\", \"path\": \"/provisioned/app\"},"
+                + "{\"op\": \"create\", \"path\": \"/provisioned/app/config.yml\", \"size\": 64}]}";
+        mockMvc.perform(post("/api/filesystem/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(batch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.success").value(true))
+                .andExpect(jsonPath("$.applied").value(2))
+                .andExpect(jsonPath("$.results[1].op").value("create"));
+        
+        mockMvc.perform(post("/api/filesystem/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operations\": [{\"op\": \"rmdir\", \"path\": \"/provisioned\"},"
+                                + "{\"op\": \"rmdir\", \"path\": \"/missing\"}]}"))
+                .andExpect(status().isNotFound());
+        
+        mockMvc.perform(post("/api/filesystem/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"operations\": [{\"op\": \"rmdir\", \"path\": \"/provisioned\"}]}"))
+                .andExpect(status().isOk());
+    }
+    
+    @Test
+    void testIngestSizes() throws Exception {
+        mockMvc.perform(post("/api/filesystem/ingest")
+                        .param("flush", "true")
+                        .contentType("application/x-ndjson")
+                        .content("{\"path\": \"/documents/readme.txt\", \"delta\": 0}\n"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(1));
+        
+        mockMvc.perform(post("/api/filesystem/ingest")
+                        .contentType("application/x-ndjson")
+                        .content("{\"path\": \"/documents/readme.txt\"}\n"))
+                .andExpect(status().isBadRequest());
+        
+        mockMvc.perform(get("/api/filesystem/ingest"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.acceptedEvents").exists());
+    }
+    
     @Test
     void testGetDirectoryTree_InvalidPath() throws Exception {
         mockMvc.perform(get("/api/filesystem/tree")
@@ -0,0 +1,358 @@
+package com.capgemini.filesystem.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests for concurrent Directory mutation - writers add and remove entries
+ * (including whole subtrees that other writers are filling) and apply change sets across
+ * directories while readers look up,
+ * iterate and read totals; afterwards every aggregate must match a full recount
+ */
+class DirectoryConcurrencyTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+    private static final int OPERATIONS = 40_000;
+    
+    @Test
+    void testConcurrentMutations_KeepAggregatesConsistent() throws Exception {
+        Directory root = new Directory("root");
+        Set<Directory> attached = Collections.newSetFromMap(new IdentityHashMap<>());
+        root.setTreeListener(new TreeListener() {
+            @Override
+            public void childAdded(Directory parent, FileSystemEntity child) {
+                forEachDirectory(child, attached::add);
+            }
+            
+            @Override
+            public void childRemoved(Directory parent, FileSystemEntity child) {
+                forEachDirectory(child, attached::remove);
+            }
+            
+            @Override
+            public void detachedChildRemoved(Directory parent, FileSystemEntity child) {
+                forEachDirectory(child, attached::remove);
+            }
+        });
+        
+        Directory[] tops = new Directory[8];
+        for (int i = 0; i < tops.length; i++) {
+            tops[i] = new Directory("top" + i);
+            root.addChild(tops[i]);
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        List<Future<?>> readers = new ArrayList<>();
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    for (int op = 0; op < OPERATIONS; op++) {
+                        mutate(tops[ThreadLocalRandom.current().nextInt(tops.length)]);
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < READERS; r++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    while (!done.get()) {
+                        read(root);
+                    }
+                    return null;
+                }));
+            }
+            
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        assertEquals(Collections.emptyList(), root.verifyAggregates(false));
+        Set<Directory> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Directory top : tops) {
+            forEachDirectory(top, reachable::add);
+        }
+        assertEquals(reachable, attached);
+        
+        // The final published version matches the live tree
+        DirectorySnapshot snapshot = root.getSnapshot();
+        assertEquals(root.calculateSize(), snapshot.calculateSize());
+        assertEquals(root.getFileCount(), snapshot.getFileCount());
+        assertEquals(root.getDirectoryCount(), snapshot.getDirectoryCount());
+        assertEquals(root.getMaxDepth(), snapshot.getMaxDepth());
+        assertEquals(root.getChildCount(), snapshot.getChildCount());
+    }
+    
+    @Test
+    void testConcurrentAddOfSameName_OnlyOneWins() throws Exception {
+        Directory parent = new Directory("parent");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AtomicInteger winners = new AtomicInteger();
+        try {
+            for (int round = 0; round < 200; round++) {
+                String name = "dir" + round;
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> attempts = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    attempts.add(pool.submit(() -> {
+                        start.await();
+                        if (parent.addChildIfAbsent(new Directory(name))) {
+                            winners.incrementAndGet();
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> attempt : attempts) {
+                    attempt.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        
+        assertEquals(200, winners.get());
+        assertEquals(200, parent.getChildCount());
+        assertEquals(200, parent.getDirectoryCount());
+    }
+    
+    @Test
+    void testListenerCallbacks_RunInChangeOrderWithoutBlockingWriters() throws Exception {
+        Directory root = new Directory("root");
+        Directory a = new Directory("a");
+        Directory b = new Directory("b");
+        root.addChild(a);
+        root.addChild(b);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> notified = Collections.synchronizedList(new ArrayList<>());
+        root.setTreeListener(new TreeListener() {
+            @Override
+            public void childAdded(Directory parent, FileSystemEntity child) {
+                if (child.getName().equals("slow")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                notified.add(child.getName());
+            }
+            
+            @Override
+            public void childRemoved(Directory parent, FileSystemEntity child) {
+            }
+        });
+        
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> slow = pool.submit(() -> a.addChild(new File("slow", 1)));
+            awaitSize(root, 1);
+            Future<?> fast = pool.submit(() -> b.addChild(new File("fast", 2)));
+            
+            // The second change reaches the root while the first callback is still running,
+            // but its own callback waits for its turn
+            awaitSize(root, 3);
+            assertFalse(fast.isDone());
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+            fast.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(List.of("slow", "fast"), notified);
+    }
+    
+    @Test
+    void testRemovalBelowRemovedDirectory_IsReportedAsOrphaned() throws Exception {
+        Directory root = new Directory("root");
+        Directory a = new Directory("a");
+        Directory m = new Directory("m");
+        a.addChild(m);
+        root.addChild(a);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> notified = Collections.synchronizedList(new ArrayList<>());
+        root.setTreeListener(new TreeListener() {
+            @Override
+            public void childAdded(Directory parent, FileSystemEntity child) {
+            }
+            
+            @Override
+            public void childRemoved(Directory parent, FileSystemEntity child) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                forEachDirectory(child, dir -> notified.add("removed " + dir.getName()));
+            }
+            
+            @Override
+            public void detachedChildRemoved(Directory parent, FileSystemEntity child) {
+                notified.add("orphaned " + child.getName());
+            }
+        });
+        
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> removeA = pool.submit(() -> root.removeChild("a"));
+            while (root.getChildCount() != 0) {
+                Thread.sleep(1);
+            }
+            // a is detached but its callback has not walked it yet
+            Future<?> removeM = pool.submit(() -> a.removeChild("m"));
+            while (a.getChildCount() != 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            removeA.get(10, TimeUnit.SECONDS);
+            removeM.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(List.of("removed a", "orphaned m"), notified);
+    }
+    
+    private static void awaitSize(Directory root, long size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (root.calculateSize() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, root.calculateSize());
+    }
+    
+    /**
+     * One random change at or just below a top-level directory. The small name space
+     * makes writers collide: adds race adds, and entries are removed while other
+     * writers are adding below them.
+     */
+    private static void mutate(Directory top) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String name = "n" + random.nextInt(16);
+        switch (random.nextInt(5)) {
+            case 0:
+                top.addChildIfAbsent(random.nextBoolean() ? new File(name, random.nextInt(10_000)) : newSubtree(name));
+                break;
+            case 1:
+                top.removeChild(name);
+                break;
+            case 2:
+                changeSet(top, name);
+                break;
+            default:
+                FileSystemEntity entry = top.getChild(name);
+                if (entry instanceof Directory) {
+                    Directory dir = (Directory) entry;
+                    String inner = "m" + random.nextInt(8);
+                    if (random.nextBoolean()) {
+                        dir.addChildIfAbsent(random.nextBoolean() ? new File(inner, random.nextInt(10_000)) : newSubtree(inner));
+                    } else {
+                        dir.removeChild(inner);
+                    }
+                }
+        }
+    }
+    
+    /**
+     * One change set spanning two top-level directories and a level below them: an add,
+     * a resize, a removal and an add inside the removed directory - all or nothing
+     */
+    private static void changeSet(Directory top, String name) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<FileSystemEntity> tops = ((Directory) top.getParent()).getChildren();
+        Directory other = (Directory) tops.get(random.nextInt(tops.size()));
+        ChangeSet changes = new ChangeSet();
+        if (top.getChild(name) == null) {
+            changes.add(top, random.nextBoolean() ? new File(name, random.nextInt(10_000)) : newSubtree(name));
+        }
+        FileSystemEntity file = top.getChild("n" + random.nextInt(16));
+        if (file instanceof File) {
+            changes.resize(top, (File) file, random.nextInt(10_000));
+        }
+        FileSystemEntity victim = other.getChild("n" + random.nextInt(16));
+        if (victim instanceof Directory) {
+            changes.add((Directory) victim, new File("m" + random.nextInt(8), 1));
+        }
+        if (victim != null) {
+            changes.remove(other, victim);
+        }
+        changes.apply();
+    }
+    
+    private static Directory newSubtree(String name) {
+        Directory dir = new Directory(name);
+        dir.addChild(new File("a", 100));
+        Directory sub = new Directory("sub");
+        sub.addChild(new File("b", 200));
+        dir.addChild(sub);
+        return dir;
+    }
+    
+    private static void read(Directory root) {
+        assertTrue(root.calculateSize() >= 0);
+        assertTrue(root.getFileCount() >= 0);
+        long[] seen = new long[1];
+        TreeWalker.walk(root, (entity, depth) -> {
+            seen[0]++;
+            return true;
+        });
+        for (FileSystemEntity top : root.getChildren()) {
+            Directory dir = (Directory) top;
+            for (int i = 0; i < 16; i++) {
+                FileSystemEntity child = dir.getChild("n" + i);
+                if (child != null) {
+                    assertEquals("n" + i, child.getName());
+                }
+            }
+            List<FileSystemEntity> page = new ArrayList<>();
+            long cursor = -1;
+            do {
+                page.clear();
+                cursor = dir.getChildren(cursor, 3, page);
+                for (FileSystemEntity entity : page) {
+                    assertNotNull(entity);
+                }
+            } while (cursor >= 0);
+        }
+        assertTrue(seen[0] > 0);
+    }
+    
+    private static void forEachDirectory(FileSystemEntity top, Consumer<Directory> action) {
+        if (!(top instanceof Directory)) {
+            return;
+        }
+        TreeWalker.preOrder((Directory) top, (entity, depth) -> {
+            if (entity instanceof Directory) {
+                action.accept((Directory) entity);
+                return true;
+            }
+            return false;
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package com.capgemini.filesystem.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for NodeStore: aggregates, lazy materialisation and sealing
+ */
+class NodeStoreTest {
+    
+    @Test
+    void testSeal_ComputesAggregatesLikeTheObjectTree() {
+        NodeStore store = new NodeStore();
+        int docs = store.addDirectory(NodeStore.ROOT, "docs");
+        int work = store.addDirectory(docs, "work");
+        store.addFile(work, "report.pdf", 200, 4096);
+        store.addFile(docs, "readme.md", 600, 4096);
+        store.addDirectory(NodeStore.ROOT, "empty");
+        store.addFile(work, "data.csv", 100, 4096);
+        store.seal();
+        
+        Directory expected = new Directory("root");
+        Directory expectedDocs = new Directory("docs");
+        Directory expectedWork = new Directory("work");
+        expectedWork.addChild(new File("report.pdf", 200, 4096));
+        expectedWork.addChild(new File("data.csv", 100, 4096));
+        expectedDocs.addChild(expectedWork);
+        expectedDocs.addChild(new File("readme.md", 600, 4096));
+        expected.addChild(expectedDocs);
+        expected.addChild(new Directory("empty"));
+        
+        DirectorySnapshot root = store.getRoot();
+        assertEquals(7, store.getNodeCount());
+        assertEquals(expected.calculateSize(), root.calculateSize());
+        assertEquals(expected.getAllocatedSize(), root.getAllocatedSize());
+        assertEquals(expected.getFileCount(), root.getFileCount());
+        assertEquals(expected.getDirectoryCount(), root.getDirectoryCount());
+        assertEquals(expected.getMaxDepth(), root.getMaxDepth());
+        assertEquals(2, root.resolve("/docs/work").getChildCount());
+        assertEquals(0, root.resolve("/empty").getMaxDepth());
+    }
+    
+    @Test
+    void testLoad_MaterialisesOnFirstUseAndSharesNames() {
+        NodeStore store = new NodeStore();
+        for (int i = 0; i < 3; i++) {
+            int dir = store.addDirectory(NodeStore.ROOT, "d" + i);
+            store.addFile(dir, new String("index.js"), 10, 4096);
+        }
+        store.seal();
+        
+        Directory root = store.load();
+        assertEquals(30, root.calculateSize());
+        assertFalse(root.isLoaded());
+        Directory d0 = (Directory) root.getChild("d0");
+        Directory d1 = (Directory) root.getChild("d1");
+        assertFalse(d0.isLoaded());
+        assertSame(d0.getChild("index.js").getName(), d1.getChild("index.js").getName());
+        
+        d1.addChild(new File("more.js", 5));
+        assertEquals(35, root.calculateSize());
+        assertTrue(root.verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testResolve_FindsChildrenOfLargeAndSmallDirectoriesByName() {
+        NodeStore store = new NodeStore();
+        int big = store.addDirectory(NodeStore.ROOT, "big");
+        for (int i = 0; i < 100; i++) {
+            store.addFile(big, "f" + i, i, 4096);
+        }
+        int nested = store.addDirectory(big, "nested");
+        store.addFile(nested, "leaf", 7, 4096);
+        store.seal();
+        
+        DirectorySnapshot root = store.getRoot();
+        assertEquals(7, root.resolve("/big/nested").calculateSize());
+        assertEquals(7, root.resolve("//big/./nested/").calculateSize());
+        assertEquals(root.resolve("/big").calculateSize(), root.resolve("/big/nested/..").calculateSize());
+        assertEquals(57, root.resolve("/big").getChild("f57").calculateSize());
+        assertNull(root.resolve("/big").getChild("f100"));
+        assertNull(root.resolve("/big/f57"));
+        assertNull(root.resolve("/missing"));
+        
+        // Decoded child lists answer the same
+        DirectorySnapshot decoded = root.resolve("/big");
+        decoded.getChildren().iterator();
+        assertEquals(99, decoded.getChild("f99").calculateSize());
+        assertNull(decoded.getChild("f100"));
+    }
+    
+    @Test
+    void testSealedStore_RejectsChanges() {
+        NodeStore store = new NodeStore();
+        int dir = store.addDirectory(NodeStore.ROOT, "dir");
+        store.addFile(dir, "file", 1, 1);
+        assertThrows(IllegalArgumentException.class, () -> store.addFile(dir + 1, "nested", 1, 1));
+        assertThrows(IllegalStateException.class, store::getRoot);
+        store.seal();
+        assertThrows(IllegalStateException.class, () -> store.addDirectory(NodeStore.ROOT, "late"));
+    }
+    
+    @Test
+    void testSegments_FillInParallelAndMergeOnSeal() throws Exception {
+        NodeStore store = new NodeStore();
+        int[] dirs = new int[4];
+        for (int i = 0; i < dirs.length; i++) {
+            dirs[i] = store.addDirectory(NodeStore.ROOT, "d" + i);
+        }
+        Thread[] fillers = new Thread[dirs.length];
+        for (int i = 0; i < fillers.length; i++) {
+            int dir = dirs[i];
+            fillers[i] = new Thread(() -> {
+                NodeStore.Segment segment = store.segment();
+                int nested = segment.addDirectory(dir, "nested");
+                for (int f = 0; f < 1000; f++) {
+                    segment.addFile(f % 2 == 0 ? dir : nested, "f" + f, 1, 4096);
+                }
+            });
+            fillers[i].start();
+        }
+        for (Thread filler : fillers) {
+            filler.join();
+        }
+        store.seal();
+        
+        DirectorySnapshot root = store.getRoot();
+        assertEquals(4 * 1000 + 4 * 2 + 1, store.getNodeCount());
+        assertEquals(4000, root.calculateSize());
+        assertEquals(8, root.getDirectoryCount());
+        assertEquals(500, root.resolve("/d2/nested").getChildCount());
+        assertEquals(1, root.resolve("/d3").getChild("f998").calculateSize());
+    }
+    
+    @Test
+    void testPackedEntities_KeepTheirIdsAcrossDecodes() {
+        NodeStore store = new NodeStore();
+        int docs = store.addDirectory(NodeStore.ROOT, "docs");
+        store.addFile(docs, "report.pdf", 200, 4096);
+        store.seal();
+        
+        File looked = (File) store.getRoot().resolve("/docs").getChild("report.pdf");
+        File again = (File) store.getRoot().resolve("/docs").getChild("report.pdf");
+        File listed = (File) store.getRoot().resolve("/docs").getChildren().iterator().next();
+        assertEquals(looked.getId(), again.getId());
+        assertEquals(looked.getId(), listed.getId());
+        
+        Directory root = store.load();
+        Directory loadedDocs = (Directory) root.getChild("docs");
+        assertEquals(looked.getId(), loadedDocs.getChild("report.pdf").getId());
+        assertNotEquals(root.getId(), loadedDocs.getId());
+        assertNotEquals(loadedDocs.getId(), looked.getId());
+    }
+}
@@ -0,0 +1,124 @@
+package com.capgemini.filesystem.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for SizeRanking: merged rankings match a full scan and survive mutations
+ */
+class SizeRankingTest {
+    
+    @Test
+    void testSmallTree_RanksFilesAndDirectoriesWithRelativePaths() {
+        Directory root = new Directory("root");
+        Directory docs = new Directory("docs");
+        Directory work = new Directory("work");
+        work.addChild(new File("report.pdf", 500));
+        docs.addChild(work);
+        docs.addChild(new File("readme.md", 50));
+        root.addChild(docs);
+        root.addChild(new File("movie.mkv", 9000));
+        
+        SizeRanking ranking = root.getSnapshot().getRanking();
+        assertEquals(List.of("movie.mkv", "docs/work/report.pdf", "docs/readme.md"),
+                paths(ranking.getLargestFiles(10)));
+        assertEquals(List.of("docs", "docs/work"), paths(ranking.getLargestDirectories(10)));
+        assertEquals(List.of("movie.mkv"), paths(ranking.getLargestFiles(1)));
+        assertEquals(500, ranking.getLargestFiles(2).get(1).getSize());
+    }
+    
+    @Test
+    void testLargeTree_MatchesFullScanAndReusesUnchangedSubtrees() {
+        Random random = new Random(42);
+        Directory root = new Directory("root");
+        List<Directory> parts = new ArrayList<>();
+        for (int p = 0; p < 3; p++) {
+            Directory part = new Directory("part" + p);
+            for (int d = 0; d < 30; d++) {
+                Directory dir = new Directory("dir" + d);
+                for (int f = 0; f < 50; f++) {
+                    dir.addChild(new File("f" + f, random.nextInt(1_000_000)));
+                }
+                part.addChild(dir);
+            }
+            root.addChild(part);
+            parts.add(part);
+        }
+        
+        DirectorySnapshot before = root.getSnapshot();
+        assertEquals(expectedFiles(before), sizes(before.getRanking().getLargestFiles(SizeRanking.CAPACITY)));
+        assertEquals(expectedDirectories(before),
+                sizes(before.getRanking().getLargestDirectories(SizeRanking.CAPACITY)));
+        SizeRanking part2 = parts.get(2).getSnapshot().getRanking();
+        
+        Directory changed = (Directory) parts.get(0).getChild("dir7");
+        changed.addChild(new File("huge.iso", 50_000_000));
+        DirectorySnapshot after = root.getSnapshot();
+        SizeRanking.Entry top = after.getRanking().getLargestFiles(1).get(0);
+        assertEquals("part0/dir7/huge.iso", top.getPath());
+        assertEquals(expectedFiles(after), sizes(after.getRanking().getLargestFiles(SizeRanking.CAPACITY)));
+        // The untouched part kept its snapshot and with it the cached ranking
+        assertSame(part2, parts.get(2).getSnapshot().getRanking());
+        // The old version still ranks as it was
+        assertNotEquals("part0/dir7/huge.iso", before.getRanking().getLargestFiles(1).get(0).getPath());
+    }
+    
+    @Test
+    void testMerge_ReusesRankingsOfUnchangedSiblings() {
+        Random random = new Random(7);
+        Directory root = new Directory("root");
+        for (int d = 0; d < 20; d++) {
+            Directory dir = new Directory("dir" + d);
+            for (int f = 0; f < 2 * SizeRanking.CAPACITY; f++) {
+                dir.addChild(new File("f" + f, random.nextInt(1_000_000)));
+            }
+            root.addChild(dir);
+        }
+        root.getSnapshot().getRanking();
+        DirectorySnapshot sibling = ((Directory) root.getChild("dir3")).getSnapshot();
+        SizeRanking cached = sibling.getCachedRanking();
+        assertNotNull(cached);
+        
+        ((Directory) root.getChild("dir0")).addChild(new File("huge.iso", 50_000_000));
+        DirectorySnapshot after = root.getSnapshot();
+        assertEquals("dir0/huge.iso", after.getRanking().getLargestFiles(1).get(0).getPath());
+        assertEquals(expectedFiles(after), sizes(after.getRanking().getLargestFiles(SizeRanking.CAPACITY)));
+        // Merged from the sibling's cached ranking rather than by walking it again
+        assertSame(sibling, ((Directory) root.getChild("dir3")).getSnapshot());
+        assertSame(cached, sibling.getCachedRanking());
+    }
+    
+    private static List<String> paths(List<SizeRanking.Entry> entries) {
+        return entries.stream().map(SizeRanking.Entry::getPath).collect(Collectors.toList());
+    }
+    
+    private static List<Long> sizes(List<SizeRanking.Entry> entries) {
+        return entries.stream().map(SizeRanking.Entry::getSize).collect(Collectors.toList());
+    }
+    
+    private static List<Long> expectedFiles(DirectorySnapshot root) {
+        return expected(root, false);
+    }
+    
+    private static List<Long> expectedDirectories(DirectorySnapshot root) {
+        return expected(root, true);
+    }
+    
+    private static List<Long> expected(DirectorySnapshot root, boolean directories) {
+        List<Long> sizes = new ArrayList<>();
+        root.walk((entry, depth) -> {
+            if (depth > 0 && (entry instanceof DirectorySnapshot) == directories) {
+                sizes.add(entry.calculateSize());
+            }
+            return true;
+        });
+        return sizes.stream().sorted(Comparator.reverseOrder()).limit(SizeRanking.CAPACITY).collect(Collectors.toList());
+    }
+}
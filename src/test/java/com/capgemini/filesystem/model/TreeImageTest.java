@@ -0,0 +1,105 @@
+package com.capgemini.filesystem.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for TreeImage: round trip, lazy materialisation and mutating a mapped tree
+ */
+class TreeImageTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void testRoundTrip_KeepsStructureAndAggregates() throws IOException {
+        Directory original = sample();
+        TreeImage image = write(original);
+        
+        DirectorySnapshot mapped = image.getRoot();
+        assertEquals(8, image.getNodeCount());
+        assertEquals(original.calculateSize(), mapped.calculateSize());
+        assertEquals(original.getAllocatedSize(), mapped.getAllocatedSize());
+        assertEquals(original.getFileCount(), mapped.getFileCount());
+        assertEquals(original.getDirectoryCount(), mapped.getDirectoryCount());
+        assertEquals(original.getMaxDepth(), mapped.getMaxDepth());
+        assertEquals(2, mapped.getChildCount());
+        assertEquals(300, mapped.resolve("/docs/work").calculateSize());
+        assertEquals(4096, mapped.resolve("/docs/work").getChild("report.pdf").getAllocatedSize());
+        assertNull(mapped.resolve("/docs/missing"));
+    }
+    
+    @Test
+    void testLoad_MaterialisesDirectoriesOnFirstUse() throws IOException {
+        Directory root = write(sample()).load();
+        assertFalse(root.isLoaded());
+        assertEquals(1200, root.calculateSize());
+        assertEquals(2, root.getChildCount());
+        assertFalse(root.isLoaded());
+        
+        Directory docs = (Directory) root.getChild("docs");
+        assertTrue(root.isLoaded());
+        assertFalse(docs.isLoaded());
+        assertEquals("/docs", docs.getPath());
+        assertEquals(900, docs.calculateSize());
+        assertEquals("/docs/work/report.pdf", ((Directory) docs.getChild("work")).getChild("report.pdf").getPath());
+    }
+    
+    @Test
+    void testMutatingMappedTree_KeepsAggregatesConsistent() throws IOException {
+        Directory root = write(sample()).load();
+        DirectorySnapshot before = root.getSnapshot();
+        
+        Directory work = (Directory) ((Directory) root.getChild("docs")).getChild("work");
+        work.addChild(new File("notes.txt", 50, 4096));
+        root.removeChild("music");
+        
+        assertEquals(950, root.calculateSize());
+        assertEquals(1200, before.calculateSize());
+        assertTrue(root.verifyAggregates(false).isEmpty());
+        assertEquals(root.calculateSize(), root.getSnapshot().calculateSize());
+        assertEquals(root.getFileCount(), root.getSnapshot().getFileCount());
+        
+        // The mutated tree can itself be written and mapped again
+        Path again = directory.resolve("again.img");
+        TreeImage.write(root.getSnapshot(), again);
+        assertEquals(950, TreeImage.open(again).getRoot().calculateSize());
+    }
+    
+    @Test
+    void testOpen_RejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("not-an-image");
+        Files.write(file, new byte[100]);
+        assertThrows(IOException.class, () -> TreeImage.open(file));
+    }
+    
+    private TreeImage write(Directory root) throws IOException {
+        Path file = directory.resolve("tree.img");
+        TreeImage.write(root.getSnapshot(), file);
+        return TreeImage.open(file);
+    }
+    
+    /**
+     * /docs/work/{report.pdf 200, data.csv 100}, /docs/readme.md 600, /music/song.mp3 300
+     */
+    private static Directory sample() {
+        Directory root = new Directory("root");
+        Directory docs = new Directory("docs");
+        Directory work = new Directory("work");
+        work.addChild(new File("report.pdf", 200, 4096));
+        work.addChild(new File("data.csv", 100, 4096));
+        docs.addChild(work);
+        docs.addChild(new File("readme.md", 600, 4096));
+        Directory music = new Directory("music");
+        music.addChild(new File("song.mp3", 300, 4096));
+        root.addChild(docs);
+        root.addChild(music);
+        return root;
+    }
+}
@@ -0,0 +1,104 @@
+package com.capgemini.filesystem.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for TypeRollup: incremental maintenance and lazily computed rollups
+ */
+class TypeRollupTest {
+
+    @Test
+    void testRollup_FollowsAddRemoveAndResize() {
+        Directory root = new Directory("root");
+        Directory photos = new Directory("photos");
+        photos.addChild(new File("a.JPG", 100));
+        photos.addChild(new File("b.jpg", 200));
+        root.addChild(photos);
+        root.addChild(new File("notes.txt", 10));
+        root.addChild(new File("Makefile", 5));
+        root.addChild(new File(".bashrc", 1));
+
+        assertEquals(Map.of("jpg", "300/2", "txt", "10/1", "", "6/2"), rollup(root.getSnapshot()));
+        assertEquals(Map.of("jpg", "300/2"), rollup(photos.getSnapshot()));
+
+        photos.resizeFiles(Map.of("b.jpg", 50L));
+        root.removeChild("notes.txt");
+        assertEquals(Map.of("jpg", "150/2", "", "6/2"), rollup(root.getSnapshot()));
+
+        root.removeChild("photos");
+        assertEquals(Map.of("", "6/2"), rollup(root.getSnapshot()));
+        Directory archive = new Directory("archive");
+        root.addChild(archive);
+        archive.addChild(photos);
+        assertEquals(Map.of("jpg", "150/2", "", "6/2"), rollup(root.getSnapshot()));
+        assertEquals(rollup(TypeRollup.of(root.getSnapshot())), rollup(root.getSnapshot()));
+    }
+
+    @Test
+    void testLoadedTree_ComputesRollupOnceAndThenMaintainsIt() {
+        NodeStore store = new NodeStore();
+        int docs = store.addDirectory(NodeStore.ROOT, "docs");
+        store.addFile(docs, "report.pdf", 200, 4096);
+        store.addFile(docs, "readme.md", 600, 4096);
+        store.addFile(NodeStore.ROOT, "logo.png", 50, 4096);
+        store.seal();
+
+        Directory root = store.load();
+        assertNull(root.getSnapshot().getCachedRollup());
+        assertEquals(Map.of("pdf", "200/1", "md", "600/1", "png", "50/1"), rollup(root.getSnapshot()));
+
+        // The directories adopt what their snapshots computed and carry on incrementally
+        ((Directory) root.getChild("docs")).addChild(new File("summary.pdf", 20));
+        assertNotNull(root.getSnapshot().getCachedRollup());
+        assertEquals(Map.of("pdf", "220/2", "md", "600/1", "png", "50/1"), rollup(root.getSnapshot()));
+    }
+
+    @Test
+    void testUnusualExtensions_ShareTheOtherType() {
+        Directory logs = new Directory("logs");
+        logs.addChild(new File("app.log", 10));
+        logs.addChild(new File("app.log.20261016", 20));
+        logs.addChild(new File("app.log.20261015", 30));
+        logs.addChild(new File("blob.0123456789abcdef", 40));
+        logs.addChild(new File("notes.tar~", 50));
+
+        assertEquals(Map.of("log", "10/1", TypeRollup.OTHER, "140/4"), rollup(logs.getSnapshot()));
+        logs.removeChild("app.log.20261016");
+        assertEquals(Map.of("log", "10/1", TypeRollup.OTHER, "120/3"), rollup(logs.getSnapshot()));
+    }
+
+    @Test
+    void testRemovingUnloadedDirectory_KeepsAncestorRollupsKnown() {
+        NodeStore store = new NodeStore();
+        int docs = store.addDirectory(NodeStore.ROOT, "docs");
+        store.addFile(docs, "report.pdf", 200, 4096);
+        store.addFile(NodeStore.ROOT, "logo.png", 50, 4096);
+        store.seal();
+
+        Directory root = store.load();
+        root.getSnapshot().getRollup();
+        root.addChild(new File("readme.md", 5));
+        assertNotNull(root.getSnapshot().getCachedRollup());
+
+        // docs was never loaded and nothing asked for its rollup
+        assertTrue(root.removeChild("docs"));
+        assertNotNull(root.getSnapshot().getCachedRollup());
+        assertEquals(Map.of("png", "50/1", "md", "5/1"), rollup(root.getSnapshot()));
+    }
+
+    private static Map<String, String> rollup(DirectorySnapshot snapshot) {
+        return rollup(snapshot.getRollup());
+    }
+
+    private static Map<String, String> rollup(TypeRollup rollup) {
+        Map<String, String> totals = new TreeMap<>();
+        rollup.forEach((type, size, fileCount) -> totals.put(type, size + "/" + fileCount));
+        assertEquals(rollup.getTypeCount(), totals.size());
+        return totals;
+    }
+}
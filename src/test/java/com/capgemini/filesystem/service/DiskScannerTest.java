@@ -0,0 +1,66 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for DiskScanner
+ */
+class DiskScannerTest {
+    
+    @TempDir
+    Path top;
+    
+    @Test
+    void testScan_BuildsTreeWithSizes() throws IOException {
+        Files.createDirectories(top.resolve("a/b"));
+        Files.write(top.resolve("a/one.txt"), new byte[100]);
+        Files.write(top.resolve("a/b/two.txt"), new byte[5000]);
+        
+        DiskScanner.ScanReport report = new DiskScanner(false, 2).scan(top);
+        Directory root = report.getRoot();
+        
+        assertEquals("/", root.getPath());
+        assertEquals(5100, report.getApparentSize());
+        assertEquals(2, report.getFiles());
+        assertEquals(3, report.getDirectories());
+        assertTrue(report.getAllocatedSize() >= report.getApparentSize());
+        
+        Directory a = (Directory) root.getChild("a");
+        File two = (File) ((Directory) a.getChild("b")).getChild("two.txt");
+        assertEquals(5000, two.calculateSize());
+        assertEquals(0, two.getAllocatedSize() % 512);
+        assertTrue(root.verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testScan_CountsHardLinksOnceAndSkipsSymlinks() throws IOException {
+        Path original = Files.write(top.resolve("original.bin"), new byte[1000]);
+        try {
+            Files.createLink(top.resolve("hardlink.bin"), original);
+            Files.createSymbolicLink(top.resolve("symlink.bin"), original);
+        } catch (UnsupportedOperationException | IOException e) {
+            return; // file system without link support
+        }
+        
+        DiskScanner.ScanReport report = new DiskScanner(false, 2).scan(top);
+        
+        assertEquals(1000, report.getApparentSize());
+        assertEquals(1, report.getFiles());
+        assertEquals(1, report.getHardLinksSkipped());
+        assertEquals(1, report.getSymlinksSkipped());
+    }
+    
+    @Test
+    void testScan_NotADirectory() {
+        assertThrows(IOException.class, () -> new DiskScanner(false, 1).scan(top.resolve("missing")));
+    }
+}
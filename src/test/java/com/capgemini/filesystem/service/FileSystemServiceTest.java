@@ -1,15 +1,26 @@
 package com.capgemini.filesystem.service;
 
+import com.capgemini.filesystem.exception.BatchConflictException;
 import com.capgemini.filesystem.exception.DirectoryAlreadyExistsException;
 import com.capgemini.filesystem.exception.DirectoryNotFoundException;
 import com.capgemini.filesystem.exception.InvalidPathException;
+import com.capgemini.filesystem.exception.JobNotFoundException;
+import com.capgemini.filesystem.exception.NodeNotFoundException;
+import com.capgemini.filesystem.exception.VersionGoneException;
 import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.File;
 import com.capgemini.filesystem.model.FileSystemEntity;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -46,6 +57,29 @@ class FileSystemServiceTest {
         assertEquals("work", result.getName());
     }
     
+    @Test
+    void testChangeDirectory_NonCanonicalPaths() {
+        assertEquals("/documents/work", fileSystemService.changeDirectory("//documents//work/").getPath());
+        assertEquals("/documents/personal", fileSystemService.changeDirectory("/documents/./work/../personal").getPath());
+        assertEquals("/documents/work/reports", fileSystemService.changeDirectory("../work/reports").getPath());
+        assertEquals("/", fileSystemService.changeDirectory("/..").getPath());
+    }
+    
+    @Test
+    void testChangeDirectory_NewDirectoryIsIndexed() {
+        fileSystemService.changeDirectory("/downloads/videos");
+        fileSystemService.createDirectory("indexed-dir");
+        fileSystemService.changeDirectory("/");
+        
+        assertEquals("indexed-dir", fileSystemService.changeDirectory("/downloads/videos/indexed-dir").getName());
+        
+        fileSystemService.changeDirectory("/downloads/videos");
+        fileSystemService.removeDirectory("indexed-dir");
+        assertThrows(DirectoryNotFoundException.class, () -> {
+            fileSystemService.changeDirectory("/downloads/videos/indexed-dir");
+        });
+    }
+    
     @Test
     void testChangeDirectory_InvalidPath() {
         assertThrows(DirectoryNotFoundException.class, () -> {
@@ -69,6 +103,35 @@ class FileSystemServiceTest {
         assertTrue(result.containsKey("files"));
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    void testListDirectory_Paginated() {
+        fileSystemService.createDirectory("paged-dir");
+        fileSystemService.changeDirectory("paged-dir");
+        for (int i = 0; i < 25; i++) {
+            fileSystemService.createDirectory("entry-" + i);
+        }
+        
+        Map<String, Object> first = fileSystemService.listDirectory(10, null);
+        assertEquals(10, ((java.util.List<Map<String, Object>>) first.get("directories")).size());
+        assertEquals(25, first.get("childCount"));
+        String cursor = (String) first.get("nextCursor");
+        assertNotNull(cursor);
+        
+        // Removing an already returned entry does not shift the next page
+        fileSystemService.removeDirectory("entry-9");
+        Map<String, Object> second = fileSystemService.listDirectory(10, cursor);
+        java.util.List<Map<String, Object>> page = (java.util.List<Map<String, Object>>) second.get("directories");
+        assertEquals("entry-10", page.get(0).get("name"));
+        
+        Map<String, Object> last = fileSystemService.listDirectory(10, (String) second.get("nextCursor"));
+        assertEquals(5, ((java.util.List<Map<String, Object>>) last.get("directories")).size());
+        assertNull(last.get("nextCursor"));
+        
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.listDirectory(0, null));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.listDirectory(10, "not a cursor!"));
+    }
+    
     @Test
     void testGetDirectorySize() {
         Map<String, Object> result = fileSystemService.getDirectorySize();
@@ -89,6 +152,45 @@ class FileSystemServiceTest {
         assertTrue(size > 0, "Size should be greater than 0 for directory with files");
     }
     
+    @Test
+    void testGetDirectorySize_Aggregates() {
+        fileSystemService.changeDirectory("documents");
+        Map<String, Object> result = fileSystemService.getDirectorySize();
+        
+        assertEquals(12800L, result.get("size"));
+        assertEquals(5L, result.get("fileCount"));
+        assertEquals(4L, result.get("directoryCount"));
+        assertEquals(3, result.get("maxDepth"));
+    }
+    
+    @Test
+    void testGetDirectorySize_Verify() {
+        Map<String, Object> result = fileSystemService.getDirectorySize(true);
+        assertEquals(true, result.get("verified"));
+        assertTrue(((java.util.List<?>) result.get("drift")).isEmpty());
+    }
+    
+    @Test
+    void testGetDirectorySize_Parallel() {
+        long expected = fileSystemManager.getRoot().calculateSize();
+        Map<String, Object> result = fileSystemService.getDirectorySize(false, true);
+        assertEquals("parallel", result.get("mode"));
+        assertEquals(expected, result.get("size"));
+    }
+    
+    @Test
+    void testCreateAndRemoveDirectory_UpdatesAggregates() {
+        Directory root = fileSystemManager.getRoot();
+        long directories = root.getDirectoryCount();
+        
+        fileSystemService.createDirectory("aggregate-dir");
+        assertEquals(directories + 1, root.getDirectoryCount());
+        
+        fileSystemService.removeDirectory("aggregate-dir");
+        assertEquals(directories, root.getDirectoryCount());
+        assertTrue(root.verifyAggregates(false).isEmpty());
+    }
+    
     @Test
     void testCreateDirectory() {
         Directory newDir = fileSystemService.createDirectory("test-dir");
@@ -115,6 +217,27 @@ class FileSystemServiceTest {
         });
     }
     
+    @Test
+    void testCreateDirectory_ManyChildren() {
+        fileSystemService.createDirectory("wide-dir");
+        fileSystemService.changeDirectory("wide-dir");
+        for (int i = 0; i < 100; i++) {
+            fileSystemService.createDirectory("child-" + i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            fileSystemService.removeDirectory("child-" + i);
+        }
+        
+        Directory wide = fileSystemManager.getCurrentDirectory();
+        assertEquals(50, wide.getChildCount());
+        assertNull(wide.getChild("child-10"));
+        assertEquals("child-11", wide.getChild("child-11").getName());
+        // Insertion order survives removals
+        assertEquals("child-1", wide.getChildren().get(0).getName());
+        assertEquals("child-99", wide.getChildren().get(49).getName());
+        assertThrows(DirectoryAlreadyExistsException.class, () -> fileSystemService.createDirectory("child-99"));
+    }
+    
     @Test
     void testCreateDirectory_EmptyName() {
         assertThrows(IllegalArgumentException.class, () -> {
@@ -150,6 +273,22 @@ class FileSystemServiceTest {
         });
     }
     
+    @Test
+    void testGetPath_Cached() {
+        Directory work = fileSystemService.changeDirectory("/documents/work");
+        String path = work.getPath();
+        assertEquals("/documents/work", path);
+        assertSame(path, work.getPath());
+        
+        Directory moved = new Directory("moved");
+        Directory child = new Directory("child");
+        moved.addChild(child);
+        assertEquals("/moved/child", child.getPath());
+        work.addChild(moved);
+        assertEquals("/documents/work/moved/child", child.getPath());
+        work.removeChild("moved");
+    }
+    
     @Test
     void testGetCurrentPath() {
         Map<String, Object> result = fileSystemService.getCurrentPath();
@@ -173,6 +312,454 @@ class FileSystemServiceTest {
         assertEquals("documents", tree.getName());
     }
     
+    @Test
+    void testDeepTree_DoesNotOverflowStack() {
+        fileSystemService.createDirectory("deep");
+        fileSystemService.changeDirectory("deep");
+        for (int i = 0; i < 5000; i++) {
+            fileSystemService.createDirectory("d");
+            fileSystemService.changeDirectory("d");
+        }
+        fileSystemService.changeDirectory("/");
+        
+        FileSystemEntity.TreeRepresentation tree = fileSystemService.getDirectoryTree("/deep");
+        int depth = 0;
+        while (!tree.getChildren().isEmpty()) {
+            tree = tree.getChildren().get(0);
+            depth++;
+        }
+        assertEquals(5000, depth);
+        
+        fileSystemService.changeDirectory("/deep");
+        Map<String, Object> result = fileSystemService.getDirectorySize(true, true);
+        assertEquals(true, result.get("verified"));
+        assertEquals(5000, result.get("maxDepth"));
+        
+        fileSystemService.changeDirectory("/");
+        fileSystemService.removeDirectory("deep");
+    }
+    
+    @Test
+    void testSessions_HaveIndependentWorkingDirectories() {
+        fileSystemService.changeDirectory("alice", "/documents/work");
+        fileSystemService.changeDirectory("bob", "/projects");
+        
+        assertEquals("/documents/work", fileSystemService.getCurrentPath("alice").get("path"));
+        assertEquals("/projects", fileSystemService.getCurrentPath("bob").get("path"));
+        assertEquals("/", fileSystemService.getCurrentPath().get("path"));
+        assertEquals("/", fileSystemService.getCurrentPath("carol").get("path"));
+        
+        // Relative paths start from the session's own directory
+        fileSystemService.changeDirectory("alice", "reports");
+        assertEquals("/documents/work/reports", fileSystemService.getCurrentPath("alice").get("path"));
+        assertEquals("/projects", fileSystemService.getCurrentPath("bob").get("path"));
+    }
+    
+    @Test
+    void testSessions_RemovedWorkingDirectoryFallsBackToRoot() {
+        fileSystemService.createDirectory("scratch");
+        fileSystemService.changeDirectory("alice", "/scratch");
+        
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.removeDirectory("alice", "/", "scratch"));
+        
+        fileSystemService.removeDirectory("scratch");
+        assertEquals("/", fileSystemService.getCurrentPath("alice").get("path"));
+    }
+    
+    @Test
+    void testPathAddressedOperations() {
+        Map<String, Object> listing = fileSystemService.listDirectory(null, "/documents/work", null, null);
+        assertEquals("/documents/work", listing.get("currentPath"));
+        
+        Map<String, Object> size = fileSystemService.getDirectorySize(null, "/projects", false, false);
+        assertEquals(3584L, size.get("size"));
+        
+        Directory created = fileSystemService.createDirectory(null, "/downloads", "music");
+        assertEquals("/downloads/music", created.getPath());
+        fileSystemService.removeDirectory(null, "/downloads", "music");
+        
+        assertEquals("/", fileSystemService.getCurrentPath().get("path"));
+        assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.listDirectory(null, "/missing", null, null));
+    }
+    
+    @Test
+    void testPinnedVersion_IsUnaffectedByLaterChanges() {
+        Directory scratch = fileSystemService.createDirectory(null, "/", "mvcc");
+        scratch.addChild(new File("old.txt", 100));
+        Map<String, Object> before = fileSystemService.getDirectorySize(null, "/mvcc", false, false);
+        long version = (Long) before.get("version");
+        
+        try (VersionStore.Pin pin = fileSystemService.pinVersion(version)) {
+            scratch.removeChild("old.txt");
+            scratch.addChild(new File("new.txt", 250));
+            fileSystemService.createDirectory(null, "/mvcc", "sub");
+            
+            DirectorySnapshot pinned = fileSystemService.getSnapshotDirectory(pin, "/mvcc");
+            assertNotNull(pinned.getChild("old.txt"));
+            assertNull(pinned.getChild("new.txt"));
+            assertEquals(100L, pinned.calculateSize());
+            assertEquals(0L, pinned.getDirectoryCount());
+            
+            Map<String, Object> latest = fileSystemService.getDirectorySize(null, "/mvcc", false, false);
+            assertTrue((Long) latest.get("version") > version);
+            assertEquals(250L, latest.get("size"));
+            assertEquals(100L, fileSystemService.getDirectorySize(null, "/mvcc", false, false, version).get("size"));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "mvcc");
+        }
+    }
+    
+    @Test
+    void testLatestPin_ResolvesInThePinnedTree() {
+        Directory scratch = fileSystemService.createDirectory(null, "/", "latest");
+        scratch.addChild(new File("old.txt", 100));
+        try (VersionStore.Pin pin = fileSystemService.pinVersion(null)) {
+            scratch.addChild(new File("new.txt", 250));
+            
+            DirectorySnapshot pinned = fileSystemService.getSnapshotDirectory(pin, "/latest");
+            assertEquals(100L, pinned.calculateSize());
+            assertNull(pinned.getChild("new.txt"));
+            assertEquals(350L, fileSystemService.getDirectorySize(null, "/latest", false, false).get("size"));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "latest");
+        }
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetTop_LargestFilesAndDirectories() {
+        Directory scratch = fileSystemService.createDirectory(null, "/", "top");
+        try {
+            Directory media = new Directory("media");
+            media.addChild(new File("movie.mkv", 9000));
+            media.addChild(new File("song.mp3", 300));
+            scratch.addChild(media);
+            scratch.addChild(new File("notes.txt", 500));
+            
+            Map<String, Object> files = fileSystemService.getTop(null, "/top", 2, "file", null);
+            List<Map<String, Object>> entries = (List<Map<String, Object>>) files.get("entries");
+            assertEquals(2, entries.size());
+            assertEquals("/top/media/movie.mkv", entries.get(0).get("path"));
+            assertEquals(9000L, entries.get(0).get("size"));
+            assertEquals("/top/notes.txt", entries.get(1).get("path"));
+            long version = (Long) files.get("version");
+            
+            scratch.addChild(new File("backup.tar", 20000));
+            Map<String, Object> directories = fileSystemService.getTop(null, "/", 10, "directory", null);
+            assertEquals("/top", ((List<Map<String, Object>>) directories.get("entries")).get(0).get("path"));
+            Map<String, Object> latest = fileSystemService.getTop(null, "/top", 1, "file", null);
+            assertEquals("backup.tar", ((List<Map<String, Object>>) latest.get("entries")).get(0).get("name"));
+            Map<String, Object> pinned = fileSystemService.getTop(null, "/top", 1, "file", version);
+            assertEquals("movie.mkv", ((List<Map<String, Object>>) pinned.get("entries")).get(0).get("name"));
+            
+            assertThrows(IllegalArgumentException.class, () -> fileSystemService.getTop(null, "/top", 0, "file", null));
+            assertThrows(IllegalArgumentException.class, () -> fileSystemService.getTop(null, "/top", 101, "file", null));
+            assertThrows(IllegalArgumentException.class, () -> fileSystemService.getTop(null, "/top", 5, "link", null));
+            assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.getTop(null, "/nowhere", 5, "file", null));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "top");
+        }
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGetBreakdown_ByExtensionAndCategory() {
+        Directory scratch = fileSystemService.createDirectory(null, "/", "breakdown");
+        try {
+            Directory photos = new Directory("photos");
+            photos.addChild(new File("beach.jpg", 3000));
+            photos.addChild(new File("logo.PNG", 500));
+            scratch.addChild(photos);
+            scratch.addChild(new File("report.pdf", 1000));
+            scratch.addChild(new File("LICENSE", 20));
+            
+            Map<String, Object> byExtension = fileSystemService.getBreakdown(null, "/breakdown", "extension", null);
+            List<Map<String, Object>> types = (List<Map<String, Object>>) byExtension.get("types");
+            assertEquals(4, types.size());
+            assertEquals("jpg", types.get(0).get("type"));
+            assertEquals(3000L, types.get(0).get("size"));
+            assertEquals("", types.get(3).get("type"));
+            assertEquals(4L, byExtension.get("fileCount"));
+            long version = (Long) byExtension.get("version");
+            
+            photos.removeChild("beach.jpg");
+            Map<String, Object> byCategory = fileSystemService.getBreakdown(null, "/breakdown", "category", null);
+            types = (List<Map<String, Object>>) byCategory.get("types");
+            assertEquals(List.of("document", "image", "other"), types.stream().map(t -> t.get("type")).toList());
+            assertEquals(500L, types.get(1).get("size"));
+            assertEquals(1L, types.get(1).get("fileCount"));
+            Map<String, Object> pinned = fileSystemService.getBreakdown(null, "/breakdown", "category", version);
+            assertEquals(3500L, ((List<Map<String, Object>>) pinned.get("types")).get(0).get("size"));
+            
+            assertThrows(IllegalArgumentException.class, () -> fileSystemService.getBreakdown(null, "/breakdown", "mime", null));
+            assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.getBreakdown(null, "/nowhere", "extension", null));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "breakdown");
+        }
+    }
+    
+    @Test
+    void testFind_StreamsMatchesBelowPath() {
+        Directory scratch = fileSystemService.createDirectory(null, "/", "find");
+        try {
+            scratch.addChild(new File("alpha.log", 10));
+            scratch.addChild(new File("beta.log", 5000));
+            scratch.addChild(new File("gamma.txt", 20));
+            
+            List<String> names = new ArrayList<>();
+            fileSystemService.find(null, "/find", "*.log", null, null, "file", 10).run(match -> names.add(match.getName()));
+            assertEquals(2, names.size());
+            assertTrue(names.containsAll(List.of("alpha.log", "beta.log")));
+            
+            names.clear();
+            fileSystemService.find(null, "/find", "*", 1000L, null, "any", 10).run(match -> names.add(match.getPath()));
+            assertEquals(List.of("/find/beta.log"), names);
+            assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.find(null, "/nowhere", "*", null, null, "any", 10));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "find");
+        }
+    }
+    
+    @Test
+    void testComplete_FollowsMkdirAndRmdir() {
+        assertEquals(List.of("/documents/personal", "/documents/work"),
+                fileSystemService.complete(null, "/documents/", 20).get("completions"));
+        fileSystemService.changeDirectory("/documents");
+        assertEquals(List.of("/documents/work"), fileSystemService.complete(null, "wo", 20).get("completions"));
+        
+        fileSystemService.createDirectory("workshop");
+        Map<String, Object> result = fileSystemService.complete(null, "wo", 1);
+        assertEquals("/documents/wo", result.get("prefix"));
+        assertEquals(List.of("/documents/work"), result.get("completions"));
+        assertEquals(true, result.get("truncated"));
+        
+        fileSystemService.removeDirectory("workshop");
+        assertEquals(List.of("/documents/work"), fileSystemService.complete(null, "../documents/wo", 20).get("completions"));
+        assertEquals(List.of(), fileSystemService.complete(null, "/nowhere/x", 20).get("completions"));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.complete(null, "", 0));
+    }
+    
+    @Test
+    void testJobs_RunInBackground() throws Exception {
+        String id = (String) fileSystemService.submitSizeJob(null, "/documents", null).get("id");
+        Map<String, Object> job = fileSystemService.getJob(id);
+        for (int i = 0; i < 500 && !job.get("state").equals("SUCCEEDED"); i++) {
+            Thread.sleep(10);
+            job = fileSystemService.getJob(id);
+        }
+        assertEquals("SUCCEEDED", job.get("state"));
+        assertEquals("/documents", job.get("path"));
+        assertEquals(job.get("nodesTotal"), job.get("nodesVisited"));
+        assertEquals(fileSystemService.getDirectorySize(null, "/documents", false, false).get("size"), job.get("bytesSeen"));
+        assertTrue(fileSystemService.getJobResult(id).hasResult());
+        
+        fileSystemService.cancelJob(id);
+        assertThrows(JobNotFoundException.class, () -> fileSystemService.getJob(id));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.submitTreeJob(null, null, "xml", null, null));
+        assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.submitSizeJob(null, "/nowhere", null));
+    }
+    
+    @Test
+    void testModCount_BumpedAlongAncestorChain() {
+        Directory root = fileSystemManager.getRoot();
+        Directory documents = fileSystemManager.resolve("/documents");
+        Directory work = fileSystemManager.resolve("/documents/work");
+        Directory projects = fileSystemManager.resolve("/projects");
+        long rootCount = root.getModCount();
+        long documentsCount = documents.getModCount();
+        long workCount = work.getModCount();
+        long projectsCount = projects.getModCount();
+        
+        fileSystemService.createDirectory(null, "/documents/work", "drafts");
+        try {
+            assertTrue(root.getModCount() > rootCount);
+            assertTrue(documents.getModCount() > documentsCount);
+            assertTrue(work.getModCount() > workCount);
+            assertEquals(projectsCount, projects.getModCount());
+        } finally {
+            fileSystemService.removeDirectory(null, "/documents/work", "drafts");
+        }
+        long removed = fileSystemManager.resolve("/documents/work").getModCount();
+        fileSystemService.createDirectory(null, "/documents/work", "drafts");
+        fileSystemService.removeDirectory(null, "/documents/work", "drafts");
+        assertNotEquals(removed, fileSystemManager.resolve("/documents/work").getModCount());
+    }
+    
+    @Test
+    void testReclaimedVersion_IsGone() {
+        long version = (Long) fileSystemService.getDirectorySize().get("version");
+        for (int i = 0; i < 20; i++) {
+            fileSystemService.createDirectory("churn");
+            fileSystemService.removeDirectory("churn");
+        }
+        
+        assertThrows(VersionGoneException.class, () -> fileSystemService.getDirectorySize(null, null, false, false, version));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.getDirectorySize(null, null, false, false, Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.getDirectorySize(null, null, true, false, version));
+    }
+    
+    @Test
+    void testGetAbsolutePath() {
+        fileSystemService.changeDirectory("alice", "/documents/work");
+        assertEquals("/documents/work", fileSystemService.getAbsolutePath("alice", null));
+        assertEquals("/documents/personal", fileSystemService.getAbsolutePath("alice", "./../personal/"));
+        assertEquals("/projects", fileSystemService.getAbsolutePath("alice", "//projects"));
+        assertEquals("/", fileSystemService.getTreePath("alice", null));
+    }
+    
+    @Test
+    void testGetNode_ById() {
+        Directory created = fileSystemService.createDirectory(null, "/documents", "by-id");
+        try {
+            Map<String, Object> node = fileSystemService.getNode(created.getId());
+            assertEquals("/documents/by-id", node.get("path"));
+            assertEquals("DIRECTORY", node.get("type"));
+            assertEquals(fileSystemManager.resolve("/documents").getId(), node.get("parentId"));
+            
+            // Equality is by id: a same-named directory elsewhere is a different node
+            Directory twin = new Directory("by-id");
+            assertNotEquals(created, twin);
+            assertNotEquals(created.getId(), twin.getId());
+            assertEquals(created, fileSystemManager.resolve("/documents/by-id"));
+        } finally {
+            fileSystemService.removeDirectory(null, "/documents", "by-id");
+        }
+        
+        assertThrows(NodeNotFoundException.class, () -> fileSystemService.getNode(created.getId()));
+        assertThrows(NodeNotFoundException.class, () -> fileSystemService.getNode(-1));
+    }
+    
+    @Test
+    void testImportManifest() throws IOException {
+        long before = fileSystemManager.getRoot().calculateSize();
+        String csv = "src/main.c,300\nsrc/lib/util.c,200\nREADME,50\n";
+        Map<String, Object> result = fileSystemService.importManifest(null, "/", "imported", "csv",
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        try {
+            assertEquals("/imported", result.get("path"));
+            assertEquals(3L, result.get("files"));
+            assertEquals(550L, fileSystemService.getDirectorySize(null, "/imported", false, false).get("size"));
+            assertEquals(before + 550, fileSystemManager.getRoot().calculateSize());
+            assertNotNull(fileSystemManager.resolve("/imported/src/lib"));
+            assertNotNull(fileSystemService.getNode((Long) result.get("id")));
+            
+            assertThrows(DirectoryAlreadyExistsException.class, () -> fileSystemService.importManifest(null, "/", "imported",
+                    "csv", new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))));
+            assertThrows(IllegalArgumentException.class, () -> fileSystemService.importManifest(null, "/", "other",
+                    "xml", new ByteArrayInputStream(new byte[0])));
+        } finally {
+            fileSystemService.removeDirectory(null, "/", "imported");
+        }
+        assertEquals(before, fileSystemManager.getRoot().calculateSize());
+    }
+    
+    @Test
+    void testApplyBatch() {
+        long before = fileSystemManager.getRoot().calculateSize();
+        long version = fileSystemManager.getVersions().lastPublished();
+        FileSystemEntity readme = fileSystemManager.resolve("/documents").getChild("readme.txt");
+        List<Map<String, Object>> operations = List.of(
+                Map.of("op", "mkdir", "path", "/batch/a/b"),
+                Map.of("op", "create", "path", "/batch/a/b/one.bin", "size", 100),
+                Map.of("op", "create", "path", "/batch/a/two.bin", "size", 20),
+                Map.of("op", "setSize", "path", "/batch/a/two.bin", "size", 30),
+                Map.of("op", "create", "path", "/documents/batch.txt", "size", 7),
+                Map.of("op", "setSize", "path", "/documents/readme.txt", "size", 24),
+                Map.of("op", "rmdir", "path", "/downloads/videos"));
+        Map<String, Object> result = fileSystemService.applyBatch(null, operations);
+        try {
+            assertEquals(7, result.get("applied"));
+            assertEquals(130L, fileSystemManager.resolve("/batch").calculateSize());
+            assertEquals(before + 130 + 7 - 1000, fileSystemManager.getRoot().calculateSize());
+            assertNull(fileSystemManager.resolve("/downloads/videos"));
+            assertTrue(fileSystemManager.getRoot().verifyAggregates(false).isEmpty());
+            // The whole batch is one version
+            assertEquals(version + 1, fileSystemManager.getVersions().lastPublished());
+            assertEquals(readme.getId(), fileSystemManager.resolve("/documents").getChild("readme.txt").getId());
+            
+            List<?> results = (List<?>) result.get("results");
+            Object batchDirectory = ((Map<?, ?>) results.get(0)).get("id");
+            assertEquals("/batch/a/b", fileSystemService.getNode((Long) batchDirectory).get("path"));
+        } finally {
+            fileSystemService.applyBatch(null, List.of(
+                    Map.of("op", "rmdir", "path", "/batch"),
+                    Map.of("op", "mkdir", "path", "/downloads/videos"),
+                    Map.of("op", "setSize", "path", "/documents/readme.txt", "size", 1024)));
+            fileSystemManager.resolve("/documents").removeChild("batch.txt");
+        }
+        assertEquals(before, fileSystemManager.getRoot().calculateSize());
+    }
+    
+    @Test
+    void testApplyBatch_IsAllOrNothing() {
+        long before = fileSystemManager.getRoot().calculateSize();
+        long version = fileSystemManager.getVersions().lastPublished();
+        
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () ->
+                fileSystemService.applyBatch(null, List.of(
+                        Map.of("op", "mkdir", "path", "/batch"),
+                        Map.of("op", "rmdir", "path", "/documents/work"),
+                        Map.of("op", "create", "path", "/batch/f", "size", -1))));
+        assertTrue(error.getMessage().startsWith("operations[2]"));
+        assertThrows(DirectoryNotFoundException.class, () -> fileSystemService.applyBatch(null, List.of(
+                Map.of("op", "rmdir", "path", "/documents"),
+                Map.of("op", "create", "path", "/documents/work/f"))));
+        assertThrows(DirectoryAlreadyExistsException.class, () -> fileSystemService.applyBatch(null, List.of(
+                Map.of("op", "create", "path", "/documents/readme.txt"))));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.applyBatch(null, List.of(
+                Map.of("op", "rmdir", "path", "/"))));
+        assertThrows(IllegalArgumentException.class, () -> fileSystemService.applyBatch(null, List.of(
+                Map.of("op", "chmod", "path", "/documents"))));
+        
+        assertEquals(version, fileSystemManager.getVersions().lastPublished());
+        assertEquals(before, fileSystemManager.getRoot().calculateSize());
+        assertNotNull(fileSystemManager.resolve("/documents/work"));
+        assertNull(fileSystemManager.resolve("/batch"));
+    }
+    
+    @Test
+    void testApplyBatch_ConcurrentChangeAppliesNothing() {
+        long before = fileSystemManager.getRoot().calculateSize();
+        TreeBatch batch = new TreeBatch(fileSystemManager, fileSystemManager.getRoot());
+        batch.rmdir(0, "/downloads/images");
+        batch.create(1, "/projects/new.txt", 5);
+        batch.mkdir(2, "/projects/java-project/src");
+        
+        // Someone else removes a directory the batch planned to change
+        fileSystemService.removeDirectory(null, "/projects", "java-project");
+        try {
+            assertThrows(BatchConflictException.class, batch::apply);
+            assertNotNull(fileSystemManager.resolve("/downloads/images/photos"));
+            assertNull(fileSystemManager.resolve("/projects").getChild("new.txt"));
+            assertEquals(before - 1280, fileSystemManager.getRoot().calculateSize());
+        } finally {
+            Directory javaProject = new Directory("java-project");
+            javaProject.addChild(new File("Main.java", 512));
+            javaProject.addChild(new File("Utils.java", 768));
+            fileSystemManager.resolve("/projects").addChild(javaProject);
+        }
+        assertEquals(before, fileSystemManager.getRoot().calculateSize());
+    }
+    
+    @Test
+    void testIngestSizes() throws IOException {
+        long before = fileSystemManager.getRoot().calculateSize();
+        String events = "{\"path\": \"/projects/java-project/Main.java\", \"delta\": 100}\n"
+                + "{\"path\": \"/projects/java-project/Main.java\", \"delta\": 28}\n"
+                + "{\"path\": \"/projects/java-project/Utils.java\", \"size\": 1000}\n";
+        Map<String, Object> result = fileSystemService.ingestSizes(
+                new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8)), true);
+        try {
+            assertEquals(3L, result.get("accepted"));
+            assertEquals(0, result.get("pendingPaths"));
+            assertEquals(640L + 1000, fileSystemService.getDirectorySize(null, "/projects/java-project", false, false).get("size"));
+            assertEquals(before + 128 + 232, fileSystemManager.getRoot().calculateSize());
+        } finally {
+            fileSystemManager.resolve("/projects/java-project").resizeFiles(Map.of("Main.java", 512L, "Utils.java", 768L));
+        }
+        assertEquals(before, fileSystemManager.getRoot().calculateSize());
+    }
+    
     @Test
     void testGetDirectoryTree_InvalidPath() {
         assertThrows(DirectoryNotFoundException.class, () -> {
@@ -0,0 +1,151 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.exception.JobNotFoundException;
+import com.capgemini.filesystem.exception.JobRejectedException;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for JobManager
+ */
+class JobManagerTest {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TreeStreamWriter writer = new TreeStreamWriter(objectMapper);
+    private final FileSystemManager fileSystemManager = new FileSystemManager();
+    private JobManager jobs = new JobManager(writer, objectMapper, 1, 1, 600, 100, 1 << 20);
+    
+    @AfterEach
+    void tearDown() {
+        jobs.close();
+    }
+    
+    @Test
+    void testSizeJob_RecountsAndReportsProgress() throws Exception {
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        DirectorySnapshot documents = pin.getRoot().resolve("/documents");
+        JobManager.Job job = await(jobs.submitSize("/documents", pin, documents));
+        
+        assertEquals(JobManager.State.SUCCEEDED, job.getState());
+        assertEquals(job.getNodesTotal(), job.getNodesVisited());
+        assertEquals(documents.calculateSize(), job.getBytesSeen());
+        Map<?, ?> result = objectMapper.readValue(result(job), Map.class);
+        assertEquals(documents.calculateSize(), ((Number) result.get("size")).longValue());
+        assertEquals(documents.getFileCount(), ((Number) result.get("fileCount")).longValue());
+        assertEquals(documents.getDirectoryCount(), ((Number) result.get("directoryCount")).longValue());
+        assertSame(job, jobs.get(job.getId()));
+    }
+    
+    @Test
+    void testTreeJob_MatchesStreamedTree() throws Exception {
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        DirectorySnapshot root = pin.getRoot();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        writer.writeNdjson(root, "/", 2, expected);
+        
+        JobManager.Job job = await(jobs.submitTree("/", pin, root, true, 2));
+        assertEquals(JobManager.State.SUCCEEDED, job.getState());
+        assertArrayEquals(expected.toByteArray(), result(job));
+        assertTrue(job.getNodesVisited() < job.getNodesTotal());
+    }
+    
+    @Test
+    void testCancel_QueuedRunningAndFinishedJobs() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        DirectorySnapshot root = pin.getRoot();
+        JobManager.Job running = jobs.submit(new JobManager.Job("test", "/", pin, root) {
+            @Override
+            void execute() throws Exception {
+                while (true) {
+                    visit(root);
+                    started.countDown();
+                    Thread.sleep(1);
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        JobManager.Job queued = jobs.submitSize("/", fileSystemManager.getVersions().pin(null), root);
+        assertThrows(JobRejectedException.class,
+                () -> jobs.submitSize("/", fileSystemManager.getVersions().pin(null), root));
+        
+        assertEquals(JobManager.State.CANCELLED, jobs.cancel(queued.getId()).getState());
+        // The cancelled job no longer holds the only queue slot
+        JobManager.Job next = jobs.submitSize("/", fileSystemManager.getVersions().pin(null), root);
+        jobs.cancel(next.getId());
+        jobs.cancel(running.getId());
+        assertEquals(JobManager.State.CANCELLED, await(running).getState());
+        assertTrue(running.getNodesVisited() > 0);
+        assertFalse(running.hasResult());
+        
+        jobs.cancel(running.getId());
+        assertThrows(JobNotFoundException.class, () -> jobs.get(running.getId()));
+    }
+    
+    @Test
+    void testFinishedJobs_ExpireAfterTtl() throws Exception {
+        jobs.close();
+        jobs = new JobManager(writer, objectMapper, 1, 1, 0, 100, 1 << 20);
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        JobManager.Job job = await(jobs.submitSize("/", pin, pin.getRoot()));
+        Thread.sleep(5);
+        assertThrows(JobNotFoundException.class, () -> jobs.get(job.getId()));
+    }
+    
+    @Test
+    void testFinishedJobs_AreBoundedOldestFirst() throws Exception {
+        jobs.close();
+        jobs = new JobManager(writer, objectMapper, 1, 1, 600, 2, 1 << 20);
+        List<JobManager.Job> finished = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+            finished.add(await(jobs.submitTree("/", pin, pin.getRoot(), true, 2)));
+            Thread.sleep(2);
+        }
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        await(jobs.submitSize("/", pin, pin.getRoot()));
+        
+        assertThrows(JobNotFoundException.class, () -> jobs.get(finished.get(0).getId()));
+        assertThrows(JobNotFoundException.class, () -> jobs.get(finished.get(1).getId()));
+        assertSame(finished.get(2), jobs.get(finished.get(2).getId()));
+    }
+    
+    @Test
+    void testTreeJob_FailsBeyondResultCap() throws Exception {
+        jobs.close();
+        jobs = new JobManager(writer, objectMapper, 1, 1, 600, 100, 64);
+        VersionStore.Pin pin = fileSystemManager.getVersions().pin(null);
+        JobManager.Job job = await(jobs.submitTree("/", pin, pin.getRoot(), false, 10));
+        assertEquals(JobManager.State.FAILED, job.getState());
+        assertTrue(job.getError().contains("64 bytes"));
+        assertFalse(job.hasResult());
+    }
+    
+    private static byte[] result(JobManager.Job job) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        job.writeResult(out);
+        assertEquals(out.size(), job.getResultLength());
+        return out.toByteArray();
+    }
+    
+    private static JobManager.Job await(JobManager.Job job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(job.isFinished());
+        return job;
+    }
+}
@@ -0,0 +1,92 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for ManifestImporter: du, ncdu and CSV manifests
+ */
+class ManifestImporterTest {
+    
+    private final ManifestImporter importer = new ManifestImporter("", "du");
+    
+    @Test
+    void testDu_DirectoriesAreInferredFromTheirContents() throws IOException {
+        String du = "100\t./a/one.txt\n"
+                + "5000\t./a/b/two.txt\n"
+                + "9096\t./a/b\n"
+                + "13292\t./a\n"
+                + "7\t./top.txt\n"
+                + "13299\t.\n";
+        ManifestImporter.ImportReport report = read(du, ManifestImporter.Format.DU);
+        Directory root = report.getRoot();
+        
+        assertEquals("inventory", root.getName());
+        assertEquals(5107, report.getSize());
+        assertEquals(3, report.getFiles());
+        assertEquals(2, report.getDirectories());
+        Directory b = (Directory) ((Directory) root.getChild("a")).getChild("b");
+        assertEquals(5000, b.calculateSize());
+        assertTrue(root.getChild("top.txt") instanceof File);
+        assertTrue(root.verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testNcdu_ReadsNestedExportAndCountsHardLinksOnce() throws IOException {
+        String ncdu = "[1,2,{\"progname\":\"ncdu\",\"progver\":\"1.19\",\"timestamp\":1700000000},"
+                + "[{\"name\":\"/mnt/data\",\"asize\":4096,\"dsize\":4096,\"dev\":1,\"ino\":1},"
+                + "{\"name\":\"readme.md\",\"asize\":600,\"dsize\":4096,\"ino\":2},"
+                + "[{\"name\":\"docs\",\"asize\":4096,\"dsize\":4096,\"ino\":3},"
+                + "{\"name\":\"report.pdf\",\"asize\":200,\"dsize\":4096,\"ino\":4,\"nlink\":2,\"hlnkc\":true},"
+                + "{\"name\":\"copy.pdf\",\"asize\":200,\"dsize\":4096,\"ino\":4,\"nlink\":2,\"hlnkc\":true}],"
+                + "[{\"name\":\"empty\",\"asize\":4096,\"dsize\":4096,\"ino\":5}]]]";
+        ManifestImporter.ImportReport report = read(ncdu, ManifestImporter.Format.NCDU);
+        Directory root = report.getRoot();
+        
+        assertEquals(800, report.getSize());
+        assertEquals(8192, report.getAllocatedSize());
+        assertEquals(2, report.getFiles());
+        assertEquals(2, report.getDirectories());
+        assertEquals(1, report.getEntriesSkipped());
+        assertEquals(0, ((Directory) root.getChild("empty")).getChildCount());
+        assertEquals(4096, ((Directory) root.getChild("docs")).getChild("report.pdf").getAllocatedSize());
+    }
+    
+    @Test
+    void testCsv_WithHeaderQuotesAndExplicitDirectories() throws IOException {
+        String csv = "path,size\n"
+                + "projects/app/main.c,300\n"
+                + "\"projects/a,b.txt\",20\n"
+                + "projects/empty/,0\n"
+                + "projects/app/util.h,40\n";
+        ManifestImporter.ImportReport report = read(csv, ManifestImporter.Format.CSV);
+        Directory projects = (Directory) report.getRoot().getChild("projects");
+        
+        assertEquals(360, report.getSize());
+        assertEquals(3, report.getFiles());
+        assertEquals(3, report.getDirectories());
+        assertEquals(20, projects.getChild("a,b.txt").calculateSize());
+        assertTrue(projects.getChild("empty") instanceof Directory);
+    }
+    
+    @Test
+    void testMalformedManifests_AreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> read("abc\t./x\n", ManifestImporter.Format.DU));
+        assertThrows(IllegalArgumentException.class, () -> read("a/x,1\na/x,2\n", ManifestImporter.Format.CSV));
+        assertThrows(IllegalArgumentException.class, () -> read("a,1\na/b,2\n", ManifestImporter.Format.CSV));
+        assertThrows(IllegalArgumentException.class, () -> read("x/../y,1\n", ManifestImporter.Format.CSV));
+        assertThrows(IllegalArgumentException.class, () -> read("[1,2,{}", ManifestImporter.Format.NCDU));
+        assertThrows(IllegalArgumentException.class, () -> ManifestImporter.Format.of("xml"));
+    }
+    
+    private ManifestImporter.ImportReport read(String manifest, ManifestImporter.Format format) throws IOException {
+        return importer.read(new ByteArrayInputStream(manifest.getBytes(StandardCharsets.UTF_8)), format, "inventory");
+    }
+}
@@ -0,0 +1,190 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.ChangeSet;
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.capgemini.filesystem.model.NodeStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for MutationJournal: restart recovery, checkpoints, torn records and change sets
+ */
+class MutationJournalTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void testMutations_SurviveRestart() throws IOException {
+        FileSystemManager manager = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        Directory work = manager.resolve("/documents/work");
+        Directory journaled = new Directory("journaled");
+        journaled.addChild(new File("data.bin", 700, 4096));
+        work.addChild(journaled);
+        manager.getRoot().removeChild("downloads");
+        work.resizeFiles(Map.of("report1.pdf", 9000L));
+        manager.awaitDurable();
+        long size = manager.getRoot().calculateSize();
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        assertNotNull(restarted.resolve("/documents/work/journaled"));
+        assertNull(restarted.resolve("/downloads"));
+        assertEquals(size, restarted.getRoot().calculateSize());
+        assertEquals(4096, ((Directory) restarted.resolve("/documents/work/journaled")).getAllocatedSize());
+        assertEquals(9000, restarted.resolve("/documents/work").getChild("report1.pdf").calculateSize());
+        assertTrue(restarted.getRoot().verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testCheckpoint_ReplacesOlderSegments() throws Exception {
+        MutationJournal journal = journal(MutationJournal.Durability.BATCHED, 10);
+        FileSystemManager manager = start(journal);
+        Directory projects = manager.resolve("/projects");
+        for (int i = 0; i < 50; i++) {
+            projects.addChild(new Directory("p" + i));
+            if (i % 3 == 0) {
+                projects.removeChild("p" + i);
+            }
+        }
+        manager.awaitDurable();
+        
+        awaitCheckpoint();
+        journal.close(); // a later checkpoint may still be deleting older segments
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.BATCHED, 10));
+        Directory recovered = restarted.resolve("/projects");
+        assertEquals(projects.getChildCount(), recovered.getChildCount());
+        assertNull(recovered.getChild("p0"));
+        assertNotNull(recovered.getChild("p49"));
+        assertEquals(manager.getRoot().calculateSize(), restarted.getRoot().calculateSize());
+        assertEquals(manager.getRoot().getDirectoryCount(), restarted.getRoot().getDirectoryCount());
+    }
+    
+    @Test
+    void testRestart_MapsCheckpointLazily() throws Exception {
+        FileSystemManager manager = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        awaitCheckpoint(); // the freshly built tree is checkpointed at startup
+        manager.resolve("/documents").addChild(new Directory("later"));
+        manager.awaitDurable();
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        Directory projects = (Directory) restarted.getRoot().getChild("projects");
+        assertFalse(projects.isLoaded());
+        assertEquals(manager.resolve("/projects").calculateSize(), projects.calculateSize());
+        assertNotNull(restarted.resolve("/documents/later"));
+        assertNotNull(restarted.resolve("/projects/" + manager.resolve("/projects").getDirectories().get(0).getName()));
+        assertTrue(projects.isLoaded());
+        assertEquals(manager.getRoot().calculateSize(), restarted.getRoot().calculateSize());
+    }
+    
+    @Test
+    void testLargeSubtree_IsJournaledAsOneImage() throws Exception {
+        MutationJournal journal = journal(MutationJournal.Durability.EVERY_OP, 100_000);
+        FileSystemManager manager = start(journal);
+        NodeStore store = new NodeStore("imported");
+        for (int i = 0; i < MutationJournal.IMAGE_THRESHOLD; i++) {
+            store.addFile(store.addDirectory(NodeStore.ROOT, "d" + i), "f", i, 4096);
+        }
+        store.seal();
+        long before = journal.getAppendedRecords();
+        manager.resolve("/documents").addChild(store.load());
+        manager.awaitDurable();
+        assertEquals(before + 1, journal.getAppendedRecords());
+        assertEquals(1, count("subtree-"));
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        Directory imported = restarted.resolve("/documents/imported");
+        assertFalse(imported.isLoaded());
+        assertEquals(store.getRoot().calculateSize(), imported.calculateSize());
+        assertEquals(manager.getRoot().calculateSize(), restarted.getRoot().calculateSize());
+        assertEquals(7, restarted.resolve("/documents/imported/d7").getChild("f").calculateSize());
+    }
+    
+    @Test
+    void testTornRecord_IsDiscarded() throws IOException {
+        MutationJournal journal = journal(MutationJournal.Durability.ASYNC, 100_000);
+        FileSystemManager manager = start(journal);
+        manager.getRoot().addChild(new Directory("kept"));
+        journal.close(); // ASYNC does not wait for the fsync; close flushes
+        
+        // A crash in the middle of a write leaves a partial record behind
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(f -> f.getFileName().toString().startsWith("segment-")).max(Path::compareTo).orElseThrow();
+        }
+        long length = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.ASYNC, 100_000));
+        assertNotNull(restarted.resolve("/kept"));
+        assertEquals(length, Files.size(segment));
+    }
+    
+    @Test
+    void testUnfinishedChangeSet_IsDiscarded() throws IOException {
+        MutationJournal journal = journal(MutationJournal.Durability.EVERY_OP, 100_000);
+        FileSystemManager manager = start(journal);
+        assertTrue(new ChangeSet().add(manager.getRoot(), new Directory("first")).apply());
+        manager.awaitDurable();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(f -> f.getFileName().toString().startsWith("segment-")).max(Path::compareTo).orElseThrow();
+        }
+        long length = Files.size(segment);
+        
+        Directory root = manager.getRoot();
+        assertTrue(new ChangeSet()
+                .remove(root, root.getChild("downloads"))
+                .add(root, new Directory("kept"))
+                .apply());
+        journal.close();
+        // A crash before the COMMIT record (op, empty path) reached the disk
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 11);
+        }
+        
+        FileSystemManager restarted = start(journal(MutationJournal.Durability.EVERY_OP, 100_000));
+        assertNotNull(restarted.resolve("/first"));
+        assertNotNull(restarted.resolve("/downloads"));
+        assertNull(restarted.resolve("/kept"));
+        assertEquals(length, Files.size(segment));
+    }
+    
+    private MutationJournal journal(MutationJournal.Durability durability, long checkpointRecords) {
+        return new MutationJournal(directory, durability, 5, checkpointRecords);
+    }
+    
+    static FileSystemManager start(MutationJournal journal) throws IOException {
+        return new FileSystemManager(new DiskScanner(false, 1), new ManifestImporter("", "du"),
+                new SessionCursorStore(1800, 100), new VersionStore(4), journal, "");
+    }
+    
+    /**
+     * Checkpoints are written in the background
+     */
+    private void awaitCheckpoint() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (count("checkpoint-") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(count("checkpoint-") > 0);
+    }
+    
+    private long count(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix)
+                    && !f.getFileName().toString().endsWith(".tmp")).count();
+        }
+    }
+}
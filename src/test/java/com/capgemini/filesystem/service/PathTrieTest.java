@@ -0,0 +1,50 @@
+package com.capgemini.filesystem.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for PathTrie
+ */
+class PathTrieTest {
+    
+    private final PathTrie trie = new PathTrie();
+    
+    @Test
+    void testComplete_StopsAtNextComponent() {
+        for (String path : List.of("/", "/documents", "/documents/work", "/documents/work/reports",
+                "/documents/personal", "/downloads", "/docs")) {
+            trie.add(path);
+        }
+        assertEquals(List.of("/docs", "/documents"), trie.complete("/doc", 10));
+        assertEquals(List.of("/docs", "/documents", "/downloads"), trie.complete("/", 10));
+        assertEquals(List.of("/documents/personal", "/documents/work"), trie.complete("/documents/", 10));
+        assertEquals(List.of("/documents/work"), trie.complete("/documents/wo", 10));
+        assertEquals(List.of("/documents"), trie.complete("/documents", 10));
+        assertEquals(List.of("/docs"), trie.complete("/doc", 1));
+        assertEquals(List.of(), trie.complete("/documents/x", 10));
+        assertEquals(List.of(), trie.complete("/documents/wo/", 10));
+    }
+    
+    @Test
+    void testRemove_PrunesAndMergesNodes() {
+        for (String path : List.of("/", "/data", "/data1", "/data2", "/data/logs")) {
+            trie.add(path);
+        }
+        trie.remove("/data1");
+        trie.remove("/data/logs");
+        trie.remove("/nothing");
+        assertEquals(List.of("/data", "/data2"), trie.complete("/da", 10));
+        assertEquals(List.of(), trie.complete("/data/", 10));
+        
+        trie.remove("/data");
+        assertEquals(List.of("/data2"), trie.complete("/d", 10));
+        trie.add("/data");
+        assertEquals(List.of("/data", "/data2"), trie.complete("/d", 10));
+        trie.clear();
+        assertEquals(List.of(), trie.complete("/", 10));
+    }
+}
@@ -0,0 +1,90 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.File;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for ResponseCache
+ */
+class ResponseCacheTest {
+    
+    private final FileSystemManager manager = new FileSystemManager();
+    private final AtomicInteger loads = new AtomicInteger();
+    
+    @Test
+    void testEtag_ChangesOnlyWithTheSubtree() {
+        ResponseCache cache = new ResponseCache(10, 1000, 100);
+        String documents = cache.etagOf(manager.resolve("/documents").getSnapshot());
+        String projects = cache.etagOf(manager.resolve("/projects").getSnapshot());
+        
+        manager.resolve("/documents/work").addChild(new File("notes.txt", 10));
+        assertNotEquals(documents, cache.etagOf(manager.resolve("/documents").getSnapshot()));
+        assertEquals(projects, cache.etagOf(manager.resolve("/projects").getSnapshot()));
+        
+        assertTrue(projects.startsWith("W/\""));
+        assertTrue(ResponseCache.matches(projects, projects));
+        assertTrue(ResponseCache.matches("\"other\", " + projects.substring(2), projects));
+        assertTrue(ResponseCache.matches("*", projects));
+        assertFalse(ResponseCache.matches(documents, cache.etagOf(manager.resolve("/documents").getSnapshot())));
+        assertFalse(ResponseCache.matches(null, projects));
+    }
+    
+    @Test
+    void testGet_LoadsOncePerSubtreeState() throws IOException {
+        ResponseCache cache = new ResponseCache(10, 1000, 100);
+        Directory work = manager.resolve("/documents/work");
+        DirectorySnapshot before = work.getSnapshot();
+        assertEquals(1, cache.get("size", "/documents/work", before, "", this::load).length);
+        assertEquals(1, cache.get("size", "/documents/work", before, "", this::load).length);
+        assertEquals(1, loads.get());
+        
+        cache.get("tree", "/documents/work", before, "json", this::load);
+        work.addChild(new File("notes.txt", 10));
+        cache.get("size", "/documents/work", work.getSnapshot(), "", this::load);
+        assertEquals(3, loads.get());
+    }
+    
+    @Test
+    void testPut_EvictsLeastRecentlyUsed() throws IOException {
+        ResponseCache cache = new ResponseCache(2, 1000, 100);
+        DirectorySnapshot root = manager.getRoot().getSnapshot();
+        cache.get("size", "/a", root, "", this::load);
+        cache.get("size", "/b", root, "", this::load);
+        cache.get("size", "/a", root, "", this::load);
+        cache.get("size", "/c", root, "", this::load); // evicts /b
+        cache.get("size", "/a", root, "", this::load);
+        assertEquals(3, loads.get());
+        cache.get("size", "/b", root, "", this::load);
+        assertEquals(4, loads.get());
+        
+        ResponseCache tiny = new ResponseCache(10, 0, 1);
+        tiny.get("size", "/a", root, "", this::load);
+        tiny.get("size", "/a", root, "", this::load);
+        assertEquals(6, loads.get());
+        assertFalse(tiny.isCacheable(root));
+    }
+    
+    @Test
+    void testWriteWithVersion_SplicesTheRequestsVersion() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseCache.writeWithVersion("{\"size\":1}".getBytes(StandardCharsets.UTF_8), 7, out);
+        assertEquals("{\"version\":7,\"size\":1}", out.toString(StandardCharsets.UTF_8));
+        out.reset();
+        ResponseCache.writeWithVersion("{}".getBytes(StandardCharsets.UTF_8), 8, out);
+        assertEquals("{\"version\":8}", out.toString(StandardCharsets.UTF_8));
+    }
+    
+    private byte[] load() {
+        loads.incrementAndGet();
+        return new byte[1];
+    }
+}
@@ -0,0 +1,153 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.DirectorySnapshot;
+import com.capgemini.filesystem.model.FileSystemEntity;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for SizeIngestor: coalescing, propagation and concurrent producers
+ */
+class SizeIngestorTest {
+    
+    private final FileSystemManager manager = new FileSystemManager();
+    
+    @Test
+    void testFlush_CoalescesPerPathAndResizesInPlace() {
+        SizeIngestor ingestor = new SizeIngestor(manager, 60_000, 1000);
+        long before = manager.getRoot().calculateSize();
+        long version = manager.getVersions().lastPublished();
+        DirectorySnapshot old = manager.getRoot().getSnapshot();
+        FileSystemEntity readme = manager.resolve("/documents").getChild("readme.txt");
+        
+        ingestor.addDelta("/documents/readme.txt", 500);
+        ingestor.setSize("/documents/readme.txt", 2000);
+        ingestor.addDelta("/documents/readme.txt", 10);
+        ingestor.addDelta("/documents/readme.txt", 10);
+        ingestor.addDelta("/documents/work/report1.pdf", -48);
+        ingestor.addDelta("/documents/work/report1.pdf", -10_000);
+        ingestor.setSize("/documents/missing.txt", 1);
+        ingestor.setSize("/documents/work", 1);
+        assertEquals(0, manager.getVersions().lastPublished() - version);
+        
+        assertEquals(2, ingestor.flush());
+        assertEquals(before + 996 - 2048, manager.getRoot().calculateSize());
+        assertEquals(2, manager.getVersions().lastPublished() - version);
+        assertEquals(2020, manager.getNode(readme.getId()).calculateSize());
+        assertEquals(0, manager.resolve("/documents/work").getChild("report1.pdf").calculateSize());
+        assertEquals(before, old.calculateSize());
+        assertEquals(1024, old.resolve("/documents").getChild("readme.txt").calculateSize());
+        assertTrue(manager.getRoot().verifyAggregates(false).isEmpty());
+        
+        assertEquals(8L, ingestor.getStats().get("acceptedEvents"));
+        assertEquals(2L, ingestor.getStats().get("unmatchedUpdates"));
+        assertEquals(0, ingestor.flush());
+    }
+    
+    @Test
+    void testIngest_ReadsNdjsonAndArrays() throws IOException {
+        SizeIngestor ingestor = new SizeIngestor(manager, 60_000, 1000);
+        assertEquals(2, ingestor.ingest(stream("{\"path\":\"/projects/java-project/Main.java\",\"size\":600}\n"
+                + "{\"path\":\"/projects/java-project/Utils.java\",\"delta\":32,\"agent\":{\"host\":\"a\"}}\n")));
+        assertEquals(1, ingestor.ingest(stream("[{\"path\":\"/projects/spring-project/Application.java\",\"delta\":-24}]")));
+        ingestor.flush();
+        assertEquals(600 + 800 + 1000 + 1280, manager.resolve("/projects").calculateSize());
+        
+        assertThrows(IllegalArgumentException.class, () -> ingestor.ingest(stream("{\"path\":\"/a\"}")));
+        assertThrows(IllegalArgumentException.class, () -> ingestor.ingest(stream("{\"path\":\"/a\",\"size\":1,\"delta\":1}")));
+        assertThrows(IllegalArgumentException.class, () -> ingestor.ingest(stream("{\"path\":\"a/b\",\"size\":1}")));
+        assertThrows(IllegalArgumentException.class, () -> ingestor.ingest(stream("{\"path\":\"/a\",\"size\":-1}")));
+        assertThrows(IllegalArgumentException.class, () -> ingestor.ingest(stream("{\"path\":")));
+    }
+    
+    @Test
+    void testConcurrentProducers_LoseNoDeltas() throws Exception {
+        SizeIngestor ingestor = new SizeIngestor(manager, 1, 50);
+        long before = manager.getRoot().calculateSize();
+        String[] files = {"/documents/readme.txt", "/documents/work/report1.pdf", "/documents/work/report2.pdf",
+                "/documents/work/reports/annual-report.pdf", "/projects/java-project/Main.java"};
+        int threads = 8;
+        int events = 50_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                producers.add(pool.submit(() -> {
+                    for (int i = 0; i < events; i++) {
+                        ingestor.addDelta(files[i % files.length], 1);
+                    }
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        ingestor.close();
+        
+        assertEquals(before + (long) threads * events, manager.getRoot().calculateSize());
+        assertTrue((Long) ingestor.getStats().get("flushes") > 1);
+        assertTrue(manager.getRoot().verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testFlushedDeltas_KeepConcurrentResizes() throws Exception {
+        SizeIngestor ingestor = new SizeIngestor(manager, 1, 1000);
+        Directory work = manager.resolve("/documents/work");
+        long before = work.getChild("report1.pdf").calculateSize();
+        int events = 20_000;
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // Another writer grows the same file directly while the flusher applies deltas
+            Future<?> writer = pool.submit(() -> {
+                for (int i = 0; i < events; i++) {
+                    work.resizeFiles(Map.of(), Map.of("report1.pdf", 1L));
+                }
+            });
+            for (int i = 0; i < events; i++) {
+                ingestor.addDelta("/documents/work/report1.pdf", 1);
+            }
+            writer.get();
+        } finally {
+            pool.shutdown();
+        }
+        ingestor.close();
+        
+        assertEquals(before + 2L * events, work.getChild("report1.pdf").calculateSize());
+        assertTrue(manager.getRoot().verifyAggregates(false).isEmpty());
+    }
+    
+    @Test
+    void testMaxPending_WakesFlusherAndCloseRejectsLaterEvents() {
+        SizeIngestor ingestor = new SizeIngestor(manager, 60_000, 2);
+        ingestor.setSize("/documents/readme.txt", 1);
+        ingestor.setSize("/documents/work/report1.pdf", 2);
+        
+        // The window is a minute: only the flusher woken by the producer can make room
+        ingestor.setSize("/documents/work/report2.pdf", 3);
+        assertEquals(1, ingestor.getStats().get("pendingPaths"));
+        
+        ingestor.close();
+        assertEquals(2, manager.resolve("/documents/work").getChild("report1.pdf").calculateSize());
+        assertEquals(3, manager.resolve("/documents/work").getChild("report2.pdf").calculateSize());
+        assertThrows(IllegalStateException.class, () -> ingestor.addDelta("/documents/readme.txt", 1));
+        assertEquals(1, manager.resolve("/documents").getChild("readme.txt").calculateSize());
+    }
+    
+    private static ByteArrayInputStream stream(String events) {
+        return new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8));
+    }
+}
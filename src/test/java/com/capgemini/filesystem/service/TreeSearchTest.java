@@ -0,0 +1,125 @@
+package com.capgemini.filesystem.service;
+
+import com.capgemini.filesystem.model.Directory;
+import com.capgemini.filesystem.model.File;
+import com.capgemini.filesystem.model.NodeStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JUnit tests for TreeSearch, its NameIndex and Glob
+ */
+class TreeSearchTest {
+    
+    private final FileSystemManager manager = new FileSystemManager();
+    // A threshold of 1 splits at every directory, so the demo tree exercises the fork/join walk
+    private final TreeSearch search = new TreeSearch(manager, 1, 0);
+    
+    @Test
+    void testIndexedSearch_FollowsTreeChanges() {
+        TreeSearch.Query query = search.query(manager.getRoot(), "*report*.pdf", null, null, "file", 100);
+        assertEquals("index", query.getStrategy());
+        assertEquals(Set.of("/documents/work/report1.pdf", "/documents/work/report2.pdf",
+                "/documents/work/reports/annual-report.pdf"), paths(query));
+        
+        Directory work = manager.resolve("/documents/work");
+        work.removeChild("report2.pdf");
+        work.resizeFiles(Map.of("report1.pdf", 10L));
+        manager.resolve("/downloads").addChild(new File("report-2024.pdf", 700));
+        assertEquals(Set.of("/documents/work/reports/annual-report.pdf", "/downloads/report-2024.pdf"),
+                paths(search.query(manager.getRoot(), "*report*.pdf", 100L, null, "any", 100)));
+        assertEquals(Set.of("/documents/work/report1.pdf"),
+                paths(search.query(manager.resolve("/documents"), "report1.pdf", null, null, "any", 100)));
+    }
+    
+    @Test
+    void testIndexedSearch_CoversUnloadedDirectories() throws InterruptedException {
+        NodeStore store = new NodeStore("archive");
+        for (int i = 0; i < 3; i++) {
+            int year = store.addDirectory(NodeStore.ROOT, "20" + i);
+            store.addFile(year, "summary-report.pdf", 10 + i, 4096);
+            store.addFile(year, "notes.txt", 1, 4096);
+        }
+        store.seal();
+        manager.resolve("/downloads").addChild(store.load());
+        
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!manager.getNameIndex().isComplete() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        TreeSearch.Query query = search.query(manager.getRoot(), "*report*.pdf", null, null, "file", 100);
+        assertEquals("index", query.getStrategy());
+        assertTrue(paths(query).containsAll(Set.of("/downloads/archive/200/summary-report.pdf",
+                "/downloads/archive/202/summary-report.pdf")));
+        
+        // Loading part of the tree hands its entries over to the live index
+        manager.resolve("/downloads/archive/201").addChild(new File("late-report.pdf", 5));
+        assertEquals(Set.of("/downloads/archive/200/summary-report.pdf", "/downloads/archive/201/summary-report.pdf",
+                        "/downloads/archive/201/late-report.pdf", "/downloads/archive/202/summary-report.pdf"),
+                paths(search.query(manager.resolve("/downloads/archive"), "*report*.pdf", null, null, "any", 100)));
+        assertEquals(3, paths(search.query(manager.resolve("/downloads/archive"), "*report*.pdf", null, 11L, "file", 100)).size());
+    }
+    
+    @Test
+    void testIndexedSearch_IsOnlyUsedWhenCheaperThanTheSubtree() {
+        Directory small = manager.resolve("/documents/personal");
+        for (int i = 0; i < 5; i++) {
+            manager.resolve("/projects").addChild(new File("config" + i + ".yml", 1));
+        }
+        small.addChild(new File("config0.yml", 1));
+        assertEquals("scan", search.query(small, "config*.yml", null, null, "any", 100).getStrategy());
+        assertEquals("index", search.query(manager.getRoot(), "config*.yml", null, null, "any", 100).getStrategy());
+        assertEquals(Set.of("/documents/personal/config0.yml"),
+                paths(search.query(small, "config*.yml", null, null, "any", 100)));
+    }
+    
+    @Test
+    void testScan_HandlesUnindexablePredicatesAndLimit() {
+        TreeSearch.Query query = search.query(manager.getRoot(), "*", 3000L, null, "file", 100);
+        assertEquals("scan", query.getStrategy());
+        assertEquals(Set.of("/documents/work/report2.pdf", "/documents/work/reports/annual-report.pdf",
+                "/downloads/images/photos/vacation.jpg", "/downloads/images/photos/family.jpg"), paths(query));
+        
+        assertEquals(Set.of("/documents/work", "/documents/personal", "/documents/work/reports",
+                "/documents/work/invoices"), paths(search.query(manager.resolve("/documents"), "*", null, null, "directory", 100)));
+        assertEquals(3, paths(search.query(manager.getRoot(), "*", null, null, "any", 3)).size());
+        assertEquals(paths(search.query(manager.getRoot(), "*.java", null, null, "any", 100)),
+                paths(search.query(manager.getRoot(), "*.[j]ava", null, null, "any", 100)));
+    }
+    
+    @Test
+    void testInvalidQueries_AreRejected() {
+        Directory root = manager.getRoot();
+        assertThrows(IllegalArgumentException.class, () -> search.query(root, "a/b", null, null, "any", 10));
+        assertThrows(IllegalArgumentException.class, () -> search.query(root, "[abc", null, null, "any", 10));
+        assertThrows(IllegalArgumentException.class, () -> search.query(root, "*", 10L, 5L, "any", 10));
+        assertThrows(IllegalArgumentException.class, () -> search.query(root, "*", null, null, "link", 10));
+        assertThrows(IllegalArgumentException.class, () -> search.query(root, "*", null, null, "any", 0));
+    }
+    
+    @Test
+    void testGlob_MatchingAndTrigrams() {
+        Glob glob = Glob.compile("rep?rt-*.pdf");
+        assertTrue(glob.matches("report-1.pdf"));
+        assertFalse(glob.matches("report-1.pdf.bak"));
+        assertEquals(new TreeSet<>(List.of("rep", "rt-", ".pd", "pdf")), new TreeSet<>(glob.getTrigrams()));
+        assertEquals("a*b", Glob.compile("a\\*b").getLiteral());
+        assertTrue(Glob.compile("[!a]x").matches("bx"));
+        assertFalse(Glob.compile("[!a]x").matches("ax"));
+    }
+    
+    private static Set<String> paths(TreeSearch.Query query) {
+        List<String> paths = new ArrayList<>();
+        query.run(match -> paths.add(match.getPath()));
+        Set<String> unique = new TreeSet<>(paths);
+        assertEquals(paths.size(), unique.size());
+        return unique;
+    }
+}